@@ -86,9 +86,6 @@ public class OctoBox implements CollisionGeom {
 	 */
 	private boolean[][] aligned = new boolean[2][3];
 
-	private Vector3i minSearch = new Vector3iDefault();
-	private Vector3i maxSearch = new Vector3iDefault();
-	private Vector3i search = new Vector3iDefault();
 	private Vector3i nextBoundaries = new Vector3iDefault();
 	
 	private NextCollisionReceiver r = new NextCollisionReceiver();
@@ -219,36 +216,20 @@ public class OctoBox implements CollisionGeom {
 	 */
 	private boolean scanInPlane(int axis, int position) {
 		//Check for collision of the leading box plane with the cube grid contents
-		//on the far side of the unit plane we are passing through
-		for (int i = 0; i < 3; i++) {
-			if (i == axis) {
-				//In the axis we are checking, we just search a single
-				//value
-				minSearch.set(i, position);
-				maxSearch.set(i, position);
-			} else {
-				//In the other axes, we indices given by current integer bounds
-				minSearch.set(i, bounds[0][i]);
-				//Note conversion from boundaries to cube indices - the 
-				//nth cube goes up to the (n+1)th boundary, so we subtract one
-				maxSearch.set(i, bounds[1][i] - 1);	
-			}
-		}
+		//on the far side of the unit plane we are passing through.
+		//In the axis we are checking, we just search a single
+		//value. In the other axes, we use indices given by current integer bounds.
+		//Note conversion from boundaries to cube indices - the 
+		//nth cube goes up to the (n+1)th boundary, so we subtract one
+		int minX = axis == 0 ? position : bounds[0][0];
+		int minY = axis == 1 ? position : bounds[0][1];
+		int minZ = axis == 2 ? position : bounds[0][2];
+		int maxX = axis == 0 ? position : bounds[1][0] - 1;
+		int maxY = axis == 1 ? position : bounds[1][1] - 1;
+		int maxZ = axis == 2 ? position : bounds[1][2] - 1;
 		
 		//Search for cubes
-		boolean collided = false;
-		for (int x = minSearch.getX(); x <= maxSearch.getX(); x++) {
-			for (int y = minSearch.getY(); y <= maxSearch.getY(); y++) {
-				for (int z = minSearch.getZ(); z <= maxSearch.getZ(); z++) {
-					search.set(x, y, z);
-					if (grid.getPresence(search)) {
-						collided = true;
-					}
-				}
-			}
-		}
-		
-		return collided;
+		return grid.anyPresent(minX, minY, minZ, maxX, maxY, maxZ);
 	}
 	
 	public void slide(Vector3f velocity, float maxTime, CollisionReceiver receiver) {
@@ -332,33 +313,7 @@ public class OctoBox implements CollisionGeom {
 			
 			//Check for collision of the leading box plane with the cube grid contents
 			//on the far side of the unit plane we are passing through
-			for (int i = 0; i < 3; i++) {
-				if (i == minAxis) {
-					//In the axis we are checking, we just search a single
-					//value
-					minSearch.set(i, collisionPlaneCubeIndex);
-					maxSearch.set(i, collisionPlaneCubeIndex);
-				} else {
-					//In the other axes, we indices given by current integer bounds
-					minSearch.set(i, bounds[0][i]);
-					//Note conversion from boundaries to cube indices - the 
-					//nth cube goes up to the (n+1)th boundary, so we subtract one
-					maxSearch.set(i, bounds[1][i] - 1);	
-				}
-			}
-			
-			//Search for cubes
-			boolean collided = false;
-			for (int x = minSearch.getX(); x <= maxSearch.getX(); x++) {
-				for (int y = minSearch.getY(); y <= maxSearch.getY(); y++) {
-					for (int z = minSearch.getZ(); z <= maxSearch.getZ(); z++) {
-						search.set(x, y, z);
-						if (grid.getPresence(search)) {
-							collided = true;
-						}
-					}
-				}
-			}
+			boolean collided = scanInPlane(minAxis, collisionPlaneCubeIndex);
 			if (collided) {
 				
 				//We are now touching and aligned on the collided bounds
@@ -88,11 +88,6 @@ public class OctoPoint implements CollisionGeom {
 	 */
 	private Vector3i nextBoundaries = new Vector3iDefault();
 
-	/**
-	 * Temp position of the cube we will search
-	 */
-	private Vector3i searchPosition = new Vector3iDefault();
-
 	/**
 	 * {@link CollisionReceiver} used in {@link #slideAlong(Vector3f, float)}
 	 */
@@ -162,6 +157,23 @@ public class OctoPoint implements CollisionGeom {
 	}
 
 
+	/**
+	 * Check presence at our integer position, with the coord
+	 * on one axis replaced
+	 * @param axis
+	 * 		The axis to replace
+	 * @param coord
+	 * 		The coord to use on that axis
+	 * @return
+	 * 		True iff there is presence at the position
+	 */
+	private boolean presenceAcross(int axis, int coord) {
+		int x = axis == 0 ? coord : iPosition.getX();
+		int y = axis == 1 ? coord : iPosition.getY();
+		int z = axis == 2 ? coord : iPosition.getZ();
+		return grid.getPresence(x, y, z);
+	}
+
 	//Call only when heading is correct
 	private void moveAndUpdate(Vector3f velocity, float time) {
 		
@@ -215,12 +227,9 @@ public class OctoPoint implements CollisionGeom {
 						boundary++;
 					}
 					
-					//Work out cube grid position to check
-					searchPosition.set(iPosition);
-					searchPosition.set(j, boundary);
-					
-					//Now scan on that position - iff there is a cube we are touching
-					touching[direction][j] = grid.getPresence(searchPosition);
+					//Now scan on the cube grid position across the boundary - 
+					//iff there is a cube we are touching
+					touching[direction][j] = presenceAcross(j, boundary);
 				}
 			}
 		}		
@@ -307,12 +316,8 @@ public class OctoPoint implements CollisionGeom {
 			//of cubes on the far side of the unit plane we are passing through
 			int collisionPlaneCubeIndex = iPosition.get(minAxis) + headingMinAxis;
 			
-			//Work out the cube position we might collide with
-			searchPosition.set(iPosition);
-			searchPosition.set(minAxis, collisionPlaneCubeIndex);
-			
-			//Check for cube
-			boolean collided = grid.getPresence(searchPosition);
+			//Check for cube at the position we might collide with
+			boolean collided = presenceAcross(minAxis, collisionPlaneCubeIndex);
 			
 			if (collided) {
 				
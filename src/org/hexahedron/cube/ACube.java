@@ -1,17 +1,19 @@
 package org.hexahedron.cube;
 
+import com.jme3.scene.Node;
+
 /**
  * A cube designed to manage (in addition to any other children)
  * 6 special {@link AFace} children, indexed by the standard
  * face direction indexing
  */
-public class ACube extends Octode {
+public class ACube extends Node {
 	
     /**
      * Default constructor.
      */
 	public ACube() {
-		super("ACube", 0);
+		super("ACube");
 	}
 
     /**
@@ -23,42 +25,7 @@ public class ACube extends Octode {
      *            identification and comparison purposes.
      */
 	public ACube(String name) {
-		super(name, 0);
-	}
-
-	@Override
-	public boolean isLeaf() {
-		return true;
-	}
-
-	@Override
-	public Octode getChild(int x, int y, int z, boolean create) {
-		throw new IllegalArgumentException();
-	}
-
-	@Override
-	public Octode getChild(int x, int y, int z) {
-		throw new IllegalArgumentException();
-	}
-
-	@Override
-	public ACube getLeaf(int x, int y, int z, boolean create) {
-		throw new IllegalArgumentException();
-	}
-
-	@Override
-	public ACube getLeaf(int x, int y, int z) {
-		throw new IllegalArgumentException();
-	}
-
-	@Override
-	public int getLevel() {
-		return 0;
-	}
-
-	@Override
-	public void setLeaf(int x, int y, int z, ACube leaf) {
-		throw new IllegalArgumentException();
+		super(name);
 	}
 
 	/**
@@ -23,8 +23,6 @@
 
 package org.hexahedron.cube;
 
-import java.nio.FloatBuffer;
-
 import org.hexahedron.geom.Vector3i;
 import org.hexahedron.geom.Vector3iDefault;
 import org.hexahedron.occlusion.Transform;
@@ -36,7 +34,6 @@ import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 import com.jme3.texture.Texture;
 import com.jme3.texture.Texture.WrapMode;
-import com.jme3.util.BufferUtils;
 
 /**
  * <code>AFace</code> forms one face of a cube with the correct geometry and methods to
@@ -318,15 +315,6 @@ public class AFace extends Geometry {
 		faceUVs[4].addLocal(uvCorner);
 	}
 
-	final static FloatBuffer[] transformedUVBuffers = new FloatBuffer[8]; 
-	static {
-		for (int i = 0; i < 8; i++) {
-			BufferUtils.createVector2Buffer(4 * 3);
-			
-			
-		}
-	}
-	
 	/**
 	 * How the tris of the visible faces are indexed, when looking
 	 * at a cube along the (1, 1, 1) axis.
@@ -505,14 +493,26 @@ public class AFace extends Geometry {
 	}
 	
 	/**
-	 * Set the UV positions to apply a transform to the display
-	 * of the occlusion texture on the face
+	 * Set the UV positions to display an occlusion texture from the
+	 * atlas on the face, with a transform
+	 * @param index
+	 * 		The index of the occlusion texture
 	 * @param transform
 	 * 		The transform required for the occlusion texture
 	 */
-	public void setUVTransform(Transform transform){
-		faceMesh.setUVTransform(transform);
-		//FIXME any methods we need to call to update after changing tex coords?
+	public void setUVTransform(int index, Transform transform){
+		faceMesh.setUVTransform(index, transform);
+	}
+
+	/**
+	 * Show occlusion by darkening the vertex colours of the face,
+	 * instead of with an occlusion texture
+	 * @param mask
+	 * 		The occlusion bitmask, with bit i set when there is a
+	 * 		cube in 2D direction i
+	 */
+	public void setVertexOcclusion(int mask) {
+		faceMesh.setVertexOcclusion(mask);
 	}
 	
 }
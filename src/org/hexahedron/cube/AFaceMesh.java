@@ -23,16 +23,24 @@
 
 package org.hexahedron.cube;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 
+import org.hexahedron.occlusion.OcclusionTextures;
 import org.hexahedron.occlusion.Transform;
+import org.hexahedron.occlusion.VertexOcclusion;
 
 import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.VertexBuffer.Usage;
 import com.jme3.util.BufferUtils;
 
 /**
@@ -104,22 +112,40 @@ import com.jme3.util.BufferUtils;
  */
 public class AFaceMesh extends Mesh {
 
+	/**
+	 * The color of faces before they are shaded
+	 */
+	public final static ColorRGBA DEFAULT_COLOR = new ColorRGBA(244f/255f, 236f/255f, 222f/255f, 1f);
+
 	/**
 	 * The index of this face within a cube
 	 */
 	private final int face;
 
-	//FIXME can we share some of this? E.g. every face with the same index has the
-	//same positionBuffer and normalBuffer, every face has the same indexBuffer,
-	//I think every face has the same tex2Buffer, and every face with the same
-	//UV transformation has the same tex1Buffer? cbufs probably need to be separate.
-	//Buffers for mesh data
-	private final FloatBuffer positionBuffer;
-	private final FloatBuffer normalBuffer;
-	private final IntBuffer indexBuffer;
-	private final FloatBuffer tex1Buffer;
-	private final FloatBuffer tex2Buffer;
-	private final FloatBuffer cbuf;
+	/**
+	 * The number of vertices in a face - 4 entirely separate tris,
+	 * with 3 vertices each
+	 */
+	private final static int VERTEX_COUNT = 4 * 3;
+
+	//Buffers that are the same for every face with the same index (positions
+	//and normals), or for every face (indices and colour map UVs), are shared
+	//between all faces, as are the occlusion UVs for each combination of
+	//occlusion texture and transform. Shared buffers are never changed.
+	//Only the colours are separate for each face.
+	//Colour map UVs are in TexCoord, occlusion UVs in TexCoord2.
+	private final static VertexBuffer[] positionBuffers = new VertexBuffer[6];
+	private final static VertexBuffer[] normalBuffers = new VertexBuffer[6];
+	private final static VertexBuffer indexBuffer;
+	private final static VertexBuffer uvBuffer;
+	private final static VertexBuffer[][] occlusionUVBuffers = new VertexBuffer[OcclusionTextures.COUNT][8];
+
+	private final ByteBuffer cbuf;
+
+	//The colour of each tri as r,g,b,a, and the brightness of each
+	//vertex from baked occlusion, which multiplies the tri colour
+	private final float[] triColors = new float[4 * 4];
+	private final float[] brightness = new float[VERTEX_COUNT];
 	
 	/**
 	 * The order in which the verts are used in each tri of the
@@ -148,42 +174,24 @@ public class AFaceMesh extends Mesh {
 	public AFaceMesh(int face) {
 		this.face = face;
 		
-        //Face has 4 entirely separate tris, with 3 vertices each
-		int vertexCount = 4 * 3;
-		
-		//We need enough vertices in the buffer
-		positionBuffer = BufferUtils.createVector3Buffer(vertexCount);
-		setBuffer(Type.Position, 3, positionBuffer);
-				
-		//One normal per vertex
-		normalBuffer = BufferUtils.createVector3Buffer(vertexCount);
-		setBuffer(Type.Normal, 3, normalBuffer);
-	
-		//One UV position per vertex, in the first two tex coords
-		tex1Buffer = BufferUtils.createVector2Buffer(vertexCount);
-		setBuffer(Type.TexCoord, 2, tex1Buffer);
-		
-		tex2Buffer = BufferUtils.createVector2Buffer(vertexCount);
-		setBuffer(Type.TexCoord2, 2, tex2Buffer);
-
-	    //Each vertex is only used once, so one index per vertex
-		indexBuffer = BufferUtils.createIntBuffer(vertexCount);
-	    setBuffer(Type.Index, 3, indexBuffer);
-
-	    //Set up the indices first - we just run through the verts in order, since
-	    //there are no shared verts, and verts are added in the order they are used in triangles
-	    for (int i = 0; i < vertexCount; i++) {
-			indexBuffer.put(i, i);
-	    }
+		setBuffer(positionBuffers[face]);
+		setBuffer(normalBuffers[face]);
+		setBuffer(indexBuffer);
+		setBuffer(uvBuffer);
+
+		//Show the first occlusion texture until a transform is set
+		setBuffer(occlusionUVBuffers[0][0]);
+		Arrays.fill(brightness, 1f);
 	    
-	    cbuf = BufferUtils.createFloatBuffer(4 * getVertexCount());
-	    setBuffer(Type.Color, 4, cbuf);
+	    //Colours are stored as normalized bytes
+	    cbuf = BufferUtils.createByteBuffer(4 * VERTEX_COUNT);
+	    VertexBuffer colorBuffer = new VertexBuffer(Type.Color);
+	    colorBuffer.setupData(Usage.Dynamic, 4, Format.UnsignedByte, cbuf);
+	    colorBuffer.setNormalized(true);
+	    setBuffer(colorBuffer);
 	    
-	    setFaceColor(new ColorRGBA(244f/255f, 236f/255f, 222f/255f, 1f));
+	    setFaceColor(DEFAULT_COLOR);
 
-	    //Set up each face in turn, this also fills out faceLocalAxes
-	    buildCubeFace(face);
-	    
 	    updateBound();
 	}
 
@@ -196,49 +204,70 @@ public class AFaceMesh extends Mesh {
 		return face;
 	}
 
-	/**
-	 * Add a face to the triangle and UV buffers
-	 * 	@param face
-	 * 		The direction of face to add
-	 */
-	private void buildCubeFace(int face) {
+	static {
+		for (int face = 0; face < 6; face++) {
+			FloatBuffer positions = BufferUtils.createVector3Buffer(VERTEX_COUNT);
+			FloatBuffer normals = BufferUtils.createVector3Buffer(VERTEX_COUNT);
+			Vector3f normal = AFace.faceLocalAxes[face][AFace.FACE_LOCAL_NORMAL];
+			for (int i = 0; i < 4; i++) {
+				for (int j = 0; j < 3; j++) {
+					Vector3f faceVert = AFace.faceVerts[face][vertOrder[i][j]];
+					positions.put(faceVert.x).put(faceVert.y).put(faceVert.z);
+					normals.put(normal.x).put(normal.y).put(normal.z);
+				}
+			}
+			positionBuffers[face] = sharedBuffer(Type.Position, 3, positions);
+			normalBuffers[face] = sharedBuffer(Type.Normal, 3, normals);
+		}
+
+		//There are no shared verts, and verts are added in the order they 
+		//are used in triangles, so we just run through the verts in order
+		IntBuffer indices = BufferUtils.createIntBuffer(VERTEX_COUNT);
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			indices.put(i, i);
+		}
+		indexBuffer = new VertexBuffer(Type.Index);
+		indexBuffer.setupData(Usage.Static, 3, Format.UnsignedInt, indices);
 
-		//Build each Tri
+		FloatBuffer uvs = BufferUtils.createVector2Buffer(VERTEX_COUNT);
 		for (int i = 0; i < 4; i++) {
-			buildTri(face, i);			
+			for (int j = 0; j < 3; j++) {
+				Vector2f faceUV = AFace.faceUVs[vertOrder[i][j]];
+				uvs.put(faceUV.x).put(faceUV.y);
+			}
 		}
+		uvBuffer = sharedBuffer(Type.TexCoord, 2, uvs);
 
+		Vector2f uv = new Vector2f();
+		for (int index = 0; index < OcclusionTextures.COUNT; index++) {
+			for (Transform transform : Transform.allTransforms()) {
+				FloatBuffer occlusionUVs = BufferUtils.createVector2Buffer(VERTEX_COUNT);
+				for (int i = 0; i < 4; i++) {
+					for (int j = 0; j < 3; j++) {
+						occlusionUV(vertOrder[i][j], index, transform, uv);
+						occlusionUVs.put(uv.x).put(uv.y);
+					}
+				}
+				occlusionUVBuffers[index][transformIndex(transform)] = sharedBuffer(Type.TexCoord2, 2, occlusionUVs);
+			}
+		}
 	}
-	
+
 	/**
-	 * Put entries in the vertex and normal buffers of the batch (at current position)
-	 * in order to build a tri according to the current contents of faceVerts
-	 * @param face
-	 * 		The cube face being built
-	 * @param i
-	 * 		The tri being built
+	 * Make a buffer to be shared between faces
 	 */
-	private void buildTri(int face, int i) {
-		
-		Vector3f normal = AFace.faceLocalAxes[face][2];
+	private static VertexBuffer sharedBuffer(Type type, int components, FloatBuffer data) {
+		data.rewind();
+		VertexBuffer buffer = new VertexBuffer(type);
+		buffer.setupData(Usage.Static, components, Format.Float, data);
+		return buffer;
+	}
 
-		for (int j = 0; j < 3; j++) {
-			
-			//The index we use into the faceVerts and faceUVs arrays 
-			int vertIndex = vertOrder[i][j];
-			
-			//Get the vert position from faceVerts array
-			Vector3f faceVert = AFace.faceVerts[face][vertIndex];
-			positionBuffer.put(faceVert.x).put(faceVert.y).put(faceVert.z);
-			
-			//Get the UV positions from faceUVs array
-			Vector2f faceUV = AFace.faceUVs[vertIndex]; 
-			tex1Buffer.put(faceUV.x).put(faceUV.y);
-			tex2Buffer.put(faceUV.x).put(faceUV.y);
-			
-			//Put the normal directly as specified
-			normalBuffer.put(normal.x).put(normal.y).put(normal.z);
-		}		
+	/**
+	 * The index of a transform in the order of {@link Transform#allTransforms()}
+	 */
+	private static int transformIndex(Transform transform) {
+		return (transform.getFlip() ? 4 : 0) + transform.getRotate();
 	}
 	
 	/**
@@ -249,24 +278,46 @@ public class AFaceMesh extends Mesh {
 	 * 		The color
 	 */
 	public void setTriColor(int tri, ColorRGBA color) {
-		//There are 4 floats per vertex, and 3 vertices per tri
-		cbuf.position(4 * 3 * tri);
-		
-		//Put the color into each of the three vertices, as r,g,b,a
-		cbuf.put(color.r);
-		cbuf.put(color.g);
-		cbuf.put(color.b);
-		cbuf.put(color.a);
+		triColors[tri * 4] = color.r;
+		triColors[tri * 4 + 1] = color.g;
+		triColors[tri * 4 + 2] = color.b;
+		triColors[tri * 4 + 3] = color.a;
+		putTriColor(tri);
 		
-		cbuf.put(color.r);
-		cbuf.put(color.g);
-		cbuf.put(color.b);
-		cbuf.put(color.a);
+		//Make sure the new colors are sent to the renderer
+		getBuffer(Type.Color).setUpdateNeeded();
+	}
+
+	/**
+	 * Write the colour of a tri to the colour buffer, scaled by the
+	 * brightness of each vertex
+	 */
+	private void putTriColor(int tri) {
+		//There are 4 bytes per vertex, and 3 vertices per tri
+		cbuf.position(4 * 3 * tri);
 		
-		cbuf.put(color.r);
-		cbuf.put(color.g);
-		cbuf.put(color.b);
-		cbuf.put(color.a);
+		//Put the color into each of the three vertices, as r,g,b,a. 
+		//Occlusion darkens the colour, but not the alpha
+		for (int i = 0; i < 3; i++) {
+			float v = brightness[tri * 3 + i];
+			cbuf.put(unorm8(triColors[tri * 4] * v));
+			cbuf.put(unorm8(triColors[tri * 4 + 1] * v));
+			cbuf.put(unorm8(triColors[tri * 4 + 2] * v));
+			cbuf.put(unorm8(triColors[tri * 4 + 3]));
+		}
+		cbuf.rewind();
+	}
+
+	/**
+	 * Convert a colour component to a normalized unsigned byte. Colours 
+	 * from shading can go above 1, but the renderer clamps the result anyway.
+	 * @param f
+	 * 		The component
+	 * @return
+	 * 		The byte, from 0 for 0 to 255 (as -1) for 1
+	 */
+	static byte unorm8(float f) {
+		return (byte)Math.round(FastMath.clamp(f, 0, 1) * 0xFF);
 	}
 
 	/**
@@ -283,54 +334,106 @@ public class AFaceMesh extends Mesh {
 
 
 	/**
-	 * Set the UV positions to apply a transform to the display
-	 * of the occlusion texture on the face
+	 * Set the UV positions to display an occlusion texture from the
+	 * atlas on the face, with a transform
+	 * @param index
+	 * 		The index of the occlusion texture
 	 * @param transform
 	 * 		The transform required for the occlusion texture
 	 */
-	public void setUVTransform(Transform transform){
-		tex1Buffer.rewind();
+	public void setUVTransform(int index, Transform transform){
+		//Swap to the shared buffer for this texture and transform
+		clearBuffer(Type.TexCoord2);
+		setBuffer(occlusionUVBuffers[index][transformIndex(transform)]);
+		setBrightness(-1);
+	}
+
+	/**
+	 * Show occlusion by darkening the vertex colours of the face, 
+	 * instead of with an occlusion texture. The face then has no
+	 * occlusion UVs, and should be shown without a light map.
+	 * @param mask
+	 * 		The occlusion bitmask, with bit i set when there is a
+	 * 		cube in 2D direction i, see {@link VertexOcclusion}
+	 */
+	public void setVertexOcclusion(int mask) {
+		clearBuffer(Type.TexCoord2);
+		setBrightness(mask);
+	}
+
+	/**
+	 * Set the brightness of each vertex and rewrite the colours
+	 * @param mask
+	 * 		The occlusion bitmask, or -1 for full brightness
+	 */
+	private void setBrightness(int mask) {
 		for (int i = 0; i < 4; i++) {
 			for (int j = 0; j < 3; j++) {
-				
-				//The index we use into the faceUVs array, given no 
-				//transform
-				int vertIndex = vertOrder[i][j];
-
-				//Now work out where we would be if transformed
-				
-				//Index 4 is never moved, since it is at the center
-				//of the face
-				if (vertIndex != 4) {
-					
-					//Flip vertically
-					if (transform.getFlip()) {
-						if (vertIndex == 0) {
-							vertIndex = 1;
-						} else if (vertIndex == 1) {
-							vertIndex = 0;
-						} else if (vertIndex == 2) {
-							vertIndex = 3;
-						} else { // 3
-							vertIndex = 2;
-						}
-					}
-					
-					//Rotate mod 4
-					//Use negative rotation since we are rotating the positions,
-					//so the image rotates the other way, unless we are flipped,
-					//in which case go the other way
-					int r = transform.getRotate();
-					if (transform.getFlip()) r = -r;
-					vertIndex = (vertIndex - r) % 4;
-					if (vertIndex < 0) vertIndex += 4;
+				brightness[i * 3 + j] = mask < 0 ? 1f : VertexOcclusion.brightness(mask, vertOrder[i][j]);
+			}
+			putTriColor(i);
+		}
+		getBuffer(Type.Color).setUpdateNeeded();
+	}
+
+	/**
+	 * The UV in the occlusion texture atlas of a vertex of the face,
+	 * displaying an occlusion texture with a transform
+	 * @param vertIndex
+	 * 		The index of the vertex within the face, as used in {@link #vertOrder}
+	 * @param index
+	 * 		The index of the occlusion texture
+	 * @param transform
+	 * 		The transform required for the occlusion texture
+	 * @param store
+	 * 		The vector to store the UV in
+	 * @return
+	 * 		store
+	 */
+	static Vector2f occlusionUV(int vertIndex, int index, Transform transform, Vector2f store) {
+		//Transform within the tile, then find the tile in the atlas
+		Vector2f faceUV = AFace.faceUVs[transformedVertIndex(vertIndex, transform)];
+		return OcclusionTextures.tileUV(index, faceUV, store);
+	}
+
+	/**
+	 * The index into {@link AFace#faceUVs} to use for a vertex of the
+	 * face, so that the occlusion texture is displayed with a transform
+	 * @param vertIndex
+	 * 		The index of the vertex within the face, as used in {@link #vertOrder}
+	 * @param transform
+	 * 		The transform required for the occlusion texture
+	 * @return
+	 * 		The transformed index
+	 */
+	static int transformedVertIndex(int vertIndex, Transform transform) {
+		//Index 4 is never moved, since it is at the center
+		//of the face
+		if (vertIndex != 4) {
+			
+			//Flip vertically
+			if (transform.getFlip()) {
+				if (vertIndex == 0) {
+					vertIndex = 1;
+				} else if (vertIndex == 1) {
+					vertIndex = 0;
+				} else if (vertIndex == 2) {
+					vertIndex = 3;
+				} else { // 3
+					vertIndex = 2;
 				}
-				
-				//Get the UV positions from faceUVs array
-				Vector2f faceUV = AFace.faceUVs[vertIndex]; 
-				tex1Buffer.put(faceUV.x).put(faceUV.y);				
 			}
+			
+			//Rotate mod 4
+			//Use negative rotation since we are rotating the positions,
+			//so the image rotates the other way, unless we are flipped,
+			//in which case go the other way
+			int r = transform.getRotate();
+			if (transform.getFlip()) r = -r;
+			vertIndex = (vertIndex - r) % 4;
+			if (vertIndex < 0) vertIndex += 4;
 		}
+		return vertIndex;
 	}
 	
 }
@@ -0,0 +1,77 @@
+package org.hexahedron.cube;
+
+import com.jme3.scene.Mesh;
+
+/**
+ * The faces of a chunk that share a material, merged into a
+ * single {@link Mesh} by a {@link ChunkMesher}
+ *
+ * Every vertex lies on a lattice of half cubes, so the mesh uses a
+ * packed vertex format rather than floats:
+ * 
+ * Position		3 unsigned bytes, in half cubes from the chunk origin (see {@link #POSITION_SCALE})
+ * Normal		3 normalized signed bytes
+ * TexCoord		2 half floats, the UV in the colour map (which repeats)
+ * TexCoord2	2 normalized unsigned shorts, the UV in the occlusion atlas
+ * Color		4 normalized unsigned bytes, clamped to 0 to 1
+ * 
+ * This is 18 bytes per vertex rather than 56, and indices are unsigned 
+ * shorts unless there are too many vertices. With {@link OcclusionMode#VERTICES}
+ * occlusion is in the colours and there is no TexCoord2, leaving 14 bytes.
+ */
+public class ChunkBatch {
+
+	/**
+	 * The size of a unit of mesh position, in cubes. Geometries
+	 * using the mesh must be scaled by this.
+	 */
+	public final static float POSITION_SCALE = 0.5f;
+
+	private final int material;
+	private final int faceCount;
+	private final Mesh mesh;
+
+	/**
+	 * Create a {@link ChunkBatch}
+	 * @param material
+	 * 		The material id of the faces
+	 * @param faceCount
+	 * 		The number of faces in the mesh
+	 * @param mesh
+	 * 		The mesh
+	 */
+	public ChunkBatch(int material, int faceCount, Mesh mesh) {
+		this.material = material;
+		this.faceCount = faceCount;
+		this.mesh = mesh;
+	}
+
+	/**
+	 * The material id of every face in the batch
+	 * @return
+	 * 		material id
+	 */
+	public int getMaterial() {
+		return material;
+	}
+
+	/**
+	 * The number of cube faces merged into the mesh
+	 * @return
+	 * 		face count
+	 */
+	public int getFaceCount() {
+		return faceCount;
+	}
+
+	/**
+	 * The merged mesh, with positions relative to the 
+	 * minimum corner of the chunk, in units of {@link #POSITION_SCALE}
+	 * @return
+	 * 		mesh
+	 */
+	public Mesh getMesh() {
+		return mesh;
+	}
+
+}
@@ -0,0 +1,450 @@
+package org.hexahedron.cube;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hexahedron.util.LongHashMap;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.util.BufferUtils;
+
+/**
+ * A persistent cache of the {@link ChunkBatch}es meshed for chunks, so
+ * that a grid can be shown again without meshing it again, see
+ * {@link CubeGrid#setMeshCache(ChunkMeshCache)}.
+ *
+ * Meshes are keyed by a hash of everything they depend on, from
+ * {@link ChunkMesher} - the visible cubes of the chunk with their
+ * neighbourhoods (so presence in the chunk and the positions around it),
+ * materials and shading, and the meshing settings. Chunks with the same
+ * contents share an entry, and a chunk whose contents have changed just
+ * misses the cache, and is meshed again when it is next meshed.
+ *
+ * The cache is stored in a single file, which is memory-mapped read only
+ * when the cache is opened, so only the entries used are read from disk,
+ * and a cache file that can't be written can still be loaded. Vertex data
+ * is stored in exactly the packed format described by {@link ChunkBatch},
+ * so it is not decoded, but since jME needs writable buffers each mesh is
+ * copied out of the mapping into direct buffers when it is used. Like
+ * {@link org.hexahedron.grid.MappedPresenceGrid}, data is stored
+ * little-endian. A file that is missing, or was written with a different
+ * format, is ignored.
+ *
+ * Note that a hit still needs the chunk's contents, and so the hash, which
+ * {@link ChunkMesher} works out from the cubes, faces and shading of the
+ * grid. The cache saves building the vertices, not building the cubes.
+ *
+ * New meshes are kept in memory until {@link #save()}, which writes every
+ * entry used since the cache was opened (entries no longer used are
+ * dropped) to a new file, then replaces the old one.
+ *
+ * The cache can be used from several meshing threads at once.
+ */
+public class ChunkMeshCache {
+
+	/**
+	 * "HXMC", at the start of every file
+	 */
+	private final static int MAGIC = 0x434D5848;
+
+	/**
+	 * Changed whenever the layout of the file or the meshes changes,
+	 * so that old files are ignored
+	 */
+	private final static int VERSION = 1;
+
+	/**
+	 * Bytes in the header, before the index
+	 */
+	private final static int HEADER_BYTES = 12;
+
+	/**
+	 * Bytes in each index entry - hash, offset and length
+	 */
+	private final static int INDEX_BYTES = 16;
+
+	private final File file;
+
+	/**
+	 * The mapped file, or null if there was no usable file
+	 */
+	private ByteBuffer mapped = null;
+
+	/**
+	 * Entries in the mapped file, as (offset << 32) | length, by hash
+	 */
+	private final LongHashMap<Long> entries = new LongHashMap<Long>();
+
+	/**
+	 * Meshes added since the cache was opened, by hash
+	 */
+	private final LongHashMap<List<ChunkBatch>> added = new LongHashMap<List<ChunkBatch>>();
+
+	/**
+	 * Hashes used since the cache was opened, which will be saved
+	 */
+	private final LongHashMap<Boolean> used = new LongHashMap<Boolean>();
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Open a {@link ChunkMeshCache}, stored in a file. If the file exists
+	 * and has the right format, its meshes are used, otherwise the cache
+	 * starts empty. Nothing is written until {@link #save()}.
+	 * @param file
+	 * 		The file to map
+	 * @throws IOException
+	 * 		If the file exists but cannot be read or mapped
+	 */
+	public ChunkMeshCache(File file) throws IOException {
+		this.file = file;
+		if (!file.isFile() || file.length() < HEADER_BYTES || file.length() > Integer.MAX_VALUE) return;
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			//The mapping stays valid after the file is closed
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return;
+
+			int count = buffer.getInt(8);
+			if (count < 0 || HEADER_BYTES + (long)count * INDEX_BYTES > buffer.capacity()) return;
+			for (int i = 0; i < count; i++) {
+				int index = HEADER_BYTES + i * INDEX_BYTES;
+				long hash = buffer.getLong(index);
+				int offset = buffer.getInt(index + 8);
+				int length = buffer.getInt(index + 12);
+				if (offset < 0 || length < 0 || (long)offset + length > buffer.capacity()) {
+					entries.clear();
+					return;
+				}
+				entries.put(hash, (((long)offset) << 32) | length);
+			}
+			mapped = buffer;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The meshes for a chunk, if cached
+	 * @param hash
+	 * 		The hash of the chunk's contents
+	 * @return
+	 * 		The cached batches, or null if there are none
+	 */
+	public synchronized List<ChunkBatch> get(long hash) {
+		List<ChunkBatch> batches = added.get(hash);
+		if (batches == null) {
+			Long entry = entries.get(hash);
+			if (entry != null) {
+				batches = read((int)(entry >>> 32), (int)(long)entry);
+			}
+		}
+		if (batches == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		used.put(hash, Boolean.TRUE);
+		return batches;
+	}
+
+	/**
+	 * Add the meshes for a chunk to the cache
+	 * @param hash
+	 * 		The hash of the chunk's contents
+	 * @param batches
+	 * 		The batches meshed for the chunk, which must not be changed afterwards
+	 */
+	public synchronized void put(long hash, List<ChunkBatch> batches) {
+		added.put(hash, batches);
+		used.put(hash, Boolean.TRUE);
+	}
+
+	/**
+	 * The number of lookups that found cached meshes
+	 * @return
+	 * 		Hits since the cache was opened
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * The number of lookups that found nothing, so the chunk was meshed
+	 * @return
+	 * 		Misses since the cache was opened
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The number of entries that will be written by {@link #save()}
+	 * @return
+	 * 		Entries used since the cache was opened
+	 */
+	public synchronized int size() {
+		return used.size();
+	}
+
+	/**
+	 * Write every entry used since the cache was opened to the file. This
+	 * writes to a temporary file next to it first, then replaces the file,
+	 * so a failed save leaves the old file intact. Entries already read
+	 * from the old file stay valid.
+	 *
+	 * On Windows a file can't be replaced or deleted while it is mapped,
+	 * and Java only unmaps a file when the mapping is garbage collected, so
+	 * saving over a file this cache loaded meshes from will usually fail
+	 * there, leaving the new cache in the temporary file. Saving works
+	 * when the cache started without a usable file.
+	 * @throws IOException
+	 * 		If the file cannot be written or replaced
+	 */
+	public synchronized void save() throws IOException {
+		int count = used.size();
+		long[] hashes = new long[count];
+		ByteBuffer[] data = new ByteBuffer[count];
+		int n = 0;
+		for (int c = 0; c < used.capacity(); c++) {
+			if (used.valueAt(c) == null) continue;
+			long hash = used.keyAt(c);
+			List<ChunkBatch> batches = added.get(hash);
+			if (batches != null) {
+				data[n] = write(batches);
+			} else {
+				//Copy entries from the old file as they are
+				long entry = entries.get(hash);
+				data[n] = slice((int)(entry >>> 32), (int)entry);
+			}
+			hashes[n++] = hash;
+		}
+
+		ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES + count * INDEX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		index.putInt(MAGIC).putInt(VERSION).putInt(count);
+		long offset = index.capacity();
+		for (int i = 0; i < count; i++) {
+			if (offset + data[i].remaining() > Integer.MAX_VALUE) {
+				throw new IOException("Mesh cache would be larger than 2GB");
+			}
+			index.putLong(hashes[i]).putInt((int)offset).putInt(data[i].remaining());
+			offset += data[i].remaining();
+		}
+		index.flip();
+
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			writeFully(channel, index);
+			for (ByteBuffer buffer : data) {
+				writeFully(channel, buffer);
+			}
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * A little-endian slice of the mapped file
+	 */
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer buffer = mapped.duplicate();
+		buffer.position(offset);
+		buffer.limit(offset + length);
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * Each entry is laid out as:
+	 *
+	 * int		batch count
+	 * for each batch:
+	 * 	int		material id
+	 * 	int		face count
+	 * 	float	x6, min and max of the mesh bound
+	 * 	int		buffer count
+	 * 	for each buffer:
+	 * 		int		type, format (as jME ordinals), components, normalized (0 or 1)
+	 * 		int		length of data in bytes
+	 * 		data, padded to a multiple of 4 bytes
+	 *
+	 * so that all data is aligned for its format.
+	 */
+
+	/**
+	 * Read the meshes of an entry, copying the buffers out of the mapped file
+	 */
+	private List<ChunkBatch> read(int offset, int length) {
+		ByteBuffer entry = slice(offset, length);
+		int batchCount = entry.getInt();
+		List<ChunkBatch> batches = new ArrayList<ChunkBatch>(batchCount);
+		for (int b = 0; b < batchCount; b++) {
+			int material = entry.getInt();
+			int faceCount = entry.getInt();
+			Vector3f min = new Vector3f(entry.getFloat(), entry.getFloat(), entry.getFloat());
+			Vector3f max = new Vector3f(entry.getFloat(), entry.getFloat(), entry.getFloat());
+			int bufferCount = entry.getInt();
+
+			Mesh mesh = new Mesh();
+			for (int i = 0; i < bufferCount; i++) {
+				Type type = Type.values()[entry.getInt()];
+				Format format = Format.values()[entry.getInt()];
+				int components = entry.getInt();
+				boolean normalized = entry.getInt() != 0;
+				int bytes = entry.getInt();
+
+				ByteBuffer data = entry.slice().order(ByteOrder.LITTLE_ENDIAN);
+				data.limit(bytes);
+				entry.position(entry.position() + padded(bytes));
+
+				VertexBuffer buffer = new VertexBuffer(type);
+				buffer.setupData(Usage.Static, components, format, copy(view(data, format)));
+				buffer.setNormalized(normalized);
+				mesh.setBuffer(buffer);
+			}
+
+			//Positions are not floats, so the mesh can't work out its own bound
+			mesh.setBound(new BoundingBox(min, max));
+			batches.add(new ChunkBatch(material, faceCount, mesh));
+		}
+		return batches;
+	}
+
+	/**
+	 * View bytes as the buffer type jME expects for a format
+	 */
+	private static Buffer view(ByteBuffer data, Format format) {
+		switch (format) {
+		case Byte:
+		case UnsignedByte:
+			return data;
+		case Short:
+		case UnsignedShort:
+		case Half:
+			return data.asShortBuffer();
+		case Int:
+		case UnsignedInt:
+			return data.asIntBuffer();
+		case Float:
+			return data.asFloatBuffer();
+		default:
+			throw new IllegalArgumentException("Can't cache buffers with format " + format);
+		}
+	}
+
+	/**
+	 * Copy a buffer into a new direct buffer, in native order
+	 */
+	private static Buffer copy(Buffer data) {
+		Buffer copy;
+		if (data instanceof ByteBuffer) {
+			copy = BufferUtils.createByteBuffer(data.remaining()).put((ByteBuffer)data);
+		} else if (data instanceof ShortBuffer) {
+			copy = BufferUtils.createShortBuffer(data.remaining()).put((ShortBuffer)data);
+		} else if (data instanceof IntBuffer) {
+			copy = BufferUtils.createIntBuffer(data.remaining()).put((IntBuffer)data);
+		} else {
+			copy = BufferUtils.createFloatBuffer(data.remaining()).put((FloatBuffer)data);
+		}
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * Write the meshes of a chunk as an entry
+	 */
+	private static ByteBuffer write(List<ChunkBatch> batches) {
+		int length = 4;
+		for (ChunkBatch batch : batches) {
+			length += 4 * 9;
+			for (VertexBuffer buffer : batch.getMesh().getBufferList()) {
+				length += 4 * 5 + padded(bytes(buffer));
+			}
+		}
+
+		ByteBuffer entry = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		entry.putInt(batches.size());
+		for (ChunkBatch batch : batches) {
+			Mesh mesh = batch.getMesh();
+			BoundingBox bound = (BoundingBox)mesh.getBound();
+			Vector3f min = bound.getMin(null);
+			Vector3f max = bound.getMax(null);
+			entry.putInt(batch.getMaterial());
+			entry.putInt(batch.getFaceCount());
+			entry.putFloat(min.x).putFloat(min.y).putFloat(min.z);
+			entry.putFloat(max.x).putFloat(max.y).putFloat(max.z);
+			entry.putInt(mesh.getBufferList().size());
+
+			for (VertexBuffer buffer : mesh.getBufferList()) {
+				int bytes = bytes(buffer);
+				entry.putInt(buffer.getBufferType().ordinal());
+				entry.putInt(buffer.getFormat().ordinal());
+				entry.putInt(buffer.getNumComponents());
+				entry.putInt(buffer.isNormalized() ? 1 : 0);
+				entry.putInt(bytes);
+
+				Buffer data = buffer.getData();
+				int count = data.limit();
+				if (data instanceof ByteBuffer) {
+					ByteBuffer b = (ByteBuffer)data;
+					for (int i = 0; i < count; i++) entry.put(b.get(i));
+				} else if (data instanceof ShortBuffer) {
+					ShortBuffer s = (ShortBuffer)data;
+					for (int i = 0; i < count; i++) entry.putShort(s.get(i));
+				} else if (data instanceof IntBuffer) {
+					IntBuffer ints = (IntBuffer)data;
+					for (int i = 0; i < count; i++) entry.putInt(ints.get(i));
+				} else if (data instanceof FloatBuffer) {
+					FloatBuffer f = (FloatBuffer)data;
+					for (int i = 0; i < count; i++) entry.putFloat(f.get(i));
+				} else {
+					throw new IllegalArgumentException("Can't cache " + buffer.getBufferType() + " buffer");
+				}
+				entry.position(entry.position() + padded(bytes) - bytes);
+			}
+		}
+		entry.flip();
+		return entry;
+	}
+
+	private static int bytes(VertexBuffer buffer) {
+		return buffer.getData().limit() * buffer.getFormat().getComponentSize();
+	}
+
+	private static int padded(int bytes) {
+		return (bytes + 3) & ~3;
+	}
+
+}
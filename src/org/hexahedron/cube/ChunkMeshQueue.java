@@ -0,0 +1,365 @@
+package org.hexahedron.cube;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.util.LongHashMap;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Camera.FrustumIntersect;
+import com.jme3.scene.Node;
+
+/**
+ * Meshes the chunks of a {@link CubeGrid} in the background, see
+ * {@link CubeGrid#setMeshExecutor(Executor)}.
+ *
+ * Chunks waiting to be meshed are kept as a set, so editing a chunk many
+ * times before it is meshed still only meshes it once. Only a limited number
+ * of chunks are meshed at once (see {@link #setMaxJobs(int)}), so a large
+ * edit doesn't fill the executor with work that later edits will make
+ * obsolete. Whenever there is room for more jobs, the waiting chunks that
+ * are in view of the camera (see {@link #setCamera(Camera)}) are meshed
+ * first, closest first, followed by the rest, again closest first.
+ *
+ * If a chunk is requested again while it is meshing, that job is cancelled -
+ * it is skipped if it has not started, and its result is never attached -
+ * and the chunk waits to be meshed again with the new contents.
+ *
+ * All methods must be called on the render thread. When a job starts, the
+ * contents of its chunk are read from the grid there, on the render thread
+ * (see {@link ChunkMesher#contents(int, int, int, int, int)}), so jobs on the
+ * executor never read the grid, and only build meshes from those contents.
+ * Edits after a job starts request the chunk again, as above.
+ */
+public class ChunkMeshQueue {
+
+	private final CubeGrid grid;
+	private final ChunkMesher mesher;
+
+	private Executor executor = null;
+	private int maxJobs = 2 * Runtime.getRuntime().availableProcessors();
+	private Camera camera = null;
+
+	/**
+	 * Chunks waiting to be meshed, with the time each was first requested,
+	 * from {@link System#nanoTime()}
+	 */
+	private final LongHashMap<Long> waiting = new LongHashMap<Long>();
+
+	/**
+	 * The latest job for each chunk that is meshing, removed when its
+	 * result is attached or it is cancelled
+	 */
+	private final LongHashMap<MeshJob> jobs = new LongHashMap<MeshJob>();
+
+	/**
+	 * The number of jobs given to the executor and not yet finished,
+	 * including cancelled ones
+	 */
+	private int running = 0;
+
+	/**
+	 * Finished jobs, waiting to be attached
+	 */
+	private final BlockingQueue<MeshJob> finished = new LinkedBlockingQueue<MeshJob>();
+
+	/**
+	 * Average time from requesting a chunk to attaching it, in seconds
+	 */
+	private float latency = 0;
+
+	/**
+	 * Weight of each newly attached chunk in the average latency
+	 */
+	private final static float LATENCY_WEIGHT = 0.05f;
+
+	//Reused when prioritising chunks
+	private final BoundingBox bound = new BoundingBox();
+	private final Vector3f center = new Vector3f();
+
+	/**
+	 * Meshing of one chunk, run on the executor
+	 */
+	private static class MeshJob implements Runnable {
+		private final long chunkKey;
+		private final ChunkMesher.Contents contents;
+		private final boolean greedy;
+		private final long requested;
+		private final BlockingQueue<MeshJob> finished;
+		private volatile boolean cancelled = false;
+
+		/**
+		 * The result, or null if cancelled or meshing failed
+		 */
+		private List<ChunkBatch> batches = null;
+
+		private MeshJob(long chunkKey, ChunkMesher.Contents contents, boolean greedy, long requested, BlockingQueue<MeshJob> finished) {
+			this.chunkKey = chunkKey;
+			this.contents = contents;
+			this.greedy = greedy;
+			this.requested = requested;
+			this.finished = finished;
+		}
+
+		public void run() {
+			//Always report back, even if meshing fails, so the job is not 
+			//left running. A failure is repeated on the render thread when 
+			//attaching, so the exception is thrown there.
+			try {
+				if (!cancelled) {
+					batches = ChunkMesher.meshContents(contents, greedy);
+				}
+			} catch (RuntimeException e) {
+				batches = null;
+			}
+			finished.add(this);
+		}
+	}
+
+	ChunkMeshQueue(CubeGrid grid, ChunkMesher mesher) {
+		this.grid = grid;
+		this.mesher = mesher;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set the executor that meshes chunks
+	 * @param executor
+	 * 		The executor, or null to mesh chunks immediately
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public int getMaxJobs() {
+		return maxJobs;
+	}
+
+	/**
+	 * Set the most chunks that can be meshing at once. Defaults to
+	 * twice the number of processors.
+	 * @param maxJobs
+	 * 		The maximum number of jobs, at least 1
+	 */
+	public void setMaxJobs(int maxJobs) {
+		if (maxJobs < 1) throw new IllegalArgumentException("Must allow at least one job");
+		this.maxJobs = maxJobs;
+	}
+
+	public Camera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * Set the camera used to choose which chunks to mesh first
+	 * @param camera
+	 * 		The camera, or null to mesh chunks in any order
+	 */
+	public void setCamera(Camera camera) {
+		this.camera = camera;
+	}
+
+	/**
+	 * The number of chunks waiting to be meshed
+	 * @return
+	 * 		Chunks waiting
+	 */
+	public int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * The number of chunks meshing, not counting cancelled jobs
+	 * @return
+	 * 		Chunks meshing
+	 */
+	public int getMeshing() {
+		return jobs.size();
+	}
+
+	/**
+	 * The total number of chunks waiting or meshing
+	 * @return
+	 * 		The depth of the queue
+	 */
+	public int getDepth() {
+		return waiting.size() + jobs.size();
+	}
+
+	/**
+	 * The average time from a chunk being requested to the new
+	 * mesh being attached, over recently attached chunks
+	 * @return
+	 * 		Latency in seconds
+	 */
+	public float getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Whether there are any chunks waiting or meshing
+	 * @return
+	 * 		True if meshing
+	 */
+	public boolean isMeshing() {
+		return getDepth() > 0;
+	}
+
+	/**
+	 * Request that a chunk is meshed, cancelling any job already meshing it
+	 */
+	void request(long chunkKey) {
+		long requested = System.nanoTime();
+		MeshJob job = jobs.remove(chunkKey);
+		if (job != null) {
+			job.cancelled = true;
+			requested = job.requested;
+		}
+		if (!waiting.containsKey(chunkKey)) {
+			waiting.put(chunkKey, requested);
+		}
+	}
+
+	/**
+	 * Drop all waiting chunks, and cancel all jobs
+	 */
+	void clear() {
+		for (int c = 0; c < jobs.capacity(); c++) {
+			MeshJob job = jobs.valueAt(c);
+			if (job != null) job.cancelled = true;
+		}
+		jobs.clear();
+		waiting.clear();
+	}
+
+	/**
+	 * Attach finished chunks, and start meshing more chunks if there is
+	 * room, without waiting for anything
+	 */
+	void update() {
+		MeshJob job;
+		while ((job = finished.poll()) != null) {
+			attach(job);
+		}
+		start();
+	}
+
+	/**
+	 * Wait for all chunks to be meshed, and attach them
+	 * @throws InterruptedException
+	 * 		If interrupted while waiting
+	 */
+	void finish() throws InterruptedException {
+		start();
+		while (isMeshing()) {
+			attach(finished.take());
+			start();
+		}
+	}
+
+	private void attach(MeshJob job) {
+		running--;
+		if (jobs.get(job.chunkKey) != job) return;
+		jobs.remove(job.chunkKey);
+
+		List<ChunkBatch> batches = job.batches;
+		if (batches == null) {
+			batches = ChunkMesher.meshContents(job.contents, job.greedy);
+		}
+		grid.attachChunk(job.chunkKey, batches);
+
+		float seconds = (System.nanoTime() - job.requested) / 1e9f;
+		latency += (seconds - latency) * LATENCY_WEIGHT;
+	}
+
+	/**
+	 * Start meshing the highest priority waiting chunks, while there is room
+	 */
+	private void start() {
+		if (waiting.size() == 0) return;
+
+		//With no executor any more, just mesh what is left
+		if (executor == null) {
+			boolean greedy = (grid.getMeshMode() == MeshMode.GREEDY);
+			for (int c = 0; c < waiting.capacity(); c++) {
+				if (waiting.valueAt(c) == null) continue;
+				long chunkKey = waiting.keyAt(c);
+				grid.attachChunk(chunkKey, mesher.meshChunk(PresenceChunk.keyX(chunkKey), PresenceChunk.keyY(chunkKey),
+						PresenceChunk.keyZ(chunkKey), greedy, grid.chunkLevel(chunkKey), grid.levelBorders(chunkKey)));
+			}
+			waiting.clear();
+			return;
+		}
+
+		int room = maxJobs - running;
+		if (room <= 0) return;
+
+		//Sort by priority, then slot in the waiting map
+		long[] order = new long[waiting.size()];
+		int count = 0;
+		for (int c = 0; c < waiting.capacity(); c++) {
+			if (waiting.valueAt(c) != null) {
+				order[count++] = ((long)priority(waiting.keyAt(c)) << 32) | c;
+			}
+		}
+		if (count > room) Arrays.sort(order);
+
+		//Collect the keys first, since removing them moves slots
+		long[] keys = new long[Math.min(room, count)];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = waiting.keyAt((int)order[i]);
+		}
+		boolean greedy = (grid.getMeshMode() == MeshMode.GREEDY);
+		for (long chunkKey : keys) {
+			//Read the chunk here, on the render thread, so the job doesn't touch the grid
+			ChunkMesher.Contents contents = mesher.contents(PresenceChunk.keyX(chunkKey), PresenceChunk.keyY(chunkKey),
+					PresenceChunk.keyZ(chunkKey), grid.chunkLevel(chunkKey), grid.levelBorders(chunkKey));
+			MeshJob job = new MeshJob(chunkKey, contents, greedy, waiting.remove(chunkKey), finished);
+			jobs.put(chunkKey, job);
+			running++;
+			executor.execute(job);
+		}
+	}
+
+	/**
+	 * The priority of a chunk, lower first - chunks in view come before
+	 * those out of view, then by distance from the camera
+	 */
+	private int priority(long chunkKey) {
+		if (camera == null) return 0;
+
+		//Chunk bound in world space
+		Node root = grid.getRootNode();
+		float half = PresenceChunk.SIZE / 2f;
+		center.set((PresenceChunk.keyX(chunkKey) << PresenceChunk.BITS) + half,
+				(PresenceChunk.keyY(chunkKey) << PresenceChunk.BITS) + half,
+				(PresenceChunk.keyZ(chunkKey) << PresenceChunk.BITS) + half);
+		root.localToWorld(center, center);
+		Vector3f scale = root.getWorldScale();
+		float extent = half * Math.max(Math.abs(scale.x), Math.max(Math.abs(scale.y), Math.abs(scale.z)));
+		bound.setCenter(center);
+		bound.setXExtent(extent);
+		bound.setYExtent(extent);
+		bound.setZExtent(extent);
+
+		//Check every plane, leaving the camera as we found it
+		int planeState = camera.getPlaneState();
+		camera.setPlaneState(0);
+		boolean inView = camera.contains(bound) != FrustumIntersect.Outside;
+		camera.setPlaneState(planeState);
+
+		//Whole cubes of distance are plenty to order chunks
+		int distance = (int)Math.min(center.distance(camera.getLocation()), Integer.MAX_VALUE >> 2);
+		return inView ? distance : (Integer.MAX_VALUE >> 1) + distance;
+	}
+
+}
@@ -0,0 +1,839 @@
+package org.hexahedron.cube;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hexahedron.geom.Vector2iDefault;
+import org.hexahedron.geom.Vector3iDefault;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.occlusion.IndexAndTransform;
+import org.hexahedron.occlusion.Occlusion;
+import org.hexahedron.occlusion.OcclusionTextures;
+import org.hexahedron.occlusion.VertexOcclusion;
+import org.hexahedron.util.LongHashMap;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Merges the visible faces of a chunk of a {@link CubeGrid} into
+ * a few meshes, rather than one {@link AFace} geometry per face.
+ *
+ * Each face has exactly the vertices an {@link AFaceMesh} would have -
+ * 4 separate tris with per-tri colours from the grid's shading, and
+ * occlusion atlas UVs as for {@link AFaceMesh#setUVTransform(int, org.hexahedron.occlusion.Transform)},
+ * or with {@link OcclusionMode#VERTICES} no occlusion UVs and colours darkened
+ * as for {@link AFaceMesh#setVertexOcclusion(int)} - just offset to the 
+ * position of the cube within the chunk. Faces are batched by material id,
+ * since each batch needs a single material to render, and every occlusion
+ * texture is in the same atlas.
+ *
+ * Chunks can also be meshed at a coarser level of detail, for distant
+ * chunks. Each level halves the resolution, with each cell of 2x2x2 cells
+ * being present if a majority (at least half) of them are. The cells are
+ * meshed exactly as cubes would be, from a {@link FaceTable} of the cells,
+ * just scaled up, with each face taking its material and shading from the
+ * cube nearest to it within the cell. Where a neighbouring chunk is at a
+ * different level the chunk is closed off, so that there are no gaps 
+ * between levels.
+ *
+ * Optionally, faces can be meshed greedily: neighbouring faces in the
+ * same plane, with the same material, no occlusion and a single shading 
+ * colour across all 4 tris look exactly like one larger face, so they
+ * are merged into rectangular quads of 2 tris each. Faces with occlusion,
+ * or with tris shaded differently (for diagonal shadows), need their
+ * centre vertex and are kept as they are. Quads never extend outside the
+ * chunk.
+ *
+ * The visible faces and their occlusion come from a {@link FaceTable}
+ * for the chunk. Vertex data is written straight into the packed format
+ * described by {@link ChunkBatch}. If the grid has a {@link ChunkMeshCache},
+ * chunks are looked up by a hash of their contents before meshing.
+ *
+ * Meshing is split into reading the contents of the chunk from the grid
+ * (its face table, the material and lit tris of each visible cube, and the
+ * shading colours), and building meshes from those contents, which does not
+ * touch the grid. So the contents can be read on the thread that edits the
+ * grid, and the meshes built on any thread, see {@link ChunkMeshQueue}.
+ * Meshing does not need an asset manager, so can be used (and checked)
+ * without a display.
+ */
+public class ChunkMesher {
+
+	/**
+	 * The number of vertices in each face, see {@link AFaceMesh}
+	 */
+	private final static int FACE_VERTICES = 4 * 3;
+
+	/**
+	 * The index of the occlusion texture for faces with no occlusion,
+	 * which is the same everywhere, so can be stretched over a quad
+	 */
+	private final static int UNOCCLUDED = Occlusion.transformedUnique(0).getIndex();
+
+	/**
+	 * The axis along the normal of each face, 0 to 2 for x to z
+	 */
+	private final static int[] NORMAL_AXES = new int[] {2, 0, 1, 0, 1, 2};
+
+	private final CubeGrid grid;
+
+	/**
+	 * Create a {@link ChunkMesher}
+	 * @param grid
+	 * 		The grid to mesh
+	 */
+	public ChunkMesher(CubeGrid grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * Build the meshes for the visible faces of a chunk, without
+	 * merging faces
+	 * @param cx
+	 * 		Chunk x coord, so the chunk starts at x = cx * {@link PresenceChunk#SIZE}
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @return
+	 * 		A batch for each material used in the chunk, as for
+	 * {@link #meshChunk(int, int, int, boolean)}
+	 */
+	public List<ChunkBatch> meshChunk(int cx, int cy, int cz) {
+		return meshChunk(cx, cy, cz, false);
+	}
+
+	/**
+	 * Build the meshes for the visible faces of a chunk
+	 * @param cx
+	 * 		Chunk x coord, so the chunk starts at x = cx * {@link PresenceChunk#SIZE}
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @param greedy
+	 * 		True to merge faces with no occlusion and a single colour into
+	 * larger quads
+	 * @return
+	 * 		A batch for each material used in the chunk, empty if nothing in the chunk is visible. Faces are
+	 * in order of cube position (x fastest, then y, then z), then face index,
+	 * followed by any merged quads.
+	 */
+	public List<ChunkBatch> meshChunk(int cx, int cy, int cz, boolean greedy) {
+		return meshChunk(cx, cy, cz, greedy, 0, 0);
+	}
+
+	/**
+	 * Build the meshes for the visible faces of a chunk, at a level of
+	 * detail. At level 0 each cube is meshed, at each coarser level the
+	 * chunk is meshed as cells of 2x2x2 cells of the level below, which
+	 * are present if at least half of those 8 cells are present.
+	 * @param cx
+	 * 		Chunk x coord, so the chunk starts at x = cx * {@link PresenceChunk#SIZE}
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @param greedy
+	 * 		True to merge faces with no occlusion and a single colour into
+	 * larger quads
+	 * @param level
+	 * 		The level, from 0 to {@link CubeGrid#MAX_LEVEL}, where cells are 
+	 * 		1 << level cubes along each edge
+	 * @param borders
+	 * 		A mask with bit f set for each face f of the chunk where the 
+	 * 		neighbouring chunk is meshed at a different level. Cells beyond 
+	 * 		those faces are treated as not present, so the chunk is closed 
+	 * 		off there, and there are no gaps between the chunks.
+	 * @return
+	 * 		A batch for each material used in the chunk, as for {@link #meshChunk(int, int, int, boolean)},
+	 * 		with faces in order of cell position
+	 */
+	public List<ChunkBatch> meshChunk(int cx, int cy, int cz, boolean greedy, int level, int borders) {
+		return meshContents(contents(cx, cy, cz, level, borders), greedy);
+	}
+
+	/**
+	 * Everything the meshes of a chunk depend on, read from the grid by
+	 * {@link ChunkMesher#contents(int, int, int, int, int)}. Nothing here
+	 * refers back to the grid, or is changed after reading, so contents
+	 * can be meshed on any thread while the grid is edited.
+	 */
+	static class Contents {
+		private final FaceTable table;
+		private final int level;
+		private final int borders;
+
+		/**
+		 * Material of each face of each cube in the table, by 6 * cube + face
+		 */
+		private final int[] materials;
+
+		/**
+		 * Lit tris of each cube in the table, as for {@link CubeGrid#litTris(int, int, int, Vector3iDefault, Vector2iDefault)}
+		 */
+		private final int[] lits;
+
+		/**
+		 * Colours for unlit and lit tris of each face
+		 */
+		private final ColorRGBA[][] colors;
+		private final boolean vertexOcclusion;
+		private final ChunkMeshCache cache;
+
+		private Contents(FaceTable table, int level, int borders, int[] materials, int[] lits, 
+				ColorRGBA[][] colors, boolean vertexOcclusion, ChunkMeshCache cache) {
+			this.table = table;
+			this.level = level;
+			this.borders = borders;
+			this.materials = materials;
+			this.lits = lits;
+			this.colors = colors;
+			this.vertexOcclusion = vertexOcclusion;
+			this.cache = cache;
+		}
+	}
+
+	/**
+	 * Read the contents of a chunk at a level of detail, for meshing with
+	 * {@link #meshContents(Contents, boolean)}. This is the only part of
+	 * meshing that reads the grid, so must be done on the thread that edits
+	 * the grid, see {@link #meshChunk(int, int, int, boolean, int, int)} for
+	 * parameters.
+	 */
+	Contents contents(int cx, int cy, int cz, int level, int borders) {
+		int chunkX = cx << PresenceChunk.BITS;
+		int chunkY = cy << PresenceChunk.BITS;
+		int chunkZ = cz << PresenceChunk.BITS;
+		int scale = 1 << level;
+		int chunkSize = PresenceChunk.SIZE >> level;
+
+		FaceTable table = (level == 0 && borders == 0) ? new FaceTable(grid, cx, cy, cz) 
+				: new FaceTable(cx, cy, cz, chunkSize, levelRows(cx, cy, cz, level, borders));
+		if (table.size() == 0) {
+			return new Contents(table, level, borders, null, null, null, false, null);
+		}
+
+		//Colours for unlit and lit tris of each face
+		boolean shaded = grid.isShaded();
+		ColorRGBA[][] colors = new ColorRGBA[6][2];
+		for (int f = 0; f < 6; f++) {
+			colors[f][0] = shaded ? grid.shadeColor(f, false) : AFaceMesh.DEFAULT_COLOR;
+			colors[f][1] = shaded ? grid.shadeColor(f, true) : AFaceMesh.DEFAULT_COLOR;
+		}
+		boolean vertexOcclusion = (grid.getOcclusionMode() == OcclusionMode.VERTICES);
+		Vector3iDefault isoAndLayer = new Vector3iDefault();
+		Vector2iDefault iso = new Vector2iDefault();
+
+		//Material of each visible face, and lit tris of each visible cube.
+		//Coarser cells use the cube nearest each face for that face.
+		int[] materials = new int[table.size() * 6];
+		int[] lits = new int[table.size()];
+		int[] cube = new int[3];
+		for (int c = 0; c < table.size(); c++) {
+			int faces = table.getFaces(c);
+			if (level == 0) {
+				int x = chunkX + table.getX(c);
+				int y = chunkY + table.getY(c);
+				int z = chunkZ + table.getZ(c);
+				Arrays.fill(materials, c * 6, c * 6 + 6, grid.getMaterial(x, y, z));
+				lits[c] = shaded ? grid.litTris(x, y, z, isoAndLayer, iso) : 0;
+				continue;
+			}
+			for (int f = 0; f < 6; f++) {
+				if ((faces & (1 << f)) == 0) continue;
+				cube[0] = chunkX + table.getX(c) * scale;
+				cube[1] = chunkY + table.getY(c) * scale;
+				cube[2] = chunkZ + table.getZ(c) * scale;
+				faceCube(f, scale, cube);
+				materials[c * 6 + f] = grid.getMaterial(cube[0], cube[1], cube[2]);
+				if (shaded) {
+					lits[c] |= grid.litTris(cube[0], cube[1], cube[2], isoAndLayer, iso) & (0xF << (4 * f));
+				}
+			}
+		}
+		return new Contents(table, level, borders, materials, lits, colors, vertexOcclusion, grid.getMeshCache());
+	}
+
+	/**
+	 * Build the meshes for the contents of a chunk, as for
+	 * {@link #meshChunk(int, int, int, boolean, int, int)}. This does
+	 * not read the grid, so can run on any thread.
+	 * @param contents
+	 * 		The contents, from {@link #contents(int, int, int, int, int)}
+	 * @param greedy
+	 * 		True to merge faces with no occlusion and a single colour into
+	 * larger quads
+	 * @return
+	 * 		A batch for each material used in the chunk
+	 */
+	static List<ChunkBatch> meshContents(Contents contents, boolean greedy) {
+		List<BatchBuilder> builders = new ArrayList<BatchBuilder>();
+		LongHashMap<BatchBuilder> buildersByMaterial = new LongHashMap<BatchBuilder>();
+		FaceTable table = contents.table;
+		if (table.size() == 0) return build(builders);
+
+		int level = contents.level;
+		int scale = 1 << level;
+		int chunkSize = PresenceChunk.SIZE >> level;
+		int[] materials = contents.materials;
+		int[] lits = contents.lits;
+		ColorRGBA[][] colors = contents.colors;
+		boolean vertexOcclusion = contents.vertexOcclusion;
+
+		//Use cached meshes for the same contents if we can
+		ChunkMeshCache cache = contents.cache;
+		long hash = 0;
+		if (cache != null) {
+			hash = contentHash(table, materials, lits, colors, vertexOcclusion, greedy, level, contents.borders);
+			List<ChunkBatch> cached = cache.get(hash);
+			if (cached != null) return cached;
+		}
+
+		//Faces that can be merged, as (material << 1) | lit, indexed by face, 
+		//then layer along the face normal, then position in the layer. 
+		//Positions with no face to merge have -1.
+		int[][][] mergeable = null;
+		if (greedy) {
+			mergeable = new int[6][chunkSize][chunkSize * chunkSize];
+			for (int[][] layers : mergeable) {
+				for (int[] layer : layers) {
+					Arrays.fill(layer, -1);
+				}
+			}
+		}
+		int[] local = new int[3];
+
+		//Only visit visible cubes, from the face table
+		for (int c = 0; c < table.size(); c++) {
+			local[0] = table.getX(c);
+			local[1] = table.getY(c);
+			local[2] = table.getZ(c);
+			int faces = table.getFaces(c);
+			int lit = lits[c];
+
+			for (int f = 0; f < 6; f++) {
+				if ((faces & (1 << f)) == 0) continue;
+				int material = materials[c * 6 + f];
+
+				int mask = table.getOcclusion(c, f);
+				IndexAndTransform iat = vertexOcclusion ? null : Occlusion.transformedUnique(mask);
+				boolean unoccluded = vertexOcclusion ? (mask == 0) : (iat.getIndex() == UNOCCLUDED);
+				int faceLit = (lit >> (4 * f)) & 0xF;
+
+				//Leave faces with no occlusion and one colour for merging
+				if (greedy && unoccluded && (faceLit == 0 || faceLit == 0xF)) {
+					int n = NORMAL_AXES[f];
+					mergeable[f][local[n]][local[(n + 1) % 3] + chunkSize * local[(n + 2) % 3]] = (material << 1) | (faceLit & 1);
+					continue;
+				}
+
+				builder(builders, buildersByMaterial, material, vertexOcclusion)
+					.addFace(f, local[0], local[1], local[2], scale, iat, mask, faceLit, colors[f]);
+			}
+		}
+
+		if (greedy) {
+			for (int f = 0; f < 6; f++) {
+				for (int layer = 0; layer < chunkSize; layer++) {
+					mergeLayer(f, layer, chunkSize, scale, mergeable[f][layer], builders, buildersByMaterial, colors[f], vertexOcclusion);
+				}
+			}
+		}
+
+		List<ChunkBatch> batches = build(builders);
+		if (cache != null) cache.put(hash, batches);
+		return batches;
+	}
+
+	/**
+	 * Rows of cells covering a chunk at a level and one cell either side,
+	 * as for {@link FaceTable#FaceTable(int, int, int, int, long[])}. The
+	 * rows of positions are read once, then halved a level at a time,
+	 * each cell being present if at least 4 of its 8 cells are. Ties count
+	 * as present, so that surfaces don't sink by a cell at each level.
+	 */
+	private long[] levelRows(int cx, int cy, int cz, int level, int borders) {
+		int chunkX = cx << PresenceChunk.BITS;
+		int chunkY = cy << PresenceChunk.BITS;
+		int chunkZ = cz << PresenceChunk.BITS;
+		int chunkSize = PresenceChunk.SIZE;
+		if (!grid.getPresenceGrid().anyPresent(chunkX, chunkY, chunkZ,
+				chunkX + chunkSize - 1, chunkY + chunkSize - 1, chunkZ + chunkSize - 1)) {
+			return null;
+		}
+
+		//Positions covering the chunk and one cell either side, 
+		//at most 48 so each row fits a long
+		int scale = 1 << level;
+		int width = chunkSize + 2 * scale;
+		long widthMask = (1L << width) - 1;
+		long[] rows = new long[width * width];
+		for (int z = 0; z < width; z++) {
+			for (int y = 0; y < width; y++) {
+				rows[y + width * z] = grid.getRow(chunkX - scale, chunkY + y - scale, chunkZ + z - scale) & widthMask;
+			}
+		}
+
+		for (int l = 0; l < level; l++) {
+			int half = width / 2;
+			long[] halved = new long[half * half];
+			for (int z = 0; z < half; z++) {
+				for (int y = 0; y < half; y++) {
+					long r0 = rows[2 * y + width * 2 * z];
+					long r1 = rows[2 * y + 1 + width * 2 * z];
+					long r2 = rows[2 * y + width * (2 * z + 1)];
+					long r3 = rows[2 * y + 1 + width * (2 * z + 1)];
+					long row = 0;
+					for (int x = 0; x < half; x++) {
+						int shift = 2 * x;
+						int count = Long.bitCount((r0 >>> shift) & 3) + Long.bitCount((r1 >>> shift) & 3)
+								+ Long.bitCount((r2 >>> shift) & 3) + Long.bitCount((r3 >>> shift) & 3);
+						if (count >= 4) row |= 1L << x;
+					}
+					halved[y + half * z] = row;
+				}
+			}
+			rows = halved;
+			width = half;
+		}
+
+		//Close off the chunk where its neighbours are at other levels
+		for (int f = 0; f < 6; f++) {
+			if ((borders & (1 << f)) == 0) continue;
+			int[] normal = CubeGrid.faceNormals[f];
+			int edge = width - 1;
+			for (int z = 0; z < width; z++) {
+				for (int y = 0; y < width; y++) {
+					if (normal[0] != 0) {
+						rows[y + width * z] &= ~(1L << (normal[0] > 0 ? edge : 0));
+					} else if ((normal[1] > 0 && y == edge) || (normal[1] < 0 && y == 0)
+							|| (normal[2] > 0 && z == edge) || (normal[2] < 0 && z == 0)) {
+						rows[y + width * z] = 0;
+					}
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Find the cube that shows a face of a cell, as the present cube
+	 * closest to the face. The cube is searched for layer by layer from
+	 * the face inwards.
+	 * @param face
+	 * 		The face index
+	 * @param scale
+	 * 		The number of cubes along each edge of the cell
+	 * @param cube
+	 * 		The minimum corner of the cell, replaced with the position of the cube.
+	 * 		Left unchanged if no cube is present.
+	 */
+	private void faceCube(int face, int scale, int[] cube) {
+		int n = NORMAL_AXES[face];
+		int a = (n + 1) % 3;
+		int b = (n + 2) % 3;
+		boolean positive = CubeGrid.faceNormals[face][n] > 0;
+		int[] p = new int[3];
+		for (int depth = 0; depth < scale; depth++) {
+			p[n] = cube[n] + (positive ? scale - 1 - depth : depth);
+			for (int j = 0; j < scale; j++) {
+				p[b] = cube[b] + j;
+				for (int i = 0; i < scale; i++) {
+					p[a] = cube[a] + i;
+					if (grid.getPresence(p[0], p[1], p[2])) {
+						System.arraycopy(p, 0, cube, 0, 3);
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private static List<ChunkBatch> build(List<BatchBuilder> builders) {
+		List<ChunkBatch> batches = new ArrayList<ChunkBatch>(builders.size());
+		for (BatchBuilder builder : builders) {
+			batches.add(builder.build());
+		}
+		return batches;
+	}
+
+	/**
+	 * A hash of everything the meshes of a chunk depend on, as the key
+	 * for a {@link ChunkMeshCache}. The neighbourhood of each visible cube
+	 * covers its faces and occlusion, including from positions just outside
+	 * the chunk, and shading depends on cubes anywhere along each line of
+	 * sight, so the lit tris of each cube are hashed rather than presence.
+	 */
+	private static long contentHash(FaceTable table, int[] materials, int[] lits, ColorRGBA[][] colors, 
+			boolean vertexOcclusion, boolean greedy, int level, int borders) {
+		long hash = mix(0, (vertexOcclusion ? 1 : 0) | (greedy ? 2 : 0) | (level << 2) | (borders << 8));
+		for (ColorRGBA[] faceColors : colors) {
+			for (ColorRGBA color : faceColors) {
+				hash = mix(hash, Float.floatToIntBits(color.r));
+				hash = mix(hash, Float.floatToIntBits(color.g));
+				hash = mix(hash, Float.floatToIntBits(color.b));
+				hash = mix(hash, Float.floatToIntBits(color.a));
+			}
+		}
+		hash = mix(hash, table.size());
+		for (int c = 0; c < table.size(); c++) {
+			int position = table.getX(c) | (table.getY(c) << PresenceChunk.BITS) | (table.getZ(c) << (2 * PresenceChunk.BITS));
+			hash = mix(hash, ((long)position << 32) | table.getNeighbourhood(c));
+			hash = mix(hash, lits[c]);
+			for (int f = 0; f < 6; f++) {
+				if ((table.getFaces(c) & (1 << f)) != 0) hash = mix(hash, materials[c * 6 + f]);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Mix a value into a 64 bit hash
+	 */
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Get the builder for a material, creating it if needed
+	 */
+	private static BatchBuilder builder(List<BatchBuilder> builders, LongHashMap<BatchBuilder> buildersByMaterial, 
+			int material, boolean vertexOcclusion) {
+		BatchBuilder builder = buildersByMaterial.get(material);
+		if (builder == null) {
+			builder = new BatchBuilder(material, vertexOcclusion);
+			buildersByMaterial.put(material, builder);
+			builders.add(builder);
+		}
+		return builder;
+	}
+
+	/**
+	 * Greedily merge the faces in one layer of a chunk into quads - each
+	 * quad is grown as far as possible along the first axis of the layer,
+	 * then along the second. The layer is cleared as faces are merged.
+	 * @param face
+	 * 		The face index
+	 * @param layer
+	 * 		The coord of the layer along the face normal
+	 * @param size
+	 * 		The number of cells along each edge of the layer
+	 * @param scale
+	 * 		The number of cubes along each edge of a cell
+	 * @param cells
+	 * 		The faces to merge, as for meshChunk, with the layer axes being
+	 * the two axes after the normal axis, in x, y, z order (wrapping)
+	 */
+	private static void mergeLayer(int face, int layer, int size, int scale, int[] cells, List<BatchBuilder> builders, 
+			LongHashMap<BatchBuilder> buildersByMaterial, ColorRGBA[] faceColors, boolean vertexOcclusion) {
+		int n = NORMAL_AXES[face];
+		int[] min = new int[3];
+		int[] max = new int[3];
+
+		for (int j = 0; j < size; j++) {
+			for (int i = 0; i < size; i++) {
+				int key = cells[i + size * j];
+				if (key < 0) continue;
+
+				//Grow along first axis
+				int w = 1;
+				while (i + w < size && cells[i + w + size * j] == key) w++;
+
+				//Then along the second, while the whole width matches
+				int h = 1;
+				grow:
+				while (j + h < size) {
+					for (int k = 0; k < w; k++) {
+						if (cells[i + k + size * (j + h)] != key) break grow;
+					}
+					h++;
+				}
+
+				for (int dj = 0; dj < h; dj++) {
+					Arrays.fill(cells, i + size * (j + dj), i + w + size * (j + dj), -1);
+				}
+
+				min[n] = layer;
+				max[n] = layer;
+				min[(n + 1) % 3] = i;
+				max[(n + 1) % 3] = i + w - 1;
+				min[(n + 2) % 3] = j;
+				max[(n + 2) % 3] = j + h - 1;
+				builder(builders, buildersByMaterial, key >> 1, vertexOcclusion)
+					.addQuad(face, min, max, scale, w * h, faceColors[key & 1]);
+			}
+		}
+	}
+
+	/**
+	 * Accumulates the vertex data for the faces of one batch, in the
+	 * packed format described by {@link ChunkBatch}
+	 */
+	private static class BatchBuilder {
+		private final int material;
+
+		/**
+		 * True to bake occlusion into colours, and have no occlusion UVs
+		 */
+		private final boolean vertexOcclusion;
+		private final Vector2f occlusionUV = new Vector2f();
+		private int faceCount = 0;
+		private int vertexCount = 0;
+		private int indexCount = 0;
+		private byte[] positions = new byte[FACE_VERTICES * 3 * 16];
+		private byte[] normals = new byte[FACE_VERTICES * 3 * 16];
+		private short[] uvs = new short[FACE_VERTICES * 2 * 16];
+		private short[] occlusionUVs = new short[FACE_VERTICES * 2 * 16];
+		private byte[] colors = new byte[FACE_VERTICES * 4 * 16];
+		private int[] indices = new int[FACE_VERTICES * 16];
+
+		/**
+		 * Bounds of positions, in the units stored
+		 */
+		private final int[] minPosition = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+		private final int[] maxPosition = new int[] {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+
+		private BatchBuilder(int material, boolean vertexOcclusion) {
+			this.material = material;
+			this.vertexOcclusion = vertexOcclusion;
+		}
+
+		/**
+		 * Make sure there is space for more vertices and indices
+		 */
+		private void ensureSpace(int vertices, int newIndices) {
+			while ((vertexCount + vertices) * 4 > colors.length) {
+				positions = Arrays.copyOf(positions, positions.length * 2);
+				normals = Arrays.copyOf(normals, normals.length * 2);
+				uvs = Arrays.copyOf(uvs, uvs.length * 2);
+				occlusionUVs = Arrays.copyOf(occlusionUVs, occlusionUVs.length * 2);
+				colors = Arrays.copyOf(colors, colors.length * 2);
+			}
+			while (indexCount + newIndices > indices.length) {
+				indices = Arrays.copyOf(indices, indices.length * 2);
+			}
+		}
+
+		/**
+		 * Add a vertex, with the occlusion UV in occlusionUV
+		 * @param x
+		 * 		x coord in half cubes from the chunk origin
+		 * @param y
+		 * 		y coord in half cubes
+		 * @param z
+		 * 		z coord in half cubes
+		 * @param u
+		 * 		Colour map u
+		 * @param v
+		 * 		Colour map v
+		 * @param brightness
+		 * 		Brightness from vertex occlusion, multiplying the colour
+		 */
+		private void addVertex(int x, int y, int z, Vector3f normal, float u, float v, ColorRGBA color, float brightness) {
+			int vertex = vertexCount;
+			positions[vertex * 3] = (byte)x;
+			positions[vertex * 3 + 1] = (byte)y;
+			positions[vertex * 3 + 2] = (byte)z;
+			include(0, x);
+			include(1, y);
+			include(2, z);
+
+			//Normals are axis aligned, so exact as signed bytes
+			normals[vertex * 3] = (byte)(normal.x * 127);
+			normals[vertex * 3 + 1] = (byte)(normal.y * 127);
+			normals[vertex * 3 + 2] = (byte)(normal.z * 127);
+
+			uvs[vertex * 2] = FastMath.convertFloatToHalf(u);
+			uvs[vertex * 2 + 1] = FastMath.convertFloatToHalf(v);
+
+			occlusionUVs[vertex * 2] = unorm16(occlusionUV.x);
+			occlusionUVs[vertex * 2 + 1] = unorm16(occlusionUV.y);
+
+			//As for AFaceMesh, occlusion darkens the colour but not the alpha
+			colors[vertex * 4] = AFaceMesh.unorm8(color.r * brightness);
+			colors[vertex * 4 + 1] = AFaceMesh.unorm8(color.g * brightness);
+			colors[vertex * 4 + 2] = AFaceMesh.unorm8(color.b * brightness);
+			colors[vertex * 4 + 3] = AFaceMesh.unorm8(color.a);
+
+			vertexCount++;
+		}
+
+		private void include(int axis, int position) {
+			minPosition[axis] = Math.min(minPosition[axis], position);
+			maxPosition[axis] = Math.max(maxPosition[axis], position);
+		}
+
+		private static short unorm16(float f) {
+			return (short)Math.round(f * 0xFFFF);
+		}
+
+		/**
+		 * Add a face of the cell at a position within the chunk, 
+		 * with scale cubes along each edge of a cell (1 for cubes),
+		 * with bit i of lit set for each lit tri i, and colors
+		 * giving unlit and lit colours. The occlusion is given by
+		 * iat for occlusion textures, or by the mask for vertex occlusion.
+		 */
+		private void addFace(int face, int x, int y, int z, int scale, IndexAndTransform iat, int mask, int lit, ColorRGBA[] faceColors) {
+			ensureSpace(FACE_VERTICES, FACE_VERTICES);
+
+			Vector3f normal = AFace.faceLocalAxes[face][AFace.FACE_LOCAL_NORMAL];
+
+			//Same vertex order as AFaceMesh, 4 tris of 3 vertices,
+			//with no shared vertices
+			for (int i = 0; i < 4; i++) {
+				ColorRGBA color = faceColors[(lit >> i) & 1];
+				for (int j = 0; j < 3; j++) {
+					int vertIndex = AFaceMesh.vertOrder[i][j];
+
+					//Cubes are centered on the middle of their position, and face vertices
+					//are at whole or half cubes from there
+					Vector3f faceVert = AFace.faceVerts[face][vertIndex];
+					Vector2f faceUV = AFace.faceUVs[vertIndex];
+					float brightness = 1;
+					if (vertexOcclusion) {
+						brightness = VertexOcclusion.brightness(mask, vertIndex);
+					} else {
+						AFaceMesh.occlusionUV(vertIndex, iat.getIndex(), iat.getTransform(), occlusionUV);
+					}
+					indices[indexCount++] = vertexCount;
+					addVertex((2 * x + 1 + Math.round(2 * faceVert.x)) * scale, (2 * y + 1 + Math.round(2 * faceVert.y)) * scale, 
+							(2 * z + 1 + Math.round(2 * faceVert.z)) * scale, normal, faceUV.x * scale, faceUV.y * scale, color, brightness);
+				}
+			}
+			faceCount++;
+		}
+
+		/**
+		 * Add a quad covering the faces of a box of cells within the
+		 * chunk, which must be one cell thick along the face normal.
+		 * The occlusion texture is unoccluded everywhere, and the colour
+		 * map is repeated once per cube, so the quad looks the same as
+		 * the separate faces.
+		 * @param face
+		 * 		The face index
+		 * @param min
+		 * 		The minimum coords of the box, inclusive
+		 * @param max
+		 * 		The maximum coords of the box, inclusive
+		 * @param scale
+		 * 		The number of cubes along each edge of a cell
+		 * @param faces
+		 * 		The number of faces covered by the quad
+		 * @param color
+		 * 		The colour of the quad
+		 */
+		private void addQuad(int face, int[] min, int[] max, int scale, int faces, ColorRGBA color) {
+			ensureSpace(4, 6);
+
+			Vector3f normal = AFace.faceLocalAxes[face][AFace.FACE_LOCAL_NORMAL];
+			Vector3f right = AFace.faceLocalAxes[face][AFace.FACE_LOCAL_RIGHT];
+			Vector3f up = AFace.faceLocalAxes[face][AFace.FACE_LOCAL_UP];
+
+			//The number of cubes along the face local axes
+			float width = scale * (Math.abs(right.x) * (max[0] - min[0] + 1)
+					+ Math.abs(right.y) * (max[1] - min[1] + 1)
+					+ Math.abs(right.z) * (max[2] - min[2] + 1));
+			float height = scale * (Math.abs(up.x) * (max[0] - min[0] + 1)
+					+ Math.abs(up.y) * (max[1] - min[1] + 1)
+					+ Math.abs(up.z) * (max[2] - min[2] + 1));
+
+			//Every point samples the middle of the unoccluded tile
+			OcclusionTextures.tileUV(UNOCCLUDED, AFace.faceUVs[4], occlusionUV);
+
+			//Corners of the quad are where the corners of the box's faces
+			//are, in the same order as for a single face
+			int first = vertexCount;
+			for (int corner = 0; corner < 4; corner++) {
+				Vector3f faceVert = AFace.faceVerts[face][corner];
+				Vector2f faceUV = AFace.faceUVs[corner];
+				addVertex(
+						2 * scale * (faceVert.x > 0 ? max[0] + 1 : min[0]),
+						2 * scale * (faceVert.y > 0 ? max[1] + 1 : min[1]),
+						2 * scale * (faceVert.z > 0 ? max[2] + 1 : min[2]),
+						normal, faceUV.x * width, faceUV.y * height, color, 1);
+			}
+
+			//Two tris, wound the same way as those of a face
+			indices[indexCount++] = first;
+			indices[indexCount++] = first + 1;
+			indices[indexCount++] = first + 2;
+			indices[indexCount++] = first + 2;
+			indices[indexCount++] = first + 3;
+			indices[indexCount++] = first;
+
+			faceCount += faces;
+		}
+
+		private static VertexBuffer buffer(Type type, int components, Format format, boolean normalized, Buffer data) {
+			VertexBuffer buffer = new VertexBuffer(type);
+			buffer.setupData(Usage.Static, components, format, data);
+			buffer.setNormalized(normalized);
+			return buffer;
+		}
+
+		private static ByteBuffer bytes(byte[] data, int length) {
+			ByteBuffer buffer = BufferUtils.createByteBuffer(length);
+			buffer.put(data, 0, length);
+			buffer.flip();
+			return buffer;
+		}
+
+		private static ShortBuffer shorts(short[] data, int length) {
+			ShortBuffer buffer = BufferUtils.createShortBuffer(length);
+			buffer.put(data, 0, length);
+			buffer.flip();
+			return buffer;
+		}
+
+		private ChunkBatch build() {
+			Mesh mesh = new Mesh();
+			mesh.setBuffer(buffer(Type.Position, 3, Format.UnsignedByte, false, bytes(positions, vertexCount * 3)));
+			mesh.setBuffer(buffer(Type.Normal, 3, Format.Byte, true, bytes(normals, vertexCount * 3)));
+			mesh.setBuffer(buffer(Type.TexCoord, 2, Format.Half, false, shorts(uvs, vertexCount * 2)));
+			if (!vertexOcclusion) {
+				mesh.setBuffer(buffer(Type.TexCoord2, 2, Format.UnsignedShort, true, shorts(occlusionUVs, vertexCount * 2)));
+			}
+			mesh.setBuffer(buffer(Type.Color, 4, Format.UnsignedByte, true, bytes(colors, vertexCount * 4)));
+
+			//Use short indices when they are big enough
+			if (vertexCount <= 0x10000) {
+				ShortBuffer indexBuffer = BufferUtils.createShortBuffer(indexCount);
+				for (int i = 0; i < indexCount; i++) {
+					indexBuffer.put((short)indices[i]);
+				}
+				indexBuffer.flip();
+				mesh.setBuffer(buffer(Type.Index, 3, Format.UnsignedShort, false, indexBuffer));
+			} else {
+				IntBuffer indexBuffer = BufferUtils.createIntBuffer(indexCount);
+				indexBuffer.put(indices, 0, indexCount);
+				indexBuffer.flip();
+				mesh.setBuffer(buffer(Type.Index, 3, Format.UnsignedInt, false, indexBuffer));
+			}
+
+			//Positions are not floats, so the mesh can't work out its own bound
+			mesh.setBound(new BoundingBox(new Vector3f(minPosition[0], minPosition[1], minPosition[2]), 
+					new Vector3f(maxPosition[0], maxPosition[1], maxPosition[2])));
+
+			return new ChunkBatch(material, faceCount, mesh);
+		}
+	}
+
+}
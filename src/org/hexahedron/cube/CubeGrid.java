@@ -1,22 +1,36 @@
 package org.hexahedron.cube;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.hexahedron.geom.Vector2i;
 import org.hexahedron.geom.Vector2iDefault;
 import org.hexahedron.geom.Vector3i;
 import org.hexahedron.geom.Vector3iDefault;
+import org.hexahedron.grid.ChunkedPresenceGrid;
+import org.hexahedron.grid.ColumnPresenceGrid;
+import org.hexahedron.grid.MaterialGrid;
+import org.hexahedron.grid.PackedPresenceGrid;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.grid.PresenceGrid;
+import org.hexahedron.grid.SparseVoxelOctree;
+import org.hexahedron.grid.UnboundedPresenceGrid;
 import org.hexahedron.occlusion.IndexAndTransform;
 import org.hexahedron.occlusion.Occlusion;
 import org.hexahedron.occlusion.OcclusionTextures;
+import org.hexahedron.occlusion.VertexOcclusion;
+import org.hexahedron.util.LongHashMap;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.bounding.BoundingBox;
-import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Vector3f;
-import com.jme3.texture.Texture;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
 
 /**
  * Stores a boolean presence, and a cube, for
@@ -33,20 +47,192 @@ import com.jme3.texture.Texture;
  * 
  * Getting cubes or presence outside the grid does not fail,
  * but simply returns no cube/presence. However setting
- * outside the grid DOES fail.
+ * outside the grid DOES fail. For bounded grids, an
+ * {@link OutOfGridPolicy} can be set to instead make the grid
+ * sealed (solid outside), or wrap around at its edges.
+ * 
+ * Presence is stored in a {@link PresenceGrid}, by default
+ * a {@link ChunkedPresenceGrid}, which only uses memory for chunks
+ * that are neither entirely empty nor entirely full. A 
+ * {@link PackedPresenceGrid} can be used instead for dense grids,
+ * or a {@link ColumnPresenceGrid} for terrain, storing each vertical
+ * column as runs. A {@link SparseVoxelOctree} gives a compact spatial
+ * index where large regions are uniformly empty or full.
+ * 
+ * An {@link UnboundedPresenceGrid} can be used for worlds with no
+ * fixed size, in which case cubes may be at any position, including
+ * negative coords.
+ * 
+ * In the scene graph, cubes are grouped under one {@link Node} per chunk,
+ * and chunk nodes are grouped under one node per region of 
+ * {@link #REGION_CHUNKS} chunks along each edge, attached to the root node 
+ * from {@link #getRootNode()}. This keeps a bounding hierarchy above the
+ * chunks, so whole regions out of view are culled at once, and the root
+ * never has more than one child per region. Nodes for chunks (and their
+ * regions) are created when a cube is first set in the chunk, and cubes are
+ * attached and detached as they are set. Alternatively, with 
+ * {@link MeshMode#CHUNKS} or {@link MeshMode#GREEDY}, no cubes are built, and
+ * each chunk node instead holds a few meshes merging all the visible faces
+ * in the chunk.
+ * 
+ * Cubes are also stored by chunk, keyed by packed chunk coords
+ * (see {@link PresenceChunk#key(int, int, int)}), and the storage for a chunk
+ * is only allocated when a cube is first set in it. Cubes entirely
+ * enclosed by other cubes have no visible faces, so are not built,
+ * and whole chunks with no presence are skipped when building cubes.
+ * 
+ * Each position also has a material id, stored in a {@link MaterialGrid}
+ * so that chunks only use as many bits per position as they have 
+ * materials. Built faces use the colour map for their cube's material
+ * from {@link #getMaterialTextures()}, and faces with the same material
+ * share a single {@link FaceMaterials} material. With the default
+ * {@link OcclusionMode#TEXTURES}, occlusion textures are selected by UVs
+ * within the {@link OcclusionTextures} atlas, and with
+ * {@link OcclusionMode#VERTICES} occlusion is instead baked into the
+ * vertex colours, see {@link VertexOcclusion}.
+ * 
+ * Regions can be edited in bulk, for example with {@link #fillBox(int, int, int, int, int, int, boolean)}
+ * or {@link #copyRegion(PresenceGrid, int, int, int, int, int, int, int, int, int)}, 
+ * which write whole rows of presence at a time. All edits are recorded
+ * in a single coalesced {@link DirtyRegion}.
+ * 
+ * The cubes affected by edits (the edited positions and their 26 neighbours,
+ * whose faces and occlusion may change) are tracked automatically, and
+ * {@link #update()} rebuilds (and reshades) only those cubes, reusing the
+ * existing cube and face objects where it can.
+ * 
+ * When meshing chunks, an {@link Executor} can be set with 
+ * {@link #setMeshExecutor(Executor)} to mesh chunks in the background, for
+ * example on a {@link java.util.concurrent.ForkJoinPool}. The contents of
+ * each chunk (its visible cubes, materials and shading) are read from the
+ * grid on the render thread as its task starts, so tasks never touch the
+ * grid, and only build {@link ChunkBatch}es, which are attached to the scene
+ * graph by {@link #update()}. So this must be called regularly (e.g. every 
+ * frame) on the render thread, and never waits for meshing to finish. The
+ * {@link ChunkMeshQueue} limits how many chunks mesh at once, meshes chunks
+ * near the camera first, and skips meshing made obsolete by later edits.
+ * Distant chunks can be meshed at coarser levels of detail, see 
+ * {@link #setLevelDistance(float)} and {@link #updateLevels(Vector3f)}.
+ * A {@link ChunkMeshCache} can be set with {@link #setMeshCache(ChunkMeshCache)}
+ * to keep meshes on disk between runs, so unchanged chunks are not meshed again.
  */
 public class CubeGrid {
 
 	private final OcclusionTextures occlusionTextures;
 	private final AssetManager assetManager;
-	boolean[][][] presenceGrid;
-	ACube[][][] cubeGrid;
+	PresenceGrid presence;
+	
+	/**
+	 * Cubes, stored as one array per chunk, keyed by chunk. 
+	 * There is no array for a chunk until a cube is set in it.
+	 */
+	LongHashMap<ACube[]> cubeChunks;
+	
+	/**
+	 * Scene graph node for each chunk, keyed as for cubeChunks
+	 */
+	LongHashMap<Node> chunkNodes;
+	
+	/**
+	 * Scene graph node for each region of chunks, keyed by packed
+	 * region coords, see {@link #regionNode(long)}
+	 */
+	private final LongHashMap<Node> regionNodes = new LongHashMap<Node>();
+	
+	MaterialGrid materials;
+	private final MaterialTextures materialTextures;
+	private final FaceMaterials faceMaterials;
 //	private final Texture detail;
 
-	Octode octode;
+	Node rootNode;
 	int size;
 	
+	OutOfGridPolicy outOfGridPolicy = OutOfGridPolicy.EMPTY;
+	
+	MeshMode meshMode = MeshMode.FACES;
+	OcclusionMode occlusionMode = OcclusionMode.TEXTURES;
+	private final ChunkMesher mesher = new ChunkMesher(this);
+	
+	/**
+	 * Meshes chunks in the background, when there is an executor
+	 */
+	private final ChunkMeshQueue meshQueue = new ChunkMeshQueue(this, mesher);
+	
+	/**
+	 * Meshes from previous meshing, by contents, or null to always mesh
+	 */
+	private ChunkMeshCache meshCache = null;
+	
+	/**
+	 * The coarsest level of detail chunks are meshed at, where the
+	 * whole chunk is a single cell
+	 */
+	public final static int MAX_LEVEL = PresenceChunk.BITS;
+	
+	/**
+	 * Log2 of {@link #REGION_CHUNKS}
+	 */
+	private final static int REGION_BITS = 2;
+	
+	/**
+	 * The number of chunks along each edge of a region, the
+	 * chunk nodes in a region are grouped under one node
+	 */
+	public final static int REGION_CHUNKS = 1 << REGION_BITS;
+	
+	/**
+	 * Distance from the viewpoint beyond which chunks are meshed at 
+	 * coarser levels, or 0 to always mesh at full detail
+	 */
+	private float levelDistance = 0;
+	
+	/**
+	 * The viewpoint used to choose levels, in grid coords, or null if not set.
+	 * This is the centre of the chunk containing the viewpoint, see
+	 * {@link #updateLevels(Vector3f)}
+	 */
+	private Vector3f levelViewpoint = null;
+	
+	/**
+	 * Positions edited since cubes were last built
+	 */
+	DirtyRegion dirty = new DirtyRegion();
+	
+	/**
+	 * Positions whose cubes need rebuilding, see {@link #update()}
+	 */
+	UnboundedPresenceGrid dirtyCubes = new UnboundedPresenceGrid();
+	
+	/**
+	 * The closest layer for each iso from the last call to shade, and the 
+	 * settings used, so regions can be reshaded after edits. Null if the 
+	 * grid has not been shaded. 
+	 */
+	Map<Vector2i, Integer> closestLayer;
+	boolean shadePositiveDirection;
+	ColorRGBA shadeLight;
+	ColorRGBA shadeDark;
+	ColorRGBA[] shadeAdditional;
+	
 	public CubeGrid(AssetManager assetManager, OcclusionTextures occlusionTextures, int levels) {
+		this(assetManager, occlusionTextures, new ChunkedPresenceGrid(levels), levels);
+	}
+
+	/**
+	 * Create a {@link CubeGrid} using a given {@link PresenceGrid}
+	 * to store presence
+	 * @param assetManager
+	 * 		Used to load materials for cubes
+	 * @param occlusionTextures
+	 * 		The occlusion textures for cube faces
+	 * @param presence
+	 * 		The presence storage, this must have size 1<<levels, or
+	 * be unbounded
+	 * @param levels
+	 * 		The number of levels in the grid, this is not used for
+	 * unbounded presence
+	 */
+	public CubeGrid(AssetManager assetManager, OcclusionTextures occlusionTextures, PresenceGrid presence, int levels) {
 		this.assetManager = assetManager;
 		
 		//FIXME do we need specific filter settings?
@@ -56,53 +242,996 @@ public class CubeGrid {
 		
 		this.occlusionTextures = occlusionTextures;
 		
-		size = 1<<levels;
-		presenceGrid = new boolean[size][size][size];
-		cubeGrid = new ACube[size][size][size];
-		octode = new Octode("Root", levels);
+		size = presence.getSize();
+		if (size != PresenceGrid.UNBOUNDED && size != 1<<levels) {
+			throw new IllegalArgumentException("Presence grid must have size " + (1<<levels) + " or be unbounded");
+		}
+		this.presence = presence;
+		cubeChunks = new LongHashMap<ACube[]>();
+		materials = new MaterialGrid();
+		materialTextures = new MaterialTextures(assetManager);
+		faceMaterials = new FaceMaterials(assetManager, occlusionTextures, materialTextures);
+		chunkNodes = new LongHashMap<Node>();
+		rootNode = new Node("Root");
 	}
 	
+	/**
+	 * The number of positions along each edge of the grid
+	 * @return
+	 * 		size, or {@link PresenceGrid#UNBOUNDED}
+	 */
 	public int getSize() {
 		return size;
 	}
 
-	public Octode getOctode() {
-		return octode;
+	/**
+	 * The root of the scene graph of cubes, see class docs
+	 * @return
+	 * 		Root node
+	 */
+	public Node getRootNode() {
+		return rootNode;
+	}
+
+	public PresenceGrid getPresenceGrid() {
+		return presence;
+	}
+
+	public OutOfGridPolicy getOutOfGridPolicy() {
+		return outOfGridPolicy;
+	}
+
+	/**
+	 * Set what is read at positions outside the grid. Only bounded
+	 * grids can use a policy other than {@link OutOfGridPolicy#EMPTY}.
+	 * Cubes already built are not changed.
+	 * @param outOfGridPolicy
+	 * 		The new policy
+	 */
+	public void setOutOfGridPolicy(OutOfGridPolicy outOfGridPolicy) {
+		if (size == PresenceGrid.UNBOUNDED && outOfGridPolicy != OutOfGridPolicy.EMPTY) {
+			throw new IllegalArgumentException("Unbounded grids have no outside, so can only use " + OutOfGridPolicy.EMPTY);
+		}
+		this.outOfGridPolicy = outOfGridPolicy;
+	}
+
+	public MeshMode getMeshMode() {
+		return meshMode;
+	}
+
+	/**
+	 * Set how cubes are turned into geometry. This removes all
+	 * geometry already built, including any cubes, so cubes must 
+	 * be built again, for example with {@link #buildAllCubes()}
+	 * @param meshMode
+	 * 		The new mesh mode
+	 */
+	public void setMeshMode(MeshMode meshMode) {
+		this.meshMode = meshMode;
+		cubeChunks.clear();
+		
+		//Drop chunks still meshing in the background with the old settings
+		meshQueue.clear();
+		for (int c = 0; c < chunkNodes.capacity(); c++) {
+			Node node = chunkNodes.valueAt(c);
+			if (node != null) {
+				node.detachAllChildren();
+			}
+		}
+	}
+
+	public Executor getMeshExecutor() {
+		return meshQueue.getExecutor();
+	}
+
+	/**
+	 * Set the {@link Executor} used to mesh chunks in the background,
+	 * in {@link MeshMode#CHUNKS} or {@link MeshMode#GREEDY}. Each chunk
+	 * is read from the grid as its task starts, then meshed as a separate 
+	 * task, and the results are attached by 
+	 * {@link #update()}. The order and number of tasks are managed by 
+	 * the {@link #getMeshQueue()}. Any chunks already meshing in the 
+	 * background still finish and are attached.
+	 * @param meshExecutor
+	 * 		The executor, or null (the default) to mesh chunks immediately
+	 * 		as they are requested
+	 */
+	public void setMeshExecutor(Executor meshExecutor) {
+		meshQueue.setExecutor(meshExecutor);
+	}
+
+	/**
+	 * The queue of chunks meshing in the background, which can be given
+	 * a camera to mesh chunks in view first, and reports how many chunks
+	 * are waiting and how long they take
+	 * @return
+	 * 		The mesh queue
+	 */
+	public ChunkMeshQueue getMeshQueue() {
+		return meshQueue;
+	}
+
+	/**
+	 * Whether any chunks are still meshing in the background, or waiting
+	 * to be attached by {@link #update()}
+	 * @return
+	 * 		True if there are chunks meshing
+	 */
+	public boolean isMeshing() {
+		return meshQueue.isMeshing();
+	}
+
+	public ChunkMeshCache getMeshCache() {
+		return meshCache;
+	}
+
+	/**
+	 * Set a cache of chunk meshes, so chunks whose contents have been
+	 * meshed before (for example in a previous run, if the cache was saved)
+	 * use the cached meshes rather than being meshed again. Chunks are looked 
+	 * up whenever they are meshed, so chunks already attached are not affected.
+	 * @param meshCache
+	 * 		The cache, or null (the default) to always mesh chunks
+	 */
+	public void setMeshCache(ChunkMeshCache meshCache) {
+		this.meshCache = meshCache;
+	}
+
+	public float getLevelDistance() {
+		return levelDistance;
+	}
+
+	/**
+	 * Set the distance at which chunks start to be meshed at a coarser
+	 * level of detail, in {@link MeshMode#CHUNKS} or {@link MeshMode#GREEDY}.
+	 * Chunks closer than this to the viewpoint (see {@link #updateLevels(Vector3f)})
+	 * are meshed at full detail, level 0, and each doubling of the distance 
+	 * beyond it adds a level, up to {@link #MAX_LEVEL}. Each level halves the 
+	 * resolution, so the number of faces for each doubling of distance stays
+	 * about the same. Chunks whose level changes are meshed again.
+	 * @param levelDistance
+	 * 		The distance in cubes, or 0 (the default) to mesh every chunk at full detail
+	 */
+	public void setLevelDistance(float levelDistance) {
+		changeLevels(levelViewpoint, levelDistance);
+	}
+
+	/**
+	 * Move the viewpoint used to choose the level of detail of each
+	 * chunk, see {@link #setLevelDistance(float)}, and mesh again the
+	 * chunks whose level has changed, along with their neighbours. Levels
+	 * are chosen from the centre of the chunk containing the viewpoint, so
+	 * nothing changes until the viewpoint moves into another chunk. This 
+	 * can be called every frame, with the camera location, since it returns
+	 * straight away while the viewpoint stays in the same chunk, and only 
+	 * chunks that change level are meshed.
+	 * @param viewpoint
+	 * 		The viewpoint, in world coords
+	 */
+	public void updateLevels(Vector3f viewpoint) {
+		Vector3f local = rootNode.worldToLocal(viewpoint, new Vector3f());
+		float half = PresenceChunk.SIZE / 2f;
+		for (int axis = 0; axis < 3; axis++) {
+			int chunk = (int)Math.floor(local.get(axis)) >> PresenceChunk.BITS;
+			local.set(axis, (chunk << PresenceChunk.BITS) + half);
+		}
+		changeLevels(local, levelDistance);
+	}
+
+	/**
+	 * The level of detail a chunk is meshed at, from the current viewpoint
+	 * @param chunkKey
+	 * 		The chunk key
+	 * @return
+	 * 		The level, from 0 (full detail) to {@link #MAX_LEVEL}
+	 */
+	int chunkLevel(long chunkKey) {
+		return chunkLevel(chunkKey, levelViewpoint, levelDistance);
+	}
+
+	/**
+	 * The faces of a chunk where the neighbouring chunk is at a different level
+	 * @param chunkKey
+	 * 		The chunk key
+	 * @return
+	 * 		A mask with bit f set for each such face f
+	 */
+	int levelBorders(long chunkKey) {
+		int level = chunkLevel(chunkKey);
+		int borders = 0;
+		for (int f = 0; f < 6; f++) {
+			if (chunkLevel(neighbourChunk(chunkKey, f)) != level) borders |= 1 << f;
+		}
+		return borders;
+	}
+
+	/**
+	 * Whether a chunk overlaps the area that may have presence
+	 */
+	private boolean inGrid(long chunkKey) {
+		int[] chunk = new int[] {PresenceChunk.keyX(chunkKey), PresenceChunk.keyY(chunkKey), PresenceChunk.keyZ(chunkKey)};
+		for (int axis = 0; axis < 3; axis++) {
+			if (chunk[axis] < presence.getMin(axis) >> PresenceChunk.BITS 
+					|| chunk[axis] > presence.getMax(axis) >> PresenceChunk.BITS) return false;
+		}
+		return true;
+	}
+
+	private static long neighbourChunk(long chunkKey, int face) {
+		return PresenceChunk.key(PresenceChunk.keyX(chunkKey) + faceNormals[face][0], 
+				PresenceChunk.keyY(chunkKey) + faceNormals[face][1], 
+				PresenceChunk.keyZ(chunkKey) + faceNormals[face][2]);
+	}
+
+	private static int chunkLevel(long chunkKey, Vector3f viewpoint, float distance) {
+		if (viewpoint == null || distance <= 0) return 0;
+		float half = PresenceChunk.SIZE / 2f;
+		float dx = (PresenceChunk.keyX(chunkKey) << PresenceChunk.BITS) + half - viewpoint.x;
+		float dy = (PresenceChunk.keyY(chunkKey) << PresenceChunk.BITS) + half - viewpoint.y;
+		float dz = (PresenceChunk.keyZ(chunkKey) << PresenceChunk.BITS) + half - viewpoint.z;
+		float d = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+		int level = 0;
+		while (level < MAX_LEVEL && d >= distance) {
+			level++;
+			distance *= 2;
+		}
+		return level;
+	}
+
+	/**
+	 * Change the viewpoint and distance used to choose levels, meshing 
+	 * again every chunk whose level changes, and the neighbours of those 
+	 * chunks, whose borders change. Neighbours are meshed even if they have
+	 * no geometry, since they may have geometry once closed off. Nothing is
+	 * scanned if neither the viewpoint nor the distance has changed.
+	 */
+	private void changeLevels(Vector3f viewpoint, float distance) {
+		if (distance == levelDistance && (viewpoint == null ? levelViewpoint == null : viewpoint.equals(levelViewpoint))) return;
+		Vector3f oldViewpoint = levelViewpoint;
+		float oldDistance = levelDistance;
+		levelViewpoint = viewpoint;
+		levelDistance = distance;
+		if (meshMode == MeshMode.FACES) return;
+
+		LongHashMap<Boolean> chunksToMesh = new LongHashMap<Boolean>();
+		for (int c = 0; c < chunkNodes.capacity(); c++) {
+			if (chunkNodes.valueAt(c) == null) continue;
+			long chunkKey = chunkNodes.keyAt(c);
+			for (int f = -1; f < 6; f++) {
+				long changed = (f < 0) ? chunkKey : neighbourChunk(chunkKey, f);
+				if (chunkLevel(changed, oldViewpoint, oldDistance) != chunkLevel(changed, viewpoint, distance)) {
+					chunksToMesh.put(changed, Boolean.TRUE);
+					for (int g = 0; g < 6; g++) {
+						chunksToMesh.put(neighbourChunk(changed, g), Boolean.TRUE);
+					}
+				}
+			}
+		}
+		for (int c = 0; c < chunksToMesh.capacity(); c++) {
+			if (chunksToMesh.valueAt(c) != null && inGrid(chunksToMesh.keyAt(c))) {
+				meshChunk(chunksToMesh.keyAt(c));
+			}
+		}
+		meshQueue.update();
+	}
+
+	public OcclusionMode getOcclusionMode() {
+		return occlusionMode;
+	}
+
+	/**
+	 * Set how faces show occlusion. As for {@link #setMeshMode(MeshMode)},
+	 * this removes all geometry already built, so cubes must be built again
+	 * @param occlusionMode
+	 * 		The new occlusion mode
+	 */
+	public void setOcclusionMode(OcclusionMode occlusionMode) {
+		setMeshMode(meshMode);
+		this.occlusionMode = occlusionMode;
+	}
+
+	/**
+	 * Wrap a coord into the grid, for {@link OutOfGridPolicy#WRAP}.
+	 * Size is a power of two, so this is just a mask.
+	 */
+	private int wrap(int c) {
+		return c & (size - 1);
+	}
+
+	public MaterialGrid getMaterialGrid() {
+		return materials;
+	}
+
+	/**
+	 * The colour maps used for each material when building cubes
+	 * @return
+	 * 		Material textures
+	 */
+	public MaterialTextures getMaterialTextures() {
+		return materialTextures;
+	}
+
+	/**
+	 * Get the material id at a position
+	 * @param position
+	 * 		The position
+	 * @return
+	 * 		The material id, {@link MaterialGrid#DEFAULT} outside the grid
+	 */
+	public int getMaterial(Vector3i position) {
+		return getMaterial(position.getX(), position.getY(), position.getZ());
+	}
+
+	/**
+	 * Get the material id at a position, see {@link #getMaterial(Vector3i)}
+	 */
+	public int getMaterial(int x, int y, int z) {
+		if (!presence.contains(x, y, z)) {
+			if (outOfGridPolicy != OutOfGridPolicy.WRAP) return MaterialGrid.DEFAULT;
+			x = wrap(x);
+			y = wrap(y);
+			z = wrap(z);
+		}
+		return materials.getMaterial(x, y, z);
+	}
+
+	/**
+	 * Set the material id at a position. As for presence, this does
+	 * not affect any cube already built at the position.
+	 * @param position
+	 * 		The position
+	 * @param id
+	 * 		The material id
+	 */
+	public void setMaterial(Vector3i position, int id) {
+		setMaterial(position.getX(), position.getY(), position.getZ(), id);
+	}
+
+	/**
+	 * Set the material id at a position, see {@link #setMaterial(Vector3i, int)}
+	 */
+	public void setMaterial(int x, int y, int z, int id) {
+		if (!presence.contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside grid of size " + size);
+		}
+		materials.setMaterial(x, y, z, id);
+		markDirty(x, y, z);
+	}
+
+	public boolean getPresence(Vector3i position) {
+		return getPresence(position.getX(), position.getY(), position.getZ());
+	}
+
+	/**
+	 * Get presence at a position. This is the same as {@link #getPresence(Vector3i)},
+	 * but avoids going through a vector, so should be used in loops over 
+	 * many positions.
+	 */
+	public boolean getPresence(int x, int y, int z) {
+		//Inside the grid, or outside with no presence, we
+		//can just read the grid
+		if (outOfGridPolicy == OutOfGridPolicy.EMPTY || presence.contains(x, y, z)) {
+			return presence.getPresence(x, y, z);
+		}
+		if (outOfGridPolicy == OutOfGridPolicy.SOLID) return true;
+		return presence.getPresence(wrap(x), wrap(y), wrap(z));
+	}
+
+	/**
+	 * Get a row of presence along the x axis, as bits of a long,
+	 * as for {@link PresenceGrid#getRow(int, int, int)}, but with
+	 * positions outside the grid following the {@link OutOfGridPolicy}
+	 * @param x
+	 * 		x coord of the start of the row
+	 * @param y
+	 * 		y coord of the row
+	 * @param z
+	 * 		z coord of the row
+	 * @return
+	 * 		The row of presence bits
+	 */
+	public long getRow(int x, int y, int z) {
+		switch (outOfGridPolicy) {
+		case SOLID:
+			if (!presence.contains(0, y, z)) return -1L;
+			return presence.getRow(x, y, z) | ~insideMask(x);
+			
+		case WRAP:
+			y = wrap(y);
+			z = wrap(z);
+			
+			//Build the row from pieces of the grid row, wrapping
+			//around each time we reach the end
+			long row = 0;
+			int i = 0;
+			while (i < 64) {
+				int px = wrap(x + i);
+				int count = Math.min(64 - i, size - px);
+				long piece = presence.getRow(px, y, z);
+				if (count < 64) {
+					piece &= (1L << count) - 1;
+				}
+				row |= piece << i;
+				i += count;
+			}
+			return row;
+			
+		default:
+			return presence.getRow(x, y, z);
+		}
+	}
+
+	/**
+	 * The bits of a row starting at x that are inside the grid
+	 */
+	private long insideMask(int x) {
+		long start = Math.max(0L, -(long)x);
+		long end = Math.min(64L, (long)size - x);
+		if (start >= end) return 0;
+		long fromStart = -1L << start;
+		long belowEnd = end == 64 ? -1L : (1L << end) - 1;
+		return fromStart & belowEnd;
+	}
+
+	public void setPresence(Vector3i position, boolean present) {
+		setPresence(position.getX(), position.getY(), position.getZ(), present);
+	}
+
+	/**
+	 * Set presence at a position, see {@link #getPresence(int, int, int)}
+	 */
+	public void setPresence(int x, int y, int z, boolean present) {
+		presence.setPresence(x, y, z, present);
+		markDirty(x, y, z);
+	}
+
+	/**
+	 * The positions edited since cubes were last built, by setting presence,
+	 * materials or cubes, or by region edits, as a single box covering all edits.
+	 * This is cleared by {@link #update()} and {@link #buildAllCubes()}.
+	 * @return
+	 * 		The dirty region
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return dirty;
+	}
+
+	/**
+	 * Set presence at every position in a box. Grids write this
+	 * a row or a whole chunk at a time where they can.
+	 * @param minX
+	 * 		Minimum x coord, inclusive
+	 * @param minY
+	 * 		Minimum y coord, inclusive
+	 * @param minZ
+	 * 		Minimum z coord, inclusive
+	 * @param maxX
+	 * 		Maximum x coord, inclusive
+	 * @param maxY
+	 * 		Maximum y coord, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord, inclusive
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the box is outside the grid, in which case 
+	 * nothing is changed
+	 */
+	public void fillBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean present) {
+		presence.setBox(minX, minY, minZ, maxX, maxY, maxZ, present);
+		markDirty(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Set presence at every position within a sphere, that is
+	 * every position within radius of the center
+	 * @param x
+	 * 		x coord of center
+	 * @param y
+	 * 		y coord of center
+	 * @param z
+	 * 		z coord of center
+	 * @param radius
+	 * 		The radius of the sphere
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the sphere is outside the grid, in which case 
+	 * nothing is changed
+	 */
+	public void fillSphere(int x, int y, int z, float radius, boolean present) {
+		if (radius < 0) return;
+		int r = (int)radius;
+		checkRegion(x - r, y - r, z - r, x + r, y + r, z + r);
+		
+		//Each row through the sphere is a single span
+		float radiusSquared = radius * radius;
+		for (int dz = -r; dz <= r; dz++) {
+			for (int dy = -r; dy <= r; dy++) {
+				float remaining = radiusSquared - dy * dy - dz * dz;
+				if (remaining < 0) continue;
+				int dx = (int)Math.sqrt(remaining);
+				setSpan(x - dx, x + dx, y + dy, z + dz, present);
+			}
+		}
+		markDirty(x - r, y - r, z - r, x + r, y + r, z + r);
+	}
+
+	/**
+	 * Set presence at every position within a vertical (y axis) cylinder
+	 * @param x
+	 * 		x coord of center
+	 * @param z
+	 * 		z coord of center
+	 * @param minY
+	 * 		Minimum y coord of the cylinder, inclusive
+	 * @param maxY
+	 * 		Maximum y coord of the cylinder, inclusive
+	 * @param radius
+	 * 		The radius of the cylinder
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the cylinder is outside the grid, in which case 
+	 * nothing is changed
+	 */
+	public void fillCylinder(int x, int z, int minY, int maxY, float radius, boolean present) {
+		if (radius < 0 || minY > maxY) return;
+		int r = (int)radius;
+		checkRegion(x - r, minY, z - r, x + r, maxY, z + r);
+		
+		//Each slice through the cylinder along z is a box
+		float radiusSquared = radius * radius;
+		for (int dz = -r; dz <= r; dz++) {
+			int dx = (int)Math.sqrt(radiusSquared - dz * dz);
+			presence.setBox(x - dx, minY, z + dz, x + dx, maxY, z + dz, present);
+		}
+		markDirty(x - r, minY, z - r, x + r, maxY, z + r);
+	}
+
+	/**
+	 * Set presence at every position where a mask has presence,
+	 * leaving other positions unchanged
+	 * @param x
+	 * 		x offset of the mask, so presence at (mx, my, mz) in the mask 
+	 * sets presence at (x + mx, y + my, z + mz)
+	 * @param y
+	 * 		y offset of the mask
+	 * @param z
+	 * 		z offset of the mask
+	 * @param mask
+	 * 		The mask
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the box from {@link PresenceGrid#getMin(int)} to
+	 * {@link PresenceGrid#getMax(int)} of the mask, after offsetting, is 
+	 * outside the grid, in which case nothing is changed
+	 */
+	public void fillMask(int x, int y, int z, PresenceGrid mask, boolean present) {
+		int minX = mask.getMin(0);
+		int minY = mask.getMin(1);
+		int minZ = mask.getMin(2);
+		int maxX = mask.getMax(0);
+		int maxY = mask.getMax(1);
+		int maxZ = mask.getMax(2);
+		if (minX > maxX || minY > maxY || minZ > maxZ) return;
+		checkRegion(x + minX, y + minY, z + minZ, x + maxX, y + maxY, z + maxZ);
+		
+		for (int mz = minZ; mz <= maxZ; mz++) {
+			for (int my = minY; my <= maxY; my++) {
+				for (int mx = minX; mx <= maxX; mx += 64) {
+					long row = mask.getRow(mx, my, mz) & spanMask(maxX - mx + 1);
+					if (row != 0) {
+						presence.setRow(x + mx, y + my, z + mz, row, present);
+					}
+				}
+			}
+		}
+		markDirty(x + minX, y + minY, z + minZ, x + maxX, y + maxY, z + maxZ);
+	}
+
+	/**
+	 * Copy presence in a box from a grid into this grid, for example
+	 * from another {@link CubeGrid} using {@link #getPresenceGrid()}.
+	 * Both positions with and without presence are copied. The source
+	 * may be the presence of this grid, in which case the boxes may overlap.
+	 * @param source
+	 * 		The grid to copy from
+	 * @param minX
+	 * 		Minimum x coord of box in source, inclusive
+	 * @param minY
+	 * 		Minimum y coord of box in source, inclusive
+	 * @param minZ
+	 * 		Minimum z coord of box in source, inclusive
+	 * @param maxX
+	 * 		Maximum x coord of box in source, inclusive
+	 * @param maxY
+	 * 		Maximum y coord of box in source, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord of box in source, inclusive
+	 * @param x
+	 * 		x coord in this grid to copy minimum corner of box to
+	 * @param y
+	 * 		y coord in this grid to copy minimum corner of box to
+	 * @param z
+	 * 		z coord in this grid to copy minimum corner of box to
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the box, after moving, is outside this grid, in 
+	 * which case nothing is changed
+	 */
+	public void copyRegion(PresenceGrid source, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, int x, int y, int z) {
+		if (minX > maxX || minY > maxY || minZ > maxZ) return;
+		int dx = x - minX;
+		int dy = y - minY;
+		int dz = z - minZ;
+		checkRegion(x, y, z, maxX + dx, maxY + dy, maxZ + dz);
+		
+		//When copying within a grid, work from the far end of any 
+		//axis we copy towards, so we only overwrite positions already copied 
+		int stepZ = dz > 0 ? -1 : 1;
+		int stepY = dy > 0 ? -1 : 1;
+		int startZ = dz > 0 ? maxZ : minZ;
+		int startY = dy > 0 ? maxY : minY;
+		int rows = (maxX - minX) / 64;
+		for (int sz = startZ; sz >= minZ && sz <= maxZ; sz += stepZ) {
+			for (int sy = startY; sy >= minY && sy <= maxY; sy += stepY) {
+				for (int r = 0; r <= rows; r++) {
+					int sx = minX + 64 * (dx > 0 ? rows - r : r);
+					long span = spanMask(maxX - sx + 1);
+					long row = source.getRow(sx, sy, sz) & span;
+					presence.setRow(sx + dx, sy + dy, sz + dz, row, true);
+					presence.setRow(sx + dx, sy + dy, sz + dz, ~row & span, false);
+				}
+			}
+		}
+		markDirty(x, y, z, maxX + dx, maxY + dy, maxZ + dz);
+	}
+
+	/**
+	 * Record an edit to a box of positions, marking the cubes in the box,
+	 * and their neighbours, for rebuilding
+	 */
+	private void markDirty(int x, int y, int z) {
+		markDirty(x, y, z, x, y, z);
+	}
+
+	/**
+	 * Record an edit to a box of positions, see {@link #markDirty(int, int, int)}
+	 */
+	private void markDirty(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		dirty.include(minX, minY, minZ, maxX, maxY, maxZ);
+		if (outOfGridPolicy == OutOfGridPolicy.WRAP) {
+			markDirtyWrapped(minX - 1, minY - 1, minZ - 1, maxX + 1, maxY + 1, maxZ + 1);
+		} else {
+			markDirtyClipped(minX - 1, minY - 1, minZ - 1, maxX + 1, maxY + 1, maxZ + 1);
+		}
+	}
+
+	/**
+	 * Mark a box extending at most one position outside the grid for 
+	 * rebuilding, wrapping parts outside the grid to the other side
+	 */
+	private void markDirtyWrapped(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (minX < 0) {
+			markDirtyWrapped(0, minY, minZ, maxX, maxY, maxZ);
+			markDirtyWrapped(minX + size, minY, minZ, size - 1, maxY, maxZ);
+		} else if (maxX >= size) {
+			markDirtyWrapped(minX, minY, minZ, size - 1, maxY, maxZ);
+			markDirtyWrapped(0, minY, minZ, maxX - size, maxY, maxZ);
+		} else if (minY < 0) {
+			markDirtyWrapped(minX, 0, minZ, maxX, maxY, maxZ);
+			markDirtyWrapped(minX, minY + size, minZ, maxX, size - 1, maxZ);
+		} else if (maxY >= size) {
+			markDirtyWrapped(minX, minY, minZ, maxX, size - 1, maxZ);
+			markDirtyWrapped(minX, 0, minZ, maxX, maxY - size, maxZ);
+		} else if (minZ < 0) {
+			markDirtyWrapped(minX, minY, 0, maxX, maxY, maxZ);
+			markDirtyWrapped(minX, minY, minZ + size, maxX, maxY, size - 1);
+		} else if (maxZ >= size) {
+			markDirtyWrapped(minX, minY, minZ, maxX, maxY, size - 1);
+			markDirtyWrapped(minX, minY, 0, maxX, maxY, maxZ - size);
+		} else {
+			dirtyCubes.setBox(minX, minY, minZ, maxX, maxY, maxZ, true);
+		}
+	}
+
+	/**
+	 * Mark the part of a box within the area that may have presence
+	 * for rebuilding
+	 */
+	private void markDirtyClipped(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		minX = Math.max(minX, presence.getMin(0));
+		minY = Math.max(minY, presence.getMin(1));
+		minZ = Math.max(minZ, presence.getMin(2));
+		maxX = Math.min(maxX, presence.getMax(0));
+		maxY = Math.min(maxY, presence.getMax(1));
+		maxZ = Math.min(maxZ, presence.getMax(2));
+		dirtyCubes.setBox(minX, minY, minZ, maxX, maxY, maxZ, true);
+	}
+
+	/**
+	 * Check that a box is inside the grid, before editing it
+	 */
+	private void checkRegion(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (!(presence.contains(minX, minY, minZ) && presence.contains(maxX, maxY, maxZ))) {
+			throw new IndexOutOfBoundsException("Region from (" + minX + ", " + minY + ", " + minZ + ") to (" 
+					+ maxX + ", " + maxY + ", " + maxZ + ") is outside grid of size " + size);
+		}
+	}
+
+	/**
+	 * Set presence along a span of a row, up to 64 positions at a time
+	 */
+	private void setSpan(int minX, int maxX, int y, int z, boolean present) {
+		for (int x = minX; x <= maxX; x += 64) {
+			presence.setRow(x, y, z, spanMask(maxX - x + 1), present);
+		}
+	}
+
+	/**
+	 * A row mask with the lowest count bits set, or all
+	 * bits for a count of 64 or more
+	 */
+	private static long spanMask(int count) {
+		return count >= 64 ? -1L : (1L << count) - 1;
+	}
+
+	/**
+	 * Check for any presence within a box of positions
+	 * @param min
+	 * 		The minimum corner of the box, inclusive
+	 * @param max
+	 * 		The maximum corner of the box, inclusive
+	 * @return
+	 * 		True iff there is presence at any position in the box
+	 */
+	public boolean anyPresent(Vector3i min, Vector3i max) {
+		return presence.anyPresent(min.getX(), min.getY(), min.getZ(), max.getX(), max.getY(), max.getZ());
+	}
+
+	/**
+	 * Check for any presence within a box of positions, 
+	 * see {@link #anyPresent(Vector3i, Vector3i)}
+	 */
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (outOfGridPolicy == OutOfGridPolicy.EMPTY) {
+			return presence.anyPresent(minX, minY, minZ, maxX, maxY, maxZ);
+		}
+		if (minX > maxX || minY > maxY || minZ > maxZ) return false;
+		
+		if (outOfGridPolicy == OutOfGridPolicy.SOLID) {
+			//Any of the box outside the grid is solid
+			if (!(presence.contains(minX, minY, minZ) && presence.contains(maxX, maxY, maxZ))) return true;
+			return presence.anyPresent(minX, minY, minZ, maxX, maxY, maxZ);
+		}
+		
+		//Move the start of the box into the grid on each axis, and
+		//cover the whole axis if the box is at least as large as the grid
+		if ((long)maxX - minX + 1 >= size) {
+			minX = 0;
+			maxX = size - 1;
+		} else {
+			maxX = wrap(minX) + (maxX - minX);
+			minX = wrap(minX);
+		}
+		if ((long)maxY - minY + 1 >= size) {
+			minY = 0;
+			maxY = size - 1;
+		} else {
+			maxY = wrap(minY) + (maxY - minY);
+			minY = wrap(minY);
+		}
+		if ((long)maxZ - minZ + 1 >= size) {
+			minZ = 0;
+			maxZ = size - 1;
+		} else {
+			maxZ = wrap(minZ) + (maxZ - minZ);
+			minZ = wrap(minZ);
+		}
+		return anyPresentWrapped(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Check for presence in a box starting inside the grid, which
+	 * may extend past the maximum edge of the grid by less than the
+	 * grid size. Parts past the edge are wrapped to the other side
+	 * of the grid, splitting the box on that axis.
+	 */
+	private boolean anyPresentWrapped(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (maxX >= size) {
+			return anyPresentWrapped(minX, minY, minZ, size - 1, maxY, maxZ)
+					|| anyPresentWrapped(0, minY, minZ, maxX - size, maxY, maxZ);
+		}
+		if (maxY >= size) {
+			return anyPresentWrapped(minX, minY, minZ, maxX, size - 1, maxZ)
+					|| anyPresentWrapped(minX, 0, minZ, maxX, maxY - size, maxZ);
+		}
+		if (maxZ >= size) {
+			return anyPresentWrapped(minX, minY, minZ, maxX, maxY, size - 1)
+					|| anyPresentWrapped(minX, minY, 0, maxX, maxY, maxZ - size);
+		}
+		return presence.anyPresent(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Get the presence of the 3x3x3 block of positions centered
+	 * on a position, as a bitmask. The presence at offset (dx, dy, dz)
+	 * from the center is in bit {@link #neighbourBit(int, int, int)}.
+	 * This reads 9 rows of presence, rather than 27 single positions.
+	 * @param x
+	 * 		x coord of center
+	 * @param y
+	 * 		y coord of center
+	 * @param z
+	 * 		z coord of center
+	 * @return
+	 * 		The neighbourhood bitmask
+	 */
+	public int getNeighbourhood(int x, int y, int z) {
+		int neighbourhood = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				//Bits 0, 1, 2 of the row are x-1, x and x+1
+				int row = (int)(getRow(x - 1, y + dy, z + dz) & 7);
+				neighbourhood |= row << neighbourBit(-1, dy, dz);
+			}
+		}
+		return neighbourhood;
+	}
+
+	/**
+	 * The bit within a neighbourhood bitmask (see {@link #getNeighbourhood(int, int, int)})
+	 * holding the presence at a given offset from the center
+	 * @param dx
+	 * 		x offset, -1, 0 or 1
+	 * @param dy
+	 * 		y offset, -1, 0 or 1
+	 * @param dz
+	 * 		z offset, -1, 0 or 1
+	 * @return
+	 * 		The bit index
+	 */
+	public static int neighbourBit(int dx, int dy, int dz) {
+		return (dx + 1) + 3 * (dy + 1) + 9 * (dz + 1);
+	}
+	
+	/**
+	 * The key in cubeChunks of the chunk containing a position
+	 */
+	private static long chunkKey(int x, int y, int z) {
+		return PresenceChunk.key(x >> PresenceChunk.BITS, y >> PresenceChunk.BITS, z >> PresenceChunk.BITS);
+	}
+
+	/**
+	 * The index within a chunk array of cubeChunks for a position
+	 */
+	private static int indexInChunk(int x, int y, int z) {
+		return PresenceChunk.indexInChunk(x & PresenceChunk.MASK, y & PresenceChunk.MASK, z & PresenceChunk.MASK);
+	}
+	
+	/**
+	 * The x coord of a cube from the chunk key and 
+	 * index in chunk of the cube in cubeChunks
+	 */
+	private static int cubeX(long chunkKey, int indexInChunk) {
+		return (PresenceChunk.keyX(chunkKey) << PresenceChunk.BITS) | (indexInChunk & PresenceChunk.MASK);
+	}
+
+	/**
+	 * The y coord of a cube, see {@link #cubeX(long, int)}
+	 */
+	private static int cubeY(long chunkKey, int indexInChunk) {
+		return (PresenceChunk.keyY(chunkKey) << PresenceChunk.BITS) | ((indexInChunk >> PresenceChunk.BITS) & PresenceChunk.MASK);
+	}
+
+	/**
+	 * The z coord of a cube, see {@link #cubeX(long, int)}
+	 */
+	private static int cubeZ(long chunkKey, int indexInChunk) {
+		return (PresenceChunk.keyZ(chunkKey) << PresenceChunk.BITS) | (indexInChunk >> (2 * PresenceChunk.BITS));
+	}
+	
+	public ACube getCube(Vector3i position) {
+		return getCube(position.getX(), position.getY(), position.getZ());
+	}
+
+	/**
+	 * Get the cube at a position, see {@link #getCube(Vector3i)}
+	 */
+	public ACube getCube(int x, int y, int z) {
+		if (!presence.contains(x, y, z)) {
+			if (outOfGridPolicy != OutOfGridPolicy.WRAP) return null;
+			x = wrap(x);
+			y = wrap(y);
+			z = wrap(z);
+		}
+		ACube[] chunk = cubeChunks.get(chunkKey(x, y, z));
+		if (chunk == null) return null;
+		return chunk[indexInChunk(x, y, z)];
+	}
+
+	public void setCube(Vector3i position, ACube cube) {
+		setCube(position.getX(), position.getY(), position.getZ(), cube);
 	}
 
-	public boolean getPresence(Vector3i position) {
-		try {
-			return presenceGrid[position.getX()][position.getY()][position.getZ()];
-		} catch (ArrayIndexOutOfBoundsException aioobe) {
-			return false;
+	/**
+	 * Set the cube at a position, see {@link #setCube(Vector3i, ACube)}
+	 */
+	public void setCube(int x, int y, int z, ACube cube) {
+		//Check position first, so we fail before changing anything
+		if (!presence.contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside grid of size " + size);
 		}
+		storeCube(x, y, z, cube);
+		setPresence(x, y, z, (cube!=null));
 	}
 
-	public void setPresence(Vector3i position, boolean present) {
-		presenceGrid[position.getX()][position.getY()][position.getZ()] = present;
+	/**
+	 * Store a cube (or null) at a position in the grid, attaching it to its chunk 
+	 * node and detaching any previous cube, without changing presence
+	 */
+	private void storeCube(int x, int y, int z, ACube cube) {
+		long chunkKey = chunkKey(x, y, z);
+		ACube[] chunk = cubeChunks.get(chunkKey);
+		if (chunk == null && cube != null) {
+			chunk = new ACube[PresenceChunk.VOLUME];
+			cubeChunks.put(chunkKey, chunk);
+		}
+		if (chunk != null) {
+			int index = indexInChunk(x, y, z);
+			if (chunk[index] != null) {
+				chunk[index].removeFromParent();
+			}
+			chunk[index] = cube;
+		}
+		if (cube != null) {
+			chunkNode(chunkKey).attachChild(cube);
+		}
 	}
-	
-	public ACube getCube(Vector3i position) {
-		try {
-			return cubeGrid[position.getX()][position.getY()][position.getZ()];
-		} catch (ArrayIndexOutOfBoundsException aioobe) {
-			return null;
-		}		
+
+	/**
+	 * Get the scene graph node for a chunk, creating it 
+	 * if needed
+	 */
+	private Node chunkNode(long chunkKey) {
+		Node node = chunkNodes.get(chunkKey);
+		if (node == null) {
+			node = new Node("Chunk (" + PresenceChunk.keyX(chunkKey) + ", " 
+					+ PresenceChunk.keyY(chunkKey) + ", " + PresenceChunk.keyZ(chunkKey) + ")");
+			chunkNodes.put(chunkKey, node);
+			regionNode(chunkKey).attachChild(node);
+		}
+		return node;
 	}
 
-	public void setCube(Vector3i position, ACube cube) {
-		cubeGrid[position.getX()][position.getY()][position.getZ()] = cube;
-		setPresence(position, (cube!=null));
+	/**
+	 * Get the scene graph node for the region containing a 
+	 * chunk, creating it if needed
+	 */
+	private Node regionNode(long chunkKey) {
+		int rx = PresenceChunk.keyX(chunkKey) >> REGION_BITS;
+		int ry = PresenceChunk.keyY(chunkKey) >> REGION_BITS;
+		int rz = PresenceChunk.keyZ(chunkKey) >> REGION_BITS;
+		long regionKey = PresenceChunk.key(rx, ry, rz);
+		Node node = regionNodes.get(regionKey);
+		if (node == null) {
+			node = new Node("Region (" + rx + ", " + ry + ", " + rz + ")");
+			regionNodes.put(regionKey, node);
+			rootNode.attachChild(node);
+		}
+		return node;
 	}
 
+	/**
+	 * The number of positions along an edge of the grid
+	 * @param dimension
+	 * 		The axis of the edge
+	 * @return
+	 * 		size, or {@link PresenceGrid#UNBOUNDED}
+	 */
 	public int size(int dimension) {
-		if (dimension == 0) {
-			return presenceGrid.length;
-		} else if (dimension == 1) {
-			return presenceGrid[0].length;
-		} else {
-			return presenceGrid[0][0].length;
-		}
+		return size;
 	}
 	
 	/**
@@ -155,127 +1284,432 @@ public class CubeGrid {
 	 * 		The iso and layer coordinates of the view tri as a vector. 
 	 */
 	public static Vector3iDefault cubeViewTriToIso(boolean positiveDirection, Vector3iDefault cubePos, int viewTri, Vector3iDefault target) {
+		return cubeViewTriToIso(positiveDirection, cubePos.getX(), cubePos.getY(), cubePos.getZ(), viewTri, target);
+	}
+	
+	/**
+	 * Work out the iso coordinate and layer of the given viewTri of a cube at a given
+	 * position, see {@link #cubeViewTriToIso(boolean, Vector3iDefault, int, Vector3iDefault)}
+	 */
+	public static Vector3iDefault cubeViewTriToIso(boolean positiveDirection, int x, int y, int z, int viewTri, Vector3iDefault target) {
 		
-		int positiveIndex = positiveDirection ? 0 : 1;
+		int[][] offsets = isoOffsetsBiDi[positiveDirection ? 0 : 1];
 		int dir = positiveDirection ? 1 : -1;
 		
 		//If we have no target, make one
 		if (target == null) target = new Vector3iDefault();
 		
-		//First work out which layer we are in, store in z component of target
+		//First work out which layer we are in
 		//Moving any integer vector in 3D moves you in the layers by the sum of the
 		//components in each direction
-		target.set(2, dir * (cubePos.getX() + cubePos.getY() + cubePos.getZ()));
+		int layer = dir * (x + y + z);
 		
 		//Now work out our iso offset for viewTri 0, given cube position,
-		//store in x and y components of target (for x and y iso coords)
-		for (int isoAxis = 0; isoAxis < 2; isoAxis++) {
-			target.set(isoAxis, 0);
-			for (int axis = 0; axis < 3; axis++) {
-				target.set(isoAxis, target.get(isoAxis) + cubePos.get(axis) * isoOffsetsBiDi[positiveIndex][axis][isoAxis]);
-			}
-		}
+		//and add the iso offset for the view tri we want
+		int isoX = x * offsets[0][0] + y * offsets[1][0] + z * offsets[2][0] + isoOffsetsForViewTris[viewTri][0];
+		int isoY = x * offsets[0][1] + y * offsets[1][1] + z * offsets[2][1] + isoOffsetsForViewTris[viewTri][1];
 		
-		//Now add the iso offset for the view tri we want
-		target.set(0, target.get(0) + isoOffsetsForViewTris[viewTri][0]);
-		target.set(1, target.get(1) + isoOffsetsForViewTris[viewTri][1]);
+		//Iso coords in x and y components of target, layer in z
+		target.set(isoX, isoY, layer);
 		
 		return target;
 	}
 	
 	public void shade(boolean positiveDirection, ColorRGBA light, ColorRGBA shade, ColorRGBA[] additional) {
-		Map<Vector2i, Integer> closestLayer = new HashMap<Vector2i, Integer>();
+		closestLayer = new HashMap<Vector2i, Integer>();
+		shadePositiveDirection = positiveDirection;
+		shadeLight = light;
+		shadeDark = shade;
+		shadeAdditional = additional;
 		
-		int positiveIndex = positiveDirection ? 0 : 1;
-
-		Vector3iDefault pos = new Vector3iDefault();
 		Vector3iDefault isoAndLayer = new Vector3iDefault();
 		Vector2iDefault iso = new Vector2iDefault();
 		
-		for (int x = 0; x < size(0); x++) {
-			for (int y = 0; y < size(1); y++) {
-				for (int z = 0; z < size(2); z++) {
-					pos.set(x, y, z);
-					
-					if (getCube(pos) != null) {
-						for (int viewTri = 0; viewTri < 6; viewTri++) {
-							//Get the iso and layer we are in, and unpack iso into 2d vector
-							isoAndLayer = cubeViewTriToIso(positiveDirection, pos, viewTri, isoAndLayer);
-							iso.setComponents(isoAndLayer.getX(), isoAndLayer.getY());
-							
-							//System.out.println(pos + ":" + viewTri + "->" + isoAndLayer);
-							
-							//Find current closest layer at this iso
-							Integer closest = closestLayer.get(iso);
-							
-							//If there is no current layer, or we are closer, then use this one
-							if ((closest == null) || (isoAndLayer.getZ() < closest)) {
-								closestLayer.put(new Vector2iDefault(iso), isoAndLayer.getZ());
+		if (meshMode != MeshMode.FACES) {
+			//There are no cubes, so look for the positions that are visible,
+			//only in chunks with presence
+			int chunkSize = PresenceChunk.SIZE;
+			for (int cz = presence.getMin(2) >> PresenceChunk.BITS; cz <= presence.getMax(2) >> PresenceChunk.BITS; cz++) {
+				for (int cy = presence.getMin(1) >> PresenceChunk.BITS; cy <= presence.getMax(1) >> PresenceChunk.BITS; cy++) {
+					for (int cx = presence.getMin(0) >> PresenceChunk.BITS; cx <= presence.getMax(0) >> PresenceChunk.BITS; cx++) {
+						int chunkX = cx << PresenceChunk.BITS;
+						int chunkY = cy << PresenceChunk.BITS;
+						int chunkZ = cz << PresenceChunk.BITS;
+						if (!presence.anyPresent(chunkX, chunkY, chunkZ, chunkX + chunkSize - 1, chunkY + chunkSize - 1, chunkZ + chunkSize - 1)) continue;
+						for (int z = chunkZ; z < chunkZ + chunkSize; z++) {
+							for (int y = chunkY; y < chunkY + chunkSize; y++) {
+								for (int x = chunkX; x < chunkX + chunkSize; x++) {
+									if (hasCube(x, y, z)) {
+										addClosest(x, y, z, isoAndLayer, iso);
+									}
+								}
 							}
 						}
 					}
 				}
 			}
+		} else {
+			//Only chunks that have cubes need to be scanned
+			for (int c = 0; c < cubeChunks.capacity(); c++) {
+				ACube[] chunk = cubeChunks.valueAt(c);
+				if (chunk == null) continue;
+				long chunkKey = cubeChunks.keyAt(c);
+				for (int i = 0; i < chunk.length; i++) {
+					if (chunk[i] != null) {
+						addClosest(cubeX(chunkKey, i), cubeY(chunkKey, i), cubeZ(chunkKey, i), isoAndLayer, iso);
+					}
+				}
+			}
 		}
 
 		//We now have a mapping from each iso that actually contains a cube viewTri to the
 		//closest layer on which there is such a viewTri. Hence the closest viewTri gets the
 		//lighting, and the rest are dark
 		//Scan back through and do this
-		for (int x = 0; x < size(0); x++) {
-			for (int y = 0; y < size(1); y++) {
-				for (int z = 0; z < size(2); z++) {
-					pos.set(x, y, z);
-
-					ACube cube = getCube(pos);
+		if (meshMode != MeshMode.FACES) {
+			for (int c = 0; c < chunkNodes.capacity(); c++) {
+				if (chunkNodes.valueAt(c) != null) {
+					meshChunk(chunkNodes.keyAt(c));
+				}
+			}
+		} else {
+			for (int c = 0; c < cubeChunks.capacity(); c++) {
+				ACube[] chunk = cubeChunks.valueAt(c);
+				if (chunk == null) continue;
+				long chunkKey = cubeChunks.keyAt(c);
+				for (int i = 0; i < chunk.length; i++) {
+					ACube cube = chunk[i];
 					if (cube != null) {
-						
-						//Make all faces dark first
-						for (int f = 0; f < 6; f++) {
-							AFace face = cube.getFace(f);
-							if (face != null) {
-								face.setFaceColor(shade.add(additional[f]));
-							}
+						shadeCube(cube, cubeX(chunkKey, i), cubeY(chunkKey, i), cubeZ(chunkKey, i), isoAndLayer, iso);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the closest layers with the view tris of a cube
+	 */
+	private void addClosest(int x, int y, int z, Vector3iDefault isoAndLayer, Vector2iDefault iso) {
+		for (int viewTri = 0; viewTri < 6; viewTri++) {
+			//Get the iso and layer we are in, and unpack iso into 2d vector
+			isoAndLayer = cubeViewTriToIso(shadePositiveDirection, x, y, z, viewTri, isoAndLayer);
+			iso.setComponents(isoAndLayer.getX(), isoAndLayer.getY());
+			
+			//Find current closest layer at this iso
+			Integer closest = closestLayer.get(iso);
+			
+			//If there is no current layer, or we are closer, then use this one
+			if ((closest == null) || (isoAndLayer.getZ() < closest)) {
+				closestLayer.put(new Vector2iDefault(iso), isoAndLayer.getZ());
+			}
+		}
+	}
+
+	/**
+	 * Shade the faces of a cube using the closest layers from
+	 * the last shade
+	 */
+	private void shadeCube(ACube cube, int x, int y, int z, Vector3iDefault isoAndLayer, Vector2iDefault iso) {
+		int lit = litTris(x, y, z, isoAndLayer, iso);
+		for (int f = 0; f < 6; f++) {
+			AFace face = cube.getFace(f);
+			if (face != null) {
+				ColorRGBA dark = shadeColor(f, false);
+				ColorRGBA light = shadeColor(f, true);
+				for (int tri = 0; tri < 4; tri++) {
+					face.setTriColor(tri, (lit & (1 << (4 * f + tri))) != 0 ? light : dark);
+				}
+			}
+		}
+	}
+
+	/**
+	 * True if the grid has been shaded, so that cubes built
+	 * are shaded with the same settings
+	 */
+	boolean isShaded() {
+		return closestLayer != null;
+	}
+
+	/**
+	 * The colour of lit or unlit tris on a face, from the last shade
+	 */
+	ColorRGBA shadeColor(int face, boolean lit) {
+		return (lit ? shadeLight : shadeDark).add(shadeAdditional[face]);
+	}
+
+	/**
+	 * Find which tris of a cube are lit using the closest layers
+	 * from the last shade - only the closest view tri at each iso
+	 * gets the light.
+	 * @return
+	 * 		A bitmask with bit (4 * face + tri) set for each lit tri
+	 */
+	int litTris(int x, int y, int z, Vector3iDefault isoAndLayer, Vector2iDefault iso) {
+		int positiveIndex = shadePositiveDirection ? 0 : 1;
+		int lit = 0;
+		for (int viewTri = 0; viewTri < 6; viewTri++) {
+			
+			//Get the iso and layer we are in, and unpack iso into 2d vector
+			isoAndLayer = cubeViewTriToIso(shadePositiveDirection, x, y, z, viewTri, isoAndLayer);
+			iso.setComponents(isoAndLayer.getX(), isoAndLayer.getY());
+
+			//Only closest gets light
+			Integer closest = closestLayer.get(iso);
+			if (closest != null && isoAndLayer.getZ() == closest) {
+				//Work out which face and which tris we are shading
+				int[] indices = AFace.viewTriBiDiIndices[positiveIndex][viewTri];
+				lit |= 1 << (4 * indices[0] + indices[1]);
+				lit |= 1 << (4 * indices[0] + indices[2]);
+			}
+		}
+		return lit;
+	}
+
+	/**
+	 * Whether there is a visible cube at a position - a built cube, or 
+	 * in {@link MeshMode#CHUNKS} a position with presence that is not
+	 * enclosed
+	 */
+	private boolean hasCube(int x, int y, int z) {
+		if (meshMode == MeshMode.FACES) return getCube(x, y, z) != null;
+		return presence.getPresence(x, y, z) && isVisible(getNeighbourhood(x, y, z));
+	}
+
+	/**
+	 * Add the isos covered by the view tris of a position, for
+	 * {@link #shadeIsos(Set)}
+	 */
+	private void addIsos(int x, int y, int z, Set<Vector2i> isos, Vector3iDefault isoAndLayer, Vector2iDefault iso) {
+		for (int viewTri = 0; viewTri < 6; viewTri++) {
+			isoAndLayer = cubeViewTriToIso(shadePositiveDirection, x, y, z, viewTri, isoAndLayer);
+			iso.setComponents(isoAndLayer.getX(), isoAndLayer.getY());
+			if (!isos.contains(iso)) {
+				isos.add(new Vector2iDefault(iso));
+			}
+		}
+	}
+
+	/**
+	 * Update shading after cubes have been rebuilt, using the settings
+	 * from the last shade. The rebuilt cubes themselves must be shaded
+	 * afterwards with {@link #shadeCube}.
+	 * 
+	 * Shading depends on the closest view tri along each line of sight, so
+	 * this takes every iso covered by a rebuilt position (see {@link #addIsos}), 
+	 * recalculates the closest layer for each by walking the lines of positions 
+	 * that can cover it from the viewer until a cube is found, and reshades the 
+	 * cubes on the old and new closest layers where this has changed. This is 
+	 * at worst proportional to the number of rebuilt positions times the depth
+	 * of the grid, rather than the number of cubes in the grid.
+	 * 
+	 * In {@link MeshMode#CHUNKS}, cubes are reshaded by adding their chunk
+	 * to chunksToMesh, otherwise this is null.
+	 */
+	private void shadeIsos(Set<Vector2i> isos, LongHashMap<Boolean> chunksToMesh) {
+		Vector3iDefault isoAndLayer = new Vector3iDefault();
+		Vector2iDefault iso = new Vector2iDefault();
+		Map<Vector2i, Integer> changedLayers = new HashMap<Vector2i, Integer>();
+		
+		//Find the new closest layer for each iso
+		for (Vector2i lineIso : isos) {
+			Integer closest = null;
+			for (int viewTri = 0; viewTri < 6; viewTri++) {
+				int[] line = isoLine(lineIso, viewTri);
+				if (line == null) continue;
+				
+				//Layers increase along the line in the view direction, so
+				//the first cube we find is the closest for this view tri
+				int z = shadePositiveDirection ? line[2] : line[3];
+				int step = shadePositiveDirection ? 1 : -1;
+				for (; z >= line[2] && z <= line[3]; z += step) {
+					if (hasCube(z + line[0], z + line[1], z)) {
+						int layer = (shadePositiveDirection ? 1 : -1) * (3 * z + line[0] + line[1]);
+						if (closest == null || layer < closest) {
+							closest = layer;
 						}
-						
-						for (int viewTri = 0; viewTri < 6; viewTri++) {
-							
-							//Get the iso and layer we are in, and unpack iso into 2d vector
-							isoAndLayer = cubeViewTriToIso(positiveDirection, pos, viewTri, isoAndLayer);
-							iso.setComponents(isoAndLayer.getX(), isoAndLayer.getY());
-
-							//Find current closest layer at this iso
-							Integer closest = closestLayer.get(iso);
-							
-							//If there is no closest, this is an error
-							if (closest == null) {
-								System.out.println("ERROR - no closest layer for a cube");
-								
-							//Otherwise shade faces
-							} else {
-								//Only closest gets light
-								if (isoAndLayer.getZ() == closest) {
-									//Work out which face and which tris we are shading
-									int[] indices = AFace.viewTriBiDiIndices[positiveIndex][viewTri];
-									int f = indices[0];
-									AFace face = cube.getFace(f);
-									if (face != null) {
-										ColorRGBA actualLight = light.add(additional[f]);
-										//ColorRGBA actualShade = shade.add(additional[f]);
-										//ColorRGBA actualColor = ColorRGBA.
-										face.setTriColor(indices[1], actualLight);
-										face.setTriColor(indices[2], actualLight);
-									}
-								}
-							}
-						}						
+						break;
 					}
 				}
 			}
+			Integer previous = (closest == null) ? closestLayer.remove(lineIso) : closestLayer.put(lineIso, closest);
+			if (previous != null && !previous.equals(closest)) {
+				changedLayers.put(lineIso, previous);
+			}
+		}
+		
+		//Where the closest layer has changed, only the cubes on the old and new 
+		//closest layers change lighting, other than the rebuilt cubes themselves
+		for (Map.Entry<Vector2i, Integer> entry : changedLayers.entrySet()) {
+			shadeLayer(entry.getKey(), entry.getValue(), chunksToMesh, isoAndLayer, iso);
+			Integer closest = closestLayer.get(entry.getKey());
+			if (closest != null) {
+				shadeLayer(entry.getKey(), closest, chunksToMesh, isoAndLayer, iso);
+			}
+		}
+	}
+
+	/**
+	 * Shade the cubes with a view tri at an iso on a given layer - there
+	 * is at most one position on each line of sight for each view tri
+	 */
+	private void shadeLayer(Vector2i lineIso, int layer, LongHashMap<Boolean> chunksToMesh, Vector3iDefault isoAndLayer, Vector2iDefault iso) {
+		for (int viewTri = 0; viewTri < 6; viewTri++) {
+			int[] line = isoLine(lineIso, viewTri);
+			if (line == null) continue;
+			
+			//Layer is 3z + ex + ey in the view direction
+			int offset = (shadePositiveDirection ? layer : -layer) - line[0] - line[1];
+			if (offset % 3 != 0) continue;
+			int z = offset / 3;
+			if (z < line[2] || z > line[3]) continue;
+			
+			if (chunksToMesh != null) {
+				chunksToMesh.put(chunkKey(z + line[0], z + line[1], z), Boolean.TRUE);
+			} else {
+				ACube cube = getCube(z + line[0], z + line[1], z);
+				if (cube != null) {
+					shadeCube(cube, z + line[0], z + line[1], z, isoAndLayer, iso);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The line of positions, within the area that may have presence, whose 
+	 * given view tri is at an iso. Moving by one on every axis leaves iso
+	 * unchanged, so these are the positions (z + ex, z + ey, z). Returns
+	 * {ex, ey, minZ, maxZ}, or null if no position has the view tri at the iso.
+	 */
+	private int[] isoLine(Vector2i iso, int viewTri) {
+		int a = iso.getX() - isoOffsetsForViewTris[viewTri][0];
+		int b = iso.getY() - isoOffsetsForViewTris[viewTri][1];
+		
+		//Iso x always moves by 2, so odd offsets have no position
+		if ((a & 1) != 0) return null;
+		
+		//Solve for position with z = 0, see isoOffsets and isoOffsetsNegative
+		int ex;
+		int ey;
+		if (shadePositiveDirection) {
+			ex = a / 2;
+			ey = b;
+		} else {
+			ex = -b;
+			ey = -a / 2;
 		}
+		int minZ = Math.max(presence.getMin(2), Math.max(presence.getMin(0) - ex, presence.getMin(1) - ey));
+		int maxZ = Math.min(presence.getMax(2), Math.min(presence.getMax(0) - ex, presence.getMax(1) - ey));
+		if (minZ > maxZ) return null;
+		return new int[] {ex, ey, minZ, maxZ};
 	}
 	
-	private final static Vector3iDefault temp1 = new Vector3iDefault();
+	/**
+	 * The neighbourhood bit (see {@link #getNeighbourhood(int, int, int)}) 
+	 * for the position adjacent to each face of a cube, indexed by face
+	 */
+	private final static int[] faceNeighbourBits = new int[6];
+
+	/**
+	 * The neighbourhood bit (see {@link #getNeighbourhood(int, int, int)}) 
+	 * for each of the positions that can occlude a face of a cube, 
+	 * indexed as occlusionNeighbourBits[face][direction] where direction
+	 * is a 2D cardinal direction in the face-local axes.
+	 */
+	private final static int[][] occlusionNeighbourBits = new int[6][8];
+
+	/**
+	 * The occlusion bits (see {@link #faceOcclusionMask(int, int)}) from each 
+	 * z layer of a neighbourhood, indexed as occlusionPlanes[face][dz + 1][plane],
+	 * where plane is the 9 bits of the neighbourhood for that layer
+	 */
+	private final static byte[][][] occlusionPlanes = new byte[6][3][512];
+
+	/**
+	 * The offset to the position adjacent to each face of a cube, 
+	 * indexed by face then axis
+	 */
+	final static int[][] faceNormals = new int[6][3];
+	
+	/**
+	 * The neighbourhood bits for all positions adjacent to faces of a cube
+	 */
+	private final static int allFaceNeighbours;
+	static {
+		Vector3iDefault offset = new Vector3iDefault();
+		int faceNeighbours = 0;
+		for (int i = 0; i < 6; i++) {
+        	Vector3i normal = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_NORMAL];
+        	Vector3i up = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_UP];
+        	Vector3i right = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_RIGHT];
+
+        	faceNeighbourBits[i] = neighbourBit(normal.getX(), normal.getY(), normal.getZ());
+        	faceNormals[i][0] = normal.getX();
+        	faceNormals[i][1] = normal.getY();
+        	faceNormals[i][2] = normal.getZ();
+        	faceNeighbours |= 1 << faceNeighbourBits[i];
+
+        	for (int direction = 0; direction < 8; direction++) {
+        		offset.set(normal);
+	        	offset.addLocalMult(right, AFace.twoDcardinalComponents[direction][0]);
+	        	offset.addLocalMult(up, AFace.twoDcardinalComponents[direction][1]);
+	        	occlusionNeighbourBits[i][direction] = neighbourBit(offset.getX(), offset.getY(), offset.getZ());
+        	}
+
+        	for (int layer = 0; layer < 3; layer++) {
+        		for (int plane = 0; plane < 512; plane++) {
+        			int mask = 0;
+        			for (int direction = 0; direction < 8; direction++) {
+        				int bit = occlusionNeighbourBits[i][direction] - 9 * layer;
+        				if (bit >= 0 && bit < 9 && (plane & (1 << bit)) != 0) mask |= 1 << direction;
+        			}
+        			occlusionPlanes[i][layer][plane] = (byte)mask;
+        		}
+        	}
+		}
+		allFaceNeighbours = faceNeighbours;
+	}
+
+	/**
+	 * Whether the center of a neighbourhood (see {@link #getNeighbourhood(int, int, int)}) 
+	 * needs a cube - it must have presence, and not be enclosed on all sides
+	 */
+	static boolean isVisible(int neighbourhood) {
+		return (neighbourhood & (1 << neighbourBit(0, 0, 0))) != 0
+				&& (neighbourhood & allFaceNeighbours) != allFaceNeighbours;
+	}
+
+	/**
+	 * Whether a face of the cube at the center of a neighbourhood is
+	 * visible, that is not occluded by an adjacent cube
+	 */
+	static boolean isFaceVisible(int neighbourhood, int face) {
+		return (neighbourhood & (1 << faceNeighbourBits[face])) == 0;
+	}
+
+	/**
+	 * The occlusion of a face of the cube at the center of a neighbourhood,
+	 * as a bitmask with bit i set when there is a cube in 2D direction i
+	 * from the face, as for {@link Occlusion#Occlusion(int)}
+	 */
+	static int faceOcclusionMask(int neighbourhood, int face) {
+		//Look up the bits from each layer at once
+		byte[][] planes = occlusionPlanes[face];
+		return (planes[0][neighbourhood & 511] 
+				| planes[1][(neighbourhood >> 9) & 511] 
+				| planes[2][(neighbourhood >> 18) & 511]) & 0xFF;
+	}
+
+	/**
+	 * The occlusion texture index and transform for a face of the cube
+	 * at the center of a neighbourhood
+	 */
+	static IndexAndTransform faceOcclusion(int neighbourhood, int face) {
+    	//Look up required transform and texture straight from the 
+    	//occlusion bitmask, so nothing is allocated
+    	return Occlusion.transformedUnique(faceOcclusionMask(neighbourhood, face));
+	}
 
 	//private final static ColorRGBA baseColor = new ColorRGBA(0.84f*244f/255f, 0.84f*236f/255f, 0.8f*222f/255f, 1f);
 	//private final static ColorRGBA baseDarkColor = new ColorRGBA(0.73f*244f/255f, 0.73f*236f/255f, 0.8f*222f/255f, 1f);
@@ -316,94 +1750,321 @@ public class CubeGrid {
 	}
 	
 	
+	/**
+	 * Build cubes for every position in the grid, replacing any
+	 * cubes already built
+	 */
 	public void buildAllCubes() {
-		for (int x = 0; x < size(0); x++) {
-			for (int y = 0; y < size(1); y++) {
-				for (int z = 0; z < size(2); z++) {
-					Vector3iDefault pos = new Vector3iDefault(x, y, z);
-					buildCube(pos);
+		buildCubes(presence.getMin(0), presence.getMin(1), presence.getMin(2), 
+				presence.getMax(0), presence.getMax(1), presence.getMax(2));
+		clearDirty();
+		meshQueue.update();
+	}
+
+	/**
+	 * Rebuild the cubes affected by edits since cubes were last built 
+	 * (or updated). This is just the edited positions and their neighbours,
+	 * whose faces and occlusion may have changed, so the work done is 
+	 * proportional to the edits rather than the grid. Cubes are updated in 
+	 * place where possible, or in {@link MeshMode#CHUNKS} the chunks containing
+	 * them are meshed again. If the grid has been shaded, the rebuilt cubes and 
+	 * any others whose shading they affect are reshaded with the same settings.
+	 * 
+	 * This also attaches any chunks that have finished meshing in the 
+	 * background, see {@link #setMeshExecutor(Executor)}.
+	 */
+	public void update() {
+		meshQueue.update();
+		if (dirty.isEmpty()) return;
+		
+		//Collect the isos of rebuilt positions if we need to reshade
+		Set<Vector2i> isos = null;
+		Vector3iDefault isoAndLayer = null;
+		Vector2iDefault iso = null;
+		if (closestLayer != null) {
+			isos = new HashSet<Vector2i>();
+			isoAndLayer = new Vector3iDefault();
+			iso = new Vector2iDefault();
+		}
+		
+		//In chunk mode, whole chunks are meshed again, so we just 
+		//need to know which chunks
+		boolean chunks = (meshMode != MeshMode.FACES);
+		LongHashMap<Boolean> chunksToMesh = chunks ? new LongHashMap<Boolean>() : null;
+		
+		LongHashMap<PresenceChunk> dirtyChunks = dirtyCubes.getChunks();
+		for (int c = 0; c < dirtyChunks.capacity(); c++) {
+			PresenceChunk chunk = dirtyChunks.valueAt(c);
+			if (chunk == null) continue;
+			long chunkKey = dirtyChunks.keyAt(c);
+			if (chunks) {
+				chunksToMesh.put(chunkKey, Boolean.TRUE);
+				if (isos == null) continue;
+			}
+			int chunkX = PresenceChunk.keyX(chunkKey) << PresenceChunk.BITS;
+			int chunkY = PresenceChunk.keyY(chunkKey) << PresenceChunk.BITS;
+			int chunkZ = PresenceChunk.keyZ(chunkKey) << PresenceChunk.BITS;
+			for (int lz = 0; lz < PresenceChunk.SIZE; lz++) {
+				for (int ly = 0; ly < PresenceChunk.SIZE; ly++) {
+					long row = chunk.getRow(ly, lz);
+					while (row != 0) {
+						int x = chunkX + Long.numberOfTrailingZeros(row);
+						if (!chunks) {
+							buildCube(x, chunkY + ly, chunkZ + lz);
+						}
+						if (isos != null) {
+							addIsos(x, chunkY + ly, chunkZ + lz, isos, isoAndLayer, iso);
+						}
+						row &= row - 1;
+					}
+				}
+			}
+		}
+		
+		if (isos != null) {
+			shadeIsos(isos, chunksToMesh);
+			
+			//Shade the rebuilt cubes
+			if (!chunks) {
+				for (int c = 0; c < dirtyChunks.capacity(); c++) {
+					PresenceChunk chunk = dirtyChunks.valueAt(c);
+					if (chunk == null) continue;
+					long chunkKey = dirtyChunks.keyAt(c);
+					int chunkX = PresenceChunk.keyX(chunkKey) << PresenceChunk.BITS;
+					int chunkY = PresenceChunk.keyY(chunkKey) << PresenceChunk.BITS;
+					int chunkZ = PresenceChunk.keyZ(chunkKey) << PresenceChunk.BITS;
+					for (int lz = 0; lz < PresenceChunk.SIZE; lz++) {
+						for (int ly = 0; ly < PresenceChunk.SIZE; ly++) {
+							long row = chunk.getRow(ly, lz);
+							while (row != 0) {
+								int x = chunkX + Long.numberOfTrailingZeros(row);
+								ACube cube = getCube(x, chunkY + ly, chunkZ + lz);
+								if (cube != null) {
+									shadeCube(cube, x, chunkY + ly, chunkZ + lz, isoAndLayer, iso);
+								}
+								row &= row - 1;
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		if (chunks) {
+			for (int c = 0; c < chunksToMesh.capacity(); c++) {
+				if (chunksToMesh.valueAt(c) != null) {
+					meshChunk(chunksToMesh.keyAt(c));
+				}
+			}
+			
+			//Start meshing in the background straight away
+			meshQueue.update();
+		}
+		
+		clearDirty();
+	}
+
+	/**
+	 * Clear the record of edits, once cubes are rebuilt
+	 */
+	private void clearDirty() {
+		dirty.clear();
+		dirtyCubes = new UnboundedPresenceGrid();
+	}
+
+	/**
+	 * Build cubes for every position in a box, replacing any cubes 
+	 * already built there, and removing cubes where there is no longer 
+	 * presence. In {@link MeshMode#CHUNKS}, every chunk overlapping the
+	 * box is meshed again. This does not clear the record of edits, or 
+	 * shade the cubes.
+	 * @param minX
+	 * 		Minimum x coord, inclusive
+	 * @param minY
+	 * 		Minimum y coord, inclusive
+	 * @param minZ
+	 * 		Minimum z coord, inclusive
+	 * @param maxX
+	 * 		Maximum x coord, inclusive
+	 * @param maxY
+	 * 		Maximum y coord, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord, inclusive
+	 */
+	public void buildCubes(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Only the area that may have presence can have cubes
+		minX = Math.max(minX, presence.getMin(0));
+		minY = Math.max(minY, presence.getMin(1));
+		minZ = Math.max(minZ, presence.getMin(2));
+		maxX = Math.min(maxX, presence.getMax(0));
+		maxY = Math.min(maxY, presence.getMax(1));
+		maxZ = Math.min(maxZ, presence.getMax(2));
+		
+		//Work chunk by chunk, so we can skip chunks with no presence 
+		//and no cubes
+		for (int cz = minZ >> PresenceChunk.BITS; cz <= maxZ >> PresenceChunk.BITS; cz++) {
+			int startZ = Math.max(minZ, cz << PresenceChunk.BITS);
+			int endZ = Math.min(maxZ, (cz << PresenceChunk.BITS) | PresenceChunk.MASK);
+			for (int cy = minY >> PresenceChunk.BITS; cy <= maxY >> PresenceChunk.BITS; cy++) {
+				int startY = Math.max(minY, cy << PresenceChunk.BITS);
+				int endY = Math.min(maxY, (cy << PresenceChunk.BITS) | PresenceChunk.MASK);
+				for (int cx = minX >> PresenceChunk.BITS; cx <= maxX >> PresenceChunk.BITS; cx++) {
+					int startX = Math.max(minX, cx << PresenceChunk.BITS);
+					int endX = Math.min(maxX, (cx << PresenceChunk.BITS) | PresenceChunk.MASK);
+					
+					long chunkKey = PresenceChunk.key(cx, cy, cz);
+					if (meshMode != MeshMode.FACES) {
+						meshChunk(chunkKey);
+						continue;
+					}
+					
+					if (cubeChunks.get(chunkKey) == null) {
+						if (!presence.anyPresent(startX, startY, startZ, endX, endY, endZ)) continue;
+						
+						//With no cubes to remove, a whole chunk can be built 
+						//from just its visible cubes
+						if (startX == endX - PresenceChunk.MASK && startY == endY - PresenceChunk.MASK
+								&& startZ == endZ - PresenceChunk.MASK) {
+							buildCubes(new FaceTable(this, cx, cy, cz));
+							continue;
+						}
+					}
+					
+					for (int z = startZ; z <= endZ; z++) {
+						for (int y = startY; y <= endY; y++) {
+							for (int x = startX; x <= endX; x++) {
+								buildCube(x, y, z);
+							}
+						}
+					}
 				}
-				
 			}
 		}
 	}
 	
-	private void buildCube(Vector3iDefault pos) {
+	/**
+	 * Replace the geometry of a chunk with the batched meshes from
+	 * the {@link ChunkMesher}, in {@link MeshMode#CHUNKS} or {@link MeshMode#GREEDY}.
+	 * With a mesh executor, the chunk is meshed in the background and replaced 
+	 * later, by {@link #update()}.
+	 */
+	private void meshChunk(long chunkKey) {
+		if (meshQueue.getExecutor() != null) {
+			meshQueue.request(chunkKey);
+			return;
+		}
+		attachChunk(chunkKey, mesher.meshChunk(PresenceChunk.keyX(chunkKey), PresenceChunk.keyY(chunkKey), 
+				PresenceChunk.keyZ(chunkKey), meshMode == MeshMode.GREEDY, chunkLevel(chunkKey), levelBorders(chunkKey)));
+	}
+
+	/**
+	 * Wait for all chunks meshing in the background to finish, and attach
+	 * them. This blocks, so should only be used where waiting is acceptable,
+	 * for example when first loading a world, rather than every frame.
+	 * @throws InterruptedException
+	 * 		If interrupted while waiting
+	 */
+	public void finishMeshing() throws InterruptedException {
+		meshQueue.finish();
+	}
+
+	/**
+	 * Replace the geometry of a chunk with meshed batches
+	 */
+	void attachChunk(long chunkKey, List<ChunkBatch> batches) {
+		int cx = PresenceChunk.keyX(chunkKey);
+		int cy = PresenceChunk.keyY(chunkKey);
+		int cz = PresenceChunk.keyZ(chunkKey);
 		
-		if (!getPresence(pos)) return;
+		//Only make a node if there is something to show
+		Node node = batches.isEmpty() ? chunkNodes.get(chunkKey) : chunkNode(chunkKey);
+		if (node == null) return;
 		
-		ACube cube = new ACube("Cube at " + pos);
+		node.detachAllChildren();
+		for (ChunkBatch batch : batches) {
+			Geometry geometry = new Geometry(node.getName() + " material " + batch.getMaterial(), batch.getMesh());
+			
+			geometry.setMaterial(faceMaterials.material(batch.getMaterial(), occlusionMode));
+			
+			geometry.setLocalTranslation(new Vector3f(cx << PresenceChunk.BITS, cy << PresenceChunk.BITS, cz << PresenceChunk.BITS));
+			geometry.setLocalScale(ChunkBatch.POSITION_SCALE);
+			node.attachChild(geometry);
+		}
+	}
 
-        for (int i = 0; i < 6; i++) {
+	/**
+	 * Build the visible cubes of a chunk with no cubes yet
+	 */
+	private void buildCubes(FaceTable table) {
+		int chunkX = table.getCx() << PresenceChunk.BITS;
+		int chunkY = table.getCy() << PresenceChunk.BITS;
+		int chunkZ = table.getCz() << PresenceChunk.BITS;
+		for (int c = 0; c < table.size(); c++) {
+			buildCube(chunkX + table.getX(c), chunkY + table.getY(c), chunkZ + table.getZ(c), table.getNeighbourhood(c));
+		}
+	}
 
-        	Vector3i normal = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_NORMAL];
-        	
-        	//Skip the face if it is occluded
-    		temp1.set(pos);
-        	temp1.addLocal(normal);
-        	if (getPresence(temp1)) continue;
-        	
-        	AFace face = new AFace(i);
-        	cube.attachFace(face);
-        	
-        	//Work out the occlusions around the cube face
-        	Vector3i up = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_UP];
-        	Vector3i right = AFace.intFaceLocalAxes[i][AFace.FACE_LOCAL_RIGHT];
+	private void buildCube(int x, int y, int z) {
+		//Read all the presence we need around the cube in one go
+		buildCube(x, y, z, getNeighbourhood(x, y, z));
+	}
 
-        	boolean[] tempOcclusion = new boolean[8];
+	private void buildCube(int x, int y, int z, int neighbourhood) {
+		
+		//Cubes enclosed on all sides have no faces, so don't need a cube,
+		//and neither do positions with no presence
+		if (!isVisible(neighbourhood)) {
+			storeCube(x, y, z, null);
+			return;
+		}
+		
+		//Update any cube already built here in place, so only faces
+		//that have appeared need new objects
+		ACube cube = getCube(x, y, z);
+		boolean newCube = (cube == null);
+		if (newCube) {
+			cube = new ACube("Cube at (" + x + ", " + y + ", " + z + ")");
+		}
+		
+		int material = getMaterial(x, y, z);
 
-        	for (int direction = 0; direction < tempOcclusion.length; direction++) {
-        		temp1.set(pos);
-	        	temp1.addLocal(normal);
-	        	temp1.addLocalMult(right, AFace.twoDcardinalComponents[direction][0]);
-	        	temp1.addLocalMult(up, AFace.twoDcardinalComponents[direction][1]);
-	        	
-	        	tempOcclusion[direction] = getPresence(temp1);
-        	}
+        for (int i = 0; i < 6; i++) {
 
-        	Occlusion o = new Occlusion(tempOcclusion);
-        	
-        	//Work out required transform and texture
-        	IndexAndTransform iat = Occlusion.occlusionToTransformedUnique.get(o);
+        	//Remove the face if it is occluded
+        	if (!isFaceVisible(neighbourhood, i)) {
+        		cube.detachFace(i);
+        		continue;
+        	}
         	
-        	//System.out.println("Face " + i + " using texture index " + iat.getIndex());
-        	//System.out.println(o);
+        	AFace face = cube.getFace(i);
+        	if (face == null) {
+            	face = new AFace(i);
+            	cube.attachFace(face);
+        	}
         	
-        	face.setUVTransform(iat.getTransform());
+        	if (occlusionMode == OcclusionMode.VERTICES) {
+        		face.setVertexOcclusion(faceOcclusionMask(neighbourhood, i));
+        	} else {
+            	//Work out required transform and texture
+            	IndexAndTransform iat = faceOcclusion(neighbourhood, i);
+            	
+            	//System.out.println("Face " + i + " using texture index " + iat.getIndex());
+            	
+            	face.setUVTransform(iat.getIndex(), iat.getTransform());
+        	}
  
-        	Material mat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
-        	mat.setBoolean("VertexColor", true);
-        	    
-        	//FIXME reinstate occlusion textures
-//        	TextureState ts = DisplaySystem.getDisplaySystem().getRenderer().createTextureState();
-//            ts.setEnabled(true);
-            Texture tex = occlusionTextures.occlusionTexture(iat.getIndex());
-//            t.setCombineFuncRGB(CombinerFunctionRGB.Modulate);
-//            ts.setTexture(t, 0);
-//            
-//            if (detail != null) ts.setTexture(detail, 1);
-//            face.setRenderState(ts);
-
-            //FIXME modulate with texture?
-            
-            Texture tex2 = assetManager.loadTexture("resources/blackBoxSSS.png");
-
-    	    mat.setTexture("ColorMap", tex2);
-            
-    	    mat.setTexture("LightMap", tex);
-    	    face.setMaterial(mat);
+        	//Faces with the same material id share a material
+    	    face.setMaterial(faceMaterials.material(material, occlusionMode));
 
         }
          
         
-        setCube(pos, cube);
-        
-        //rootNode.attachChild(cube);
-        
-        octode.setLeaf(pos.getX(), pos.getY(), pos.getZ(), cube);
-        
-        cube.setLocalTranslation(new Vector3f(pos.getX() + 0.5f, pos.getY() + 0.5f, pos.getZ() + 0.5f));
-        cube.setModelBound(new BoundingBox());
+        if (newCube) {
+	        storeCube(x, y, z, cube);
+	        
+	        cube.setLocalTranslation(new Vector3f(x + 0.5f, y + 0.5f, z + 0.5f));
+	        cube.setModelBound(new BoundingBox());
+        }
         cube.updateModelBound();
 //        cube.updateWorldBound(); // We do this to allow the camera setup access to the world bound in our setup code.
 	}
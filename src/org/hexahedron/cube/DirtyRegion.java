@@ -0,0 +1,105 @@
+package org.hexahedron.cube;
+
+/**
+ * A box of positions that have been edited since cubes were last
+ * built. Edits are coalesced into a single box covering them all,
+ * so that rebuilding after many edits in one area is a single pass
+ * over that area.
+ */
+public class DirtyRegion {
+
+	private final int[] min = new int[3];
+	private final int[] max = new int[3];
+	private boolean empty = true;
+
+	/**
+	 * True iff nothing has been included since the region
+	 * was created or cleared
+	 * @return
+	 * 		Whether region is empty
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Clear the region, so it is empty
+	 */
+	public void clear() {
+		empty = true;
+	}
+
+	/**
+	 * Grow the region to include a position
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 */
+	public void include(int x, int y, int z) {
+		include(x, y, z, x, y, z);
+	}
+
+	/**
+	 * Grow the region to include a box. Empty boxes
+	 * (with any maximum less than the minimum) are ignored.
+	 * @param minX
+	 * 		Minimum x coord, inclusive
+	 * @param minY
+	 * 		Minimum y coord, inclusive
+	 * @param minZ
+	 * 		Minimum z coord, inclusive
+	 * @param maxX
+	 * 		Maximum x coord, inclusive
+	 * @param maxY
+	 * 		Maximum y coord, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord, inclusive
+	 */
+	public void include(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (minX > maxX || minY > maxY || minZ > maxZ) return;
+		if (empty) {
+			min[0] = minX;
+			min[1] = minY;
+			min[2] = minZ;
+			max[0] = maxX;
+			max[1] = maxY;
+			max[2] = maxZ;
+			empty = false;
+		} else {
+			min[0] = Math.min(min[0], minX);
+			min[1] = Math.min(min[1], minY);
+			min[2] = Math.min(min[2], minZ);
+			max[0] = Math.max(max[0], maxX);
+			max[1] = Math.max(max[1], maxY);
+			max[2] = Math.max(max[2], maxZ);
+		}
+	}
+
+	/**
+	 * The minimum coord of the region on an axis. Not
+	 * meaningful if the region is empty.
+	 * @param axis
+	 * 		The axis, 0 to 2 for x to z
+	 * @return
+	 * 		Minimum coord, inclusive
+	 */
+	public int getMin(int axis) {
+		return min[axis];
+	}
+
+	/**
+	 * The maximum coord of the region on an axis. Not
+	 * meaningful if the region is empty.
+	 * @param axis
+	 * 		The axis, 0 to 2 for x to z
+	 * @return
+	 * 		Maximum coord, inclusive
+	 */
+	public int getMax(int axis) {
+		return max[axis];
+	}
+
+}
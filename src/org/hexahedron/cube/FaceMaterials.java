@@ -0,0 +1,99 @@
+package org.hexahedron.cube;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hexahedron.grid.MaterialGrid;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.texture.Texture;
+
+/**
+ * The shared {@link Material}s used to render cube faces, one for each
+ * material id.
+ *
+ * Faces only differ in their colour map (from the material id), since
+ * colours come from the vertices and every occlusion texture is in the
+ * same atlas, so every face with the same material id can use the same
+ * material instance. This avoids making a material per face, and lets the
+ * renderer skip render state changes between faces using the same material.
+ *
+ * There are two materials for each id, one with the occlusion atlas as
+ * a light map for {@link OcclusionMode#TEXTURES}, using the second set of
+ * UVs, and one without for {@link OcclusionMode#VERTICES}, where occlusion
+ * is already in the vertex colours.
+ *
+ * The material for an id is built the first time the id is used, and
+ * built again if the colour map for that id has changed in the
+ * {@link MaterialTextures}.
+ */
+public class FaceMaterials {
+
+	private final AssetManager assetManager;
+	private final OcclusionTextures occlusionTextures;
+	private final MaterialTextures materialTextures;
+
+	/**
+	 * Materials for each material id, with and without the light map
+	 */
+	private final Map<Integer, Material> materials = new HashMap<Integer, Material>();
+	private final Map<Integer, Material> vertexMaterials = new HashMap<Integer, Material>();
+
+	/**
+	 * Create a {@link FaceMaterials}
+	 * @param assetManager
+	 * 		Used to load the material definition
+	 * @param occlusionTextures
+	 * 		The occlusion textures
+	 * @param materialTextures
+	 * 		The colour maps for each material id
+	 */
+	public FaceMaterials(AssetManager assetManager, OcclusionTextures occlusionTextures, MaterialTextures materialTextures) {
+		super();
+		this.assetManager = assetManager;
+		this.occlusionTextures = occlusionTextures;
+		this.materialTextures = materialTextures;
+	}
+
+	/**
+	 * Get the shared material for faces showing occlusion textures
+	 * @param id
+	 * 		The material id, see {@link MaterialGrid}
+	 * @return
+	 * 		The material - this is shared, so must not be changed
+	 */
+	public Material material(int id) {
+		return material(id, OcclusionMode.TEXTURES);
+	}
+
+	/**
+	 * Get the shared material for faces
+	 * @param id
+	 * 		The material id, see {@link MaterialGrid}
+	 * @param occlusionMode
+	 * 		How the faces show occlusion
+	 * @return
+	 * 		The material - this is shared, so must not be changed
+	 */
+	public Material material(int id, OcclusionMode occlusionMode) {
+		boolean lightMap = (occlusionMode == OcclusionMode.TEXTURES);
+		Map<Integer, Material> map = lightMap ? materials : vertexMaterials;
+		Texture colorMap = materialTextures.colorMap(id);
+		Material mat = map.get(id);
+		if (mat == null || mat.getTextureParam("ColorMap").getTextureValue() != colorMap) {
+			mat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+			mat.setBoolean("VertexColor", true);
+			mat.setTexture("ColorMap", colorMap);
+			if (lightMap) {
+				//Colour map uses TexCoord, light map uses TexCoord2
+				mat.setTexture("LightMap", occlusionTextures.getAtlas());
+				mat.setBoolean("SeparateTexCoord", true);
+			}
+			map.put(id, mat);
+		}
+		return mat;
+	}
+
+}
@@ -0,0 +1,269 @@
+package org.hexahedron.cube;
+
+import java.util.Arrays;
+
+import org.hexahedron.grid.PresenceChunk;
+
+/**
+ * The visible cubes of one chunk of a {@link CubeGrid}, with the faces
+ * each one shows and the occlusion of each face, as input to building
+ * cubes or meshing the chunk.
+ *
+ * The table is extracted from rows of packed presence rather than by
+ * looking up the neighbourhood of each position. The rows covering the
+ * chunk and the positions around it are read once, then the exposed faces
+ * of a whole row of the chunk are found at once by shifting and masking
+ * the rows on each side, so positions with no visible face are never
+ * visited. Only the visible cubes have their neighbourhood (see
+ * {@link CubeGrid#getNeighbourhood(int, int, int)}) put together from the
+ * rows, again with shifts, and their occlusion masks looked up from it.
+ *
+ * Entries are in order of position, x fastest, then y, then z.
+ *
+ * Tables can also be made from rows of coarser cells rather than positions,
+ * for meshing chunks at a coarser level, see {@link ChunkMesher}. Each cell
+ * is then treated exactly as a position would be.
+ */
+public class FaceTable {
+
+	private final int cx;
+	private final int cy;
+	private final int cz;
+
+	private int size = 0;
+	private short[] positions;
+	private int[] neighbourhoods;
+	private byte[] faces;
+	private byte[] occlusions;
+
+	/**
+	 * Extract the table for a chunk of a grid
+	 * @param grid
+	 * 		The grid
+	 * @param cx
+	 * 		Chunk x coord, so the chunk starts at x = cx * {@link PresenceChunk#SIZE}
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 */
+	public FaceTable(CubeGrid grid, int cx, int cy, int cz) {
+		this(cx, cy, cz, PresenceChunk.SIZE, rows(grid, cx, cy, cz));
+	}
+
+	/**
+	 * Extract the table for a chunk from rows of cells
+	 * @param cx
+	 * 		Chunk x coord
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @param chunkSize
+	 * 		The number of cells along each edge of the chunk, at most {@link PresenceChunk#SIZE}
+	 * @param rows
+	 * 		Rows of cells covering the chunk and one cell either side, 
+	 * 		with bit 0 of each row the cell before the chunk, and bits 1 to chunkSize
+	 * 		the chunk. Rows are indexed by y + (chunkSize + 2) * z, with y and z from 
+	 * 		one cell before the chunk. Null if nothing in the chunk is present.
+	 */
+	FaceTable(int cx, int cy, int cz, int chunkSize, long[] rows) {
+		this.cx = cx;
+		this.cy = cy;
+		this.cz = cz;
+
+		int capacity = (rows == null) ? 0 : 64;
+		positions = new short[capacity];
+		neighbourhoods = new int[capacity];
+		faces = new byte[capacity];
+		occlusions = new byte[capacity * 6];
+		if (capacity == 0) return;
+
+		int stride = chunkSize + 2;
+		long chunkRow = (1L << chunkSize) - 1;
+		long[] exposed = new long[6];
+		for (int z = 1; z <= chunkSize; z++) {
+			for (int y = 1; y <= chunkSize; y++) {
+				long row = rows[y + stride * z];
+				long center = (row >> 1) & chunkRow;
+				if (center == 0) continue;
+
+				//Positions with presence and no neighbour beyond each face
+				long visible = 0;
+				for (int f = 0; f < 6; f++) {
+					int[] normal = CubeGrid.faceNormals[f];
+					long neighbours = rows[(y + normal[1]) + stride * (z + normal[2])] >> (1 + normal[0]);
+					exposed[f] = center & ~neighbours;
+					visible |= exposed[f];
+				}
+
+				while (visible != 0) {
+					int i = Long.numberOfTrailingZeros(visible);
+					visible &= visible - 1;
+
+					//Bits 0, 1, 2 of each shifted row are x-1, x and x+1
+					int neighbourhood = 0;
+					for (int dz = -1; dz <= 1; dz++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							int bits = (int)((rows[(y + dy) + stride * (z + dz)] >>> i) & 7);
+							neighbourhood |= bits << CubeGrid.neighbourBit(-1, dy, dz);
+						}
+					}
+
+					int faceMask = 0;
+					for (int f = 0; f < 6; f++) {
+						if ((exposed[f] & (1L << i)) != 0) faceMask |= 1 << f;
+					}
+					add(i | ((y - 1) << PresenceChunk.BITS) | ((z - 1) << (2 * PresenceChunk.BITS)),
+							neighbourhood, faceMask);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the rows of presence covering a chunk and the positions around
+	 * it, or null if nothing in the chunk is present
+	 */
+	private static long[] rows(CubeGrid grid, int cx, int cy, int cz) {
+		int chunkX = cx << PresenceChunk.BITS;
+		int chunkY = cy << PresenceChunk.BITS;
+		int chunkZ = cz << PresenceChunk.BITS;
+		int chunkSize = PresenceChunk.SIZE;
+		if (!grid.getPresenceGrid().anyPresent(chunkX, chunkY, chunkZ,
+				chunkX + chunkSize - 1, chunkY + chunkSize - 1, chunkZ + chunkSize - 1)) {
+			return null;
+		}
+
+		int stride = chunkSize + 2;
+		long[] rows = new long[stride * stride];
+		for (int z = 0; z < stride; z++) {
+			for (int y = 0; y < stride; y++) {
+				rows[y + stride * z] = grid.getRow(chunkX - 1, chunkY + y - 1, chunkZ + z - 1);
+			}
+		}
+		return rows;
+	}
+
+	private void add(int position, int neighbourhood, int faceMask) {
+		if (size == positions.length) {
+			int capacity = positions.length * 2;
+			positions = Arrays.copyOf(positions, capacity);
+			neighbourhoods = Arrays.copyOf(neighbourhoods, capacity);
+			faces = Arrays.copyOf(faces, capacity);
+			occlusions = Arrays.copyOf(occlusions, capacity * 6);
+		}
+		positions[size] = (short)position;
+		neighbourhoods[size] = neighbourhood;
+		faces[size] = (byte)faceMask;
+		for (int f = 0; f < 6; f++) {
+			if ((faceMask & (1 << f)) != 0) {
+				occlusions[size * 6 + f] = (byte)CubeGrid.faceOcclusionMask(neighbourhood, f);
+			}
+		}
+		size++;
+	}
+
+	/**
+	 * @return
+	 * 		Chunk x coord
+	 */
+	public int getCx() {
+		return cx;
+	}
+
+	/**
+	 * @return
+	 * 		Chunk y coord
+	 */
+	public int getCy() {
+		return cy;
+	}
+
+	/**
+	 * @return
+	 * 		Chunk z coord
+	 */
+	public int getCz() {
+		return cz;
+	}
+
+	/**
+	 * The number of visible cubes in the chunk
+	 * @return
+	 * 		size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The x coord of a cube, within the chunk
+	 * @param i
+	 * 		The entry
+	 * @return
+	 * 		x coord, from 0 to {@link PresenceChunk#MASK}
+	 */
+	public int getX(int i) {
+		return positions[i] & PresenceChunk.MASK;
+	}
+
+	/**
+	 * The y coord of a cube, within the chunk
+	 * @param i
+	 * 		The entry
+	 * @return
+	 * 		y coord, from 0 to {@link PresenceChunk#MASK}
+	 */
+	public int getY(int i) {
+		return (positions[i] >> PresenceChunk.BITS) & PresenceChunk.MASK;
+	}
+
+	/**
+	 * The z coord of a cube, within the chunk
+	 * @param i
+	 * 		The entry
+	 * @return
+	 * 		z coord, from 0 to {@link PresenceChunk#MASK}
+	 */
+	public int getZ(int i) {
+		return (positions[i] >> (2 * PresenceChunk.BITS)) & PresenceChunk.MASK;
+	}
+
+	/**
+	 * The neighbourhood of a cube, as for {@link CubeGrid#getNeighbourhood(int, int, int)}
+	 * @param i
+	 * 		The entry
+	 * @return
+	 * 		The neighbourhood bitmask
+	 */
+	public int getNeighbourhood(int i) {
+		return neighbourhoods[i];
+	}
+
+	/**
+	 * The visible faces of a cube
+	 * @param i
+	 * 		The entry
+	 * @return
+	 * 		A mask with bit f set if face f is visible, never 0
+	 */
+	public int getFaces(int i) {
+		return faces[i];
+	}
+
+	/**
+	 * The occlusion of a visible face of a cube
+	 * @param i
+	 * 		The entry
+	 * @param face
+	 * 		The face index
+	 * @return
+	 * 		The occlusion bitmask, as for {@link CubeGrid#faceOcclusionMask(int, int)},
+	 * 		or 0 if the face is not visible
+	 */
+	public int getOcclusion(int i, int face) {
+		return occlusions[i * 6 + face] & 0xFF;
+	}
+
+}
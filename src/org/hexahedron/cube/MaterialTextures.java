@@ -0,0 +1,70 @@
+package org.hexahedron.cube;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hexahedron.grid.MaterialGrid;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture.WrapMode;
+
+/**
+ * The colour map texture to use for each material id of
+ * a {@link CubeGrid}. Ids with no texture set use
+ * {@link #DEFAULT_COLOR_MAP}.
+ *
+ * Textures are loaded when first used, and then shared by
+ * every face with that material. They repeat, so that a merged
+ * quad covering several faces (see {@link MeshMode#GREEDY})
+ * can show the texture once per cube.
+ */
+public class MaterialTextures {
+
+	/**
+	 * The colour map used for materials with no other colour map set
+	 */
+	public final static String DEFAULT_COLOR_MAP = "resources/blackBoxSSS.png";
+
+	private final AssetManager assetManager;
+	private final Map<Integer, String> colorMapNames = new HashMap<Integer, String>();
+	private final Map<Integer, Texture> colorMaps = new HashMap<Integer, Texture>();
+
+	public MaterialTextures(AssetManager assetManager) {
+		super();
+		this.assetManager = assetManager;
+	}
+
+	/**
+	 * Set the colour map for a material. This only affects
+	 * faces built afterwards.
+	 * @param id
+	 * 		The material id, see {@link MaterialGrid}
+	 * @param name
+	 * 		The asset name of the texture to use
+	 */
+	public void setColorMap(int id, String name) {
+		colorMapNames.put(id, name);
+		colorMaps.remove(id);
+	}
+
+	/**
+	 * Get the colour map for a material
+	 * @param id
+	 * 		The material id, see {@link MaterialGrid}
+	 * @return
+	 * 		The texture
+	 */
+	public Texture colorMap(int id) {
+		Texture texture = colorMaps.get(id);
+		if (texture == null) {
+			String name = colorMapNames.get(id);
+			if (name == null) name = DEFAULT_COLOR_MAP;
+			texture = assetManager.loadTexture(name);
+			texture.setWrap(WrapMode.Repeat);
+			colorMaps.put(id, texture);
+		}
+		return texture;
+	}
+
+}
@@ -0,0 +1,31 @@
+package org.hexahedron.cube;
+
+/**
+ * How a {@link CubeGrid} turns cubes into geometry
+ */
+public enum MeshMode {
+
+	/**
+	 * Each visible cube is an {@link ACube}, with an {@link AFace}
+	 * geometry and material for each visible face. This allows cubes
+	 * and faces to be accessed individually, but needs a draw call
+	 * per face.
+	 */
+	FACES,
+	
+	/**
+	 * The visible faces of each chunk are merged into a few meshes by
+	 * a {@link ChunkMesher}, one for each material used in the chunk. 
+	 * No {@link ACube}s are built.
+	 */
+	CHUNKS,
+	
+	/**
+	 * As for {@link #CHUNKS}, but coplanar neighbouring faces with no 
+	 * occlusion and a single shading colour are merged into larger quads,
+	 * see {@link ChunkMesher#meshChunk(int, int, int, boolean)}. Faces
+	 * with occlusion or diagonal shadows keep their 4 tris.
+	 */
+	GREEDY;
+	
+}
@@ -0,0 +1,26 @@
+package org.hexahedron.cube;
+
+import org.hexahedron.occlusion.OcclusionTextures;
+import org.hexahedron.occlusion.VertexOcclusion;
+
+/**
+ * How a {@link CubeGrid} shows the occlusion of faces by neighbouring cubes
+ */
+public enum OcclusionMode {
+
+	/**
+	 * Each face shows one of the occlusion textures from the
+	 * {@link OcclusionTextures} atlas, as a light map with its
+	 * own UVs
+	 */
+	TEXTURES,
+
+	/**
+	 * Occlusion is baked into the vertex colours of each face, see
+	 * {@link VertexOcclusion}. Faces need no light map or occlusion
+	 * UVs, so use less memory and no texture fetch, at the cost of
+	 * smoother, less detailed occlusion.
+	 */
+	VERTICES;
+
+}
@@ -0,0 +1,30 @@
+package org.hexahedron.cube;
+
+/**
+ * What a bounded {@link CubeGrid} reads at positions outside the grid.
+ * This affects presence seen by collision, and by cube building when
+ * deciding which faces are visible at the edge of the grid. Setting
+ * outside the grid always fails, whatever the policy.
+ */
+public enum OutOfGridPolicy {
+
+	/**
+	 * Positions outside the grid have no presence, so the world
+	 * is open at its edges
+	 */
+	EMPTY,
+
+	/**
+	 * Positions outside the grid have presence but no cube, so the
+	 * world is sealed at its edges - nothing can leave, and faces on
+	 * the outside of the grid are not built
+	 */
+	SOLID,
+
+	/**
+	 * Positions wrap around to the other side of the grid on each
+	 * axis, giving a toroidal world
+	 */
+	WRAP;
+
+}
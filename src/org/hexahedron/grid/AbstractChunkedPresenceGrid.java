@@ -0,0 +1,185 @@
+package org.hexahedron.grid;
+
+/**
+ * Base for {@link PresenceGrid}s made of {@link PresenceChunk}s,
+ * implementing presence access in terms of looking up and replacing
+ * chunks. Subclasses decide how chunks are stored, and which
+ * positions are in the grid.
+ *
+ * Chunks outside the grid, or not yet stored, are always
+ * {@link PresenceChunk#EMPTY}, so reads never need to check
+ * bounds separately.
+ */
+public abstract class AbstractChunkedPresenceGrid extends AbstractPresenceGrid {
+
+	/**
+	 * Get the chunk at a given chunk position. Positions within
+	 * the chunk at (cx, cy, cz) start at (cx, cy, cz) * {@link PresenceChunk#SIZE}
+	 * @param cx
+	 * 		Chunk x coord
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @return
+	 * 		The chunk, {@link PresenceChunk#EMPTY} for chunks
+	 * outside the grid
+	 */
+	public abstract PresenceChunk getChunk(int cx, int cy, int cz);
+
+	/**
+	 * Replace the chunk at a given chunk position, which will
+	 * be within the grid
+	 * @param cx
+	 * 		Chunk x coord
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @param chunk
+	 * 		The new chunk
+	 */
+	protected abstract void setChunk(int cx, int cy, int cz, PresenceChunk chunk);
+
+	public boolean getPresence(int x, int y, int z) {
+		PresenceChunk chunk = getChunk(x >> PresenceChunk.BITS, y >> PresenceChunk.BITS, z >> PresenceChunk.BITS);
+		return chunk.getPresence(x & PresenceChunk.MASK, y & PresenceChunk.MASK, z & PresenceChunk.MASK);
+	}
+
+	public void setPresence(int x, int y, int z, boolean present) {
+		if (!contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside the grid");
+		}
+		int cx = x >> PresenceChunk.BITS;
+		int cy = y >> PresenceChunk.BITS;
+		int cz = z >> PresenceChunk.BITS;
+		PresenceChunk chunk = getChunk(cx, cy, cz);
+		PresenceChunk changed = chunk.withPresence(x & PresenceChunk.MASK, y & PresenceChunk.MASK, z & PresenceChunk.MASK, present);
+		if (changed != chunk) {
+			setChunk(cx, cy, cz, changed);
+		}
+	}
+
+	@Override
+	public void setRow(int x, int y, int z, long mask, boolean present) {
+		checkRow(x, y, z, mask);
+		int cy = y >> PresenceChunk.BITS;
+		int cz = z >> PresenceChunk.BITS;
+		int ly = y & PresenceChunk.MASK;
+		int lz = z & PresenceChunk.MASK;
+
+		//Write the pieces of the mask in each chunk row it covers
+		int i = 0;
+		while (i < 64 && (mask >>> i) != 0) {
+			int px = x + i;
+			int lx = px & PresenceChunk.MASK;
+			int count = PresenceChunk.SIZE - lx;
+			long piece = ((mask >>> i) & rowMask(count)) << lx;
+			if (piece != 0) {
+				int cx = px >> PresenceChunk.BITS;
+				PresenceChunk chunk = getChunk(cx, cy, cz);
+				PresenceChunk changed = chunk.withRow(ly, lz, piece, present);
+				if (changed != chunk) {
+					setChunk(cx, cy, cz, changed);
+				}
+			}
+			i += count;
+		}
+	}
+
+	/**
+	 * Set presence in a box, replacing chunks entirely covered by the
+	 * box with the shared uniform chunk, and writing whole chunk rows
+	 * for chunks partly covered
+	 */
+	@Override
+	public void setBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean present) {
+		if (!checkBox(minX, minY, minZ, maxX, maxY, maxZ)) return;
+		PresenceChunk uniform = present ? PresenceChunk.FULL : PresenceChunk.EMPTY;
+
+		for (int cz = minZ >> PresenceChunk.BITS; cz <= maxZ >> PresenceChunk.BITS; cz++) {
+			int chunkZ = cz << PresenceChunk.BITS;
+			int lMinZ = Math.max(minZ - chunkZ, 0);
+			int lMaxZ = Math.min(maxZ - chunkZ, PresenceChunk.MASK);
+			for (int cy = minY >> PresenceChunk.BITS; cy <= maxY >> PresenceChunk.BITS; cy++) {
+				int chunkY = cy << PresenceChunk.BITS;
+				int lMinY = Math.max(minY - chunkY, 0);
+				int lMaxY = Math.min(maxY - chunkY, PresenceChunk.MASK);
+				for (int cx = minX >> PresenceChunk.BITS; cx <= maxX >> PresenceChunk.BITS; cx++) {
+					int chunkX = cx << PresenceChunk.BITS;
+					int lMinX = Math.max(minX - chunkX, 0);
+					int lMaxX = Math.min(maxX - chunkX, PresenceChunk.MASK);
+					PresenceChunk chunk = getChunk(cx, cy, cz);
+					PresenceChunk changed;
+					if (lMinX == 0 && lMinY == 0 && lMinZ == 0 
+							&& lMaxX == PresenceChunk.MASK && lMaxY == PresenceChunk.MASK && lMaxZ == PresenceChunk.MASK) {
+						changed = uniform;
+					} else {
+						long rowMask = rowMask(lMaxX - lMinX + 1) << lMinX;
+						changed = chunk;
+						for (int lz = lMinZ; lz <= lMaxZ; lz++) {
+							for (int ly = lMinY; ly <= lMaxY; ly++) {
+								changed = changed.withRow(ly, lz, rowMask, present);
+							}
+						}
+					}
+					if (changed != chunk) {
+						setChunk(cx, cy, cz, changed);
+					}
+				}
+			}
+		}
+	}
+
+	public long getRow(int x, int y, int z) {
+		int cy = y >> PresenceChunk.BITS;
+		int cz = z >> PresenceChunk.BITS;
+		int ly = y & PresenceChunk.MASK;
+		int lz = z & PresenceChunk.MASK;
+
+		//Build the row from the pieces of chunk rows it covers
+		long row = 0;
+		int i = 0;
+		while (i < 64) {
+			int px = x + i;
+			int lx = px & PresenceChunk.MASK;
+			long piece = getChunk(px >> PresenceChunk.BITS, cy, cz).getRow(ly, lz) >>> lx;
+			row |= piece << i;
+			i += PresenceChunk.SIZE - lx;
+		}
+		return row;
+	}
+
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Clip to the area that may have presence
+		minX = Math.max(minX, getMin(0));
+		minY = Math.max(minY, getMin(1));
+		minZ = Math.max(minZ, getMin(2));
+		maxX = Math.min(maxX, getMax(0));
+		maxY = Math.min(maxY, getMax(1));
+		maxZ = Math.min(maxZ, getMax(2));
+		if (minX > maxX || minY > maxY || minZ > maxZ) return false;
+
+		//Check each chunk touching the box, using just the part of
+		//the box within that chunk
+		for (int cz = minZ >> PresenceChunk.BITS; cz <= maxZ >> PresenceChunk.BITS; cz++) {
+			int chunkZ = cz << PresenceChunk.BITS;
+			int lMinZ = Math.max(minZ - chunkZ, 0);
+			int lMaxZ = Math.min(maxZ - chunkZ, PresenceChunk.MASK);
+			for (int cy = minY >> PresenceChunk.BITS; cy <= maxY >> PresenceChunk.BITS; cy++) {
+				int chunkY = cy << PresenceChunk.BITS;
+				int lMinY = Math.max(minY - chunkY, 0);
+				int lMaxY = Math.min(maxY - chunkY, PresenceChunk.MASK);
+				for (int cx = minX >> PresenceChunk.BITS; cx <= maxX >> PresenceChunk.BITS; cx++) {
+					int chunkX = cx << PresenceChunk.BITS;
+					int lMinX = Math.max(minX - chunkX, 0);
+					int lMaxX = Math.min(maxX - chunkX, PresenceChunk.MASK);
+					PresenceChunk chunk = getChunk(cx, cy, cz);
+					if (chunk.anyPresent(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ)) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
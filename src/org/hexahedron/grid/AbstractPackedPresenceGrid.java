@@ -0,0 +1,218 @@
+package org.hexahedron.grid;
+
+/**
+ * Base for {@link PresenceGrid}s storing one bit per position, packed
+ * into a flat sequence of 64 bit words. Subclasses decide where the
+ * words are stored.
+ *
+ * Positions are ordered linearly with x varying fastest, then y,
+ * then z. This means each row along the x axis is a contiguous run
+ * of bits, so {@link #getRow(int, int, int)} needs at most two
+ * word reads, and scans over rows and planes work on whole words
+ * rather than single positions.
+ */
+public abstract class AbstractPackedPresenceGrid extends AbstractPresenceGrid {
+
+	private final int levels;
+	private final int size;
+	private final long wordCount;
+
+	/**
+	 * Create an {@link AbstractPackedPresenceGrid}
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 */
+	protected AbstractPackedPresenceGrid(int levels) {
+		this.levels = levels;
+		size = 1<<levels;
+
+		//One bit per position, rounded up to whole words
+		long bits = 1L<<(3*levels);
+		wordCount = (bits + 63) >>> 6;
+	}
+
+	/**
+	 * Get a word of the grid
+	 * @param index
+	 * 		The index of the word, from 0 to {@link #getWordCount()}-1
+	 * @return
+	 * 		The word
+	 */
+	protected abstract long getWord(long index);
+
+	/**
+	 * Set a word of the grid
+	 * @param index
+	 * 		The index of the word, from 0 to {@link #getWordCount()}-1
+	 * @param word
+	 * 		The new word
+	 */
+	protected abstract void setWord(long index, long word);
+
+	/**
+	 * The number of words needed to store the grid
+	 * @return
+	 * 		Word count
+	 */
+	public long getWordCount() {
+		return wordCount;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMin(int axis) {
+		return 0;
+	}
+
+	public int getMax(int axis) {
+		return size - 1;
+	}
+
+	/**
+	 * The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 * @return
+	 * 		levels
+	 */
+	public int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Check whether a single coord is within the grid
+	 * @param c
+	 * 		The coord
+	 * @return
+	 * 		True iff coord is in the grid
+	 */
+	private boolean inGrid(int c) {
+		//Size is a power of two, so coords in the grid have no
+		//bits set outside size - 1, and negative coords always do
+		return (c & ~(size - 1)) == 0;
+	}
+
+	public boolean contains(int x, int y, int z) {
+		//Check all coords at once, see inGrid
+		return ((x | y | z) & ~(size - 1)) == 0;
+	}
+
+	/**
+	 * Get the index of the bit for a position, which
+	 * MUST be inside the grid
+	 */
+	private long bitIndex(int x, int y, int z) {
+		return (((long)z) << (2 * levels)) | (((long)y) << levels) | x;
+	}
+
+	public boolean getPresence(int x, int y, int z) {
+		if (!contains(x, y, z)) return false;
+		long bit = bitIndex(x, y, z);
+		return (getWord(bit >>> 6) & (1L << bit)) != 0;
+	}
+
+	public void setPresence(int x, int y, int z, boolean present) {
+		if (!contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside grid of size " + size);
+		}
+		long bit = bitIndex(x, y, z);
+		long word = bit >>> 6;
+		if (present) {
+			setWord(word, getWord(word) | (1L << bit));
+		} else {
+			setWord(word, getWord(word) & ~(1L << bit));
+		}
+	}
+
+	@Override
+	public void setRow(int x, int y, int z, long mask, boolean present) {
+		checkRow(x, y, z, mask);
+		if (mask == 0) return;
+
+		//Positions before the start of the grid are not in the mask
+		if (x < 0) {
+			mask >>>= -x;
+			x = 0;
+		}
+
+		//Write the (possibly unaligned) 64 bits starting at the row start,
+		//we know the mask is within the grid row
+		long bit = bitIndex(x, y, z);
+		long word = bit >>> 6;
+		int offset = (int)(bit & 63);
+		setWordBits(word, mask << offset, present);
+		if (offset != 0) {
+			long high = mask >>> (64 - offset);
+			if (high != 0) {
+				setWordBits(word + 1, high, present);
+			}
+		}
+	}
+
+	/**
+	 * Set or clear the bits of a word in a mask
+	 */
+	private void setWordBits(long word, long mask, boolean present) {
+		long value = getWord(word);
+		setWord(word, present ? (value | mask) : (value & ~mask));
+	}
+
+	public long getRow(int x, int y, int z) {
+		if (!inGrid(y | z)) return 0;
+		if (x >= size || x <= -64) return 0;
+
+		//If the row starts before the grid, read from the
+		//start of the grid and shift the bits up afterwards
+		int shift = 0;
+		if (x < 0) {
+			shift = -x;
+			x = 0;
+		}
+
+		//Read the (possibly unaligned) 64 bits starting at the row start
+		long bit = bitIndex(x, y, z);
+		long word = bit >>> 6;
+		int offset = (int)(bit & 63);
+		long row = getWord(word) >>> offset;
+		if (offset != 0 && word + 1 < wordCount) {
+			row |= getWord(word + 1) << (64 - offset);
+		}
+
+		//Clear any bits past the end of the grid row, since
+		//these are from the next row along
+		int available = size - x;
+		if (available < 64) {
+			row &= (1L << available) - 1;
+		}
+
+		return row << shift;
+	}
+
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Clip to grid
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		minZ = Math.max(minZ, 0);
+		maxX = Math.min(maxX, size - 1);
+		maxY = Math.min(maxY, size - 1);
+		maxZ = Math.min(maxZ, size - 1);
+
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int y = minY; y <= maxY; y++) {
+				//Check the row in 64 position pieces
+				for (int x = minX; x <= maxX; x += 64) {
+					long row = getRow(x, y, z);
+					int count = maxX - x + 1;
+					if (count < 64) {
+						row &= (1L << count) - 1;
+					}
+					if (row != 0) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
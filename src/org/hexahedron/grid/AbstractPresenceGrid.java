@@ -0,0 +1,71 @@
+package org.hexahedron.grid;
+
+/**
+ * Base for {@link PresenceGrid}s, implementing the bulk
+ * setting methods using {@link #setPresence(int, int, int, boolean)}
+ * for each position. Grids that can set many positions at once
+ * override these.
+ */
+public abstract class AbstractPresenceGrid implements PresenceGrid {
+
+	/**
+	 * Check that every position in a row mask is in the grid
+	 * @throws IndexOutOfBoundsException
+	 * 		If any position is outside the grid
+	 */
+	protected void checkRow(int x, int y, int z, long mask) {
+		if (mask == 0) return;
+		int first = x + Long.numberOfTrailingZeros(mask);
+		int last = x + 63 - Long.numberOfLeadingZeros(mask);
+		if (!(contains(first, y, z) && contains(last, y, z))) {
+			throw new IndexOutOfBoundsException("Row from (" + first + ", " + y + ", " + z + ") to (" + last + ", " + y + ", " + z + ") is not inside the grid");
+		}
+	}
+
+	/**
+	 * Check that every position in a box is in the grid
+	 * @return
+	 * 		True if the box has any positions, false if it is empty
+	 * @throws IndexOutOfBoundsException
+	 * 		If any position is outside the grid
+	 */
+	protected boolean checkBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (minX > maxX || minY > maxY || minZ > maxZ) return false;
+		if (!(contains(minX, minY, minZ) && contains(maxX, maxY, maxZ))) {
+			throw new IndexOutOfBoundsException("Box from (" + minX + ", " + minY + ", " + minZ + ") to (" + maxX + ", " + maxY + ", " + maxZ + ") is not inside the grid");
+		}
+		return true;
+	}
+
+	public void setRow(int x, int y, int z, long mask, boolean present) {
+		checkRow(x, y, z, mask);
+		while (mask != 0) {
+			int i = Long.numberOfTrailingZeros(mask);
+			setPresence(x + i, y, z, present);
+			mask &= mask - 1;
+		}
+	}
+
+	public void setBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean present) {
+		if (!checkBox(minX, minY, minZ, maxX, maxY, maxZ)) return;
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x += 64) {
+					setRow(x, y, z, rowMask(maxX - x + 1), present);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A row mask with the lowest count bits set
+	 * @param count
+	 * 		The number of bits, values of 64 or more give every bit
+	 * @return
+	 * 		The mask
+	 */
+	protected static long rowMask(int count) {
+		return count >= 64 ? -1L : (1L << count) - 1;
+	}
+
+}
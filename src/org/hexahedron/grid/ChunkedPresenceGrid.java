@@ -0,0 +1,98 @@
+package org.hexahedron.grid;
+
+/**
+ * A {@link PresenceGrid} made of {@link PresenceChunk}s, where chunks
+ * that are entirely empty or entirely full use the shared uniform
+ * chunks, and only mixed chunks have their own storage. Mixed chunks
+ * are only allocated when a write first makes a chunk non-uniform.
+ *
+ * Memory use therefore scales with the number of chunks containing
+ * a surface, rather than with the volume of the grid. Code scanning
+ * the grid can also use {@link #getChunk(int, int, int)} to skip whole
+ * uniform chunks.
+ */
+public class ChunkedPresenceGrid extends AbstractChunkedPresenceGrid {
+
+	private final int size;
+	private final int chunksPerEdge;
+	private final PresenceChunk[] chunks;
+
+	/**
+	 * Create a {@link ChunkedPresenceGrid}, with no presence
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 */
+	public ChunkedPresenceGrid(int levels) {
+		if (levels < 0 || levels > 14) {
+			throw new IllegalArgumentException("Only levels 0 to 14 are supported by a chunked grid");
+		}
+		size = 1<<levels;
+		chunksPerEdge = Math.max(1, size >> PresenceChunk.BITS);
+		chunks = new PresenceChunk[chunksPerEdge * chunksPerEdge * chunksPerEdge];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = PresenceChunk.EMPTY;
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMin(int axis) {
+		return 0;
+	}
+
+	public int getMax(int axis) {
+		return size - 1;
+	}
+
+	/**
+	 * The number of chunks along each edge of the grid
+	 * @return
+	 * 		Chunks per edge
+	 */
+	public int getChunksPerEdge() {
+		return chunksPerEdge;
+	}
+
+	/**
+	 * The number of chunks that have their own storage, rather than
+	 * using one of the shared uniform chunks
+	 * @return
+	 * 		Mixed chunk count
+	 */
+	public int getMixedChunkCount() {
+		int count = 0;
+		for (PresenceChunk chunk : chunks) {
+			if (!chunk.isUniform()) count++;
+		}
+		return count;
+	}
+
+	private boolean inChunks(int c) {
+		return c >= 0 && c < chunksPerEdge;
+	}
+
+	private int chunkIndex(int cx, int cy, int cz) {
+		return (cz * chunksPerEdge + cy) * chunksPerEdge + cx;
+	}
+
+	@Override
+	public PresenceChunk getChunk(int cx, int cy, int cz) {
+		if (!(inChunks(cx) && inChunks(cy) && inChunks(cz))) return PresenceChunk.EMPTY;
+		return chunks[chunkIndex(cx, cy, cz)];
+	}
+
+	@Override
+	protected void setChunk(int cx, int cy, int cz, PresenceChunk chunk) {
+		chunks[chunkIndex(cx, cy, cz)] = chunk;
+	}
+
+	public boolean contains(int x, int y, int z) {
+		//Size is a power of two, so coords in the grid have no
+		//bits set outside size - 1, and negative coords always do
+		return ((x | y | z) & ~(size - 1)) == 0;
+	}
+
+}
@@ -0,0 +1,294 @@
+package org.hexahedron.grid;
+
+/**
+ * A {@link PresenceGrid} storing each vertical (y axis) column of
+ * positions as a run-length list, suited to terrain-like worlds where
+ * columns are mostly long runs of presence with no presence above.
+ *
+ * Each (x, z) column is stored as a sorted list of the y coords where
+ * presence changes - the first boundary starts a run of presence, the
+ * next ends it (exclusive), and so on. The presence at y is then given
+ * by whether an odd number of boundaries are at or below y, found by
+ * binary search in O(log runs). A column of solid ground topped by air
+ * is just two ints, however tall it is, and an empty column stores
+ * nothing.
+ *
+ * Box queries ({@link #anyPresent(int, int, int, int, int, int)}, as
+ * used by collision) check each column's runs against the y range
+ * rather than probing each position, and {@link #getTopPresent(int, int)}
+ * gives the highest presence in a column directly.
+ */
+public class ColumnPresenceGrid extends AbstractPresenceGrid {
+
+	private final int levels;
+	private final int size;
+
+	/**
+	 * Boundaries of each column, indexed by (z * size + x), null
+	 * for columns that have never had presence. Only the first
+	 * columnLengths entries of each array are used.
+	 */
+	private final int[][] columns;
+	private final int[] columnLengths;
+
+	/**
+	 * Create a {@link ColumnPresenceGrid}, with no presence
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 */
+	public ColumnPresenceGrid(int levels) {
+		if (levels < 0 || levels > 12) {
+			throw new IllegalArgumentException("Only levels 0 to 12 are supported by a column grid");
+		}
+		this.levels = levels;
+		size = 1<<levels;
+		columns = new int[size * size][];
+		columnLengths = new int[size * size];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMin(int axis) {
+		return 0;
+	}
+
+	public int getMax(int axis) {
+		return size - 1;
+	}
+
+	/**
+	 * The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 * @return
+	 * 		levels
+	 */
+	public int getLevels() {
+		return levels;
+	}
+
+	private boolean inGrid(int c) {
+		//Size is a power of two, so coords in the grid have no
+		//bits set outside size - 1, and negative coords always do
+		return (c & ~(size - 1)) == 0;
+	}
+
+	public boolean contains(int x, int y, int z) {
+		//Check all coords at once, see inGrid
+		return ((x | y | z) & ~(size - 1)) == 0;
+	}
+
+	private int columnIndex(int x, int z) {
+		return (z << levels) | x;
+	}
+
+	/**
+	 * The number of boundaries in a column that are at or below y,
+	 * found by binary search
+	 */
+	private static int boundariesAtOrBelow(int[] column, int length, int y) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (column[mid] <= y) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public boolean getPresence(int x, int y, int z) {
+		if (!inGrid(x | z)) return false;
+		int c = columnIndex(x, z);
+		int[] column = columns[c];
+		if (column == null) return false;
+		return (boundariesAtOrBelow(column, columnLengths[c], y) & 1) != 0;
+	}
+
+	public void setPresence(int x, int y, int z, boolean present) {
+		if (!contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside grid of size " + size);
+		}
+		if (getPresence(x, y, z) == present) return;
+
+		//Flipping presence at just y is the same as toggling whether
+		//there are boundaries at y and y + 1, which merges or splits
+		//runs as needed
+		int c = columnIndex(x, z);
+		toggleBoundary(c, y);
+		toggleBoundary(c, y + 1);
+	}
+
+	/**
+	 * Add a boundary to a column if it is not there, or remove
+	 * it if it is
+	 */
+	private void toggleBoundary(int c, int y) {
+		int[] column = columns[c];
+		int length = columnLengths[c];
+		if (column == null) {
+			column = new int[2];
+			columns[c] = column;
+		}
+
+		int i = boundariesAtOrBelow(column, length, y);
+		if (i > 0 && column[i - 1] == y) {
+			//Remove existing boundary
+			System.arraycopy(column, i, column, i - 1, length - i);
+			length--;
+		} else {
+			//Insert new boundary
+			if (length == column.length) {
+				int[] newColumn = new int[column.length * 2];
+				System.arraycopy(column, 0, newColumn, 0, length);
+				column = newColumn;
+				columns[c] = column;
+			}
+			System.arraycopy(column, i, column, i + 1, length - i);
+			column[i] = y;
+			length++;
+		}
+		columnLengths[c] = length;
+	}
+
+	public long getRow(int x, int y, int z) {
+		if (!inGrid(y | z)) return 0;
+
+		long row = 0;
+		int start = Math.max(x, 0);
+		int end = Math.min(x + 63, size - 1);
+		for (int px = start; px <= end; px++) {
+			int c = columnIndex(px, z);
+			int[] column = columns[c];
+			if (column != null && (boundariesAtOrBelow(column, columnLengths[c], y) & 1) != 0) {
+				row |= 1L << (px - x);
+			}
+		}
+		return row;
+	}
+
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Clip to grid
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		minZ = Math.max(minZ, 0);
+		maxX = Math.min(maxX, size - 1);
+		maxY = Math.min(maxY, size - 1);
+		maxZ = Math.min(maxZ, size - 1);
+		if (minY > maxY) return false;
+
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int x = minX; x <= maxX; x++) {
+				int c = columnIndex(x, z);
+				int[] column = columns[c];
+				if (column == null) continue;
+				int length = columnLengths[c];
+
+				//Either we start inside a run, or a run starts
+				//before the end of the range
+				int i = boundariesAtOrBelow(column, length, minY);
+				if ((i & 1) != 0) return true;
+				if (i < length && column[i] <= maxY) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the y coord of the highest presence in a column
+	 * @param x
+	 * 		x coord of column
+	 * @param z
+	 * 		z coord of column
+	 * @return
+	 * 		The highest y with presence, or -1 if there is none
+	 * in the column, or the column is outside the grid
+	 */
+	public int getTopPresent(int x, int z) {
+		if (!inGrid(x | z)) return -1;
+		int c = columnIndex(x, z);
+		int length = columnLengths[c];
+		if (length == 0) return -1;
+
+		//The last boundary always ends a run
+		return columns[c][length - 1] - 1;
+	}
+
+	/**
+	 * Get the y coord of the highest presence in a column,
+	 * at or below a given y
+	 * @param x
+	 * 		x coord of column
+	 * @param y
+	 * 		The highest y to consider
+	 * @param z
+	 * 		z coord of column
+	 * @return
+	 * 		The highest y with presence at or below y, or -1
+	 * if there is none
+	 */
+	public int getTopPresentBelow(int x, int y, int z) {
+		if (!inGrid(x | z) || y < 0) return -1;
+		int c = columnIndex(x, z);
+		int[] column = columns[c];
+		if (column == null) return -1;
+		int i = boundariesAtOrBelow(column, columnLengths[c], y);
+
+		//Inside a run, so y itself has presence
+		if ((i & 1) != 0) return y;
+
+		//Otherwise the end of the previous run, if any
+		if (i == 0) return -1;
+		return column[i - 1] - 1;
+	}
+
+	/**
+	 * The number of runs of presence in a column
+	 * @param x
+	 * 		x coord of column
+	 * @param z
+	 * 		z coord of column
+	 * @return
+	 * 		Run count, 0 outside the grid
+	 */
+	public int getRunCount(int x, int z) {
+		if (!inGrid(x | z)) return 0;
+		return columnLengths[columnIndex(x, z)] / 2;
+	}
+
+	/**
+	 * Get the start of a run of presence in a column
+	 * @param x
+	 * 		x coord of column
+	 * @param z
+	 * 		z coord of column
+	 * @param run
+	 * 		The run, from 0 (lowest) to {@link #getRunCount(int, int)}-1
+	 * @return
+	 * 		The lowest y in the run
+	 */
+	public int getRunStart(int x, int z, int run) {
+		return columns[columnIndex(x, z)][2 * run];
+	}
+
+	/**
+	 * Get the end of a run of presence in a column
+	 * @param x
+	 * 		x coord of column
+	 * @param z
+	 * 		z coord of column
+	 * @param run
+	 * 		The run, from 0 (lowest) to {@link #getRunCount(int, int)}-1
+	 * @return
+	 * 		The highest y in the run
+	 */
+	public int getRunEnd(int x, int z, int run) {
+		return columns[columnIndex(x, z)][2 * run + 1] - 1;
+	}
+
+}
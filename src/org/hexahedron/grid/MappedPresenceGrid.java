@@ -0,0 +1,127 @@
+package org.hexahedron.grid;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PresenceGrid} storing one bit per position in a memory-mapped
+ * file, using the same layout as {@link PackedPresenceGrid} (see
+ * {@link AbstractPackedPresenceGrid}).
+ *
+ * The grid data is not on the Java heap, so it costs no heap space or
+ * GC time, and can be larger than the heap. The OS page cache decides
+ * which parts of the file are resident - regions in use stay in memory
+ * and are as fast to access as any other direct buffer, while regions
+ * not in use are paged out. Words are stored little-endian, so files
+ * can be moved between machines. On most file systems the file is sparse
+ * until written, so large empty grids also cost no disk space.
+ *
+ * The file is mapped in segments of at most {@link #SEGMENT_WORDS} words,
+ * since each mapping is limited to 2GB.
+ *
+ * Opening an existing file keeps its contents, so the grid can be
+ * reloaded later. Changes are written back to the file by the OS,
+ * {@link #force()} can be used to make sure they have been written.
+ */
+public class MappedPresenceGrid extends AbstractPackedPresenceGrid implements Closeable {
+
+	/**
+	 * log2 of the number of words in each mapped segment
+	 */
+	private final static int SEGMENT_BITS = 27;
+
+	/**
+	 * The number of words in each mapped segment (1GB)
+	 */
+	public final static long SEGMENT_WORDS = 1L << SEGMENT_BITS;
+
+	private final static long SEGMENT_MASK = SEGMENT_WORDS - 1;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer[] mapped;
+	private final LongBuffer[] segments;
+
+	/**
+	 * Create a {@link MappedPresenceGrid}, stored in a file. If the file
+	 * is new or too short it is extended with no presence, otherwise
+	 * the existing presence in the file is used.
+	 * @param file
+	 * 		The file to map
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped
+	 */
+	public MappedPresenceGrid(File file, int levels) throws IOException {
+		super(checkLevels(levels));
+
+		this.file = new RandomAccessFile(file, "rw");
+		channel = this.file.getChannel();
+
+		long wordCount = getWordCount();
+		int segmentCount = (int)((wordCount + SEGMENT_MASK) >>> SEGMENT_BITS);
+		mapped = new MappedByteBuffer[segmentCount];
+		segments = new LongBuffer[segmentCount];
+
+		try {
+			//Mapping past the end of the file extends it, with zeroes
+			for (int i = 0; i < segmentCount; i++) {
+				long start = ((long)i) << SEGMENT_BITS;
+				long words = Math.min(SEGMENT_WORDS, wordCount - start);
+				mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * 8, words * 8);
+				mapped[i].order(ByteOrder.LITTLE_ENDIAN);
+				segments[i] = mapped[i].asLongBuffer();
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	private static int checkLevels(int levels) {
+		if (levels < 0 || levels > 14) {
+			throw new IllegalArgumentException("Only levels 0 to 14 are supported by a mapped grid");
+		}
+		return levels;
+	}
+
+	@Override
+	protected long getWord(long index) {
+		return segments[(int)(index >>> SEGMENT_BITS)].get((int)(index & SEGMENT_MASK));
+	}
+
+	@Override
+	protected void setWord(long index, long word) {
+		segments[(int)(index >>> SEGMENT_BITS)].put((int)(index & SEGMENT_MASK), word);
+	}
+
+	/**
+	 * Make sure all changes to the grid have been written to the file
+	 */
+	public void force() {
+		for (MappedByteBuffer buffer : mapped) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Write any changes and close the file. The mappings stay valid
+	 * until garbage collected, but the grid should not be used after
+	 * closing.
+	 * @throws IOException
+	 * 		If the file cannot be closed
+	 */
+	public void close() throws IOException {
+		force();
+		file.close();
+	}
+
+}
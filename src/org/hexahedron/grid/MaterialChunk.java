@@ -0,0 +1,211 @@
+package org.hexahedron.grid;
+
+/**
+ * A cubic chunk of material ids, {@link PresenceChunk#SIZE} positions
+ * along each edge, using the same position indices as {@link PresenceChunk}.
+ *
+ * Ids are stored using a palette local to the chunk - each position
+ * stores an index into the palette, using just enough bits for the
+ * palette size, rounded up to a power of two so entries never straddle
+ * words. A chunk of a single material uses no per-position storage,
+ * a chunk with two materials uses 1 bit per position, up to four
+ * uses 2 bits, and so on. Ids themselves can be up to {@link #MAX_ID}
+ * without making chunks using only a few of them any larger.
+ *
+ * The palette grows as new ids are set. Before it grows to more bits,
+ * ids no longer used at any position are dropped, so a chunk only
+ * ever uses enough bits for the ids actually in it.
+ */
+public class MaterialChunk {
+
+	/**
+	 * The largest material id that can be stored
+	 */
+	public final static int MAX_ID = 0xFFFF;
+
+	private int[] palette;
+	private int paletteSize;
+	private int bits;
+	private long[] entries;
+
+	/**
+	 * Make a chunk with the same material at every position
+	 * @param id
+	 * 		The material id
+	 */
+	public MaterialChunk(int id) {
+		checkId(id);
+		palette = new int[] {id};
+		paletteSize = 1;
+		bits = 0;
+		entries = null;
+	}
+
+	private static void checkId(int id) {
+		if (id < 0 || id > MAX_ID) {
+			throw new IllegalArgumentException("Material id " + id + " is outside 0 to " + MAX_ID);
+		}
+	}
+
+	/**
+	 * Get the palette entry for a position
+	 */
+	private int getEntry(int index) {
+		if (bits == 0) return 0;
+		int bit = index * bits;
+		return (int)(entries[bit >>> 6] >>> (bit & 63)) & ((1 << bits) - 1);
+	}
+
+	/**
+	 * Set the palette entry for a position, which must
+	 * fit in the current bits per entry
+	 */
+	private void setEntry(int index, int entry) {
+		int bit = index * bits;
+		long mask = ((1L << bits) - 1) << (bit & 63);
+		long word = entries[bit >>> 6];
+		entries[bit >>> 6] = (word & ~mask) | (((long)entry << (bit & 63)) & mask);
+	}
+
+	/**
+	 * Get the material at a position in the chunk
+	 * @param index
+	 * 		The index of the position, see {@link PresenceChunk#indexInChunk(int, int, int)}
+	 * @return
+	 * 		The material id
+	 */
+	public int getMaterial(int index) {
+		return palette[getEntry(index)];
+	}
+
+	/**
+	 * Set the material at a position in the chunk
+	 * @param index
+	 * 		The index of the position, see {@link PresenceChunk#indexInChunk(int, int, int)}
+	 * @param id
+	 * 		The material id, from 0 to {@link #MAX_ID}
+	 */
+	public void setMaterial(int index, int id) {
+		checkId(id);
+		if (getMaterial(index) == id) return;
+
+		int entry = paletteEntry(id);
+		if (entry < 0) {
+			//Make space for the new id if the entries are full,
+			//dropping unused ids first, and only growing if this
+			//doesn't leave a free entry
+			if (paletteSize == (1 << bits)) {
+				compact();
+				if (paletteSize == (1 << bits)) {
+					repack(bits == 0 ? 1 : bits * 2);
+				}
+			}
+			if (paletteSize == palette.length) {
+				int[] newPalette = new int[palette.length * 2];
+				System.arraycopy(palette, 0, newPalette, 0, paletteSize);
+				palette = newPalette;
+			}
+			entry = paletteSize++;
+			palette[entry] = id;
+		}
+
+		setEntry(index, entry);
+	}
+
+	/**
+	 * Find the palette entry for an id
+	 * @return
+	 * 		The entry, or -1 if id is not in the palette
+	 */
+	private int paletteEntry(int id) {
+		for (int i = 0; i < paletteSize; i++) {
+			if (palette[i] == id) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Change the number of bits per entry, keeping the entry
+	 * at each position
+	 */
+	private void repack(int newBits) {
+		long[] newEntries = null;
+		if (newBits > 0) {
+			newEntries = new long[PresenceChunk.VOLUME * newBits / 64];
+			for (int i = 0; i < PresenceChunk.VOLUME; i++) {
+				int bit = i * newBits;
+				newEntries[bit >>> 6] |= ((long)getEntry(i)) << (bit & 63);
+			}
+		}
+		entries = newEntries;
+		bits = newBits;
+	}
+
+	/**
+	 * Drop palette entries that are not used at any position,
+	 * and use the fewest bits per entry that fit the palette
+	 */
+	public void compact() {
+		if (bits == 0) return;
+
+		//Find which entries are used, and number them in order
+		int[] remap = new int[paletteSize];
+		for (int i = 0; i < PresenceChunk.VOLUME; i++) {
+			remap[getEntry(i)] = 1;
+		}
+		int used = 0;
+		for (int e = 0; e < paletteSize; e++) {
+			if (remap[e] != 0) {
+				palette[used] = palette[e];
+				remap[e] = used++;
+			}
+		}
+
+		//Fewest bits that fit, as a power of two
+		int newBits = 0;
+		while ((1 << newBits) < used) {
+			newBits = newBits == 0 ? 1 : newBits * 2;
+		}
+
+		long[] newEntries = null;
+		if (newBits > 0) {
+			newEntries = new long[PresenceChunk.VOLUME * newBits / 64];
+			for (int i = 0; i < PresenceChunk.VOLUME; i++) {
+				int bit = i * newBits;
+				newEntries[bit >>> 6] |= ((long)remap[getEntry(i)]) << (bit & 63);
+			}
+		}
+		entries = newEntries;
+		bits = newBits;
+		paletteSize = used;
+	}
+
+	/**
+	 * The number of bits used to store each position
+	 * @return
+	 * 		Bits per position, 0 if the chunk is uniform
+	 */
+	public int getBitsPerEntry() {
+		return bits;
+	}
+
+	/**
+	 * The number of ids in the palette. This may include
+	 * ids no longer used, until the chunk is compacted.
+	 * @return
+	 * 		Palette size
+	 */
+	public int getPaletteSize() {
+		return paletteSize;
+	}
+
+	/**
+	 * @return
+	 * 		True iff every position is known to have the same
+	 * material, which is then {@link #getMaterial(int)} for any index
+	 */
+	public boolean isUniform() {
+		return bits == 0;
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.hexahedron.grid;
+
+import org.hexahedron.util.LongHashMap;
+
+/**
+ * Stores a material id for each position in a 3d grid, as
+ * {@link MaterialChunk}s keyed by packed chunk coords (see
+ * {@link PresenceChunk#key(int, int, int)}).
+ *
+ * Positions that have never been set have material {@link #DEFAULT},
+ * and chunks that only contain {@link #DEFAULT} are not stored, so
+ * a grid using only the default material uses no memory, and other
+ * chunks use only as many bits per position as they have materials.
+ *
+ * The grid has no bounds of its own, it is intended to be used
+ * alongside a {@link PresenceGrid} that decides which positions
+ * are in use. Positions outside the range of chunk keys always
+ * have material {@link #DEFAULT}.
+ */
+public class MaterialGrid {
+
+	/**
+	 * The material of positions that have not been set
+	 */
+	public final static int DEFAULT = 0;
+
+	private final LongHashMap<MaterialChunk> chunks = new LongHashMap<MaterialChunk>();
+
+	private static boolean inKeyRange(int c) {
+		return c >= PresenceChunk.MIN_KEY_COORD && c <= PresenceChunk.MAX_KEY_COORD;
+	}
+
+	/**
+	 * Get the stored chunk containing a position
+	 * @return
+	 * 		The chunk, or null if none is stored
+	 */
+	private MaterialChunk chunk(int x, int y, int z) {
+		int cx = x >> PresenceChunk.BITS;
+		int cy = y >> PresenceChunk.BITS;
+		int cz = z >> PresenceChunk.BITS;
+		if (!(inKeyRange(cx) && inKeyRange(cy) && inKeyRange(cz))) return null;
+		return chunks.get(PresenceChunk.key(cx, cy, cz));
+	}
+
+	/**
+	 * Get the material at a position
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 * @return
+	 * 		The material id
+	 */
+	public int getMaterial(int x, int y, int z) {
+		MaterialChunk chunk = chunk(x, y, z);
+		if (chunk == null) return DEFAULT;
+		return chunk.getMaterial(PresenceChunk.indexInChunk(x & PresenceChunk.MASK, y & PresenceChunk.MASK, z & PresenceChunk.MASK));
+	}
+
+	/**
+	 * Set the material at a position
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 * @param id
+	 * 		The material id, from 0 to {@link MaterialChunk#MAX_ID}
+	 */
+	public void setMaterial(int x, int y, int z, int id) {
+		int cx = x >> PresenceChunk.BITS;
+		int cy = y >> PresenceChunk.BITS;
+		int cz = z >> PresenceChunk.BITS;
+		if (!(inKeyRange(cx) && inKeyRange(cy) && inKeyRange(cz))) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside the range of chunk keys");
+		}
+		long key = PresenceChunk.key(cx, cy, cz);
+		MaterialChunk chunk = chunks.get(key);
+		if (chunk == null) {
+			//No need for a chunk just to store the default
+			if (id == DEFAULT) return;
+			chunk = new MaterialChunk(DEFAULT);
+			chunks.put(key, chunk);
+		}
+		chunk.setMaterial(PresenceChunk.indexInChunk(x & PresenceChunk.MASK, y & PresenceChunk.MASK, z & PresenceChunk.MASK), id);
+	}
+
+	/**
+	 * Compact every chunk (see {@link MaterialChunk#compact()}), and
+	 * drop chunks that contain only {@link #DEFAULT}
+	 */
+	public void compact() {
+		for (int slot = 0; slot < chunks.capacity(); slot++) {
+			MaterialChunk chunk = chunks.valueAt(slot);
+			if (chunk == null) continue;
+			chunk.compact();
+			if (chunk.isUniform() && chunk.getMaterial(0) == DEFAULT) {
+				chunks.remove(chunks.keyAt(slot));
+
+				//Removal may move a later entry into this slot
+				slot--;
+			}
+		}
+	}
+
+	/**
+	 * The number of chunks stored
+	 * @return
+	 * 		Chunk count
+	 */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+}
@@ -0,0 +1,44 @@
+package org.hexahedron.grid;
+
+/**
+ * A {@link PresenceGrid} storing one bit per position, packed
+ * into a flat array of longs on the heap. See
+ * {@link AbstractPackedPresenceGrid} for the layout.
+ *
+ * Compared to a boolean[][][] this uses one eighth of the memory,
+ * with no per-row array headers, and keeps rows of the grid next
+ * to each other in memory.
+ */
+public class PackedPresenceGrid extends AbstractPackedPresenceGrid {
+
+	private final long[] words;
+
+	/**
+	 * Create a {@link PackedPresenceGrid}, with no presence
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 */
+	public PackedPresenceGrid(int levels) {
+		super(checkLevels(levels));
+		words = new long[(int)getWordCount()];
+	}
+
+	private static int checkLevels(int levels) {
+		if (levels < 0 || levels > 12) {
+			throw new IllegalArgumentException("Only levels 0 to 12 are supported by a packed grid");
+		}
+		return levels;
+	}
+
+	@Override
+	protected long getWord(long index) {
+		return words[(int)index];
+	}
+
+	@Override
+	protected void setWord(long index, long word) {
+		words[(int)index] = word;
+	}
+
+}
@@ -0,0 +1,360 @@
+package org.hexahedron.grid;
+
+/**
+ * A cubic chunk of presence, {@link #SIZE} positions along each edge,
+ * stored as one bit per position.
+ *
+ * Chunks that are entirely empty or entirely full are represented
+ * by the shared {@link #EMPTY} and {@link #FULL} instances, which use
+ * no memory per chunk. These shared chunks are never changed - instead
+ * {@link #withPresence(int, int, int, boolean)} returns a new mixed
+ * chunk when a write would change them. Similarly, when a mixed chunk
+ * becomes uniform, the shared chunk is returned so that the mixed
+ * chunk can be discarded.
+ *
+ * Within a chunk, positions are ordered linearly with x varying
+ * fastest, then y, then z, so each row along x is 16 contiguous bits.
+ */
+public class PresenceChunk {
+
+	/**
+	 * The number of bits of a coord used for the position
+	 * within a chunk
+	 */
+	public final static int BITS = 4;
+
+	/**
+	 * The number of positions along each edge of a chunk
+	 */
+	public final static int SIZE = 1<<BITS;
+
+	/**
+	 * Mask for the bits of a coord giving the position within
+	 * a chunk
+	 */
+	public final static int MASK = SIZE - 1;
+
+	/**
+	 * The number of positions in a chunk
+	 */
+	public final static int VOLUME = SIZE * SIZE * SIZE;
+
+	/**
+	 * The number of bits used for each chunk coord in a 
+	 * chunk key, see {@link #key(int, int, int)}
+	 */
+	public final static int KEY_BITS = 21;
+
+	/**
+	 * The minimum chunk coord that can be stored in a key
+	 */
+	public final static int MIN_KEY_COORD = -(1 << (KEY_BITS - 1));
+
+	/**
+	 * The maximum chunk coord that can be stored in a key
+	 */
+	public final static int MAX_KEY_COORD = (1 << (KEY_BITS - 1)) - 1;
+
+	private final static long KEY_MASK = (1L << KEY_BITS) - 1;
+
+	/**
+	 * Mask for the bits of a single row along x
+	 */
+	private final static long ROW_MASK = (1L << SIZE) - 1;
+
+	/**
+	 * The shared chunk with no presence
+	 */
+	public final static PresenceChunk EMPTY = new PresenceChunk(false);
+
+	/**
+	 * The shared chunk with presence everywhere
+	 */
+	public final static PresenceChunk FULL = new PresenceChunk(true);
+
+	private final long[] words;
+	private int count;
+
+	/**
+	 * Make a chunk filled with a given presence
+	 * @param present
+	 * 		The presence at every position
+	 */
+	private PresenceChunk(boolean present) {
+		words = new long[VOLUME / 64];
+		if (present) {
+			for (int i = 0; i < words.length; i++) {
+				words[i] = -1L;
+			}
+			count = VOLUME;
+		} else {
+			count = 0;
+		}
+	}
+
+	/**
+	 * Make a new chunk as a copy of another
+	 * @param toCopy
+	 * 		The chunk to copy
+	 */
+	private PresenceChunk(PresenceChunk toCopy) {
+		words = toCopy.words.clone();
+		count = toCopy.count;
+	}
+
+	/**
+	 * Pack the coords of a chunk into a single long key. Each 
+	 * coord must be from {@link #MIN_KEY_COORD} to {@link #MAX_KEY_COORD}
+	 * @param cx
+	 * 		Chunk x coord
+	 * @param cy
+	 * 		Chunk y coord
+	 * @param cz
+	 * 		Chunk z coord
+	 * @return
+	 * 		The key
+	 */
+	public static long key(int cx, int cy, int cz) {
+		return (((long)cx) << (2 * KEY_BITS)) | ((cy & KEY_MASK) << KEY_BITS) | (cz & KEY_MASK);
+	}
+
+	/**
+	 * Unpack the chunk x coord from a key made by {@link #key(int, int, int)}
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		Chunk x coord
+	 */
+	public static int keyX(long key) {
+		return (int)(key >> (2 * KEY_BITS));
+	}
+
+	/**
+	 * Unpack the chunk y coord from a key made by {@link #key(int, int, int)}
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		Chunk y coord
+	 */
+	public static int keyY(long key) {
+		return (int)((key << (64 - 2 * KEY_BITS)) >> (64 - KEY_BITS));
+	}
+
+	/**
+	 * Unpack the chunk z coord from a key made by {@link #key(int, int, int)}
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		Chunk z coord
+	 */
+	public static int keyZ(long key) {
+		return (int)((key << (64 - KEY_BITS)) >> (64 - KEY_BITS));
+	}
+
+	/**
+	 * The index of a position within a chunk, as used for the
+	 * bits of the chunk. This can also be used to index any other
+	 * per-position data stored by chunk.
+	 * @param x
+	 * 		x coord within chunk
+	 * @param y
+	 * 		y coord within chunk
+	 * @param z
+	 * 		z coord within chunk
+	 * @return
+	 * 		The index, from 0 to {@link #VOLUME}-1
+	 */
+	public static int indexInChunk(int x, int y, int z) {
+		return bitIndex(x, y, z);
+	}
+
+	private static int bitIndex(int x, int y, int z) {
+		return (((z << BITS) | y) << BITS) | x;
+	}
+
+	/**
+	 * Get presence at a position within the chunk
+	 * @param x
+	 * 		x coord within chunk, 0 to {@link #SIZE}-1
+	 * @param y
+	 * 		y coord within chunk, 0 to {@link #SIZE}-1
+	 * @param z
+	 * 		z coord within chunk, 0 to {@link #SIZE}-1
+	 * @return
+	 * 		Presence
+	 */
+	public boolean getPresence(int x, int y, int z) {
+		int bit = bitIndex(x, y, z);
+		return (words[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Get a row of presence along x, as the low {@link #SIZE} bits
+	 * of a long, with bit i giving the presence at x = i
+	 * @param y
+	 * 		y coord within chunk
+	 * @param z
+	 * 		z coord within chunk
+	 * @return
+	 * 		The row
+	 */
+	public long getRow(int y, int z) {
+		int bit = bitIndex(0, y, z);
+		return (words[bit >>> 6] >>> (bit & 63)) & ROW_MASK;
+	}
+
+	/**
+	 * Check for any presence within a box of positions in the chunk
+	 * @param minX
+	 * 		Minimum x coord within chunk, inclusive
+	 * @param minY
+	 * 		Minimum y coord within chunk, inclusive
+	 * @param minZ
+	 * 		Minimum z coord within chunk, inclusive
+	 * @param maxX
+	 * 		Maximum x coord within chunk, inclusive
+	 * @param maxY
+	 * 		Maximum y coord within chunk, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord within chunk, inclusive
+	 * @return
+	 * 		True iff there is presence at any position in the box
+	 */
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (this == EMPTY) return false;
+		if (this == FULL) return true;
+
+		long mask = (ROW_MASK >>> (SIZE - 1 - maxX)) & (ROW_MASK << minX);
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int y = minY; y <= maxY; y++) {
+				if ((getRow(y, z) & mask) != 0) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Set presence at a position in the chunk. This may not
+	 * change this chunk - instead the chunk with the new presence
+	 * is returned, and this must be used to replace this chunk.
+	 * @param x
+	 * 		x coord within chunk
+	 * @param y
+	 * 		y coord within chunk
+	 * @param z
+	 * 		z coord within chunk
+	 * @param present
+	 * 		The new presence
+	 * @return
+	 * 		The chunk with the new presence - this may be this chunk,
+	 * a new chunk, or one of the shared uniform chunks
+	 */
+	public PresenceChunk withPresence(int x, int y, int z, boolean present) {
+		//No change needed
+		if (getPresence(x, y, z) == present) return this;
+
+		//Never change shared chunks, work on a copy
+		PresenceChunk chunk = this;
+		if (isUniform()) {
+			chunk = new PresenceChunk(this);
+		}
+
+		int bit = bitIndex(x, y, z);
+		if (present) {
+			chunk.words[bit >>> 6] |= (1L << bit);
+			chunk.count++;
+		} else {
+			chunk.words[bit >>> 6] &= ~(1L << bit);
+			chunk.count--;
+		}
+
+		//Use shared chunk if we have become uniform
+		if (chunk.count == 0) {
+			return EMPTY;
+		} else if (chunk.count == VOLUME) {
+			return FULL;
+		} else {
+			return chunk;
+		}
+	}
+
+	/**
+	 * Set presence at some positions in a row along x. As for 
+	 * {@link #withPresence(int, int, int, boolean)}, this may not
+	 * change this chunk - the returned chunk must be used instead.
+	 * @param y
+	 * 		y coord within chunk
+	 * @param z
+	 * 		z coord within chunk
+	 * @param mask
+	 * 		The positions to set, as the low {@link #SIZE} bits,
+	 * with bit i for x = i
+	 * @param present
+	 * 		The new presence
+	 * @return
+	 * 		The chunk with the new presence - this may be this chunk,
+	 * a new chunk, or one of the shared uniform chunks
+	 */
+	public PresenceChunk withRow(int y, int z, long mask, boolean present) {
+		mask &= ROW_MASK;
+		long row = getRow(y, z);
+		long newRow = present ? (row | mask) : (row & ~mask);
+
+		//No change needed
+		if (newRow == row) return this;
+
+		//Never change shared chunks, work on a copy
+		PresenceChunk chunk = this;
+		if (isUniform()) {
+			chunk = new PresenceChunk(this);
+		}
+
+		int bit = bitIndex(0, y, z);
+		int shift = bit & 63;
+		chunk.words[bit >>> 6] = (chunk.words[bit >>> 6] & ~(ROW_MASK << shift)) | (newRow << shift);
+		chunk.count += Long.bitCount(newRow) - Long.bitCount(row);
+
+		//Use shared chunk if we have become uniform
+		if (chunk.count == 0) {
+			return EMPTY;
+		} else if (chunk.count == VOLUME) {
+			return FULL;
+		} else {
+			return chunk;
+		}
+	}
+
+	/**
+	 * The number of positions in the chunk with presence
+	 * @return
+	 * 		count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return
+	 * 		True iff this is the shared empty chunk
+	 */
+	public boolean isEmpty() {
+		return this == EMPTY;
+	}
+
+	/**
+	 * @return
+	 * 		True iff this is the shared full chunk
+	 */
+	public boolean isFull() {
+		return this == FULL;
+	}
+
+	/**
+	 * @return
+	 * 		True iff this is one of the shared uniform chunks
+	 */
+	public boolean isUniform() {
+		return this == EMPTY || this == FULL;
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.hexahedron.grid;
+
+/**
+ * Stores a boolean presence for each position in a 3d grid
+ * of cubes. This is the storage behind {@link org.hexahedron.cube.CubeGrid},
+ * and is kept separate so that different storage strategies can
+ * be used without changing collision and meshing code.
+ *
+ * Getting presence outside the grid does not fail, but simply
+ * returns no presence. However setting outside the grid DOES fail.
+ *
+ * As well as single positions, presence can be read as whole
+ * rows along the x axis, packed into the bits of a long. This
+ * allows scans over rows and planes to work on 64 positions at
+ * a time.
+ */
+public interface PresenceGrid {
+
+	/**
+	 * The size of grids that have no bounds
+	 */
+	public final static int UNBOUNDED = -1;
+
+	/**
+	 * The number of positions along each edge of the grid, 
+	 * where the grid starts from 0 on each axis
+	 * @return
+	 * 		size, or {@link #UNBOUNDED} if the grid has no bounds,
+	 * in which case presence can be set at any position, including 
+	 * negative coords
+	 */
+	public int getSize();
+
+	/**
+	 * The minimum coord on an axis that may have presence. All
+	 * presence is within the box from {@link #getMin(int)} to {@link #getMax(int)}
+	 * on each axis. For bounded grids this is just the grid, for unbounded
+	 * grids it covers everything set so far, but may be larger.
+	 * @param axis
+	 * 		The axis, 0 to 2 for x to z
+	 * @return
+	 * 		Minimum coord, inclusive
+	 */
+	public int getMin(int axis);
+
+	/**
+	 * The maximum coord on an axis that may have presence, see
+	 * {@link #getMin(int)}. If the grid can have no presence, the
+	 * maximum may be less than the minimum.
+	 * @param axis
+	 * 		The axis, 0 to 2 for x to z
+	 * @return
+	 * 		Maximum coord, inclusive
+	 */
+	public int getMax(int axis);
+
+	/**
+	 * Check whether a position is within the grid, so that
+	 * presence can be set there
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 * @return
+	 * 		True iff the position is in the grid
+	 */
+	public boolean contains(int x, int y, int z);
+
+	/**
+	 * Get presence at a position
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 * @return
+	 * 		True if there is presence at the position, false
+	 * if there is none, or the position is outside the grid
+	 */
+	public boolean getPresence(int x, int y, int z);
+
+	/**
+	 * Set presence at a position
+	 * @param x
+	 * 		x coord
+	 * @param y
+	 * 		y coord
+	 * @param z
+	 * 		z coord
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If the position is outside the grid
+	 */
+	public void setPresence(int x, int y, int z, boolean present);
+
+	/**
+	 * Get a row of presence along the x axis, as bits of a long.
+	 * Bit i of the result (where bit 0 is least significant) is
+	 * the presence at (x + i, y, z), so the row covers x to x + 63.
+	 * Positions outside the grid give a 0 bit.
+	 * @param x
+	 * 		x coord of the start of the row
+	 * @param y
+	 * 		y coord of the row
+	 * @param z
+	 * 		z coord of the row
+	 * @return
+	 * 		The row of presence bits
+	 */
+	public long getRow(int x, int y, int z);
+
+	/**
+	 * Set presence at some of the positions in a row along the x axis,
+	 * as for {@link #getRow(int, int, int)}. This lets grids write many
+	 * positions at once, for example a whole word of packed bits.
+	 * @param x
+	 * 		x coord of the start of the row
+	 * @param y
+	 * 		y coord of the row
+	 * @param z
+	 * 		z coord of the row
+	 * @param mask
+	 * 		The positions to set - bit i is set to set the 
+	 * presence at (x + i, y, z)
+	 * @param present
+	 * 		The new presence for positions in the mask
+	 * @throws IndexOutOfBoundsException
+	 * 		If any position in the mask is outside the grid, in
+	 * which case no presence is changed
+	 */
+	public void setRow(int x, int y, int z, long mask, boolean present);
+
+	/**
+	 * Set presence at every position in a box
+	 * @param minX
+	 * 		Minimum x coord, inclusive
+	 * @param minY
+	 * 		Minimum y coord, inclusive
+	 * @param minZ
+	 * 		Minimum z coord, inclusive
+	 * @param maxX
+	 * 		Maximum x coord, inclusive
+	 * @param maxY
+	 * 		Maximum y coord, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord, inclusive
+	 * @param present
+	 * 		The new presence
+	 * @throws IndexOutOfBoundsException
+	 * 		If any of the box is outside the grid, in which
+	 * case no presence is changed
+	 */
+	public void setBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean present);
+
+	/**
+	 * Check for any presence within a box of positions
+	 * @param minX
+	 * 		Minimum x coord, inclusive
+	 * @param minY
+	 * 		Minimum y coord, inclusive
+	 * @param minZ
+	 * 		Minimum z coord, inclusive
+	 * @param maxX
+	 * 		Maximum x coord, inclusive
+	 * @param maxY
+	 * 		Maximum y coord, inclusive
+	 * @param maxZ
+	 * 		Maximum z coord, inclusive
+	 * @return
+	 * 		True iff there is presence at any position in the box
+	 */
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
+
+}
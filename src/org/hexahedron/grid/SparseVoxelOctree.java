@@ -0,0 +1,426 @@
+package org.hexahedron.grid;
+
+/**
+ * A {@link PresenceGrid} stored as a sparse voxel octree, with no
+ * objects per node - nodes are just entries in primitive arrays.
+ *
+ * Each node covers a cube of the grid, split into 8 child octants.
+ * The octant of a position at a given level is made from bit (level-1)
+ * of each coord, as x | y<<1 | z<<2. For each node we store:
+ * <ul>
+ * 	<li>A child mask byte, with the bit for each octant set if the
+ * 		octant has any presence</li>
+ * 	<li>A full mask byte, with the bit for each octant set if the
+ * 		octant is entirely present</li>
+ * 	<li>The index of its first child node. The 8 children of a node
+ * 		are stored together as a block, with the child for octant o
+ * 		at first child + o</li>
+ * </ul>
+ *
+ * Octants that are uniform (entirely empty or entirely full) are
+ * described completely by the masks, so they have no child node, and
+ * a node only has a child block while at least one octant is mixed.
+ * Setting presence collapses subtrees back into their parent as soon
+ * as they become uniform, so storage depends on the amount of surface
+ * rather than volume, at 6 bytes per node. Nodes at level 1 have single
+ * positions as octants, so these never have children.
+ *
+ * Lookups descend using one octant per level, and stop at the first
+ * uniform octant. The path of nodes to the last position looked up is
+ * kept, and the highest coord bit that differs from the last position
+ * gives the deepest node the two positions share, so lookups near the
+ * last one (as when scanning or visiting neighbours) start from there
+ * rather than from the root, and take a few steps rather than one per
+ * level. Since lookups update the path, reads must not be made from more
+ * than one thread at once. Queries over boxes and rows skip whole uniform
+ * octants at once.
+ */
+public class SparseVoxelOctree extends AbstractPresenceGrid {
+
+	private final static int NO_CHILDREN = -1;
+
+	private final int levels;
+	private final int size;
+
+	/**
+	 * The level of the root node, at least 1 so that even
+	 * a single position grid has a node to hold it
+	 */
+	private final int rootLevel;
+
+	private byte[] childMasks;
+	private byte[] fullMasks;
+	private int[] firstChildren;
+
+	/**
+	 * The number of node entries in use, including
+	 * those in free blocks
+	 */
+	private int nodeCount;
+
+	/**
+	 * Blocks of 8 nodes that are no longer used, as a stack
+	 * of first node indices
+	 */
+	private int[] freeBlocks;
+	private int freeBlockCount;
+
+	/**
+	 * The nodes on the path to the last position looked up, by level,
+	 * valid from the root down to lastLevel. Only the root is valid
+	 * after any change to the tree.
+	 */
+	private final int[] path;
+	private int lastLevel;
+	private int lastX;
+	private int lastY;
+	private int lastZ;
+
+	/**
+	 * Create a {@link SparseVoxelOctree}, with no presence
+	 * @param levels
+	 * 		The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 */
+	public SparseVoxelOctree(int levels) {
+		if (levels < 0 || levels > 14) {
+			throw new IllegalArgumentException("Only levels 0 to 14 are supported by an octree");
+		}
+		this.levels = levels;
+		size = 1<<levels;
+		rootLevel = Math.max(levels, 1);
+
+		childMasks = new byte[64];
+		fullMasks = new byte[64];
+		firstChildren = new int[64];
+		freeBlocks = new int[16];
+
+		//Root node is node 0, on its own before the first block
+		firstChildren[0] = NO_CHILDREN;
+		nodeCount = 1;
+
+		path = new int[rootLevel + 1];
+		lastLevel = rootLevel;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMin(int axis) {
+		return 0;
+	}
+
+	public int getMax(int axis) {
+		return size - 1;
+	}
+
+	/**
+	 * The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 * @return
+	 * 		levels
+	 */
+	public int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * The number of nodes in use, including the root
+	 * @return
+	 * 		Node count
+	 */
+	public int getNodeCount() {
+		return nodeCount - 8 * freeBlockCount;
+	}
+
+	/**
+	 * The level of the root node, see {@link #childMask(int)}
+	 */
+	int rootLevel() {
+		return rootLevel;
+	}
+
+	/**
+	 * The child mask of a node, for reading the tree directly. The root 
+	 * is node 0, at {@link #rootLevel()}.
+	 */
+	int childMask(int node) {
+		return childMasks[node] & 0xFF;
+	}
+
+	/**
+	 * The full mask of a node, see {@link #childMask(int)}
+	 */
+	int fullMask(int node) {
+		return fullMasks[node] & 0xFF;
+	}
+
+	/**
+	 * The first child of a node, see {@link #childMask(int)}.
+	 * Only valid if the node has a mixed octant.
+	 */
+	int firstChild(int node) {
+		return firstChildren[node];
+	}
+
+	private boolean inGrid(int c) {
+		//Size is a power of two, so coords in the grid have no
+		//bits set outside size - 1, and negative coords always do
+		return (c & ~(size - 1)) == 0;
+	}
+
+	public boolean contains(int x, int y, int z) {
+		//Check all coords at once, see inGrid
+		return ((x | y | z) & ~(size - 1)) == 0;
+	}
+
+	/**
+	 * The octant of a position within a node at a level
+	 */
+	private static int octant(int x, int y, int z, int level) {
+		int shift = level - 1;
+		return ((x >> shift) & 1) | (((y >> shift) & 1) << 1) | (((z >> shift) & 1) << 2);
+	}
+
+	public boolean getPresence(int x, int y, int z) {
+		if (!contains(x, y, z)) return false;
+
+		//Positions are in the same node at a level when their coords match
+		//in every bit from the level up, so start from the node at the level
+		//above the highest bit that differs from the last position, or from
+		//where the last lookup stopped if that is higher
+		int differ = (x ^ lastX) | (y ^ lastY) | (z ^ lastZ);
+		int level = Math.max(lastLevel, 32 - Integer.numberOfLeadingZeros(differ));
+		int node = path[level];
+		int bit = 1 << octant(x, y, z, level);
+
+		//Descend to the first uniform octant, level 1 octants are always uniform
+		while ((childMasks[node] & bit) != 0 && (fullMasks[node] & bit) == 0) {
+			node = firstChildren[node] + octant(x, y, z, level);
+			level--;
+			path[level] = node;
+			bit = 1 << octant(x, y, z, level);
+		}
+
+		lastLevel = level;
+		lastX = x;
+		lastY = y;
+		lastZ = z;
+		return (fullMasks[node] & bit) != 0;
+	}
+
+	public void setPresence(int x, int y, int z, boolean present) {
+		if (!contains(x, y, z)) {
+			throw new IndexOutOfBoundsException("Position (" + x + ", " + y + ", " + z + ") is outside grid of size " + size);
+		}
+		lastLevel = rootLevel;
+		setPresence(0, rootLevel, x, y, z, present);
+	}
+
+	/**
+	 * Set presence within a node
+	 */
+	private void setPresence(int node, int level, int x, int y, int z, boolean present) {
+		int octant = octant(x, y, z, level);
+		int bit = 1 << octant;
+		boolean full = (fullMasks[node] & bit) != 0;
+		boolean empty = (childMasks[node] & bit) == 0;
+
+		//Already uniform with the presence we want
+		if ((present && full) || (!present && empty)) return;
+
+		//At level 1, octants are single positions
+		if (level == 1) {
+			setOctant(node, bit, present, present);
+			return;
+		}
+
+		//Split a uniform octant into a child node with the same
+		//uniform presence in each of its octants
+		if (full || empty) {
+			if (firstChildren[node] == NO_CHILDREN) {
+				//Allocate before indexing, since it may replace the arrays
+				int block = allocateBlock();
+				firstChildren[node] = block;
+			}
+			int child = firstChildren[node] + octant;
+			childMasks[child] = full ? (byte)0xFF : 0;
+			fullMasks[child] = full ? (byte)0xFF : 0;
+			firstChildren[child] = NO_CHILDREN;
+		}
+
+		int child = firstChildren[node] + octant;
+		setPresence(child, level - 1, x, y, z, present);
+
+		//Update our masks from the child, collapsing it if uniform
+		int childMask = childMasks[child] & 0xFF;
+		int fullMask = fullMasks[child] & 0xFF;
+		if (childMask == 0) {
+			setOctant(node, bit, false, false);
+		} else if (fullMask == 0xFF) {
+			setOctant(node, bit, true, true);
+		} else {
+			setOctant(node, bit, true, false);
+		}
+	}
+
+	/**
+	 * Set the mask bits for an octant of a node, and free the
+	 * node's child block if it no longer has any mixed octants
+	 */
+	private void setOctant(int node, int bit, boolean any, boolean full) {
+		childMasks[node] = (byte)(any ? (childMasks[node] | bit) : (childMasks[node] & ~bit));
+		fullMasks[node] = (byte)(full ? (fullMasks[node] | bit) : (fullMasks[node] & ~bit));
+		int mixed = childMasks[node] & ~fullMasks[node] & 0xFF;
+		if (mixed == 0 && firstChildren[node] != NO_CHILDREN) {
+			freeBlock(firstChildren[node]);
+			firstChildren[node] = NO_CHILDREN;
+		}
+	}
+
+	/**
+	 * Get a block of 8 empty nodes, reusing a free block if possible
+	 * @return
+	 * 		The index of the first node in the block
+	 */
+	private int allocateBlock() {
+		int block;
+		if (freeBlockCount > 0) {
+			block = freeBlocks[--freeBlockCount];
+		} else {
+			block = newBlock();
+		}
+
+		//Start with uniform empty nodes, so nodes never have
+		//stale children from previous use of the block
+		for (int i = block; i < block + 8; i++) {
+			childMasks[i] = 0;
+			fullMasks[i] = 0;
+			firstChildren[i] = NO_CHILDREN;
+		}
+		return block;
+	}
+
+	/**
+	 * Add a new block of 8 nodes to the end of the arrays,
+	 * growing them if needed
+	 * @return
+	 * 		The index of the first node in the block
+	 */
+	private int newBlock() {
+		if (nodeCount + 8 > childMasks.length) {
+			int capacity = childMasks.length * 2;
+			byte[] newChildMasks = new byte[capacity];
+			byte[] newFullMasks = new byte[capacity];
+			int[] newFirstChildren = new int[capacity];
+			System.arraycopy(childMasks, 0, newChildMasks, 0, nodeCount);
+			System.arraycopy(fullMasks, 0, newFullMasks, 0, nodeCount);
+			System.arraycopy(firstChildren, 0, newFirstChildren, 0, nodeCount);
+			childMasks = newChildMasks;
+			fullMasks = newFullMasks;
+			firstChildren = newFirstChildren;
+		}
+		int block = nodeCount;
+		nodeCount += 8;
+		return block;
+	}
+
+	/**
+	 * Free a block of 8 nodes, and any blocks below it
+	 */
+	private void freeBlock(int block) {
+		for (int i = block; i < block + 8; i++) {
+			if (firstChildren[i] != NO_CHILDREN) {
+				freeBlock(firstChildren[i]);
+				firstChildren[i] = NO_CHILDREN;
+			}
+		}
+		if (freeBlockCount == freeBlocks.length) {
+			int[] newFreeBlocks = new int[freeBlocks.length * 2];
+			System.arraycopy(freeBlocks, 0, newFreeBlocks, 0, freeBlockCount);
+			freeBlocks = newFreeBlocks;
+		}
+		freeBlocks[freeBlockCount++] = block;
+	}
+
+	public long getRow(int x, int y, int z) {
+		if (!inGrid(y | z)) return 0;
+
+		long row = 0;
+		int px = Math.max(x, 0);
+		int end = Math.min(x + 63, size - 1);
+		while (px <= end) {
+			//Descend to the first uniform octant containing px,
+			//which covers positions up to the end of the octant
+			int node = 0;
+			int level = rootLevel;
+			boolean present = false;
+			while (true) {
+				int octant = octant(px, y, z, level);
+				int bit = 1 << octant;
+				if ((childMasks[node] & bit) == 0) {
+					break;
+				}
+				if ((fullMasks[node] & bit) != 0) {
+					present = true;
+					break;
+				}
+				node = firstChildren[node] + octant;
+				level--;
+			}
+
+			//Octant at this level covers 1<<(level-1) positions
+			int octantEnd = Math.min((px | ((1 << (level - 1)) - 1)), end);
+			if (present) {
+				int count = octantEnd - px + 1;
+				long bits = count == 64 ? -1L : (1L << count) - 1;
+				row |= bits << (px - x);
+			}
+			px = octantEnd + 1;
+		}
+		return row;
+	}
+
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Clip to grid
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		minZ = Math.max(minZ, 0);
+		maxX = Math.min(maxX, size - 1);
+		maxY = Math.min(maxY, size - 1);
+		maxZ = Math.min(maxZ, size - 1);
+		if (minX > maxX || minY > maxY || minZ > maxZ) return false;
+
+		return anyPresent(0, rootLevel, 0, 0, 0, minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Check for presence within the part of a box inside a node,
+	 * where the node has its minimum corner at (nx, ny, nz)
+	 */
+	private boolean anyPresent(int node, int level, int nx, int ny, int nz,
+			int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		int childMask = childMasks[node] & 0xFF;
+		if (childMask == 0) return false;
+
+		int half = 1 << (level - 1);
+		for (int octant = 0; octant < 8; octant++) {
+			int bit = 1 << octant;
+			if ((childMask & bit) == 0) continue;
+
+			//Skip octants not touching the box
+			int ox = nx + ((octant & 1) != 0 ? half : 0);
+			int oy = ny + ((octant & 2) != 0 ? half : 0);
+			int oz = nz + ((octant & 4) != 0 ? half : 0);
+			if (ox > maxX || ox + half - 1 < minX) continue;
+			if (oy > maxY || oy + half - 1 < minY) continue;
+			if (oz > maxZ || oz + half - 1 < minZ) continue;
+
+			if ((fullMasks[node] & bit) != 0) return true;
+			if (anyPresent(firstChildren[node] + octant, level - 1, ox, oy, oz, minX, minY, minZ, maxX, maxY, maxZ)) return true;
+		}
+		return false;
+	}
+
+}
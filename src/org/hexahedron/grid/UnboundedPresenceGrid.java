@@ -0,0 +1,104 @@
+package org.hexahedron.grid;
+
+import org.hexahedron.util.LongHashMap;
+
+/**
+ * A {@link PresenceGrid} with no fixed bounds, where presence can be
+ * set at any position, including negative coords.
+ *
+ * Presence is stored as {@link PresenceChunk}s in a {@link LongHashMap}
+ * keyed by packed chunk coords (see {@link PresenceChunk#key(int, int, int)}).
+ * Only chunks with some presence are stored, so memory scales with the
+ * occupied part of the world, and there is no global array.
+ *
+ * Chunk coords are limited by the key packing, so positions can be
+ * set from -{@link #LIMIT} to {@link #LIMIT}-1 on each axis - outside
+ * this, setting fails and reads give no presence, as for a bounded grid.
+ */
+public class UnboundedPresenceGrid extends AbstractChunkedPresenceGrid {
+
+	/**
+	 * The limit of coords that can be set, see class docs
+	 */
+	public final static int LIMIT = -(PresenceChunk.MIN_KEY_COORD << PresenceChunk.BITS);
+
+	private final LongHashMap<PresenceChunk> chunks = new LongHashMap<PresenceChunk>();
+
+	/**
+	 * The box of chunk coords covering every chunk ever stored,
+	 * indexed as chunkBounds[0 for min, 1 for max][axis]
+	 */
+	private final int[][] chunkBounds = new int[][] {
+			{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE},
+			{Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE}
+	};
+
+	public int getSize() {
+		return UNBOUNDED;
+	}
+
+	public int getMin(int axis) {
+		if (chunks.size() == 0) return 0;
+		return chunkBounds[0][axis] << PresenceChunk.BITS;
+	}
+
+	public int getMax(int axis) {
+		if (chunks.size() == 0) return -1;
+		return (chunkBounds[1][axis] << PresenceChunk.BITS) + PresenceChunk.MASK;
+	}
+
+	/**
+	 * The number of chunks stored, each of these has some presence
+	 * @return
+	 * 		Chunk count
+	 */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * The map of stored chunks, this can be used to visit every chunk
+	 * with presence, but MUST NOT be changed
+	 * @return
+	 * 		Chunks by key
+	 */
+	public LongHashMap<PresenceChunk> getChunks() {
+		return chunks;
+	}
+
+	private static boolean inKeyRange(int c) {
+		return c >= PresenceChunk.MIN_KEY_COORD && c <= PresenceChunk.MAX_KEY_COORD;
+	}
+
+	@Override
+	public PresenceChunk getChunk(int cx, int cy, int cz) {
+		if (!(inKeyRange(cx) && inKeyRange(cy) && inKeyRange(cz))) return PresenceChunk.EMPTY;
+		PresenceChunk chunk = chunks.get(PresenceChunk.key(cx, cy, cz));
+		return chunk == null ? PresenceChunk.EMPTY : chunk;
+	}
+
+	@Override
+	protected void setChunk(int cx, int cy, int cz, PresenceChunk chunk) {
+		long key = PresenceChunk.key(cx, cy, cz);
+		if (chunk.isEmpty()) {
+			chunks.remove(key);
+		} else {
+			chunks.put(key, chunk);
+
+			//Grow bounds to include chunk
+			growBounds(0, cx);
+			growBounds(1, cy);
+			growBounds(2, cz);
+		}
+	}
+
+	private void growBounds(int axis, int c) {
+		chunkBounds[0][axis] = Math.min(chunkBounds[0][axis], c);
+		chunkBounds[1][axis] = Math.max(chunkBounds[1][axis], c);
+	}
+
+	public boolean contains(int x, int y, int z) {
+		return x >= -LIMIT && x < LIMIT && y >= -LIMIT && y < LIMIT && z >= -LIMIT && z < LIMIT;
+	}
+
+}
@@ -0,0 +1,447 @@
+package org.hexahedron.grid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hexahedron.geom.Vector3iDefault;
+
+/**
+ * A read-only {@link PresenceGrid} made by compacting a
+ * {@link SparseVoxelOctree} into a directed acyclic graph, where
+ * identical subtrees are stored only once.
+ *
+ * Regions built from repeated structures (walls, floors, arches and
+ * so on) contain many identical subtrees, so this can be much smaller
+ * than the octree. A node does not store its level, only the pattern
+ * of its octants, so identical patterns at different scales are also
+ * shared. This is intended for regions that are no longer edited, for
+ * example archived or background parts of a world - setting presence
+ * is not supported.
+ *
+ * Nodes are stored in a single int array. Each node is a header int
+ * holding the child mask in bits 0-7 and the full mask in bits 8-15
+ * (see {@link SparseVoxelOctree}), followed by the index of the child
+ * node for each mixed octant, in octant order. The child for octant o
+ * is found by counting the mixed octants before o.
+ *
+ * As well as presence lookups, rays can be traced through the grid
+ * with {@link #raycast(float, float, float, float, float, float, float, Vector3iDefault)},
+ * which skips uniform octants in a single step.
+ */
+public class VoxelDag extends AbstractPresenceGrid {
+
+	private final int levels;
+	private final int size;
+	private final int rootLevel;
+	private final int[] data;
+	private final int root;
+	private final int nodeCount;
+
+	/**
+	 * Create a {@link VoxelDag} with the same presence as an octree.
+	 * The octree is not changed, and may be discarded afterwards.
+	 * @param octree
+	 * 		The octree to compact
+	 */
+	public VoxelDag(SparseVoxelOctree octree) {
+		levels = octree.getLevels();
+		size = octree.getSize();
+		rootLevel = octree.rootLevel();
+
+		Builder builder = new Builder(octree);
+		root = builder.add(0);
+		data = Arrays.copyOf(builder.data, builder.length);
+		nodeCount = builder.nodes.size();
+	}
+
+	/**
+	 * Builds the node data, deduplicating nodes using a
+	 * map from node contents to index
+	 */
+	private static class Builder {
+		private final SparseVoxelOctree octree;
+		private final Map<NodeKey, Integer> nodes = new HashMap<NodeKey, Integer>();
+		private int[] data = new int[64];
+		private int length = 0;
+
+		private Builder(SparseVoxelOctree octree) {
+			this.octree = octree;
+		}
+
+		/**
+		 * Add an octree node and its subtree, after adding its children
+		 * @return
+		 * 		The index of the node in the data
+		 */
+		private int add(int octreeNode) {
+			int childMask = octree.childMask(octreeNode);
+			int fullMask = octree.fullMask(octreeNode);
+			int mixed = childMask & ~fullMask;
+
+			int[] contents = new int[1 + Integer.bitCount(mixed)];
+			contents[0] = childMask | (fullMask << 8);
+			int c = 1;
+			for (int octant = 0; octant < 8; octant++) {
+				if ((mixed & (1 << octant)) != 0) {
+					contents[c++] = add(octree.firstChild(octreeNode) + octant);
+				}
+			}
+
+			NodeKey key = new NodeKey(contents);
+			Integer existing = nodes.get(key);
+			if (existing != null) return existing;
+
+			if (length + contents.length > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + contents.length));
+			}
+			int index = length;
+			System.arraycopy(contents, 0, data, length, contents.length);
+			length += contents.length;
+			nodes.put(key, index);
+			return index;
+		}
+	}
+
+	/**
+	 * The contents of a node, as a map key
+	 */
+	private static class NodeKey {
+		private final int[] contents;
+		private final int hash;
+
+		private NodeKey(int[] contents) {
+			this.contents = contents;
+			hash = Arrays.hashCode(contents);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof NodeKey)) return false;
+			return Arrays.equals(contents, ((NodeKey)obj).contents);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMin(int axis) {
+		return 0;
+	}
+
+	public int getMax(int axis) {
+		return size - 1;
+	}
+
+	/**
+	 * The number of levels in the grid - the grid
+	 * has 1<<levels positions along each edge
+	 * @return
+	 * 		levels
+	 */
+	public int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * The number of distinct nodes stored
+	 * @return
+	 * 		Node count
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * The number of bytes used to store the nodes
+	 * @return
+	 * 		Bytes of node data
+	 */
+	public int getDataBytes() {
+		return data.length * 4;
+	}
+
+	private boolean inGrid(int c) {
+		//Size is a power of two, so coords in the grid have no
+		//bits set outside size - 1, and negative coords always do
+		return (c & ~(size - 1)) == 0;
+	}
+
+	public boolean contains(int x, int y, int z) {
+		//Check all coords at once, see inGrid
+		return ((x | y | z) & ~(size - 1)) == 0;
+	}
+
+	/**
+	 * The octant of a position within a node at a level
+	 */
+	private static int octant(int x, int y, int z, int level) {
+		int shift = level - 1;
+		return ((x >> shift) & 1) | (((y >> shift) & 1) << 1) | (((z >> shift) & 1) << 2);
+	}
+
+	/**
+	 * The child node of a node for a mixed octant
+	 */
+	private int child(int node, int octant) {
+		int header = data[node];
+		int mixed = (header & ~(header >> 8)) & 0xFF;
+		return data[node + 1 + Integer.bitCount(mixed & ((1 << octant) - 1))];
+	}
+
+	public boolean getPresence(int x, int y, int z) {
+		if (!contains(x, y, z)) return false;
+		int node = root;
+		for (int level = rootLevel; level > 0; level--) {
+			int octant = octant(x, y, z, level);
+			int bit = 1 << octant;
+			int header = data[node];
+			if ((header & bit) == 0) return false;
+			if ((header & (bit << 8)) != 0) return true;
+			node = child(node, octant);
+		}
+		//Not reached - level 1 octants are always uniform
+		return false;
+	}
+
+	/**
+	 * Not supported, the grid is read-only
+	 * @throws UnsupportedOperationException
+	 * 		Always
+	 */
+	public void setPresence(int x, int y, int z, boolean present) {
+		throw new UnsupportedOperationException("VoxelDag is read-only");
+	}
+
+	public long getRow(int x, int y, int z) {
+		if (!inGrid(y | z)) return 0;
+
+		long row = 0;
+		int px = Math.max(x, 0);
+		int end = Math.min(x + 63, size - 1);
+		while (px <= end) {
+			//Descend to the first uniform octant containing px,
+			//which covers positions up to the end of the octant
+			int node = root;
+			int level = rootLevel;
+			boolean present = false;
+			while (true) {
+				int octant = octant(px, y, z, level);
+				int bit = 1 << octant;
+				int header = data[node];
+				if ((header & bit) == 0) {
+					break;
+				}
+				if ((header & (bit << 8)) != 0) {
+					present = true;
+					break;
+				}
+				node = child(node, octant);
+				level--;
+			}
+
+			int octantEnd = Math.min((px | ((1 << (level - 1)) - 1)), end);
+			if (present) {
+				int count = octantEnd - px + 1;
+				long bits = count == 64 ? -1L : (1L << count) - 1;
+				row |= bits << (px - x);
+			}
+			px = octantEnd + 1;
+		}
+		return row;
+	}
+
+	public boolean anyPresent(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		//Clip to grid
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		minZ = Math.max(minZ, 0);
+		maxX = Math.min(maxX, size - 1);
+		maxY = Math.min(maxY, size - 1);
+		maxZ = Math.min(maxZ, size - 1);
+		if (minX > maxX || minY > maxY || minZ > maxZ) return false;
+
+		return anyPresent(root, rootLevel, 0, 0, 0, minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Check for presence within the part of a box inside a node,
+	 * where the node has its minimum corner at (nx, ny, nz)
+	 */
+	private boolean anyPresent(int node, int level, int nx, int ny, int nz,
+			int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		int header = data[node];
+		if ((header & 0xFF) == 0) return false;
+
+		int half = 1 << (level - 1);
+		for (int octant = 0; octant < 8; octant++) {
+			int bit = 1 << octant;
+			if ((header & bit) == 0) continue;
+
+			//Skip octants not touching the box
+			int ox = nx + ((octant & 1) != 0 ? half : 0);
+			int oy = ny + ((octant & 2) != 0 ? half : 0);
+			int oz = nz + ((octant & 4) != 0 ? half : 0);
+			if (ox > maxX || ox + half - 1 < minX) continue;
+			if (oy > maxY || oy + half - 1 < minY) continue;
+			if (oz > maxZ || oz + half - 1 < minZ) continue;
+
+			if ((header & (bit << 8)) != 0) return true;
+			if (anyPresent(child(node, octant), level - 1, ox, oy, oz, minX, minY, minZ, maxX, maxY, maxZ)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Trace a ray through the grid, finding the first position
+	 * with presence that it enters.
+	 * @param ox
+	 * 		x coord of ray origin
+	 * @param oy
+	 * 		y coord of ray origin
+	 * @param oz
+	 * 		z coord of ray origin
+	 * @param dx
+	 * 		x component of ray direction
+	 * @param dy
+	 * 		y component of ray direction
+	 * @param dz
+	 * 		z component of ray direction
+	 * @param maxDistance
+	 * 		The maximum distance along the ray to search, in
+	 * multiples of the direction vector
+	 * @param hit
+	 * 		If there is a hit, this is set to the position hit.
+	 * May be null.
+	 * @return
+	 * 		The distance along the ray to where it enters the
+	 * position hit, in multiples of the direction vector, or
+	 * -1 if there is no hit within maxDistance. If the origin is in a
+	 * position with presence, this is 0.
+	 */
+	public float raycast(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance, Vector3iDefault hit) {
+		Ray ray = new Ray(ox, oy, oz, dx, dy, dz);
+		if (!ray.enter(0, 0, 0, size, 0, maxDistance)) return -1;
+		return raycast(ray, root, rootLevel, 0, 0, 0, 0, maxDistance, hit);
+	}
+
+	/**
+	 * Trace a ray through a node with minimum corner (nx, ny, nz),
+	 * between distances t0 and t1 along the ray
+	 */
+	private float raycast(Ray ray, int node, int level, int nx, int ny, int nz, float t0, float t1, Vector3iDefault hit) {
+		int header = data[node];
+		int half = 1 << (level - 1);
+
+		//Visiting octants in this order (flipping each axis where the
+		//ray goes in the negative direction) means we never visit an
+		//octant after one that the ray passes through later
+		for (int i = 0; i < 8; i++) {
+			int octant = i ^ ray.octantFlip;
+			int bit = 1 << octant;
+			if ((header & bit) == 0) continue;
+
+			int ox = nx + ((octant & 1) != 0 ? half : 0);
+			int oy = ny + ((octant & 2) != 0 ? half : 0);
+			int oz = nz + ((octant & 4) != 0 ? half : 0);
+			if (!ray.enter(ox, oy, oz, half, t0, t1)) continue;
+
+			if ((header & (bit << 8)) != 0) {
+				//For a hit on a whole octant, find the position entered
+				if (hit != null) {
+					float t = ray.tEnter;
+					hit.set(
+							positionInOctant(ray.ox + ray.dx * t, ray.dx, ox, half),
+							positionInOctant(ray.oy + ray.dy * t, ray.dy, oy, half),
+							positionInOctant(ray.oz + ray.dz * t, ray.dz, oz, half));
+				}
+				return ray.tEnter;
+			}
+
+			float t = raycast(ray, child(node, octant), level - 1, ox, oy, oz, ray.tEnter, ray.tExit, hit);
+			if (t >= 0) return t;
+		}
+		return -1;
+	}
+
+	/**
+	 * The position along an axis of a ray entering an octant,
+	 * where the ray may be exactly on a boundary
+	 */
+	private static int positionInOctant(float c, float d, int min, int size) {
+		int p = (int)Math.floor(c);
+
+		//On a boundary moving in the negative direction, we are
+		//entering the lower position
+		if (d < 0 && p == c) p--;
+		return Math.max(min, Math.min(min + size - 1, p));
+	}
+
+	/**
+	 * A ray, with the results of the last box it entered
+	 */
+	private static class Ray {
+		private final float ox, oy, oz;
+		private final float dx, dy, dz;
+		private final float ix, iy, iz;
+		private final int octantFlip;
+
+		private float tEnter;
+		private float tExit;
+
+		private Ray(float ox, float oy, float oz, float dx, float dy, float dz) {
+			this.ox = ox;
+			this.oy = oy;
+			this.oz = oz;
+			this.dx = dx;
+			this.dy = dy;
+			this.dz = dz;
+			ix = 1 / dx;
+			iy = 1 / dy;
+			iz = 1 / dz;
+			octantFlip = (dx < 0 ? 1 : 0) | (dy < 0 ? 2 : 0) | (dz < 0 ? 4 : 0);
+		}
+
+		/**
+		 * Find where the ray enters and exits a cubic box, between t0 and t1
+		 * @return
+		 * 		True if the ray passes through the box, in which
+		 * case tEnter and tExit are set
+		 */
+		private boolean enter(int minX, int minY, int minZ, int size, float t0, float t1) {
+			tEnter = t0;
+			tExit = t1;
+			return slab(ox, dx, ix, minX, size)
+					&& slab(oy, dy, iy, minY, size)
+					&& slab(oz, dz, iz, minZ, size);
+		}
+
+		/**
+		 * Narrow tEnter and tExit to the slab of the box on one axis
+		 * @return
+		 * 		True if some of the ray is still in the box
+		 */
+		private boolean slab(float o, float d, float inverse, int min, int size) {
+			if (d == 0) {
+				return o >= min && o < min + size;
+			}
+			float a = (min - o) * inverse;
+			float b = (min + size - o) * inverse;
+			if (a > b) {
+				float swap = a;
+				a = b;
+				b = swap;
+			}
+			if (a > tEnter) tEnter = a;
+			if (b < tExit) tExit = b;
+			return tEnter < tExit;
+		}
+	}
+
+}
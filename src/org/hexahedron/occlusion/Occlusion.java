@@ -60,11 +60,6 @@ public class Occlusion implements Comparable<Occlusion> {
 			hashCode *= 2;
 			hashCode += c[i] ? 1 : 0;
 		}
-		toString =  
-			s(3) + s(2) + s(1) + "\n" +
-			s(4) + "X"  + s(0) + "\n" +
-			s(5) + s(6) + s(7) + "\n";
-
 	}
 	
 	/**
@@ -103,9 +98,29 @@ public class Occlusion implements Comparable<Occlusion> {
 
 	@Override
 	public String toString() {
+		//Built when first needed, since most occlusions are never printed
+		if (toString == null) {
+			toString =  
+				s(3) + s(2) + s(1) + "\n" +
+				s(4) + "X"  + s(0) + "\n" +
+				s(5) + s(6) + s(7) + "\n";
+		}
 		return toString;
 	}
 
+	/**
+	 * @return
+	 * 		The bitmask for this occlusion, with bit i set where c[i] is true,
+	 * 		as accepted by {@link #Occlusion(int)}
+	 */
+	public int toBitmask() {
+		int bitmask = 0;
+		for (int i = 0; i < 8; i++) {
+			if (c[i]) bitmask |= 1 << i;
+		}
+		return bitmask;
+	}
+
 	private String s(int index) {
 		return c[index] ? "#" : "-";
 	}
@@ -220,6 +235,13 @@ public class Occlusion implements Comparable<Occlusion> {
 	 * occlusion into the key occlusion
 	 */
 	public static Map<Occlusion, IndexAndTransform> occlusionToTransformedUnique;
+
+	/**
+	 * The same mapping as occlusionToTransformedUnique, indexed by the bitmask
+	 * of each occlusion (see {@link #Occlusion(int)}), so that it can be looked
+	 * up without creating an Occlusion. Use {@link #transformedUnique(int)}.
+	 */
+	private final static IndexAndTransform[] bitmaskToTransformedUnique = new IndexAndTransform[256];
 	static {
 		
 		occlusionToTransformedUnique = new HashMap<Occlusion, IndexAndTransform>();
@@ -238,7 +260,9 @@ public class Occlusion implements Comparable<Occlusion> {
 					//Add mapping - we need the index of the occlusion we can transform to,
 					//and the INVERSE of the transform we used, since we want to go from
 					//the unique occlusion to the current one (o)
-					occlusionToTransformedUnique.put(o, new IndexAndTransform(occlusionIndex, t.getInverse()));
+					IndexAndTransform iat = new IndexAndTransform(occlusionIndex, t.getInverse());
+					occlusionToTransformedUnique.put(o, iat);
+					bitmaskToTransformedUnique[i] = iat;
 				}
 			}
 		}
@@ -246,6 +270,20 @@ public class Occlusion implements Comparable<Occlusion> {
 		occlusionToTransformedUnique = Collections.unmodifiableMap(occlusionToTransformedUnique);
 	}
 	
+	/**
+	 * Look up the unique occlusion and transform for an occlusion, as for
+	 * occlusionToTransformedUnique, without allocating anything
+	 * @param bitmask
+	 * 		The bitmask of the occlusion, see {@link #Occlusion(int)}
+	 * @return
+	 * 		The index of the unique occlusion, and the transform from it to the
+	 * 		occlusion. This is shared, and is the same instance as in 
+	 * 		occlusionToTransformedUnique
+	 */
+	public static IndexAndTransform transformedUnique(int bitmask) {
+		return bitmaskToTransformedUnique[bitmask];
+	}
+	
 	public final static void main(String[] args) {
 		int failures = 0;
 		for (int i = 0; i < 256; i++) {
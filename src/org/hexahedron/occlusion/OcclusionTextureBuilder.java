@@ -1,57 +1,83 @@
 package org.hexahedron.occlusion;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
+/**
+ * Packs the individual occlusion textures into the atlas loaded by
+ * {@link OcclusionTextures}, using the layout given there. Run with
+ * the directory containing the numbered tiles (by default the
+ * occlusion resources directory), and the atlas is written to the
+ * same directory.
+ */
 public class OcclusionTextureBuilder {
 
 	public final static void main(String[] args) {
-		
-		//Load first image
+
 		try {
-			File directory = new File("/home/shingoki/cuberenders/resized");
-			BufferedImage first = loadImage(directory, 0);
-			int width = first.getWidth();
-			int height = first.getHeight();
-			
-			int totalWidth = 8 * width;
-			int totalHeight = 8 * height;
-			
-			//Make a buffered image for final texture
-			BufferedImage texture = new BufferedImage(totalWidth, totalHeight, BufferedImage.TYPE_INT_RGB);
-			
-			Graphics2D g = (Graphics2D)texture.getGraphics();
-			
-			for (int i = 0; i < 51; i++) {
-				BufferedImage tile = loadImage(directory, i);
-				int x = (i%8)*width;
-				int y = ((int)(i/8))*height;
-				g.drawImage(tile, x, y, null);
+			File directory = new File(args.length > 0 ? args[0] : "src/resources/occlusion");
+
+			BufferedImage[] tiles = new BufferedImage[OcclusionTextures.COUNT];
+			for (int i = 0; i < tiles.length; i++) {
+				tiles[i] = loadImage(directory, i);
 			}
-			
+
 			//Write out the texture
-			ImageIO.write(texture, "png", new File(directory, "occlusionTexture.png"));
-			
-			
+			ImageIO.write(buildAtlas(tiles), "png", new File(directory, "atlas.png"));
+
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		
+
+	}
+
+	/**
+	 * Pack tiles into an atlas
+	 * @param tiles
+	 * 		The tiles, one for each occlusion texture, each {@link OcclusionTextures#TILE_SIZE} square
+	 * @return
+	 * 		The atlas
+	 */
+	public static BufferedImage buildAtlas(BufferedImage[] tiles) {
+		BufferedImage texture = new BufferedImage(OcclusionTextures.WIDTH, OcclusionTextures.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int i = 0; i < tiles.length; i++) {
+			BufferedImage tile = tiles[i];
+			if (tile.getWidth() != OcclusionTextures.TILE_SIZE || tile.getHeight() != OcclusionTextures.TILE_SIZE) {
+				throw new IllegalArgumentException("Tile " + i + " is not " + OcclusionTextures.TILE_SIZE + " pixels square");
+			}
+
+			//Fill the tile and its gutter, clamping to the edge of the tile
+			int tileX = OcclusionTextures.tileX(i);
+			int tileY = OcclusionTextures.tileY(i);
+			int g = OcclusionTextures.GUTTER;
+			for (int y = -g; y < OcclusionTextures.TILE_SIZE + g; y++) {
+				for (int x = -g; x < OcclusionTextures.TILE_SIZE + g; x++) {
+					int rgb = tile.getRGB(clampToTile(x), clampToTile(y));
+					texture.setRGB(tileX + x, tileY + y, rgb);
+				}
+			}
+		}
+		return texture;
+	}
+
+	/**
+	 * Clamp a pixel coord to lie within a tile
+	 */
+	public static int clampToTile(int c) {
+		return Math.max(0, Math.min(OcclusionTextures.TILE_SIZE - 1, c));
 	}
-	
+
 	public static BufferedImage loadImage(File directory, int i) throws IOException {
 		return ImageIO.read(new File(directory, format(i + 1, 4) + ".png"));
 	}
-	
+
 	public static String format(int i, int digits) {
 		String s = Integer.toString(i);
 		while (s.length() < digits) s = "0" + s;
 		return s;
 	}
-	
+
 }
@@ -1,31 +1,136 @@
 package org.hexahedron.occlusion;
 
 import com.jme3.asset.AssetManager;
+import com.jme3.math.Vector2f;
 import com.jme3.texture.Texture;
+import com.jme3.texture.Texture.MinFilter;
 import com.jme3.texture.Texture.WrapMode;
 
+/**
+ * The occlusion textures, packed as tiles into a single atlas texture
+ * so that faces using different occlusion textures can share a material
+ * (and so be batched into one mesh).
+ *
+ * The atlas is built from the individual tiles by {@link OcclusionTextureBuilder}.
+ * Tiles are laid out in rows of {@link #COLUMNS}, starting from the top left
+ * of the image, each with a {@link #GUTTER} of copied edge pixels around it
+ * so that filtering at the edge of a tile gives the same result as the
+ * edge clamping used for separate textures, rather than bleeding into
+ * the next tile.
+ *
+ * Faces map UVs from 0 to 1 across the tile, and use {@link #tileUV(int, Vector2f, Vector2f)}
+ * to find the corresponding UVs in the atlas.
+ */
 public class OcclusionTextures {
 
-//	private final AssetManager assetManager;
+	/**
+	 * The number of distinct occlusion textures
+	 */
+	public final static int COUNT = 51;
+
+	/**
+	 * The width and height of each tile, in pixels
+	 */
+	public final static int TILE_SIZE = 64;
+
+	/**
+	 * The number of pixels copied from the edge of each tile
+	 * around it
+	 */
+	public final static int GUTTER = 4;
+
+	/**
+	 * The width and height of each tile including its gutter
+	 */
+	public final static int CELL_SIZE = TILE_SIZE + 2 * GUTTER;
+
+	/**
+	 * The number of tiles in each row of the atlas
+	 */
+	public final static int COLUMNS = 8;
+
+	/**
+	 * The number of rows of tiles in the atlas
+	 */
+	public final static int ROWS = (COUNT + COLUMNS - 1) / COLUMNS;
+
+	/**
+	 * The width of the atlas in pixels
+	 */
+	public final static int WIDTH = COLUMNS * CELL_SIZE;
+
+	/**
+	 * The height of the atlas in pixels
+	 */
+	public final static int HEIGHT = ROWS * CELL_SIZE;
+
+	/**
+	 * The asset name of the atlas
+	 */
+	public final static String ATLAS = "resources/occlusion/atlas.png";
+
+	private final Texture atlas;
 
-	private final Texture[] occlusionTextures = new Texture[51];
-	
 	public OcclusionTextures(AssetManager assetManager) {
 		super();
-//		this.assetManager = assetManager;
-		
-		for (int i = 0; i < 51; i++) {
-			String s = Integer.toString(i+1);
-			while (s.length() < 4) s = "0" + s;
-			occlusionTextures[i] = assetManager.loadTexture("resources/occlusion/" + s + ".png");
-			
-			//FIXME We might be able to do better here
-			occlusionTextures[i].setWrap(WrapMode.EdgeClamp);
-		}
+
+		atlas = assetManager.loadTexture(ATLAS);
+		atlas.setWrap(WrapMode.EdgeClamp);
+
+		//Mipmaps would blend tiles together once the gutter is smaller than a texel
+		atlas.setMinFilter(MinFilter.BilinearNoMipMaps);
 	}
-	
-	public Texture occlusionTexture(int i) {
-		return occlusionTextures[i];
+
+	/**
+	 * The atlas containing every occlusion texture
+	 * @return
+	 * 		The atlas texture
+	 */
+	public Texture getAtlas() {
+		return atlas;
 	}
-	
+
+	/**
+	 * The x coord of the left of a tile in the atlas, in pixels,
+	 * excluding the gutter
+	 * @param i
+	 * 		The index of the occlusion texture
+	 * @return
+	 * 		x coord from left of atlas image
+	 */
+	public static int tileX(int i) {
+		return (i % COLUMNS) * CELL_SIZE + GUTTER;
+	}
+
+	/**
+	 * The y coord of the top of a tile in the atlas, in pixels,
+	 * excluding the gutter
+	 * @param i
+	 * 		The index of the occlusion texture
+	 * @return
+	 * 		y coord from top of atlas image
+	 */
+	public static int tileY(int i) {
+		return (i / COLUMNS) * CELL_SIZE + GUTTER;
+	}
+
+	/**
+	 * Map a UV within an occlusion texture to the UV of the same
+	 * point in the atlas
+	 * @param i
+	 * 		The index of the occlusion texture
+	 * @param uv
+	 * 		The UV within the occlusion texture, from 0 to 1
+	 * @param store
+	 * 		The vector to store the result in, may be uv
+	 * @return
+	 * 		store
+	 */
+	public static Vector2f tileUV(int i, Vector2f uv, Vector2f store) {
+		//Textures are loaded flipped, so v runs up from the bottom of the image
+		float u = (tileX(i) + uv.x * TILE_SIZE) / WIDTH;
+		float v = (HEIGHT - tileY(i) - TILE_SIZE + uv.y * TILE_SIZE) / HEIGHT;
+		return store.set(u, v);
+	}
+
 }
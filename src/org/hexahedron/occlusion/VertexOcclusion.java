@@ -0,0 +1,74 @@
+package org.hexahedron.occlusion;
+
+/**
+ * Occlusion baked into the brightness of the vertices of a face, as
+ * an alternative to the occlusion textures. This uses the same 8
+ * neighbours as an {@link Occlusion}, as a bitmask with bit i set when
+ * there is a cube in 2D direction i (see {@link Occlusion#Occlusion(int)}).
+ *
+ * Each corner vertex is darkened by one step for each of the two
+ * neighbours along its sides and the neighbour at its diagonal, or
+ * fully when both sides are occluded, since the diagonal can then make
+ * no difference. The centre vertex is the average of the corners, so
+ * brightness varies roughly bilinearly across the face.
+ *
+ * Vertices are indexed as for the face vertices of an AFace - corners
+ * anticlockwise from bottom right, then the centre.
+ */
+public class VertexOcclusion {
+
+	/**
+	 * The number of vertices with a brightness on each face
+	 */
+	public final static int VERTICES = 5;
+
+	/**
+	 * The brightness lost for each step of occlusion
+	 */
+	public final static float STEP = 0.2f;
+
+	/**
+	 * The directions of the two sides, then the diagonal, that
+	 * occlude each corner
+	 */
+	private final static int[][] CORNER_DIRECTIONS = new int[][] {
+		{0, 6, 7},	//Bottom right
+		{0, 2, 1},	//Top right
+		{2, 4, 3},	//Top left
+		{4, 6, 5},	//Bottom left
+	};
+
+	/**
+	 * Brightness for each occlusion bitmask and vertex
+	 */
+	private final static float[][] brightness = new float[256][VERTICES];
+	static {
+		for (int mask = 0; mask < 256; mask++) {
+			float total = 0;
+			for (int corner = 0; corner < 4; corner++) {
+				int[] directions = CORNER_DIRECTIONS[corner];
+				boolean side1 = (mask & (1 << directions[0])) != 0;
+				boolean side2 = (mask & (1 << directions[1])) != 0;
+				boolean diagonal = (mask & (1 << directions[2])) != 0;
+				int steps = (side1 && side2) ? 3 : (side1 ? 1 : 0) + (side2 ? 1 : 0) + (diagonal ? 1 : 0);
+				brightness[mask][corner] = 1 - steps * STEP;
+				total += brightness[mask][corner];
+			}
+			brightness[mask][4] = total / 4;
+		}
+	}
+
+	/**
+	 * The brightness of a vertex of a face
+	 * @param mask
+	 * 		The occlusion bitmask, from 0 to 255
+	 * @param vertIndex
+	 * 		The vertex, 0 to 3 for corners, 4 for the centre
+	 * @return
+	 * 		The brightness, from 0 to 1, to multiply with the vertex colour
+	 */
+	public static float brightness(int mask, int vertIndex) {
+		return brightness[mask][vertIndex];
+	}
+
+}
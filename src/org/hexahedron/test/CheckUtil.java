@@ -0,0 +1,195 @@
+package org.hexahedron.test;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.plugins.J3MLoader;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.plugins.AWTLoader;
+
+/**
+ * Shared setup and comparisons for the headless checks, so that every
+ * check builds the same grids and compares meshes in the same way
+ */
+class CheckUtil {
+
+	private CheckUtil() {
+	}
+
+	/**
+	 * An {@link AssetManager} loading from the classpath, with no display,
+	 * able to load the textures and material definitions used by cubes
+	 * @return
+	 * 		The asset manager
+	 */
+	static AssetManager assetManager() {
+		DesktopAssetManager assetManager = new DesktopAssetManager();
+		assetManager.registerLocator("/", ClasspathLocator.class);
+		assetManager.registerLoader(AWTLoader.class, "jpg", "bmp", "gif", "png", "jpeg");
+		assetManager.registerLoader(J3MLoader.class, "j3m", "j3md");
+		return assetManager;
+	}
+
+	/**
+	 * The height of the terrain built by {@link #terrain(AssetManager, OcclusionTextures, int)}
+	 * in the column at (x, y)
+	 * @param size
+	 * 		The size of the grid
+	 * @param x
+	 * 		x coord of column
+	 * @param y
+	 * 		y coord of column
+	 * @return
+	 * 		The z coord of the top of the column
+	 */
+	static int terrainHeight(int size, int x, int y) {
+		return size / 4 + (int)(8 * Math.sin(x / 9.0) + 6 * Math.cos(y / 7.0));
+	}
+
+	/**
+	 * Create a grid filled with a rolling terrain of columns along z,
+	 * see {@link #terrainHeight(int, int, int)}. The grid has the default
+	 * mesh mode, and is not shaded or built.
+	 * @param assetManager
+	 * 		The asset manager
+	 * @param occlusionTextures
+	 * 		The occlusion textures
+	 * @param levels
+	 * 		The number of levels in the grid
+	 * @return
+	 * 		The grid
+	 */
+	static CubeGrid terrain(AssetManager assetManager, OcclusionTextures occlusionTextures, int levels) {
+		CubeGrid grid = new CubeGrid(assetManager, occlusionTextures, levels);
+		int size = grid.getSize();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				grid.fillBox(x, y, 0, x, y, terrainHeight(size, x, y), true);
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Shade a grid with the default colours, lit from the negative direction
+	 * @param grid
+	 * 		The grid
+	 */
+	static void shade(CubeGrid grid) {
+		grid.shade(false, CubeGrid.DEFAULT_BASE_COLOR, CubeGrid.DEFAULT_DARK_COLOR, CubeGrid.DEFAULT_FACE_COLORS);
+	}
+
+	/**
+	 * Check that two meshes have the same vertex buffers, with the same
+	 * type, format, components, normalization and data, and the same bounds
+	 * @param expected
+	 * 		The expected mesh
+	 * @param actual
+	 * 		The mesh to check
+	 * @param name
+	 * 		The name of the mesh, for exceptions
+	 * @throws IllegalStateException
+	 * 		If the meshes differ
+	 */
+	static void compare(Mesh expected, Mesh actual, String name) {
+		if (expected.getBufferList().size() != actual.getBufferList().size()) {
+			throw new IllegalStateException("Buffers differ for " + name);
+		}
+		for (VertexBuffer buffer : expected.getBufferList()) {
+			VertexBuffer other = actual.getBuffer(buffer.getBufferType());
+			if (other == null || other.getFormat() != buffer.getFormat()
+					|| other.getNumComponents() != buffer.getNumComponents()
+					|| other.isNormalized() != buffer.isNormalized()) {
+				throw new IllegalStateException(buffer.getBufferType() + " differs for " + name);
+			}
+			Buffer data = buffer.getData();
+			Buffer otherData = other.getData();
+			data.rewind();
+			otherData.rewind();
+			if (!data.equals(otherData)) {
+				throw new IllegalStateException(buffer.getBufferType() + " data differs for " + name);
+			}
+		}
+		BoundingBox bound = (BoundingBox)expected.getBound();
+		BoundingBox otherBound = (BoundingBox)actual.getBound();
+		if (!bound.getCenter().equals(otherBound.getCenter()) || !bound.getExtent(null).equals(otherBound.getExtent(null))) {
+			throw new IllegalStateException("Bound differs for " + name);
+		}
+	}
+
+	/**
+	 * Check that two grids have chunk geometries with the same names, and
+	 * that each has the same mesh, see {@link #compare(Mesh, Mesh, String)}
+	 * @param expected
+	 * 		The expected grid
+	 * @param actual
+	 * 		The grid to check
+	 * @throws IllegalStateException
+	 * 		If the geometries or meshes differ
+	 */
+	static void compare(CubeGrid expected, CubeGrid actual) {
+		Map<String, Mesh> expectedMeshes = meshes(expected);
+		Map<String, Mesh> actualMeshes = meshes(actual);
+		for (String name : actualMeshes.keySet()) {
+			if (!expectedMeshes.containsKey(name)) {
+				throw new IllegalStateException("Unexpected geometry " + name);
+			}
+		}
+		for (String name : expectedMeshes.keySet()) {
+			Mesh a = actualMeshes.get(name);
+			if (a == null) {
+				throw new IllegalStateException("Missing geometry " + name);
+			}
+			compare(expectedMeshes.get(name), a, name);
+		}
+	}
+
+	/**
+	 * The mesh of each geometry in the chunks of a grid
+	 * @param grid
+	 * 		The grid
+	 * @return
+	 * 		The meshes, by geometry name
+	 */
+	static Map<String, Mesh> meshes(CubeGrid grid) {
+		Map<String, Mesh> meshes = new HashMap<String, Mesh>();
+		for (Node chunk : chunkNodes(grid)) {
+			for (Spatial child : chunk.getChildren()) {
+				meshes.put(child.getName(), ((Geometry)child).getMesh());
+			}
+		}
+		return meshes;
+	}
+
+	/**
+	 * The chunk nodes of a grid, from every region node under its root
+	 * @param grid
+	 * 		The grid
+	 * @return
+	 * 		The chunk nodes, region by region
+	 */
+	static List<Node> chunkNodes(CubeGrid grid) {
+		List<Node> chunks = new ArrayList<Node>();
+		for (Spatial region : grid.getRootNode().getChildren()) {
+			for (Spatial chunk : ((Node)region).getChildren()) {
+				chunks.add((Node)chunk);
+			}
+		}
+		return chunks;
+	}
+
+}
@@ -0,0 +1,192 @@
+package org.hexahedron.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hexahedron.cube.ACube;
+import org.hexahedron.cube.AFace;
+import org.hexahedron.cube.ChunkBatch;
+import org.hexahedron.cube.ChunkMesher;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.OcclusionMode;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.texture.Texture;
+
+/**
+ * Checks that the meshes built by a {@link ChunkMesher} match the
+ * individual {@link AFace}s built for the same grid, without needing
+ * a display.
+ *
+ * A random grid is built and shaded with one {@link ACube} per cube,
+ * then each chunk is meshed. For each batch, the faces with the batch's
+ * material are collected from the cubes in the
+ * chunk, in the same order as the mesher uses, and every vertex buffer
+ * is compared, allowing for the cube positions. This is done for each
+ * {@link OcclusionMode}. Any difference throws an exception.
+ */
+public class ChunkMeshCheck {
+
+	private final static int LEVELS = 5;
+	private final static float EPSILON = 1e-4f;
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+		CubeGrid grid = new CubeGrid(assetManager, occlusionTextures, LEVELS);
+		int size = grid.getSize();
+
+		Random r = new Random(101);
+		for (int i = 0; i < size * size * size / 3; i++) {
+			grid.setPresence(r.nextInt(size), r.nextInt(size), r.nextInt(size), true);
+		}
+		for (int i = 0; i < size * size; i++) {
+			grid.setMaterial(r.nextInt(size), r.nextInt(size), r.nextInt(size), 1);
+		}
+		for (OcclusionMode occlusionMode : OcclusionMode.values()) {
+			check(grid, occlusionMode);
+		}
+	}
+
+	private static void check(CubeGrid grid, OcclusionMode occlusionMode) {
+		grid.setOcclusionMode(occlusionMode);
+		grid.buildAllCubes();
+		grid.shade(false, CubeGrid.DEFAULT_BASE_COLOR, CubeGrid.DEFAULT_DARK_COLOR, CubeGrid.DEFAULT_FACE_COLORS);
+
+		int size = grid.getSize();
+		ChunkMesher mesher = new ChunkMesher(grid);
+		int chunks = size >> PresenceChunk.BITS;
+		int faceCount = 0;
+		int batchCount = 0;
+		for (int cz = 0; cz < chunks; cz++) {
+			for (int cy = 0; cy < chunks; cy++) {
+				for (int cx = 0; cx < chunks; cx++) {
+					List<ChunkBatch> batches = mesher.meshChunk(cx, cy, cz);
+					int chunkFaces = 0;
+					for (ChunkBatch batch : batches) {
+						List<AFace> faces = facesForBatch(grid, cx, cy, cz, batch);
+						if (faces.size() != batch.getFaceCount()) {
+							throw new IllegalStateException("Batch has " + batch.getFaceCount() + " faces, expected " + faces.size());
+						}
+						checkBatch(batch, faces, cx, cy, cz);
+						chunkFaces += faces.size();
+					}
+					if (chunkFaces != countFaces(grid, cx, cy, cz)) {
+						throw new IllegalStateException("Batches for chunk (" + cx + ", " + cy + ", " + cz + ") don't cover every face");
+					}
+					faceCount += chunkFaces;
+					batchCount += batches.size();
+				}
+			}
+		}
+		System.out.println("OK - " + occlusionMode + ": " + faceCount + " faces in " + batchCount + " batches match");
+	}
+
+	/**
+	 * The faces in a chunk using the material of a batch, in the
+	 * order the mesher uses
+	 */
+	private static List<AFace> facesForBatch(CubeGrid grid, int cx, int cy, int cz, ChunkBatch batch) {
+		Texture colorMap = grid.getMaterialTextures().colorMap(batch.getMaterial());
+		List<AFace> faces = new ArrayList<AFace>();
+		int chunkSize = PresenceChunk.SIZE;
+		for (int z = cz * chunkSize; z < (cz + 1) * chunkSize; z++) {
+			for (int y = cy * chunkSize; y < (cy + 1) * chunkSize; y++) {
+				for (int x = cx * chunkSize; x < (cx + 1) * chunkSize; x++) {
+					ACube cube = grid.getCube(x, y, z);
+					if (cube == null) continue;
+					for (int f = 0; f < 6; f++) {
+						AFace face = cube.getFace(f);
+						if (face != null
+								&& face.getMaterial().getTextureParam("ColorMap").getTextureValue() == colorMap) {
+							faces.add(face);
+						}
+					}
+				}
+			}
+		}
+		return faces;
+	}
+
+	private static int countFaces(CubeGrid grid, int cx, int cy, int cz) {
+		int count = 0;
+		int chunkSize = PresenceChunk.SIZE;
+		for (int z = cz * chunkSize; z < (cz + 1) * chunkSize; z++) {
+			for (int y = cy * chunkSize; y < (cy + 1) * chunkSize; y++) {
+				for (int x = cx * chunkSize; x < (cx + 1) * chunkSize; x++) {
+					ACube cube = grid.getCube(x, y, z);
+					if (cube == null) continue;
+					for (int f = 0; f < 6; f++) {
+						if (cube.hasFace(f)) count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Compare the buffers of a batch to those of its faces
+	 */
+	private static void checkBatch(ChunkBatch batch, List<AFace> faces, int cx, int cy, int cz) {
+		Mesh mesh = batch.getMesh();
+		int offset = 0;
+		for (AFace face : faces) {
+			Mesh faceMesh = face.getMesh();
+			int vertices = faceMesh.getVertexCount();
+
+			//Face positions are relative to the cube, batch positions to the chunk
+			Vector3f cube = face.getParent().getLocalTranslation();
+			float[] shift = new float[] {
+				cube.x - (cx << PresenceChunk.BITS),
+				cube.y - (cy << PresenceChunk.BITS),
+				cube.z - (cz << PresenceChunk.BITS)
+			};
+			compare(mesh, faceMesh, Type.Position, offset, vertices, shift);
+			compare(mesh, faceMesh, Type.Normal, offset, vertices, null);
+			compare(mesh, faceMesh, Type.TexCoord, offset, vertices, null);
+			compare(mesh, faceMesh, Type.TexCoord2, offset, vertices, null);
+			compare(mesh, faceMesh, Type.Color, offset, vertices, null);
+			offset += vertices;
+		}
+		if (offset != mesh.getVertexCount()) {
+			throw new IllegalStateException("Batch has " + mesh.getVertexCount() + " vertices, expected " + offset);
+		}
+	}
+
+	private static void compare(Mesh mesh, Mesh faceMesh, Type type, int offset, int vertices, float[] shift) {
+		//Buffers must be in both meshes or neither
+		if ((faceMesh.getBuffer(type) == null) != (mesh.getBuffer(type) == null)) {
+			throw new IllegalStateException(type + " buffer is only in one mesh");
+		}
+		if (faceMesh.getBuffer(type) == null) return;
+
+		//Colours are stored as clamped bytes in batches
+		boolean color = (type == Type.Color);
+		float epsilon = color ? 0.5f / 255 + EPSILON : EPSILON;
+		int components = faceMesh.getBuffer(type).getNumComponents();
+		for (int v = 0; v < vertices; v++) {
+			for (int c = 0; c < components; c++) {
+				float expected = PackedMeshReader.get(faceMesh, type, v, c);
+				if (shift != null) {
+					expected += shift[c];
+				}
+				if (color) {
+					expected = Math.max(0, Math.min(1, expected));
+				}
+				float actual = PackedMeshReader.get(mesh, type, offset + v, c);
+				if (Math.abs(expected - actual) > epsilon) {
+					throw new IllegalStateException(type + " differs at vertex " + (offset + v)
+							+ ": expected " + expected + ", got " + actual);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.hexahedron.test;
+
+import java.util.Random;
+
+import org.hexahedron.grid.ColumnPresenceGrid;
+import org.hexahedron.grid.PackedPresenceGrid;
+
+/**
+ * Checks that a {@link ColumnPresenceGrid} has the same presence as a
+ * {@link PackedPresenceGrid}, without needing a display.
+ *
+ * Both grids are filled with the same terrain of columns, then given the
+ * same random boxes (digging and building runs in columns), rows and single
+ * edits. Every position must then match, as must reads of rows and regions
+ * at random positions in and out of the grid. The top presence of every
+ * column, and the top presence below random heights, must match scanning
+ * down the column of the packed grid, and the runs of each column must
+ * cover exactly its presence. Any difference throws an exception.
+ */
+public class ColumnPresenceGridCheck {
+
+	private final static int LEVELS = 7;
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		PackedPresenceGrid expected = new PackedPresenceGrid(LEVELS);
+		ColumnPresenceGrid actual = new ColumnPresenceGrid(LEVELS);
+		int size = expected.getSize();
+
+		for (int x = 0; x < size; x++) {
+			for (int z = 0; z < size; z++) {
+				int height = size / 4 + (int)(8 * Math.sin(x / 9.0) + 6 * Math.cos(z / 7.0));
+				expected.setBox(x, 0, z, x, height, z, true);
+				actual.setBox(x, 0, z, x, height, z, true);
+			}
+		}
+		for (int i = 0; i < 300; i++) {
+			int[] min = new int[3];
+			int[] max = new int[3];
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = random.nextInt(size);
+				max[axis] = Math.min(size - 1, min[axis] + random.nextInt(24));
+			}
+			boolean present = random.nextBoolean();
+			expected.setBox(min[0], min[1], min[2], max[0], max[1], max[2], present);
+			actual.setBox(min[0], min[1], min[2], max[0], max[1], max[2], present);
+		}
+		for (int i = 0; i < 500; i++) {
+			int x = random.nextInt(size + 63) - 63;
+			int y = random.nextInt(size);
+			int z = random.nextInt(size);
+			long mask = random.nextLong();
+			if (x < 0) mask &= -1L << -x;
+			if (size - x < 64) mask &= (1L << (size - x)) - 1;
+			boolean present = random.nextBoolean();
+			expected.setRow(x, y, z, mask, present);
+			actual.setRow(x, y, z, mask, present);
+		}
+		for (int i = 0; i < 20000; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int z = random.nextInt(size);
+			boolean present = random.nextBoolean();
+			expected.setPresence(x, y, z, present);
+			actual.setPresence(x, y, z, present);
+		}
+
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (expected.getPresence(x, y, z) != actual.getPresence(x, y, z)) {
+						throw new IllegalStateException("Presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+				}
+			}
+		}
+
+		//Reads may reach outside the grid, where there is no presence
+		for (int i = 0; i < 100000; i++) {
+			int x = random.nextInt(size + 160) - 80;
+			int y = random.nextInt(size + 4) - 2;
+			int z = random.nextInt(size + 4) - 2;
+			if (expected.getPresence(x, y, z) != actual.getPresence(x, y, z)) {
+				throw new IllegalStateException("Presence differs at (" + x + ", " + y + ", " + z + ")");
+			}
+			if (expected.getRow(x, y, z) != actual.getRow(x, y, z)) {
+				throw new IllegalStateException("Row differs at (" + x + ", " + y + ", " + z + ")");
+			}
+			int w = random.nextInt(10);
+			int h = random.nextInt(40);
+			int d = random.nextInt(10);
+			if (expected.anyPresent(x, y, z, x + w, y + h, z + d) != actual.anyPresent(x, y, z, x + w, y + h, z + d)) {
+				throw new IllegalStateException("Any present differs at (" + x + ", " + y + ", " + z + ")");
+			}
+		}
+		System.out.println("OK - column grid matches packed grid");
+
+		int runs = 0;
+		for (int z = -2; z < size + 2; z++) {
+			for (int x = -2; x < size + 2; x++) {
+				if (actual.getTopPresent(x, z) != topPresentBelow(expected, x, size - 1, z)) {
+					throw new IllegalStateException("Top presence differs in column (" + x + ", " + z + ")");
+				}
+				int y = random.nextInt(size + 4) - 2;
+				if (actual.getTopPresentBelow(x, y, z) != topPresentBelow(expected, x, y, z)) {
+					throw new IllegalStateException("Top presence below " + y + " differs in column (" + x + ", " + z + ")");
+				}
+				if (!expected.contains(x, 0, z)) continue;
+
+				//Runs are in order, separated by gaps, and cover the column's presence
+				int covered = 0;
+				int lastEnd = -2;
+				for (int run = 0; run < actual.getRunCount(x, z); run++) {
+					int start = actual.getRunStart(x, z, run);
+					int end = actual.getRunEnd(x, z, run);
+					if (start <= lastEnd + 1 || end < start) {
+						throw new IllegalStateException("Run " + run + " out of order in column (" + x + ", " + z + ")");
+					}
+					for (int ry = start; ry <= end; ry++) {
+						if (!expected.getPresence(x, ry, z)) {
+							throw new IllegalStateException("Run " + run + " covers empty (" + x + ", " + ry + ", " + z + ")");
+						}
+					}
+					covered += end - start + 1;
+					lastEnd = end;
+				}
+				for (int ry = 0; ry < size; ry++) {
+					if (expected.getPresence(x, ry, z)) covered--;
+				}
+				if (covered != 0) {
+					throw new IllegalStateException("Runs miss presence in column (" + x + ", " + z + ")");
+				}
+				runs += actual.getRunCount(x, z);
+			}
+		}
+		System.out.printf("OK - top presence and runs match, %.2f runs per column%n", runs / (double)(size * size));
+	}
+
+	/**
+	 * The highest presence at or below y in a column, scanning down it
+	 */
+	private static int topPresentBelow(PackedPresenceGrid grid, int x, int y, int z) {
+		for (int py = Math.min(y, grid.getSize() - 1); py >= 0; py--) {
+			if (grid.getPresence(x, py, z)) return py;
+		}
+		return -1;
+	}
+
+}
@@ -1,10 +1,13 @@
 package org.hexahedron.test;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 
 import org.hexahedron.cube.AFace;
+import org.hexahedron.cube.ChunkMeshCache;
 import org.hexahedron.cube.CubeGrid;
-import org.hexahedron.cube.Octode;
+import org.hexahedron.cube.MeshMode;
 import org.hexahedron.geom.Vector3iDefault;
 import org.hexahedron.occlusion.OcclusionTextures;
 
@@ -12,11 +15,17 @@ import com.jme3.app.SimpleApplication;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
+import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.util.SkyFactory;
  
 public class CubeGridTest extends SimpleApplication {
 	
+	/**
+	 * File for cached chunk meshes, in the working directory
+	 */
+	private final static String MESH_CACHE = "CubeGridTest.meshcache";
+	
     public static void main(String[] args) {
     	new CubeGridTest().start();
     }
@@ -40,7 +49,20 @@ public class CubeGridTest extends SimpleApplication {
 			grid.setPresence(bv, true);
 		}
 		
-		grid.buildAllCubes();
+		//Mesh chunks, shading first so each chunk is only meshed once, and
+		//keep the meshes between runs so unchanged chunks are loaded from disk
+		grid.setMeshMode(MeshMode.GREEDY);
+		grid.shade(false, CubeGrid.DEFAULT_BASE_COLOR, CubeGrid.DEFAULT_DARK_COLOR, CubeGrid.DEFAULT_FACE_COLORS);
+		try {
+			ChunkMeshCache meshCache = new ChunkMeshCache(new File(MESH_CACHE));
+			grid.setMeshCache(meshCache);
+			grid.buildAllCubes();
+			meshCache.save();
+		} catch (IOException e) {
+			e.printStackTrace();
+			grid.setMeshCache(null);
+			grid.buildAllCubes();
+		}
 		
 		
 //		for (int x = 0; x < 20; x++) {
@@ -61,14 +83,12 @@ public class CubeGridTest extends SimpleApplication {
 //		}
 
 		
-		Octode gridRoot = grid.getOctode();
+		Node gridRoot = grid.getRootNode();
 
 		//FIXME reinstate
 //		setupFog(gridRoot);
 //		gridRoot.updateRenderState();
 
-		grid.shade(false, CubeGrid.DEFAULT_BASE_COLOR, CubeGrid.DEFAULT_DARK_COLOR, CubeGrid.DEFAULT_FACE_COLORS);
-		
 		rootNode.attachChild(gridRoot);
 		gridRoot.updateModelBound();
 		
@@ -0,0 +1,184 @@
+package org.hexahedron.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hexahedron.cube.ACube;
+import org.hexahedron.cube.AFace;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+
+/**
+ * Checks that {@link CubeGrid#update()} after edits gives the same cubes
+ * as building the whole grid with {@link CubeGrid#buildAllCubes()}, without
+ * needing a display.
+ *
+ * A shaded terrain is built, then edited repeatedly by adding or removing
+ * the top cube of a random column, calling update after each edit. Cubes
+ * and faces around each edit that exist both before and after it must be
+ * the same objects, updated in place. A box is then cleared and filled, and
+ * the result must match a grid with the same edits built and shaded from
+ * scratch, with the same cubes, faces, and face meshes. Any difference
+ * throws an exception. Also prints the time taken by update after each
+ * of the later single edits, and to build the whole grid.
+ */
+public class CubeUpdateCheck {
+
+	private final static int LEVELS = 7;
+	private final static int EDITS = 400;
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+
+		CubeGrid grid = CheckUtil.terrain(assetManager, occlusionTextures, LEVELS);
+		int size = grid.getSize();
+		long start = System.nanoTime();
+		grid.buildAllCubes();
+		CheckUtil.shade(grid);
+		long buildTime = System.nanoTime() - start;
+
+		int[][] heights = new int[size][size];
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				heights[x][y] = CheckUtil.terrainHeight(size, x, y);
+			}
+		}
+
+		Random random = new Random(42);
+		long[] times = new long[EDITS];
+		ACube[] cubes = new ACube[27];
+		AFace[] faces = new AFace[27 * 6];
+		for (int i = 0; i < EDITS; i++) {
+			int x = 1 + random.nextInt(size - 2);
+			int y = 1 + random.nextInt(size - 2);
+			boolean add = random.nextBoolean();
+			int z = add ? heights[x][y] + 1 : heights[x][y];
+			heights[x][y] += add ? 1 : -1;
+
+			record(grid, x, y, z, cubes, faces);
+			start = System.nanoTime();
+			grid.setPresence(x, y, z, add);
+			grid.update();
+			times[i] = System.nanoTime() - start;
+			checkInPlace(grid, x, y, z, cubes, faces);
+		}
+		System.out.println("OK - " + EDITS + " single edits updated cubes and faces in place");
+
+		grid.fillBox(40, 40, 20, 47, 47, 40, false);
+		grid.update();
+		grid.fillBox(60, 20, 10, 70, 25, 50, true);
+		grid.update();
+
+		CubeGrid expected = CheckUtil.terrain(assetManager, occlusionTextures, LEVELS);
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				int height = CheckUtil.terrainHeight(size, x, y);
+				if (heights[x][y] > height) {
+					expected.fillBox(x, y, height + 1, x, y, heights[x][y], true);
+				} else if (heights[x][y] < height) {
+					expected.fillBox(x, y, heights[x][y] + 1, x, y, height, false);
+				}
+			}
+		}
+		expected.fillBox(40, 40, 20, 47, 47, 40, false);
+		expected.fillBox(60, 20, 10, 70, 25, 50, true);
+		expected.buildAllCubes();
+		CheckUtil.shade(expected);
+		int cubeCount = compare(expected, grid);
+		System.out.println("OK - updated grid matches grid built from scratch, " + cubeCount + " cubes");
+
+		//Only time the later edits, once the JIT has compiled update
+		long[] later = Arrays.copyOfRange(times, EDITS / 2, EDITS);
+		Arrays.sort(later);
+		System.out.printf("Update after each of the last %d single edits: median %.3fms, 90th percentile %.3fms, max %.3fms; "
+				+ "build and shade whole grid %dms%n",
+				later.length, later[later.length / 2] / 1e6, later[later.length * 9 / 10] / 1e6, later[later.length - 1] / 1e6,
+				buildTime / 1000000);
+	}
+
+	/**
+	 * Record the cubes and faces around a position
+	 */
+	private static void record(CubeGrid grid, int x, int y, int z, ACube[] cubes, AFace[] faces) {
+		int i = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					ACube cube = grid.getCube(x + dx, y + dy, z + dz);
+					cubes[i] = cube;
+					for (int f = 0; f < 6; f++) {
+						faces[i * 6 + f] = cube == null ? null : cube.getFace(f);
+					}
+					i++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check cubes and faces recorded around a position are still used,
+	 * where they still exist
+	 */
+	private static void checkInPlace(CubeGrid grid, int x, int y, int z, ACube[] cubes, AFace[] faces) {
+		int i = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					ACube cube = grid.getCube(x + dx, y + dy, z + dz);
+					if (cube != null && cubes[i] != null) {
+						if (cube != cubes[i]) {
+							throw new IllegalStateException("Cube at (" + (x + dx) + ", " + (y + dy) + ", " + (z + dz) + ") was replaced");
+						}
+						for (int f = 0; f < 6; f++) {
+							AFace face = cube.getFace(f);
+							if (face != null && faces[i * 6 + f] != null && face != faces[i * 6 + f]) {
+								throw new IllegalStateException("Face " + f + " of cube at (" + (x + dx) + ", " + (y + dy) + ", " + (z + dz) + ") was replaced");
+							}
+						}
+					}
+					i++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check every position has the same cube, faces and face meshes
+	 * @return
+	 * 		The number of cubes
+	 */
+	private static int compare(CubeGrid expected, CubeGrid actual) {
+		int size = expected.getSize();
+		int count = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					ACube e = expected.getCube(x, y, z);
+					ACube a = actual.getCube(x, y, z);
+					String name = "cube at (" + x + ", " + y + ", " + z + ")";
+					if ((e == null) != (a == null)) {
+						throw new IllegalStateException((e == null ? "Unexpected " : "Missing ") + name);
+					}
+					if (e == null) continue;
+					count++;
+					if (!e.getLocalTranslation().equals(a.getLocalTranslation())) {
+						throw new IllegalStateException("Translation differs for " + name);
+					}
+					for (int f = 0; f < 6; f++) {
+						if (e.hasFace(f) != a.hasFace(f)) {
+							throw new IllegalStateException("Face " + f + " differs for " + name);
+						}
+						if (e.hasFace(f)) {
+							CheckUtil.compare(e.getFace(f).getMesh(), a.getFace(f).getMesh(), "face " + f + " of " + name);
+						}
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+}
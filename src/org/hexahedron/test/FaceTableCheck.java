@@ -0,0 +1,169 @@
+package org.hexahedron.test;
+
+import java.util.Random;
+
+import org.hexahedron.cube.AFace;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.FaceTable;
+import org.hexahedron.cube.OutOfGridPolicy;
+import org.hexahedron.geom.Vector3i;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+
+/**
+ * Checks that the {@link FaceTable}s extracted from packed rows match
+ * the neighbourhood of every position, without needing a display.
+ *
+ * For a random grid with each {@link OutOfGridPolicy}, every position
+ * of every chunk is visited. Positions with presence and a visible face
+ * must be in the table, in order, with the same neighbourhood as
+ * {@link CubeGrid#getNeighbourhood(int, int, int)}, and the face and
+ * occlusion masks that neighbourhood gives. No other positions may be
+ * in the table. Any difference throws an exception. Also prints the time
+ * to extract the tables for the whole grid, and to read the neighbourhood
+ * of each position with presence instead.
+ */
+public class FaceTableCheck {
+
+	private final static int LEVELS = 6;
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+
+		//Terrain with noise, so there are solid areas and scattered cubes
+		CubeGrid grid = CheckUtil.terrain(assetManager, occlusionTextures, LEVELS);
+		int size = grid.getSize();
+		Random r = new Random(101);
+		for (int i = 0; i < size * size * 4; i++) {
+			grid.setPresence(r.nextInt(size), r.nextInt(size), r.nextInt(size), true);
+		}
+
+		for (OutOfGridPolicy policy : OutOfGridPolicy.values()) {
+			grid.setOutOfGridPolicy(policy);
+			int cubes = check(grid);
+			System.out.println("OK - " + policy + ": " + cubes + " visible cubes match");
+		}
+
+		grid.setOutOfGridPolicy(OutOfGridPolicy.EMPTY);
+		for (int i = 0; i < 5; i++) {
+			time(grid);
+		}
+	}
+
+	private static int check(CubeGrid grid) {
+		int chunks = grid.getSize() >> PresenceChunk.BITS;
+		int cubes = 0;
+		for (int cz = 0; cz < chunks; cz++) {
+			for (int cy = 0; cy < chunks; cy++) {
+				for (int cx = 0; cx < chunks; cx++) {
+					FaceTable table = new FaceTable(grid, cx, cy, cz);
+					int entry = 0;
+					for (int lz = 0; lz < PresenceChunk.SIZE; lz++) {
+						for (int ly = 0; ly < PresenceChunk.SIZE; ly++) {
+							for (int lx = 0; lx < PresenceChunk.SIZE; lx++) {
+								int x = (cx << PresenceChunk.BITS) + lx;
+								int y = (cy << PresenceChunk.BITS) + ly;
+								int z = (cz << PresenceChunk.BITS) + lz;
+								int neighbourhood = grid.getNeighbourhood(x, y, z);
+								int faces = expectedFaces(neighbourhood);
+								if (faces == 0) continue;
+
+								if (entry >= table.size() || table.getX(entry) != lx
+										|| table.getY(entry) != ly || table.getZ(entry) != lz) {
+									throw new IllegalStateException("Table is missing (" + x + ", " + y + ", " + z + ")");
+								}
+								if (table.getNeighbourhood(entry) != neighbourhood) {
+									throw new IllegalStateException("Neighbourhood differs at (" + x + ", " + y + ", " + z + ")");
+								}
+								if (table.getFaces(entry) != faces) {
+									throw new IllegalStateException("Faces differ at (" + x + ", " + y + ", " + z + ")");
+								}
+								for (int f = 0; f < 6; f++) {
+									int expected = (faces & (1 << f)) == 0 ? 0 : expectedOcclusion(neighbourhood, f);
+									if (table.getOcclusion(entry, f) != expected) {
+										throw new IllegalStateException("Occlusion of face " + f + " differs at (" + x + ", " + y + ", " + z + ")");
+									}
+								}
+								entry++;
+							}
+						}
+					}
+					if (entry != table.size()) {
+						throw new IllegalStateException("Table for chunk (" + cx + ", " + cy + ", " + cz + ") has extra entries");
+					}
+					cubes += entry;
+				}
+			}
+		}
+		return cubes;
+	}
+
+	/**
+	 * The visible faces of the center of a neighbourhood, from the
+	 * presence of each neighbour
+	 */
+	private static int expectedFaces(int neighbourhood) {
+		if ((neighbourhood & (1 << CubeGrid.neighbourBit(0, 0, 0))) == 0) return 0;
+		int[][] normals = new int[][] {{0, 0, 1}, {1, 0, 0}, {0, 1, 0}, {-1, 0, 0}, {0, -1, 0}, {0, 0, -1}};
+		int faces = 0;
+		for (int f = 0; f < 6; f++) {
+			int bit = CubeGrid.neighbourBit(normals[f][0], normals[f][1], normals[f][2]);
+			if ((neighbourhood & (1 << bit)) == 0) faces |= 1 << f;
+		}
+		return faces;
+	}
+
+	/**
+	 * The occlusion of a face, working out the offset of each direction
+	 * from the face local axes one at a time
+	 */
+	private static int expectedOcclusion(int neighbourhood, int face) {
+		int[][] directions = new int[][] {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+		Vector3i[] a = AFace.intFaceLocalAxes[face];
+		int mask = 0;
+		for (int d = 0; d < 8; d++) {
+			int[] o = new int[3];
+			for (int i = 0; i < 3; i++) {
+				o[i] = a[AFace.FACE_LOCAL_NORMAL].get(i) + directions[d][0] * a[AFace.FACE_LOCAL_RIGHT].get(i) 
+						+ directions[d][1] * a[AFace.FACE_LOCAL_UP].get(i);
+			}
+			if ((neighbourhood & (1 << CubeGrid.neighbourBit(o[0], o[1], o[2]))) != 0) mask |= 1 << d;
+		}
+		return mask;
+	}
+
+	private static void time(CubeGrid grid) {
+		int chunks = grid.getSize() >> PresenceChunk.BITS;
+		long start = System.nanoTime();
+		int entries = 0;
+		for (int cz = 0; cz < chunks; cz++) {
+			for (int cy = 0; cy < chunks; cy++) {
+				for (int cx = 0; cx < chunks; cx++) {
+					entries += new FaceTable(grid, cx, cy, cz).size();
+				}
+			}
+		}
+		long tables = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int visible = 0;
+		int size = grid.getSize();
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (!grid.getPresence(x, y, z)) continue;
+					if (expectedFaces(grid.getNeighbourhood(x, y, z)) != 0) visible++;
+				}
+			}
+		}
+		long lookups = System.nanoTime() - start;
+		if (visible != entries) {
+			throw new IllegalStateException(entries + " entries, expected " + visible);
+		}
+		System.out.println(entries + " visible cubes: tables " + tables / 1000000 + "ms, neighbourhood lookups " + lookups / 1000000 + "ms");
+	}
+
+}
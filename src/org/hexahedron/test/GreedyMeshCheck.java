@@ -0,0 +1,288 @@
+package org.hexahedron.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.hexahedron.cube.AFace;
+import org.hexahedron.cube.ChunkBatch;
+import org.hexahedron.cube.ChunkMesher;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.MeshMode;
+import org.hexahedron.cube.OcclusionMode;
+import org.hexahedron.geom.Vector3iDefault;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+
+/**
+ * Checks that greedy meshing by a {@link ChunkMesher} covers exactly
+ * the same faces as meshing without merging, and looks the same,
+ * without needing a display. Also prints the number of tris with
+ * and without merging.
+ *
+ * For each tri of each unmerged face, the greedy mesh for the same
+ * material must have exactly one tri in the same plane covering a
+ * point inside the tri, with the same colour and normal at that point, and the same colour
+ * map UV (allowing for whole repeats). The greedy tris for each material
+ * must also have the same total area as the unmerged faces, so they
+ * cover nothing else. Each grid is checked for each {@link OcclusionMode}.
+ * Any difference throws an exception.
+ *
+ * Only faces with no occlusion and a single shading colour are merged, so
+ * the reduction depends on the grid - large open areas (the floor and
+ * terrain) merge well, while grids where most faces are occluded by
+ * neighbours (the random cubes and the walk) barely merge at all.
+ */
+public class GreedyMeshCheck {
+
+	private final static float EPSILON = 1e-4f;
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+
+		//Random cubes
+		CubeGrid grid = new CubeGrid(assetManager, occlusionTextures, 5);
+		int size = grid.getSize();
+		Random r = new Random(101);
+		for (int i = 0; i < size * size * size / 3; i++) {
+			grid.setPresence(r.nextInt(size), r.nextInt(size), r.nextInt(size), true);
+		}
+		check("random", grid);
+
+		//Rolling terrain with some walls, and a second material
+		grid = new CubeGrid(assetManager, occlusionTextures, 6);
+		size = grid.getSize();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				int height = 8 + (int)(4 * Math.sin(x / 9.0) + 3 * Math.cos(y / 7.0));
+				grid.fillBox(x, y, 0, x, y, height, true);
+			}
+		}
+		grid.fillBox(10, 4, 10, 50, 5, 20, true);
+		grid.fillBox(30, 20, 10, 31, 60, 16, true);
+		for (int x = 32; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				grid.setMaterial(x, y, 0, 1);
+			}
+		}
+		check("terrain", grid);
+
+		//Open floor with some pillars
+		grid = new CubeGrid(assetManager, occlusionTextures, 6);
+		size = grid.getSize();
+		grid.fillBox(0, 0, 0, size - 1, size - 1, 1, true);
+		for (int i = 4; i < size; i += 12) {
+			grid.fillBox(i, i, 2, i + 1, i + 1, 10, true);
+		}
+		check("floor", grid);
+
+		//Random walk, as for CubeGridTest
+		grid = new CubeGrid(assetManager, occlusionTextures, 6);
+		size = grid.getSize();
+		Vector3iDefault bv = new Vector3iDefault(0, 0, 0);
+		for (int i = 0; i < 2000; i++) {
+			bv.addLocal(AFace.intThreeDCardinalDirections[r.nextInt(6)]);
+			for (int j = 0; j < 3; j++) {
+				if (bv.get(j) < 0) bv.set(j, 0);
+				if (bv.get(j) >= size) bv.set(j, size - 1);
+			}
+			grid.setPresence(bv, true);
+		}
+		check("walk", grid);
+	}
+
+	private static void check(String name, CubeGrid grid) {
+		for (OcclusionMode occlusionMode : OcclusionMode.values()) {
+			check(name, grid, occlusionMode);
+		}
+	}
+
+	private static void check(String name, CubeGrid grid, OcclusionMode occlusionMode) {
+		grid.setMeshMode(MeshMode.CHUNKS);
+		grid.setOcclusionMode(occlusionMode);
+		grid.buildAllCubes();
+		grid.shade(false, CubeGrid.DEFAULT_BASE_COLOR, CubeGrid.DEFAULT_DARK_COLOR, CubeGrid.DEFAULT_FACE_COLORS);
+
+		ChunkMesher mesher = new ChunkMesher(grid);
+		int chunks = grid.getSize() >> PresenceChunk.BITS;
+		int plainTris = 0;
+		int greedyTris = 0;
+		for (int cz = 0; cz < chunks; cz++) {
+			for (int cy = 0; cy < chunks; cy++) {
+				for (int cx = 0; cx < chunks; cx++) {
+					Map<Integer, ChunkBatch> plain = byMaterial(mesher.meshChunk(cx, cy, cz, false));
+					Map<Integer, ChunkBatch> greedy = byMaterial(mesher.meshChunk(cx, cy, cz, true));
+					if (!plain.keySet().equals(greedy.keySet())) {
+						throw new IllegalStateException("Materials differ in chunk (" + cx + ", " + cy + ", " + cz + ")");
+					}
+					for (Integer material : plain.keySet()) {
+						ChunkBatch p = plain.get(material);
+						ChunkBatch g = greedy.get(material);
+						if (p.getFaceCount() != g.getFaceCount()) {
+							throw new IllegalStateException("Greedy batch covers " + g.getFaceCount() + " faces, expected " + p.getFaceCount());
+						}
+						checkCoverage(p.getMesh(), g.getMesh());
+						plainTris += p.getMesh().getTriangleCount();
+						greedyTris += g.getMesh().getTriangleCount();
+					}
+				}
+			}
+		}
+		System.out.printf("OK - %s, %s: %d tris merged to %d (%.1fx fewer)%n",
+				name, occlusionMode, plainTris, greedyTris, plainTris / (double)greedyTris);
+	}
+
+	private static Map<Integer, ChunkBatch> byMaterial(List<ChunkBatch> batches) {
+		Map<Integer, ChunkBatch> map = new HashMap<Integer, ChunkBatch>();
+		for (ChunkBatch batch : batches) {
+			map.put(batch.getMaterial(), batch);
+		}
+		return map;
+	}
+
+	/**
+	 * A tri of a mesh, with the data we compare
+	 */
+	private static class Tri {
+		float[][] positions = new float[3][3];
+		float[][] uvs = new float[3][2];
+		float[][] colors = new float[3][4];
+		float[] normal = new float[3];
+		int axis;
+
+		Tri(Mesh mesh, int tri) {
+			for (int v = 0; v < 3; v++) {
+				int index = PackedMeshReader.index(mesh, tri * 3 + v);
+				for (int c = 0; c < 3; c++) positions[v][c] = PackedMeshReader.get(mesh, Type.Position, index, c);
+				for (int c = 0; c < 2; c++) uvs[v][c] = PackedMeshReader.get(mesh, Type.TexCoord, index, c);
+				for (int c = 0; c < 4; c++) colors[v][c] = PackedMeshReader.get(mesh, Type.Color, index, c);
+			}
+			int first = PackedMeshReader.index(mesh, tri * 3);
+			for (int c = 0; c < 3; c++) normal[c] = PackedMeshReader.get(mesh, Type.Normal, first, c);
+			axis = Math.abs(normal[0]) > 0.5f ? 0 : (Math.abs(normal[1]) > 0.5f ? 1 : 2);
+		}
+
+		/**
+		 * Key for the plane containing the tri
+		 */
+		long plane() {
+			return (((long)Math.round(positions[0][axis] * 2)) << 8) | (axis << 1) | (normal[axis] > 0 ? 1 : 0);
+		}
+
+		float area() {
+			int a = (axis + 1) % 3;
+			int b = (axis + 2) % 3;
+			return Math.abs((positions[1][a] - positions[0][a]) * (positions[2][b] - positions[0][b])
+					- (positions[2][a] - positions[0][a]) * (positions[1][b] - positions[0][b])) / 2;
+		}
+
+		/**
+		 * Barycentric coords of a point projected into the plane
+		 */
+		float[] barycentric(float[] p) {
+			int a = (axis + 1) % 3;
+			int b = (axis + 2) % 3;
+			float x0 = positions[0][a], y0 = positions[0][b];
+			float x1 = positions[1][a], y1 = positions[1][b];
+			float x2 = positions[2][a], y2 = positions[2][b];
+			float det = (y1 - y2) * (x0 - x2) + (x2 - x1) * (y0 - y2);
+			float l0 = ((y1 - y2) * (p[a] - x2) + (x2 - x1) * (p[b] - y2)) / det;
+			float l1 = ((y2 - y0) * (p[a] - x2) + (x0 - x2) * (p[b] - y2)) / det;
+			return new float[] {l0, l1, 1 - l0 - l1};
+		}
+
+		float[] uvAt(float[] l) {
+			return interpolate(uvs, l);
+		}
+
+		float[] colorAt(float[] l) {
+			return interpolate(colors, l);
+		}
+
+		private static float[] interpolate(float[][] values, float[] l) {
+			float[] result = new float[values[0].length];
+			for (int c = 0; c < result.length; c++) {
+				result[c] = l[0] * values[0][c] + l[1] * values[1][c] + l[2] * values[2][c];
+			}
+			return result;
+		}
+
+		/**
+		 * A point inside the tri, away from the centroid so that it is
+		 * not on the diagonal of a merged quad
+		 */
+		float[] samplePoint() {
+			float[] weights = new float[] {0.51f, 0.293f, 0.197f};
+			float[] c = new float[3];
+			for (int v = 0; v < 3; v++) {
+				for (int i = 0; i < 3; i++) c[i] += positions[v][i] * weights[v];
+			}
+			return c;
+		}
+	}
+
+	private static void checkCoverage(Mesh plain, Mesh greedy) {
+		Map<Long, List<Tri>> greedyByPlane = new HashMap<Long, List<Tri>>();
+		float greedyArea = 0;
+		for (int t = 0; t < greedy.getTriangleCount(); t++) {
+			Tri tri = new Tri(greedy, t);
+			List<Tri> tris = greedyByPlane.get(tri.plane());
+			if (tris == null) {
+				tris = new ArrayList<Tri>();
+				greedyByPlane.put(tri.plane(), tris);
+			}
+			tris.add(tri);
+			greedyArea += tri.area();
+		}
+
+		float plainArea = 0;
+		for (int t = 0; t < plain.getTriangleCount(); t++) {
+			Tri tri = new Tri(plain, t);
+			plainArea += tri.area();
+			float[] point = tri.samplePoint();
+			float[] expectedUV = tri.uvAt(tri.barycentric(point));
+			float[] expectedColor = tri.colorAt(tri.barycentric(point));
+
+			int covering = 0;
+			List<Tri> candidates = greedyByPlane.get(tri.plane());
+			if (candidates != null) {
+				for (Tri candidate : candidates) {
+					float[] l = candidate.barycentric(point);
+					if (l[0] < -EPSILON || l[1] < -EPSILON || l[2] < -EPSILON) continue;
+					covering++;
+					float[] color = candidate.colorAt(l);
+					for (int c = 0; c < 4; c++) {
+						if (Math.abs(color[c] - expectedColor[c]) > EPSILON) {
+							throw new IllegalStateException("Colour differs at " + describe(point));
+						}
+					}
+					float[] uv = candidate.uvAt(l);
+					for (int c = 0; c < 2; c++) {
+						float d = uv[c] - expectedUV[c];
+						if (Math.abs(d - Math.round(d)) > EPSILON) {
+							throw new IllegalStateException("Colour map UV differs at " + describe(point));
+						}
+					}
+				}
+			}
+			if (covering != 1) {
+				throw new IllegalStateException(covering + " greedy tris cover " + describe(point));
+			}
+		}
+		if (Math.abs(plainArea - greedyArea) > EPSILON * plain.getTriangleCount()) {
+			throw new IllegalStateException("Greedy area " + greedyArea + ", expected " + plainArea);
+		}
+	}
+
+	private static String describe(float[] p) {
+		return "(" + p[0] + ", " + p[1] + ", " + p[2] + ")";
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.hexahedron.test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.MeshMode;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer.Type;
+
+/**
+ * Checks that meshing distant chunks at coarser levels of detail (see
+ * {@link CubeGrid#setLevelDistance(float)}) leaves no gaps, without
+ * needing a display.
+ *
+ * The surface of a grid must be closed, so every edge of every tri must
+ * be matched by edges of other tris running the other way. Edges are split
+ * into steps along the half cube lattice all vertices lie on, so edges
+ * meeting edges of different lengths (at greedy quads, or at borders between
+ * levels) still match. A terrain is meshed at full detail, then with levels
+ * from a viewpoint, then with the viewpoint moved, and each must be closed.
+ * After moving, the meshes must also match a grid built from scratch with
+ * the same viewpoint, and moving the viewpoint within its chunk must leave
+ * every mesh as it was. Any difference throws an exception. Also prints
+ * the time taken to update levels without leaving the chunk, and the
+ * number of tris with and without levels for terrains of increasing size,
+ * viewed from the middle.
+ */
+public class LevelMeshCheck {
+
+	private final static float LEVEL_DISTANCE = 24;
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+
+		CubeGrid grid = terrain(assetManager, occlusionTextures, 7);
+		int size = grid.getSize();
+		grid.buildAllCubes();
+		checkClosed(grid);
+		int fullTris = tris(grid);
+		System.out.println("OK - full detail closed, " + fullTris + " tris");
+
+		grid.setLevelDistance(LEVEL_DISTANCE);
+		grid.updateLevels(new Vector3f(size / 2, size / 2, size / 4 + 16));
+		checkClosed(grid);
+		System.out.println("OK - levels from middle closed, " + tris(grid) + " tris");
+
+		Vector3f corner = new Vector3f(8, 8, size / 4 + 8);
+		grid.updateLevels(corner);
+		checkClosed(grid);
+
+		CubeGrid fresh = terrain(assetManager, occlusionTextures, 7);
+		fresh.setLevelDistance(LEVEL_DISTANCE);
+		fresh.updateLevels(corner);
+		fresh.buildAllCubes();
+		CheckUtil.compare(fresh, grid);
+		System.out.println("OK - levels from corner closed, and match a fresh grid, " + tris(grid) + " tris");
+
+		//Moving within the viewpoint's chunk changes nothing
+		Map<String, Mesh> before = CheckUtil.meshes(grid);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			grid.updateLevels(corner.add(i % 7, i % 5, i % 3));
+		}
+		long moveTime = System.nanoTime() - start;
+		Map<String, Mesh> after = CheckUtil.meshes(grid);
+		for (String name : before.keySet()) {
+			if (after.get(name) != before.get(name)) {
+				throw new IllegalStateException("Moving within a chunk meshed " + name + " again");
+			}
+		}
+		System.out.printf("OK - moving within a chunk meshed nothing, %.4fms per update%n", moveTime / 1000 / 1e6);
+
+		for (int levels = 6; levels <= 8; levels++) {
+			CubeGrid full = terrain(assetManager, occlusionTextures, levels);
+			full.buildAllCubes();
+			CubeGrid coarse = terrain(assetManager, occlusionTextures, levels);
+			int s = coarse.getSize();
+			coarse.setLevelDistance(LEVEL_DISTANCE);
+			coarse.updateLevels(new Vector3f(s / 2, s / 2, s / 4 + 16));
+			coarse.buildAllCubes();
+			checkClosed(coarse);
+			System.out.println(s + "^3: " + tris(full) + " tris at full detail, " + tris(coarse) + " with levels");
+		}
+	}
+
+	private static CubeGrid terrain(AssetManager assetManager, OcclusionTextures occlusionTextures, int levels) {
+		CubeGrid grid = CheckUtil.terrain(assetManager, occlusionTextures, levels);
+		grid.setMeshMode(MeshMode.GREEDY);
+		CheckUtil.shade(grid);
+		return grid;
+	}
+
+	/**
+	 * Check every edge is matched, adding up the steps of each edge, in
+	 * half cubes, with steps running the other way cancelling out
+	 */
+	private static void checkClosed(CubeGrid grid) {
+		Map<Long, Integer> steps = new HashMap<Long, Integer>();
+		int[] a = new int[3];
+		int[] b = new int[3];
+		for (Node chunk : CheckUtil.chunkNodes(grid)) {
+			for (Spatial child : chunk.getChildren()) {
+				Vector3f origin = child.getLocalTranslation();
+				Mesh mesh = ((Geometry)child).getMesh();
+				ByteBuffer positions = (ByteBuffer)mesh.getBuffer(Type.Position).getData();
+				Buffer indices = mesh.getBuffer(Type.Index).getData();
+				for (int t = 0; t < indices.limit(); t += 3) {
+					for (int e = 0; e < 3; e++) {
+						vertex(positions, index(indices, t + e), origin, a);
+						vertex(positions, index(indices, t + (e + 1) % 3), origin, b);
+						addEdge(steps, a, b);
+					}
+				}
+			}
+		}
+		int open = 0;
+		for (int count : steps.values()) {
+			if (count != 0) open++;
+		}
+		if (open != 0) {
+			throw new IllegalStateException("Surface has " + open + " unmatched edge steps");
+		}
+	}
+
+	private static int index(Buffer indices, int i) {
+		if (indices instanceof ShortBuffer) return ((ShortBuffer)indices).get(i) & 0xFFFF;
+		return ((IntBuffer)indices).get(i);
+	}
+
+	/**
+	 * A vertex position in half cubes from the grid origin
+	 */
+	private static void vertex(ByteBuffer positions, int i, Vector3f origin, int[] v) {
+		for (int axis = 0; axis < 3; axis++) {
+			v[axis] = 2 * (int)origin.get(axis) + (positions.get(i * 3 + axis) & 0xFF);
+		}
+	}
+
+	private static void addEdge(Map<Long, Integer> steps, int[] a, int[] b) {
+		int[] d = new int[] {b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+		int count = gcd(Math.abs(d[0]), gcd(Math.abs(d[1]), Math.abs(d[2])));
+		for (int axis = 0; axis < 3; axis++) {
+			d[axis] /= count;
+		}
+
+		//Store steps in one direction only, with those running the other
+		//way counting -1 from their end
+		boolean reverse = d[0] < 0 || (d[0] == 0 && (d[1] < 0 || (d[1] == 0 && d[2] < 0)));
+		for (int k = 0; k < count; k++) {
+			int x = a[0] + d[0] * (reverse ? k + 1 : k);
+			int y = a[1] + d[1] * (reverse ? k + 1 : k);
+			int z = a[2] + d[2] * (reverse ? k + 1 : k);
+			int sign = reverse ? -1 : 1;
+			long key = x | ((long)y << 12) | ((long)z << 24)
+					| ((long)(sign * d[0] + 64) << 36) | ((long)(sign * d[1] + 64) << 43) | ((long)(sign * d[2] + 64) << 50);
+			Integer old = steps.get(key);
+			steps.put(key, (old == null ? 0 : old) + sign);
+		}
+	}
+
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	private static int tris(CubeGrid grid) {
+		int tris = 0;
+		for (Node chunk : CheckUtil.chunkNodes(grid)) {
+			for (Spatial child : chunk.getChildren()) {
+				tris += ((Geometry)child).getMesh().getTriangleCount();
+			}
+		}
+		return tris;
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.hexahedron.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.util.LongHashMap;
+
+/**
+ * Checks that a {@link LongHashMap} behaves as a {@link HashMap}.
+ *
+ * Random puts, removes and gets, including putting null, are made on both
+ * maps with keys from a small set, so keys are often present, probe runs
+ * are long and wrap around the end of the slots, and removes have to move
+ * entries back. Keys include negative coords packed as chunk keys, and keys
+ * differing only in their high bits. Every result and the size must match
+ * throughout, and every entry visited by slot must match after growing
+ * from a small map, and again after clearing it and refilling. Any
+ * difference throws an exception.
+ */
+public class LongHashMapCheck {
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		long[] keys = new long[3000];
+		for (int i = 0; i < keys.length; i++) {
+			switch (i % 3) {
+			case 0:
+				keys[i] = random.nextLong();
+				break;
+			case 1:
+				keys[i] = (long)(i / 3) << 40;
+				break;
+			default:
+				keys[i] = PresenceChunk.key(-(i / 3) - 1, -random.nextInt(1000), random.nextInt(2000) - 1000);
+			}
+		}
+
+		LongHashMap<Integer> actual = new LongHashMap<Integer>();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 1000000; i++) {
+				//Use fewer keys at first, then many more so the map grows
+				long key = keys[random.nextInt(i < 500000 ? 300 : keys.length)];
+				int op = random.nextInt(10);
+				Integer result;
+				Integer expectedResult;
+				if (op < 4) {
+					Integer value = i;
+					result = actual.put(key, value);
+					expectedResult = expected.put(key, value);
+				} else if (op < 7) {
+					result = actual.remove(key);
+					expectedResult = expected.remove(key);
+				} else if (op < 8) {
+					result = actual.put(key, null);
+					expectedResult = expected.remove(key);
+				} else {
+					result = actual.get(key);
+					expectedResult = expected.get(key);
+					if (actual.containsKey(key) != expected.containsKey(key)) {
+						throw new IllegalStateException("Contains differs for " + key);
+					}
+				}
+				if (result == null ? expectedResult != null : !result.equals(expectedResult)) {
+					throw new IllegalStateException("Result " + result + " differs for " + key + ", expected " + expectedResult);
+				}
+				if (actual.size() != expected.size()) {
+					throw new IllegalStateException("Size " + actual.size() + ", expected " + expected.size());
+				}
+			}
+			compare(expected, actual);
+			System.out.println("OK - map matches after " + (round == 0 ? "growing" : "clearing") + ", " + actual.size() + " entries");
+			actual.clear();
+			expected.clear();
+		}
+	}
+
+	/**
+	 * Check every key, and every entry visited by slot
+	 */
+	private static void compare(Map<Long, Integer> expected, LongHashMap<Integer> actual) {
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			if (!entry.getValue().equals(actual.get(entry.getKey()))) {
+				throw new IllegalStateException("Value differs for " + entry.getKey());
+			}
+		}
+		int visited = 0;
+		for (int c = 0; c < actual.capacity(); c++) {
+			Integer value = actual.valueAt(c);
+			if (value == null) continue;
+			if (!value.equals(expected.get(actual.keyAt(c)))) {
+				throw new IllegalStateException("Slot " + c + " differs for " + actual.keyAt(c));
+			}
+			visited++;
+		}
+		if (visited != expected.size()) {
+			throw new IllegalStateException(visited + " entries visited, expected " + expected.size());
+		}
+	}
+
+}
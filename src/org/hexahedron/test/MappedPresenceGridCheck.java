@@ -0,0 +1,116 @@
+package org.hexahedron.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.hexahedron.grid.MappedPresenceGrid;
+import org.hexahedron.grid.PackedPresenceGrid;
+import org.hexahedron.grid.PresenceGrid;
+
+/**
+ * Checks that a {@link MappedPresenceGrid} has the same presence as a
+ * {@link PackedPresenceGrid}, and keeps it when the file is opened again.
+ *
+ * The same random single edits, rows and boxes are applied to both grids, then
+ * every position, and reads of positions, rows and regions at random
+ * positions in and out of the grid, must match, and edits outside the grid
+ * must be refused by both. The mapped grid is then
+ * closed and opened again from its file, and must still match. Any
+ * difference throws an exception.
+ */
+public class MappedPresenceGridCheck {
+
+	private final static int LEVELS = 7;
+
+	public static void main(String[] args) throws IOException {
+		File file = File.createTempFile("presence", ".grid");
+		file.deleteOnExit();
+
+		Random random = new Random(42);
+		PackedPresenceGrid expected = new PackedPresenceGrid(LEVELS);
+		MappedPresenceGrid actual = new MappedPresenceGrid(file, LEVELS);
+		int size = expected.getSize();
+
+		for (int i = 0; i < 20000; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int z = random.nextInt(size);
+			boolean present = random.nextInt(3) != 0;
+			expected.setPresence(x, y, z, present);
+			actual.setPresence(x, y, z, present);
+		}
+		for (int i = 0; i < 500; i++) {
+			//Rows may start before the grid, with any offset into a word
+			int x = random.nextInt(size + 63) - 63;
+			int y = random.nextInt(size);
+			int z = random.nextInt(size);
+			long mask = random.nextLong();
+			if (x < 0) mask &= -1L << -x;
+			if (size - x < 64) mask &= (1L << (size - x)) - 1;
+			boolean present = random.nextBoolean();
+			expected.setRow(x, y, z, mask, present);
+			actual.setRow(x, y, z, mask, present);
+		}
+		for (int i = 0; i < 50; i++) {
+			int[] min = new int[3];
+			int[] max = new int[3];
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = random.nextInt(size);
+				max[axis] = Math.min(size - 1, min[axis] + random.nextInt(24));
+			}
+			boolean present = random.nextBoolean();
+			expected.setBox(min[0], min[1], min[2], max[0], max[1], max[2], present);
+			actual.setBox(min[0], min[1], min[2], max[0], max[1], max[2], present);
+		}
+		compare(expected, actual, random);
+
+		//Edits outside the grid are refused by both
+		for (PresenceGrid grid : new PresenceGrid[] {expected, actual}) {
+			try {
+				grid.setPresence(size, 0, 0, true);
+				throw new IllegalStateException("Edit outside " + grid.getClass().getSimpleName() + " was accepted");
+			} catch (IndexOutOfBoundsException e) {
+				//Expected
+			}
+		}
+		System.out.println("OK - mapped grid matches packed grid");
+
+		actual.close();
+		MappedPresenceGrid reopened = new MappedPresenceGrid(file, LEVELS);
+		compare(expected, reopened, random);
+		reopened.close();
+		System.out.println("OK - reopened mapped grid matches packed grid, " + file.length() / 1024 + "KB");
+		file.delete();
+	}
+
+	private static void compare(PresenceGrid expected, PresenceGrid actual, Random random) {
+		int size = expected.getSize();
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (expected.getPresence(x, y, z) != actual.getPresence(x, y, z)) {
+						throw new IllegalStateException("Presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+				}
+			}
+		}
+
+		//Reads may reach outside the grid, where there is no presence
+		for (int i = 0; i < 100000; i++) {
+			int x = random.nextInt(size + 160) - 80;
+			int y = random.nextInt(size + 4) - 2;
+			int z = random.nextInt(size + 4) - 2;
+			if (expected.getPresence(x, y, z) != actual.getPresence(x, y, z)) {
+				throw new IllegalStateException("Presence differs at (" + x + ", " + y + ", " + z + ")");
+			}
+			if (expected.getRow(x, y, z) != actual.getRow(x, y, z)) {
+				throw new IllegalStateException("Row differs at (" + x + ", " + y + ", " + z + ")");
+			}
+			if (expected.anyPresent(x, y, z, x + 9, y + 9, z + 9) != actual.anyPresent(x, y, z, x + 9, y + 9, z + 9)) {
+				throw new IllegalStateException("Any present differs at (" + x + ", " + y + ", " + z + ")");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.hexahedron.test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.hexahedron.grid.MaterialChunk;
+import org.hexahedron.grid.MaterialGrid;
+import org.hexahedron.grid.PresenceChunk;
+
+/**
+ * Checks that {@link MaterialChunk} and {@link MaterialGrid} store the
+ * material set at each position, as their palettes grow and are compacted.
+ *
+ * A single chunk is given random ids from pools of increasing size, up to
+ * thousands of distinct ids, so it is re-packed through every layout, then
+ * from shrinking pools, so compacting drops unused ids. After each pool,
+ * every position must match a reference array, and once compacted the
+ * chunk must use the fewest bits that fit the ids it still has. Then a
+ * grid is given ids around the origin, crossing into chunks with negative
+ * coords, and some chunks are set back to {@link MaterialGrid#DEFAULT}.
+ * Reads must match a map of the ids set, before and after compacting, and
+ * compacting must drop exactly the chunks left with only the default. Any
+ * difference throws an exception.
+ */
+public class MaterialGridCheck {
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		checkChunk(random);
+		checkGrid(random);
+	}
+
+	private static void checkChunk(Random random) {
+		MaterialChunk chunk = new MaterialChunk(MaterialGrid.DEFAULT);
+		int[] expected = new int[PresenceChunk.VOLUME];
+		Set<Integer> layouts = new HashSet<Integer>();
+		int[] pools = new int[] {2, 3, 4, 9, 16, 200, 256, 3000, 100, 12, 5, 2, 1};
+		for (int pool : pools) {
+			//Each pool is a new random set of ids
+			int[] ids = new int[pool];
+			for (int i = 0; i < pool; i++) {
+				ids[i] = random.nextInt(MaterialChunk.MAX_ID + 1);
+			}
+			//Enough writes to leave few positions from the last pool
+			for (int i = 0; i < PresenceChunk.VOLUME * 6; i++) {
+				int index = random.nextInt(PresenceChunk.VOLUME);
+				int id = ids[random.nextInt(pool)];
+				chunk.setMaterial(index, id);
+				expected[index] = id;
+				layouts.add(chunk.getBitsPerEntry());
+			}
+			compareChunk(expected, chunk, "pool of " + pool);
+
+			chunk.compact();
+			compareChunk(expected, chunk, "compacted pool of " + pool);
+			Set<Integer> used = new HashSet<Integer>();
+			for (int id : expected) {
+				used.add(id);
+			}
+			int bits = 0;
+			while ((1 << bits) < used.size()) {
+				bits = bits == 0 ? 1 : bits * 2;
+			}
+			if (chunk.getPaletteSize() != used.size() || chunk.getBitsPerEntry() != bits) {
+				throw new IllegalStateException("Compacted pool of " + pool + " has " + chunk.getPaletteSize() + " ids in "
+						+ chunk.getBitsPerEntry() + " bits, expected " + used.size() + " in " + bits);
+			}
+		}
+
+		//Setting every position to one id compacts back to a uniform chunk
+		for (int i = 0; i < PresenceChunk.VOLUME; i++) {
+			chunk.setMaterial(i, 7);
+			expected[i] = 7;
+		}
+		chunk.compact();
+		compareChunk(expected, chunk, "uniform");
+		if (!chunk.isUniform()) {
+			throw new IllegalStateException("Chunk with one id is not uniform after compacting");
+		}
+		layouts.add(chunk.getBitsPerEntry());
+		for (int bits : new int[] {0, 1, 2, 4, 8, 16}) {
+			if (!layouts.contains(bits)) {
+				throw new IllegalStateException("Chunk was never stored with " + bits + " bits per position");
+			}
+		}
+		System.out.println("OK - chunk matches through layouts " + layouts + " and compacting");
+	}
+
+	private static void compareChunk(int[] expected, MaterialChunk chunk, String name) {
+		for (int i = 0; i < expected.length; i++) {
+			if (chunk.getMaterial(i) != expected[i]) {
+				throw new IllegalStateException(name + ": material differs at index " + i);
+			}
+		}
+	}
+
+	private static void checkGrid(Random random) {
+		MaterialGrid grid = new MaterialGrid();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		int extent = 3 * PresenceChunk.SIZE;
+		for (int i = 0; i < 200000; i++) {
+			int x = random.nextInt(2 * extent) - extent;
+			int y = random.nextInt(2 * extent) - extent;
+			int z = random.nextInt(2 * extent) - extent;
+			int id = random.nextInt(4) == 0 ? MaterialGrid.DEFAULT : 1 + random.nextInt(i < 100000 ? 3 : 600);
+			grid.setMaterial(x, y, z, id);
+			expected.put(position(x, y, z), id);
+		}
+
+		//Clear some chunks back to the default, so compacting drops them
+		for (int c = 0; c < 20; c++) {
+			int cx = random.nextInt(6) - 3;
+			int cy = random.nextInt(6) - 3;
+			int cz = random.nextInt(6) - 3;
+			for (int i = 0; i < PresenceChunk.VOLUME; i++) {
+				int x = (cx << PresenceChunk.BITS) + (i & PresenceChunk.MASK);
+				int y = (cy << PresenceChunk.BITS) + ((i >> PresenceChunk.BITS) & PresenceChunk.MASK);
+				int z = (cz << PresenceChunk.BITS) + (i >> (2 * PresenceChunk.BITS));
+				grid.setMaterial(x, y, z, MaterialGrid.DEFAULT);
+				expected.put(position(x, y, z), MaterialGrid.DEFAULT);
+			}
+		}
+		compareGrid(expected, grid, extent, "edited");
+
+		Set<Long> chunks = new HashSet<Long>();
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			if (entry.getValue() != MaterialGrid.DEFAULT) {
+				long p = entry.getKey();
+				chunks.add(PresenceChunk.key((int)(p >> 42) >> PresenceChunk.BITS,
+						(int)(p << 22 >> 43) >> PresenceChunk.BITS, (int)(p << 43 >> 43) >> PresenceChunk.BITS));
+			}
+		}
+		int before = grid.getChunkCount();
+		grid.compact();
+		compareGrid(expected, grid, extent, "compacted");
+		if (grid.getChunkCount() != chunks.size()) {
+			throw new IllegalStateException(grid.getChunkCount() + " chunks after compacting, expected " + chunks.size());
+		}
+		System.out.println("OK - grid matches, compacting dropped " + (before - grid.getChunkCount()) + " of " + before + " chunks");
+	}
+
+	/**
+	 * Pack a position as a map key, 21 bits per coord
+	 */
+	private static long position(int x, int y, int z) {
+		return ((long)x << 42) | (((long)y & 0x1FFFFF) << 21) | ((long)z & 0x1FFFFF);
+	}
+
+	private static void compareGrid(Map<Long, Integer> expected, MaterialGrid grid, int extent, String name) {
+		//Include a margin around the edited positions, where nothing was set
+		for (int z = -extent - 2; z < extent + 2; z++) {
+			for (int y = -extent - 2; y < extent + 2; y++) {
+				for (int x = -extent - 2; x < extent + 2; x++) {
+					Integer id = expected.get(position(x, y, z));
+					int expectedId = id == null ? MaterialGrid.DEFAULT : id;
+					if (grid.getMaterial(x, y, z) != expectedId) {
+						throw new IllegalStateException(name + ": material differs at (" + x + ", " + y + ", " + z + ")");
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.hexahedron.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.hexahedron.cube.ChunkMeshCache;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.MeshMode;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+
+/**
+ * Checks that chunk meshes from a saved {@link ChunkMeshCache} are the
+ * same as meshing the chunks, without needing a display.
+ *
+ * A grid is built with an empty cache in a temporary file, which is saved
+ * (chunks with the same contents as an earlier chunk already hit the cache).
+ * The cache is then opened again from the file, which is made read only
+ * first, and a new grid with the same contents built with it must find
+ * every chunk in the cache, and have the same vertex buffers and bounds as
+ * a grid built with no cache.
+ * Then both grids are edited, and the chunks whose contents or shading
+ * changed must miss the cache and be meshed again, and once the cache is
+ * saved again, a grid built with the edit from it must match too. Any
+ * difference throws an exception. Also prints the time to build the grid
+ * with each cache, and the size of the file.
+ */
+public class MeshCacheCheck {
+
+	private final static int LEVELS = 7;
+
+	public static void main(String[] args) throws IOException {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+		File file = File.createTempFile("meshes", ".cache");
+		file.delete();
+		file.deleteOnExit();
+
+		CubeGrid expected = terrain(assetManager, occlusionTextures, false);
+		long start = System.nanoTime();
+		expected.buildAllCubes();
+		long uncachedTime = System.nanoTime() - start;
+
+		ChunkMeshCache cold = new ChunkMeshCache(file);
+		CubeGrid first = terrain(assetManager, occlusionTextures, false);
+		first.setMeshCache(cold);
+		start = System.nanoTime();
+		first.buildAllCubes();
+		long coldTime = System.nanoTime() - start;
+		if (cold.getMisses() != cold.size()) {
+			throw new IllegalStateException(cold.getMisses() + " misses in an empty cache, for " + cold.size() + " entries");
+		}
+		cold.save();
+
+		//Loading never writes the file
+		file.setReadOnly();
+		ChunkMeshCache warm = new ChunkMeshCache(file);
+		file.setWritable(true);
+		CubeGrid actual = terrain(assetManager, occlusionTextures, false);
+		actual.setMeshCache(warm);
+		start = System.nanoTime();
+		actual.buildAllCubes();
+		long warmTime = System.nanoTime() - start;
+		if (warm.getMisses() != 0) {
+			throw new IllegalStateException(warm.getMisses() + " misses in a saved cache");
+		}
+		CheckUtil.compare(expected, actual);
+		System.out.println("OK - " + warm.getHits() + " chunks from saved cache match, " + warm.size() + " entries in "
+				+ file.length() / 1024 + "KB");
+		System.out.println((cold.getHits() + cold.getMisses()) + " chunks meshed with empty cache, " 
+				+ cold.getHits() + " sharing contents with another chunk");
+		System.out.println("Built (after shading) with no cache in " + uncachedTime / 1000000 + "ms, empty cache in " + coldTime / 1000000
+				+ "ms, saved cache in " + warmTime / 1000000 + "ms");
+
+		//An edit within one chunk only changes the meshes of that chunk, and
+		//the chunks sharing its lines of sight
+		int hits = warm.getHits();
+		edit(expected);
+		edit(actual);
+		expected.update();
+		actual.update();
+		CheckUtil.compare(expected, actual);
+		if (warm.getMisses() == 0) {
+			throw new IllegalStateException("Edited chunks were found in the cache");
+		}
+		System.out.println("OK - edit matches, " + warm.getMisses() + " chunks meshed again, "
+				+ (warm.getHits() - hits) + " from cache");
+
+		warm.save();
+		ChunkMeshCache saved = new ChunkMeshCache(file);
+		CubeGrid reloaded = terrain(assetManager, occlusionTextures, true);
+		reloaded.setMeshCache(saved);
+		reloaded.buildAllCubes();
+		CheckUtil.compare(expected, reloaded);
+		System.out.println("OK - resaved cache matches, " + saved.getHits() + " hits, " + saved.getMisses() + " misses");
+		file.delete();
+	}
+
+	private static CubeGrid terrain(AssetManager assetManager, OcclusionTextures occlusionTextures, boolean edited) {
+		CubeGrid grid = CheckUtil.terrain(assetManager, occlusionTextures, LEVELS);
+		//Edit before shading, so the grid is shaded as if built with the edit
+		if (edited) edit(grid);
+		grid.setMeshMode(MeshMode.GREEDY);
+		CheckUtil.shade(grid);
+		return grid;
+	}
+
+	/**
+	 * Raise a column within one chunk
+	 */
+	private static void edit(CubeGrid grid) {
+		int size = grid.getSize();
+		grid.fillBox(size / 2 + 2, size / 2 + 2, 0, size / 2 + 5, size / 2 + 5, size / 2, true);
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.hexahedron.test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.hexahedron.cube.AFaceMesh;
+import org.hexahedron.occlusion.OcclusionTextureBuilder;
+import org.hexahedron.occlusion.OcclusionTextures;
+import org.hexahedron.occlusion.Transform;
+
+import com.jme3.scene.VertexBuffer.Type;
+
+/**
+ * Checks the occlusion texture atlas against the individual tiles it
+ * was built from, without needing a display.
+ *
+ * Every pixel of each tile must be in the atlas at the position given
+ * by {@link OcclusionTextures}, with the gutter around it copied from
+ * the tile's edge. Then for every occlusion texture and {@link Transform},
+ * the UVs set on an {@link AFaceMesh} must lie within that texture's tile,
+ * and sampling just inside each corner must give the tile pixel at the
+ * transformed corner. Any difference throws an exception.
+ */
+public class OcclusionAtlasCheck {
+
+	public static void main(String[] args) throws IOException {
+		BufferedImage atlas = load("resources/occlusion/atlas.png");
+		if (atlas.getWidth() != OcclusionTextures.WIDTH || atlas.getHeight() != OcclusionTextures.HEIGHT) {
+			throw new IllegalStateException("Atlas is " + atlas.getWidth() + "x" + atlas.getHeight());
+		}
+
+		int size = OcclusionTextures.TILE_SIZE;
+		int g = OcclusionTextures.GUTTER;
+		for (int i = 0; i < OcclusionTextures.COUNT; i++) {
+			BufferedImage tile = load("resources/occlusion/" + OcclusionTextureBuilder.format(i + 1, 4) + ".png");
+
+			//Pixels, including the gutter
+			int tileX = OcclusionTextures.tileX(i);
+			int tileY = OcclusionTextures.tileY(i);
+			for (int y = -g; y < size + g; y++) {
+				for (int x = -g; x < size + g; x++) {
+					int expected = tile.getRGB(OcclusionTextureBuilder.clampToTile(x), OcclusionTextureBuilder.clampToTile(y));
+					if (atlas.getRGB(tileX + x, tileY + y) != expected) {
+						throw new IllegalStateException("Tile " + i + " differs at (" + x + ", " + y + ")");
+					}
+				}
+			}
+
+			//UVs for each transform
+			for (Transform transform : Transform.allTransforms()) {
+				AFaceMesh mesh = new AFaceMesh(0);
+				mesh.setUVTransform(i, transform);
+				FloatBuffer uvs = (FloatBuffer)mesh.getBuffer(Type.TexCoord2).getData();
+				checkUVs(atlas, tile, i, transform, uvs);
+			}
+		}
+		System.out.println("OK - " + OcclusionTextures.COUNT + " tiles match");
+	}
+
+	/**
+	 * Check the UVs of a face against a tile
+	 */
+	private static void checkUVs(BufferedImage atlas, BufferedImage tile, int i, Transform transform, FloatBuffer uvs) {
+		int size = OcclusionTextures.TILE_SIZE;
+
+		//The centre vertex is the last of each tri, and is never transformed
+		float centerX = uvs.get(4) * OcclusionTextures.WIDTH;
+		float centerY = (1 - uvs.get(5)) * OcclusionTextures.HEIGHT;
+
+		for (int vertex = 0; vertex < uvs.limit() / 2; vertex++) {
+			//Pixel coords in the atlas image, from the top left
+			float x = uvs.get(vertex * 2) * OcclusionTextures.WIDTH;
+			float y = (1 - uvs.get(vertex * 2 + 1)) * OcclusionTextures.HEIGHT;
+
+			float tileX = x - OcclusionTextures.tileX(i);
+			float tileY = y - OcclusionTextures.tileY(i);
+			if (tileX < -0.01f || tileX > size + 0.01f || tileY < -0.01f || tileY > size + 0.01f) {
+				throw new IllegalStateException("Tile " + i + " with " + transform + " has UV outside tile at vertex " + vertex);
+			}
+
+			//Sample corners half a pixel towards the centre, which must be the corner pixel of the tile
+			if (vertex % 3 == 2) continue;
+			int sampleX = (int)Math.floor(x + 0.5f * Math.signum(centerX - x));
+			int sampleY = (int)Math.floor(y + 0.5f * Math.signum(centerY - y));
+			int cornerX = OcclusionTextureBuilder.clampToTile(Math.round(tileX) - (tileX > size / 2 ? 1 : 0));
+			int cornerY = OcclusionTextureBuilder.clampToTile(Math.round(tileY) - (tileY > size / 2 ? 1 : 0));
+			if (atlas.getRGB(sampleX, sampleY) != tile.getRGB(cornerX, cornerY)) {
+				throw new IllegalStateException("Tile " + i + " with " + transform + " samples wrong pixel at vertex " + vertex);
+			}
+		}
+	}
+
+	private static BufferedImage load(String name) throws IOException {
+		return ImageIO.read(OcclusionAtlasCheck.class.getClassLoader().getResource(name));
+	}
+
+}
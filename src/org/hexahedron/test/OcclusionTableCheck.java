@@ -0,0 +1,37 @@
+package org.hexahedron.test;
+
+import org.hexahedron.occlusion.IndexAndTransform;
+import org.hexahedron.occlusion.Occlusion;
+
+/**
+ * Checks that looking up occlusions by bitmask with
+ * {@link Occlusion#transformedUnique(int)} gives the same results as
+ * looking up {@link Occlusion}s in {@link Occlusion#occlusionToTransformedUnique}.
+ *
+ * For every bitmask, the lookup must give the same instance as the
+ * map, and the unique occlusion it gives must transform back onto the
+ * occlusion for the bitmask. Any difference throws an exception.
+ */
+public class OcclusionTableCheck {
+
+	public static void main(String[] args) {
+		for (int bitmask = 0; bitmask < 256; bitmask++) {
+			Occlusion o = new Occlusion(bitmask);
+			if (o.toBitmask() != bitmask) {
+				throw new IllegalStateException("Occlusion " + bitmask + " has bitmask " + o.toBitmask());
+			}
+
+			IndexAndTransform iat = Occlusion.transformedUnique(bitmask);
+			if (iat != Occlusion.occlusionToTransformedUnique.get(o)) {
+				throw new IllegalStateException("Lookup for " + bitmask + " differs from map");
+			}
+
+			Occlusion unique = Occlusion.uniqueOcclusionList.get(iat.getIndex());
+			if (!unique.transform(iat.getTransform()).equals(o)) {
+				throw new IllegalStateException("Lookup for " + bitmask + " doesn't transform onto the occlusion");
+			}
+		}
+		System.out.println("OK - 256 occlusions match " + Occlusion.uniqueOcclusionList.size() + " unique occlusions");
+	}
+
+}
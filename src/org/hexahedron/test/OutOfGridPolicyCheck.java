@@ -0,0 +1,104 @@
+package org.hexahedron.test;
+
+import java.util.Random;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.OutOfGridPolicy;
+import org.hexahedron.grid.ChunkedPresenceGrid;
+import org.hexahedron.grid.PackedPresenceGrid;
+import org.hexahedron.grid.PresenceGrid;
+
+/**
+ * Checks that reads from a {@link CubeGrid} follow its {@link OutOfGridPolicy},
+ * without needing a display.
+ *
+ * A grid with random presence is read under each policy, with chunked and
+ * packed storage. Presence, rows and boxes at positions in and around the
+ * grid, including rows and boxes that cross its edges, must match reading
+ * each position from the grid directly, treating positions outside it as
+ * empty, present, or wrapped to the other side. Setting presence outside the
+ * grid must fail under every policy. Any difference throws an exception.
+ */
+public class OutOfGridPolicyCheck {
+
+	private final static int LEVELS = 5;
+
+	public static void main(String[] args) {
+		PresenceGrid[] grids = new PresenceGrid[] {new ChunkedPresenceGrid(LEVELS), new PackedPresenceGrid(LEVELS)};
+		for (PresenceGrid presence : grids) {
+			//Presence reads don't need assets
+			CubeGrid grid = new CubeGrid(null, null, presence, LEVELS);
+			int size = grid.getSize();
+			Random random = new Random(42);
+			for (int i = 0; i < size * size * size / 3; i++) {
+				grid.setPresence(random.nextInt(size), random.nextInt(size), random.nextInt(size), true);
+			}
+
+			for (OutOfGridPolicy policy : OutOfGridPolicy.values()) {
+				grid.setOutOfGridPolicy(policy);
+				for (int i = 0; i < 50000; i++) {
+					//Up to two grids away on each side, so wrapping goes around more than once
+					int x = random.nextInt(5 * size) - 2 * size;
+					int y = random.nextInt(5 * size) - 2 * size;
+					int z = random.nextInt(5 * size) - 2 * size;
+					if (grid.getPresence(x, y, z) != expected(presence, policy, x, y, z)) {
+						throw new IllegalStateException(policy + " presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+
+					long row = 0;
+					for (int b = 0; b < 64; b++) {
+						if (expected(presence, policy, x + b, y, z)) row |= 1L << b;
+					}
+					if (grid.getRow(x, y, z) != row) {
+						throw new IllegalStateException(policy + " row differs at (" + x + ", " + y + ", " + z + ")");
+					}
+
+					if (i % 10 == 0) {
+						int w = random.nextInt(8);
+						int h = random.nextInt(8);
+						int d = random.nextInt(8);
+						if (grid.anyPresent(x, y, z, x + w, y + h, z + d) != expectedAny(presence, policy, x, y, z, x + w, y + h, z + d)) {
+							throw new IllegalStateException(policy + " box differs at (" + x + ", " + y + ", " + z + ")");
+						}
+					}
+				}
+
+				try {
+					grid.setPresence(-1, 0, 0, true);
+					throw new IllegalStateException(policy + " accepted an edit outside the grid");
+				} catch (IndexOutOfBoundsException e) {
+					//Expected
+				}
+			}
+			System.out.println("OK - " + presence.getClass().getSimpleName() + " reads match every policy");
+		}
+	}
+
+	/**
+	 * Presence read one position at a time from the grid
+	 */
+	private static boolean expected(PresenceGrid presence, OutOfGridPolicy policy, int x, int y, int z) {
+		if (presence.contains(x, y, z)) return presence.getPresence(x, y, z);
+		switch (policy) {
+		case SOLID:
+			return true;
+		case WRAP:
+			int size = presence.getSize();
+			return presence.getPresence(Math.floorMod(x, size), Math.floorMod(y, size), Math.floorMod(z, size));
+		default:
+			return false;
+		}
+	}
+
+	private static boolean expectedAny(PresenceGrid presence, OutOfGridPolicy policy, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					if (expected(presence, policy, x, y, z)) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
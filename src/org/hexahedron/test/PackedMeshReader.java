@@ -0,0 +1,76 @@
+package org.hexahedron.test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.hexahedron.cube.ChunkBatch;
+
+import com.jme3.math.FastMath;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+
+/**
+ * Reads vertex data from meshes as floats, whatever format it is
+ * stored in, for checking the packed meshes in {@link ChunkBatch}es
+ * against float meshes.
+ */
+public class PackedMeshReader {
+
+	/**
+	 * Read a component of a vertex, as the renderer would see it.
+	 * Positions of packed meshes are scaled to cubes.
+	 * @param mesh
+	 * 		The mesh
+	 * @param type
+	 * 		The buffer to read
+	 * @param vertex
+	 * 		The vertex index
+	 * @param component
+	 * 		The component of the vertex
+	 * @return
+	 * 		The value
+	 */
+	public static float get(Mesh mesh, Type type, int vertex, int component) {
+		VertexBuffer vb = mesh.getBuffer(type);
+		int i = vertex * vb.getNumComponents() + component;
+		Buffer data = vb.getData();
+		switch (vb.getFormat()) {
+		case Float:
+			return ((FloatBuffer)data).get(i);
+		case Half:
+			return FastMath.convertHalfToFloat(((ShortBuffer)data).get(i));
+		case Byte:
+			byte b = ((ByteBuffer)data).get(i);
+			return vb.isNormalized() ? b / 127f : b;
+		case UnsignedByte:
+			int ub = ((ByteBuffer)data).get(i) & 0xFF;
+			if (type == Type.Position) return ub * ChunkBatch.POSITION_SCALE;
+			return vb.isNormalized() ? ub / 255f : ub;
+		case UnsignedShort:
+			int us = ((ShortBuffer)data).get(i) & 0xFFFF;
+			return vb.isNormalized() ? us / 65535f : us;
+		default:
+			throw new IllegalArgumentException("Can't read " + vb.getFormat());
+		}
+	}
+
+	/**
+	 * Read an entry from the index buffer of a mesh
+	 * @param mesh
+	 * 		The mesh
+	 * @param i
+	 * 		The position in the index buffer
+	 * @return
+	 * 		The vertex index
+	 */
+	public static int index(Mesh mesh, int i) {
+		Buffer data = mesh.getBuffer(Type.Index).getData();
+		if (data instanceof IntBuffer) return ((IntBuffer)data).get(i);
+		return ((ShortBuffer)data).get(i) & 0xFFFF;
+	}
+
+}
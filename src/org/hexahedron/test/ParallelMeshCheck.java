@@ -0,0 +1,166 @@
+package org.hexahedron.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hexahedron.cube.ChunkMeshQueue;
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.MeshMode;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Camera.FrustumIntersect;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+/**
+ * Checks that meshing chunks in the background with
+ * {@link CubeGrid#setMeshExecutor(java.util.concurrent.Executor)} gives
+ * the same scene graph as meshing them immediately, without needing a
+ * display.
+ *
+ * A grid is built and shaded without an executor, then built again on a
+ * {@link ForkJoinPool}, and every chunk geometry must have the same
+ * vertex buffers. Then the grid is edited repeatedly while chunks are
+ * still meshing, calling {@link CubeGrid#update()} as a frame loop would,
+ * and once meshing finishes the result must match a grid with the same
+ * edits meshed immediately. Finally the grid is built again running one
+ * job at a time, with a camera looking across it, and chunks in view must
+ * be attached before those out of view, closest first. Any difference
+ * throws an exception. Also prints the time to build the grid with each,
+ * and the depth and latency of the queue.
+ */
+public class ParallelMeshCheck {
+
+	private final static int LEVELS = 7;
+
+	public static void main(String[] args) throws InterruptedException {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+		ForkJoinPool pool = new ForkJoinPool();
+
+		CubeGrid immediate = terrain(assetManager, occlusionTextures);
+		CubeGrid background = terrain(assetManager, occlusionTextures);
+		background.setMeshExecutor(pool);
+
+		for (int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			immediate.buildAllCubes();
+			long immediateTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			background.buildAllCubes();
+			background.finishMeshing();
+			long backgroundTime = System.nanoTime() - start;
+
+			System.out.println("Built immediately in " + immediateTime / 1000000 + "ms, on "
+					+ pool.getParallelism() + " threads in " + backgroundTime / 1000000 + "ms");
+		}
+		CheckUtil.compare(immediate, background);
+		System.out.println("OK - background meshing matches");
+
+		//Edit while meshing, updating as a frame loop would
+		Random r = new Random(101);
+		int size = immediate.getSize();
+		int frames = 0;
+		for (int i = 0; i < 200; i++) {
+			int x = r.nextInt(size - 4);
+			int y = r.nextInt(size - 4);
+			int z = r.nextInt(size / 2);
+			boolean present = r.nextBoolean();
+			immediate.fillBox(x, y, z, x + 3, y + 3, z + 3, present);
+			background.fillBox(x, y, z, x + 3, y + 3, z + 3, present);
+			immediate.update();
+			background.update();
+			if (background.isMeshing()) frames++;
+		}
+		background.finishMeshing();
+		CheckUtil.compare(immediate, background);
+		System.out.println("OK - edits while meshing match, " + frames + " of 200 frames had chunks meshing, latency "
+				+ (int)(background.getMeshQueue().getLatency() * 1000) + "ms");
+		pool.shutdown();
+
+		checkPriority(terrain(assetManager, occlusionTextures));
+	}
+
+	/**
+	 * Build a grid one job at a time, checking that chunks are attached
+	 * in view first, then closest first
+	 */
+	private static void checkPriority(CubeGrid grid) {
+		final List<Runnable> jobs = new ArrayList<Runnable>();
+		grid.setMeshExecutor(new Executor() {
+			public void execute(Runnable job) {
+				jobs.add(job);
+			}
+		});
+		ChunkMeshQueue queue = grid.getMeshQueue();
+		queue.setMaxJobs(1);
+
+		int size = grid.getSize();
+		Camera camera = new Camera(640, 480);
+		camera.setFrustumPerspective(60, 640 / 480f, 1, 1000);
+		camera.setLocation(new Vector3f(-8, -8, size / 2));
+		camera.lookAt(new Vector3f(size, size / 4, size / 4), Vector3f.UNIT_Z);
+		queue.setCamera(camera);
+
+		grid.buildAllCubes();
+		int depth = queue.getDepth();
+
+		boolean wasInView = true;
+		float lastDistance = 0;
+		int inView = 0;
+		int attached = 0;
+		Set<Node> seen = new HashSet<Node>();
+		while (!jobs.isEmpty()) {
+			if (queue.getMeshing() != 1) {
+				throw new IllegalStateException(queue.getMeshing() + " chunks meshing, expected 1");
+			}
+			jobs.remove(0).run();
+			grid.update();
+
+			//One job ran, so at most one chunk node is new
+			for (Node chunk : CheckUtil.chunkNodes(grid)) {
+				if (!seen.add(chunk)) continue;
+				attached++;
+				Spatial geometry = chunk.getChild(0);
+				BoundingBox bound = new BoundingBox(geometry.getLocalTranslation().add(8, 8, 8), 8, 8, 8);
+				//Check every plane, as the queue does
+				camera.setPlaneState(0);
+				boolean chunkInView = camera.contains(bound) != FrustumIntersect.Outside;
+				float distance = bound.getCenter().distance(camera.getLocation());
+				if (chunkInView && !wasInView) {
+					throw new IllegalStateException("Chunk in view attached after chunk out of view");
+				}
+				if (chunkInView != wasInView) lastDistance = 0;
+				if (distance < lastDistance - 1) {
+					throw new IllegalStateException("Chunk attached after a further one");
+				}
+				if (chunkInView) inView++;
+				wasInView = chunkInView;
+				lastDistance = distance;
+			}
+		}
+		if (queue.isMeshing()) {
+			throw new IllegalStateException("Chunks left in queue");
+		}
+		System.out.println("OK - " + attached + " chunks from a queue of " + depth + " attached in order, "
+				+ inView + " in view first");
+	}
+
+	private static CubeGrid terrain(AssetManager assetManager, OcclusionTextures occlusionTextures) {
+		CubeGrid grid = CheckUtil.terrain(assetManager, occlusionTextures, LEVELS);
+		grid.setMeshMode(MeshMode.GREEDY);
+		CheckUtil.shade(grid);
+		return grid;
+	}
+
+}
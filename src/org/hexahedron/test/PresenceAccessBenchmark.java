@@ -0,0 +1,146 @@
+package org.hexahedron.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.geom.Vector3i;
+import org.hexahedron.geom.Vector3iDefault;
+
+/**
+ * Compares reading presence from a {@link CubeGrid} through a
+ * {@link Vector3i}, as collision code used to, with reading it
+ * using int coords directly.
+ *
+ * Each pass reads every position in the grid, in row order,
+ * and counts positions with presence so the reads can't be skipped.
+ * The cost of a read is mostly the grid lookup itself, which both
+ * ways share, so the cost of going through the vector is also timed
+ * on its own, by passes that only read the coords back from the
+ * vector (or use the ints) and combine them. As collision code did,
+ * the vector is kept in a field, so the JIT can't replace it with
+ * locals. Several rounds are run so the JIT has compiled all the loops,
+ * and the median of the later half of the rounds is printed at the end.
+ */
+public class PresenceAccessBenchmark {
+
+	private final static int LEVELS = 7;
+	private final static int ROUNDS = 20;
+
+	private final static Vector3i search = new Vector3iDefault();
+
+	public static void main(String[] args) {
+		//Presence access doesn't need assets
+		CubeGrid grid = new CubeGrid(null, null, LEVELS);
+		int size = grid.getSize();
+
+		Random r = new Random(101);
+		for (int i = 0; i < size * size * size / 4; i++) {
+			grid.setPresence(r.nextInt(size), r.nextInt(size), r.nextInt(size), true);
+		}
+
+		long reads = (long)size * size * size;
+		double[] readSpeedups = new double[ROUNDS];
+		double[] coordSpeedups = new double[ROUNDS];
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int vectorCount = countWithVector(grid);
+			long vectorTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int intCount = countWithInts(grid);
+			long intTime = System.nanoTime() - start;
+
+			if (vectorCount != intCount) {
+				throw new IllegalStateException("Counts differ: " + vectorCount + " vs " + intCount);
+			}
+
+			start = System.nanoTime();
+			int vectorSum = coordsWithVector(size);
+			long vectorCoordTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int intSum = coordsWithInts(size);
+			long intCoordTime = System.nanoTime() - start;
+
+			if (vectorSum != intSum) {
+				throw new IllegalStateException("Sums differ: " + vectorSum + " vs " + intSum);
+			}
+
+			readSpeedups[round] = vectorTime / (double)intTime;
+			coordSpeedups[round] = vectorCoordTime / (double)intCoordTime;
+			System.out.printf("Round %d: reads Vector3i %.2f ns, int %.2f ns, speedup %.2fx; coords only Vector3i %.2f ns, int %.2f ns, speedup %.2fx%n",
+					round,
+					vectorTime / (double)reads,
+					intTime / (double)reads,
+					readSpeedups[round],
+					vectorCoordTime / (double)reads,
+					intCoordTime / (double)reads,
+					coordSpeedups[round]);
+		}
+		System.out.printf("Median of last %d rounds: reads speedup %.2fx, coords only speedup %.2fx%n",
+				ROUNDS / 2, laterMedian(readSpeedups), laterMedian(coordSpeedups));
+	}
+
+	/**
+	 * The median of the later half of the rounds
+	 */
+	private static double laterMedian(double[] values) {
+		double[] later = Arrays.copyOfRange(values, values.length / 2, values.length);
+		Arrays.sort(later);
+		return (later[(later.length - 1) / 2] + later[later.length / 2]) / 2;
+	}
+
+	private static int countWithVector(CubeGrid grid) {
+		int size = grid.getSize();
+		int count = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					search.set(x, y, z);
+					if (grid.getPresence(search)) count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static int countWithInts(CubeGrid grid) {
+		int size = grid.getSize();
+		int count = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (grid.getPresence(x, y, z)) count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static int coordsWithVector(int size) {
+		int sum = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					search.set(x, y, z);
+					sum += search.getX() ^ (search.getY() << 8) ^ (search.getZ() << 16);
+				}
+			}
+		}
+		return sum;
+	}
+
+	private static int coordsWithInts(int size) {
+		int sum = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					sum += x ^ (y << 8) ^ (z << 16);
+				}
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.hexahedron.test;
+
+import java.util.Random;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.DirtyRegion;
+import org.hexahedron.grid.PackedPresenceGrid;
+import org.hexahedron.grid.PresenceGrid;
+
+/**
+ * Checks the bulk region edits of {@link CubeGrid} against setting
+ * each position in turn, without needing a display.
+ *
+ * Random boxes, spheres, cylinders and masks are filled and cleared, and
+ * regions copied from another grid and within the grid itself, including
+ * overlapping copies moving in each direction along each axis, and rows of
+ * more than 64 positions. After each edit every position must match a
+ * reference edited one position at a time. The {@link DirtyRegion} after
+ * each edit must be the box the edit covers, including every position that
+ * changed, and must grow to cover all edits made since it was cleared. Any
+ * difference throws an exception.
+ */
+public class RegionEditCheck {
+
+	private final static int LEVELS = 7;
+
+	public static void main(String[] args) {
+		//Presence edits don't need assets
+		CubeGrid grid = new CubeGrid(null, null, LEVELS);
+		int size = grid.getSize();
+		boolean[][][] expected = new boolean[size][size][size];
+		Random random = new Random(42);
+
+		for (int i = 0; i < 40; i++) {
+			int[] min = randomPosition(random, size, 0);
+			int[] max = new int[3];
+			for (int axis = 0; axis < 3; axis++) {
+				max[axis] = Math.min(size - 1, min[axis] + random.nextInt(80));
+			}
+			boolean present = random.nextBoolean();
+			boolean[][][] before = copy(expected);
+			for (int z = min[2]; z <= max[2]; z++) {
+				for (int y = min[1]; y <= max[1]; y++) {
+					for (int x = min[0]; x <= max[0]; x++) {
+						expected[x][y][z] = present;
+					}
+				}
+			}
+			grid.getDirtyRegion().clear();
+			grid.fillBox(min[0], min[1], min[2], max[0], max[1], max[2], present);
+			check(grid, expected, before, min, max, "Box");
+		}
+		System.out.println("OK - boxes match");
+
+		for (int i = 0; i < 40; i++) {
+			float radius = random.nextFloat() * 20;
+			int r = (int)radius;
+			int[] c = randomPosition(random, size, r);
+			boolean present = random.nextBoolean();
+			boolean[][][] before = copy(expected);
+			for (int dz = -r; dz <= r; dz++) {
+				for (int dy = -r; dy <= r; dy++) {
+					for (int dx = -r; dx <= r; dx++) {
+						if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+							expected[c[0] + dx][c[1] + dy][c[2] + dz] = present;
+						}
+					}
+				}
+			}
+			grid.getDirtyRegion().clear();
+			grid.fillSphere(c[0], c[1], c[2], radius, present);
+			check(grid, expected, before, new int[] {c[0] - r, c[1] - r, c[2] - r}, new int[] {c[0] + r, c[1] + r, c[2] + r}, "Sphere");
+		}
+		System.out.println("OK - spheres match");
+
+		for (int i = 0; i < 40; i++) {
+			float radius = random.nextFloat() * 20;
+			int r = (int)radius;
+			int[] c = randomPosition(random, size, r);
+			int minY = random.nextInt(size);
+			int maxY = Math.min(size - 1, minY + random.nextInt(40));
+			boolean present = random.nextBoolean();
+			boolean[][][] before = copy(expected);
+			for (int dz = -r; dz <= r; dz++) {
+				for (int dx = -r; dx <= r; dx++) {
+					if (dx * dx + dz * dz <= radius * radius) {
+						for (int y = minY; y <= maxY; y++) {
+							expected[c[0] + dx][y][c[2] + dz] = present;
+						}
+					}
+				}
+			}
+			grid.getDirtyRegion().clear();
+			grid.fillCylinder(c[0], c[2], minY, maxY, radius, present);
+			check(grid, expected, before, new int[] {c[0] - r, minY, c[2] - r}, new int[] {c[0] + r, maxY, c[2] + r}, "Cylinder");
+		}
+		System.out.println("OK - cylinders match");
+
+		PresenceGrid mask = new PackedPresenceGrid(6);
+		int maskSize = mask.getSize();
+		for (int i = 0; i < 10; i++) {
+			for (int j = 0; j < 20000; j++) {
+				mask.setPresence(random.nextInt(maskSize), random.nextInt(maskSize), random.nextInt(maskSize), random.nextBoolean());
+			}
+			int[] o = randomPosition(random, size - maskSize + 1, 0);
+			boolean present = random.nextBoolean();
+			boolean[][][] before = copy(expected);
+			for (int z = 0; z < maskSize; z++) {
+				for (int y = 0; y < maskSize; y++) {
+					for (int x = 0; x < maskSize; x++) {
+						if (mask.getPresence(x, y, z)) {
+							expected[o[0] + x][o[1] + y][o[2] + z] = present;
+						}
+					}
+				}
+			}
+			grid.getDirtyRegion().clear();
+			grid.fillMask(o[0], o[1], o[2], mask, present);
+			check(grid, expected, before, o, new int[] {o[0] + maskSize - 1, o[1] + maskSize - 1, o[2] + maskSize - 1}, "Mask");
+		}
+		System.out.println("OK - masks match");
+
+		CubeGrid other = new CubeGrid(null, null, LEVELS);
+		for (int i = 0; i < size * size * size / 4; i++) {
+			other.setPresence(random.nextInt(size), random.nextInt(size), random.nextInt(size), true);
+		}
+		for (int i = 0; i < 60; i++) {
+			//Half the copies are within the grid, moving a short way so they overlap
+			boolean within = i % 2 == 0;
+			PresenceGrid source = within ? grid.getPresenceGrid() : other.getPresenceGrid();
+			int[] min = new int[3];
+			int[] max = new int[3];
+			int[] to = new int[3];
+			for (int axis = 0; axis < 3; axis++) {
+				int extent = random.nextInt(axis == 0 ? 100 : 30);
+				min[axis] = random.nextInt(size - extent);
+				max[axis] = min[axis] + extent;
+				if (within) {
+					to[axis] = Math.max(0, Math.min(size - 1 - extent, min[axis] + random.nextInt(9) - 4));
+				} else {
+					to[axis] = random.nextInt(size - extent);
+				}
+			}
+			boolean[][][] before = copy(expected);
+			for (int z = min[2]; z <= max[2]; z++) {
+				for (int y = min[1]; y <= max[1]; y++) {
+					for (int x = min[0]; x <= max[0]; x++) {
+						boolean present = within ? before[x][y][z] : source.getPresence(x, y, z);
+						expected[x - min[0] + to[0]][y - min[1] + to[1]][z - min[2] + to[2]] = present;
+					}
+				}
+			}
+			grid.getDirtyRegion().clear();
+			grid.copyRegion(source, min[0], min[1], min[2], max[0], max[1], max[2], to[0], to[1], to[2]);
+			int[] toMax = new int[] {to[0] + max[0] - min[0], to[1] + max[1] - min[1], to[2] + max[2] - min[2]};
+			check(grid, expected, before, to, toMax, within ? "Overlapping copy" : "Copy");
+		}
+		System.out.println("OK - copies match");
+
+		//Edits without clearing coalesce into one region covering them all
+		grid.getDirtyRegion().clear();
+		grid.setPresence(3, 90, 7, true);
+		grid.fillBox(60, 4, 50, 70, 10, 52, false);
+		grid.fillSphere(100, 50, 110, 5.5f, true);
+		checkRegion(grid.getDirtyRegion(), new int[] {3, 4, 7}, new int[] {105, 90, 115}, "Coalesced");
+		System.out.println("OK - dirty regions match edits");
+	}
+
+	/**
+	 * A random position at least margin from every edge of a grid
+	 */
+	private static int[] randomPosition(Random random, int size, int margin) {
+		int[] p = new int[3];
+		for (int axis = 0; axis < 3; axis++) {
+			p[axis] = margin + random.nextInt(size - 2 * margin);
+		}
+		return p;
+	}
+
+	private static boolean[][][] copy(boolean[][][] a) {
+		boolean[][][] copy = new boolean[a.length][a.length][];
+		for (int x = 0; x < a.length; x++) {
+			for (int y = 0; y < a.length; y++) {
+				copy[x][y] = a[x][y].clone();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Check the grid has the expected presence, and that the dirty region
+	 * is the edited box, containing every position that changed
+	 */
+	private static void check(CubeGrid grid, boolean[][][] expected, boolean[][][] before, int[] min, int[] max, String edit) {
+		DirtyRegion dirty = grid.getDirtyRegion();
+		checkRegion(dirty, min, max, edit);
+		int size = grid.getSize();
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (grid.getPresence(x, y, z) != expected[x][y][z]) {
+						throw new IllegalStateException(edit + " presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+					if (expected[x][y][z] != before[x][y][z] && !(
+							x >= dirty.getMin(0) && x <= dirty.getMax(0)
+							&& y >= dirty.getMin(1) && y <= dirty.getMax(1)
+							&& z >= dirty.getMin(2) && z <= dirty.getMax(2))) {
+						throw new IllegalStateException(edit + " changed (" + x + ", " + y + ", " + z + ") outside the dirty region");
+					}
+				}
+			}
+		}
+	}
+
+	private static void checkRegion(DirtyRegion dirty, int[] min, int[] max, String edit) {
+		if (dirty.isEmpty()) {
+			throw new IllegalStateException(edit + " left no dirty region");
+		}
+		for (int axis = 0; axis < 3; axis++) {
+			if (dirty.getMin(axis) != min[axis] || dirty.getMax(axis) != max[axis]) {
+				throw new IllegalStateException(edit + " dirty region on axis " + axis + " is " + dirty.getMin(axis) + " to "
+						+ dirty.getMax(axis) + ", expected " + min[axis] + " to " + max[axis]);
+			}
+		}
+	}
+
+}
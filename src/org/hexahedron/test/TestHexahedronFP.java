@@ -291,7 +291,7 @@ public class TestHexahedronFP extends SimpleGame {
 		}
 
 		
-		Node gridRoot = grid.getOctode();
+		Node gridRoot = grid.getRootNode();
 		setupFog(gridRoot);
 		gridRoot.updateRenderState();
 
@@ -291,7 +291,7 @@ public class TestHexahedronPointFP extends SimpleGame {
 		}
 
 		
-		Node gridRoot = grid.getOctode();
+		Node gridRoot = grid.getRootNode();
 		setupFog(gridRoot);
 		gridRoot.updateRenderState();
 
@@ -0,0 +1,181 @@
+package org.hexahedron.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.hexahedron.cube.CubeGrid;
+import org.hexahedron.cube.MeshMode;
+import org.hexahedron.grid.PresenceChunk;
+import org.hexahedron.grid.UnboundedPresenceGrid;
+import org.hexahedron.occlusion.OcclusionTextures;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.SceneGraphVisitor;
+
+/**
+ * Checks that a {@link CubeGrid} on an {@link UnboundedPresenceGrid} gives
+ * the same cubes as a bounded grid, without needing a display.
+ *
+ * The same terrain and random edits are made in a bounded grid and in an
+ * unbounded grid, shifted to negative coords that don't line up with
+ * chunks, so the shape crosses chunks differently and every chunk key has
+ * negative coords. After building all cubes, and again after more edits
+ * and {@link CubeGrid#update()}, every position must have the same
+ * presence in both grids, and the grids must have the same number of tris,
+ * in {@link MeshMode#FACES} and {@link MeshMode#CHUNKS}. In FACES mode,
+ * every position must also have a cube in one grid exactly where it has
+ * one in the other. The chunk nodes of both grids must be grouped under
+ * region nodes, with every chunk in its region and one node per region.
+ * Any difference throws an exception.
+ */
+public class UnboundedGridCheck {
+
+	private final static int LEVELS = 6;
+
+	/**
+	 * Offset of the unbounded grid from the bounded one
+	 */
+	private final static int[] OFFSET = new int[] {-75, -37, -101};
+
+	public static void main(String[] args) {
+		AssetManager assetManager = CheckUtil.assetManager();
+		OcclusionTextures occlusionTextures = new OcclusionTextures(assetManager);
+
+		for (MeshMode mode : new MeshMode[] {MeshMode.FACES, MeshMode.CHUNKS}) {
+			CubeGrid bounded = new CubeGrid(assetManager, occlusionTextures, LEVELS);
+			UnboundedPresenceGrid presence = new UnboundedPresenceGrid();
+			CubeGrid unbounded = new CubeGrid(assetManager, occlusionTextures, presence, LEVELS);
+			bounded.setMeshMode(mode);
+			unbounded.setMeshMode(mode);
+			int size = bounded.getSize();
+
+			Random random = new Random(42);
+			for (int x = 0; x < size; x++) {
+				for (int y = 0; y < size; y++) {
+					int height = CheckUtil.terrainHeight(size, x, y);
+					bounded.fillBox(x, y, 0, x, y, height, true);
+					unbounded.fillBox(x + OFFSET[0], y + OFFSET[1], OFFSET[2], x + OFFSET[0], y + OFFSET[1], height + OFFSET[2], true);
+				}
+			}
+			edit(bounded, unbounded, random, 20);
+			bounded.buildAllCubes();
+			unbounded.buildAllCubes();
+			int cubes = compare(bounded, unbounded, mode + " build");
+
+			edit(bounded, unbounded, random, 20);
+			bounded.update();
+			unbounded.update();
+			int updatedCubes = compare(bounded, unbounded, mode + " update");
+			checkRegions(bounded);
+			int regions = checkRegions(unbounded);
+			System.out.println("OK - " + mode + " unbounded grid matches, "
+					+ (mode == MeshMode.FACES ? cubes + " cubes built, " + updatedCubes + " after update, " : "")
+					+ tris(unbounded) + " tris, " + presence.getChunkCount() + " chunks stored, " + regions + " regions");
+		}
+	}
+
+	/**
+	 * Make the same random sphere and box edits in both grids
+	 */
+	private static void edit(CubeGrid bounded, CubeGrid unbounded, Random random, int count) {
+		int size = bounded.getSize();
+		for (int i = 0; i < count; i++) {
+			boolean present = random.nextBoolean();
+			int x = 4 + random.nextInt(size - 8);
+			int y = 4 + random.nextInt(size - 8);
+			int z = 4 + random.nextInt(size / 2);
+			if (random.nextBoolean()) {
+				float radius = 1 + random.nextFloat() * 3;
+				bounded.fillSphere(x, y, z, radius, present);
+				unbounded.fillSphere(x + OFFSET[0], y + OFFSET[1], z + OFFSET[2], radius, present);
+			} else {
+				bounded.fillBox(x - 3, y - 2, z - 1, x + 3, y + 2, z + 1, present);
+				unbounded.fillBox(x - 3 + OFFSET[0], y - 2 + OFFSET[1], z - 1 + OFFSET[2],
+						x + 3 + OFFSET[0], y + 2 + OFFSET[1], z + 1 + OFFSET[2], present);
+			}
+		}
+	}
+
+	/**
+	 * Check both grids have the same presence, cubes at the same positions,
+	 * and the same number of tris
+	 * @return
+	 * 		The number of cubes, 0 unless in {@link MeshMode#FACES}
+	 */
+	private static int compare(CubeGrid bounded, CubeGrid unbounded, String name) {
+		int size = bounded.getSize();
+		int count = 0;
+		//Include a margin around the bounded grid, where there must be no cubes
+		for (int z = -2; z < size + 2; z++) {
+			for (int y = -2; y < size + 2; y++) {
+				for (int x = -2; x < size + 2; x++) {
+					if (bounded.getPresence(x, y, z) != unbounded.getPresence(x + OFFSET[0], y + OFFSET[1], z + OFFSET[2])) {
+						throw new IllegalStateException(name + ": presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+					boolean expected = bounded.getCube(x, y, z) != null;
+					if (expected != (unbounded.getCube(x + OFFSET[0], y + OFFSET[1], z + OFFSET[2]) != null)) {
+						throw new IllegalStateException(name + ": cube differs at (" + x + ", " + y + ", " + z + ")");
+					}
+					if (expected) count++;
+				}
+			}
+		}
+		int expectedTris = tris(bounded);
+		int actualTris = tris(unbounded);
+		if (expectedTris != actualTris) {
+			throw new IllegalStateException(name + ": " + actualTris + " tris, expected " + expectedTris);
+		}
+		return count;
+	}
+
+	/**
+	 * Check every chunk node is under the node for its region, and each region has one node
+	 * @return
+	 * 		The number of regions
+	 */
+	private static int checkRegions(CubeGrid grid) {
+		Node root = grid.getRootNode();
+		root.updateGeometricState();
+		Set<List<Integer>> regions = new HashSet<List<Integer>>();
+		for (Spatial region : root.getChildren()) {
+			List<Integer> coords = null;
+			for (Spatial chunk : ((Node)region).getChildren()) {
+				if (((Node)chunk).getQuantity() == 0) continue;
+				Vector3f center = chunk.getWorldBound().getCenter();
+				List<Integer> chunkRegion = new ArrayList<Integer>();
+				for (int axis = 0; axis < 3; axis++) {
+					int chunkCoord = (int)Math.floor(center.get(axis)) >> PresenceChunk.BITS;
+					chunkRegion.add(Math.floorDiv(chunkCoord, CubeGrid.REGION_CHUNKS));
+				}
+				if (coords == null) coords = chunkRegion;
+				if (!coords.equals(chunkRegion)) {
+					throw new IllegalStateException(chunk.getName() + " is in " + region.getName() + ", with chunks from region " + coords);
+				}
+			}
+			if (coords != null && !regions.add(coords)) {
+				throw new IllegalStateException("More than one node for region " + coords);
+			}
+		}
+		return regions.size();
+	}
+
+	private static int tris(CubeGrid grid) {
+		final int[] tris = new int[1];
+		grid.getRootNode().depthFirstTraversal(new SceneGraphVisitor() {
+			public void visit(Spatial spatial) {
+				if (spatial instanceof Geometry) {
+					tris[0] += ((Geometry)spatial).getMesh().getTriangleCount();
+				}
+			}
+		});
+		return tris[0];
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.hexahedron.test;
+
+import java.util.Random;
+
+import org.hexahedron.geom.Vector3iDefault;
+import org.hexahedron.grid.SparseVoxelOctree;
+import org.hexahedron.grid.VoxelDag;
+
+/**
+ * Checks that a {@link VoxelDag} has the same presence as the
+ * {@link SparseVoxelOctree} it was made from.
+ *
+ * A region of 64 identical arch blocks is built in an octree and compacted.
+ * Every position and row, and random boxes, must give the same results from
+ * the DAG as from the octree. Random rays must hit the same position, at the
+ * same distance, as stepping through the octree one position at a time. Any
+ * difference throws an exception. Also prints the number of nodes and bytes
+ * used by each.
+ */
+public class VoxelDagCheck {
+
+	private final static int LEVELS = 7;
+	private final static int BLOCK = 32;
+
+	public static void main(String[] args) {
+		SparseVoxelOctree octree = new SparseVoxelOctree(LEVELS);
+		int size = octree.getSize();
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (arch(x % BLOCK, y % BLOCK, z % BLOCK)) {
+						octree.setPresence(x, y, z, true);
+					}
+				}
+			}
+		}
+		VoxelDag dag = new VoxelDag(octree);
+
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (dag.getPresence(x, y, z) != octree.getPresence(x, y, z)) {
+						throw new IllegalStateException("Presence differs at (" + x + ", " + y + ", " + z + ")");
+					}
+				}
+				for (int x = -63; x < size; x += 7) {
+					if (dag.getRow(x, y, z) != octree.getRow(x, y, z)) {
+						throw new IllegalStateException("Row differs at (" + x + ", " + y + ", " + z + ")");
+					}
+				}
+			}
+		}
+
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			int x = random.nextInt(size + 16) - 8;
+			int y = random.nextInt(size + 16) - 8;
+			int z = random.nextInt(size + 16) - 8;
+			int w = random.nextInt(12);
+			if (dag.anyPresent(x, y, z, x + w, y + w, z + w) != octree.anyPresent(x, y, z, x + w, y + w, z + w)) {
+				throw new IllegalStateException("Any present differs at (" + x + ", " + y + ", " + z + ") size " + w);
+			}
+		}
+		System.out.println("OK - presence, rows and boxes match");
+
+		Vector3iDefault hit = new Vector3iDefault();
+		Vector3iDefault expectedHit = new Vector3iDefault();
+		int hits = 0;
+		for (int i = 0; i < 20000; i++) {
+			//Origins in and around the grid, in any direction
+			float ox = random.nextFloat() * (size + 40) - 20;
+			float oy = random.nextFloat() * (size + 40) - 20;
+			float oz = random.nextFloat() * (size + 40) - 20;
+			float dx = random.nextFloat() * 2 - 1;
+			float dy = random.nextFloat() * 2 - 1;
+			float dz = random.nextFloat() * 2 - 1;
+			float maxDistance = random.nextFloat() * 2 * size;
+			float expected = march(octree, ox, oy, oz, dx, dy, dz, maxDistance, expectedHit);
+			float actual = dag.raycast(ox, oy, oz, dx, dy, dz, maxDistance, hit);
+			if ((expected < 0) != (actual < 0)) {
+				throw new IllegalStateException("Ray " + i + " hit differs, expected " + expected + ", got " + actual);
+			}
+			if (expected >= 0) {
+				if (Math.abs(expected - actual) > 1e-3f
+						|| hit.getX() != expectedHit.getX() || hit.getY() != expectedHit.getY() || hit.getZ() != expectedHit.getZ()) {
+					throw new IllegalStateException("Ray " + i + " hit differs, expected " + expectedHit + " at " + expected
+							+ ", got " + hit + " at " + actual);
+				}
+				hits++;
+			}
+		}
+		System.out.println("OK - 20000 rays match, " + hits + " hits");
+		System.out.println("Octree " + octree.getNodeCount() + " nodes (" + octree.getNodeCount() * 6 + " bytes), DAG "
+				+ dag.getNodeCount() + " nodes (" + dag.getDataBytes() + " bytes)");
+	}
+
+	/**
+	 * An arch within a block, with two pillars joined at the top, and
+	 * the opening between them curved
+	 */
+	private static boolean arch(int x, int y, int z) {
+		if (x < 2 || x > 29 || y < 8 || y > 23 || z > 27) return false;
+		float dx = x - 15.5f;
+		return dx * dx + z * z >= 12 * 12;
+	}
+
+	/**
+	 * Trace a ray by stepping from each position it passes through
+	 * to the next, as a reference for {@link VoxelDag#raycast(float, float, float, float, float, float, float, Vector3iDefault)}
+	 */
+	private static float march(SparseVoxelOctree octree, float ox, float oy, float oz, float dx, float dy, float dz,
+			float maxDistance, Vector3iDefault hit) {
+		float[] o = new float[] {ox, oy, oz};
+		float[] d = new float[] {dx, dy, dz};
+		int size = octree.getSize();
+
+		//Find where the ray enters the grid
+		float t = 0;
+		float tExit = maxDistance;
+		for (int axis = 0; axis < 3; axis++) {
+			if (d[axis] == 0) {
+				if (o[axis] < 0 || o[axis] >= size) return -1;
+				continue;
+			}
+			float inverse = 1 / d[axis];
+			float a = (0 - o[axis]) * inverse;
+			float b = (size - o[axis]) * inverse;
+			t = Math.max(t, Math.min(a, b));
+			tExit = Math.min(tExit, Math.max(a, b));
+		}
+		if (t >= tExit) return -1;
+
+		int[] p = new int[3];
+		for (int axis = 0; axis < 3; axis++) {
+			float c = o[axis] + d[axis] * t;
+			p[axis] = (int)Math.floor(c);
+			if (d[axis] < 0 && p[axis] == c) p[axis]--;
+			p[axis] = Math.max(0, Math.min(size - 1, p[axis]));
+		}
+
+		while (t < tExit) {
+			if (octree.getPresence(p[0], p[1], p[2])) {
+				hit.set(p[0], p[1], p[2]);
+				return t;
+			}
+
+			//Step across the nearest boundary of the position
+			int next = -1;
+			float tNext = Float.POSITIVE_INFINITY;
+			for (int axis = 0; axis < 3; axis++) {
+				if (d[axis] == 0) continue;
+				int boundary = d[axis] > 0 ? p[axis] + 1 : p[axis];
+				float tAxis = (boundary - o[axis]) * (1 / d[axis]);
+				if (tAxis < tNext) {
+					tNext = tAxis;
+					next = axis;
+				}
+			}
+			t = tNext;
+			p[next] += d[next] > 0 ? 1 : -1;
+			if (p[next] < 0 || p[next] >= size) return -1;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.hexahedron.util;
+
+/**
+ * A hash map from primitive long keys to values, using open
+ * addressing with linear probing. Keys are never boxed, and
+ * entries use no objects beyond the key and value arrays, so
+ * lookups are cheap enough for per-position access.
+ *
+ * Entries can be visited without allocation by running through
+ * the slots from 0 to {@link #capacity()}-1, using {@link #valueAt(int)}
+ * (null for unused slots) and {@link #keyAt(int)}.
+ *
+ * Null values cannot be stored - putting null removes the key.
+ *
+ * @param <V>
+ * 		The type of values
+ */
+public class LongHashMap<V> {
+
+	private final static float MAX_LOAD = 0.6f;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	/**
+	 * Create an empty {@link LongHashMap}
+	 */
+	public LongHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty {@link LongHashMap}
+	 * @param expectedSize
+	 * 		The number of entries expected, the map
+	 * will not need to grow until this is exceeded
+	 */
+	public LongHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	/**
+	 * Mix the bits of a key, so that keys differing only in
+	 * high bits still spread over the slots
+	 */
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+
+	/**
+	 * Find the slot holding a key, or the empty slot where
+	 * it would be inserted
+	 */
+	private int slot(long key) {
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Get the value for a key
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		The value, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		return (V)values[slot(key)];
+	}
+
+	/**
+	 * Check for a value for a key
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		True iff there is a value for the key
+	 */
+	public boolean containsKey(long key) {
+		return values[slot(key)] != null;
+	}
+
+	/**
+	 * Set the value for a key
+	 * @param key
+	 * 		The key
+	 * @param value
+	 * 		The value, or null to remove the key
+	 * @return
+	 * 		The previous value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) return remove(key);
+
+		int slot = slot(key);
+		V previous = (V)values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (previous == null) {
+			size++;
+			if (size > MAX_LOAD * keys.length) {
+				grow();
+			}
+		}
+		return previous;
+	}
+
+	/**
+	 * Remove the value for a key
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		The removed value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = slot(key);
+		V previous = (V)values[slot];
+		if (previous == null) return null;
+
+		values[slot] = null;
+		size--;
+
+		//Move back any following entries that can no longer be found
+		//across the gap we have made, so that probing still works
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (values[next] != null) {
+			int home = hash(keys[next]) & mask;
+			//Entry can fill the gap if its home slot is not cyclically
+			//between the gap (exclusive) and its current slot (inclusive)
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+
+		return previous;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return
+	 * 		The number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * 		The number of slots, for visiting entries
+	 * with {@link #keyAt(int)} and {@link #valueAt(int)}
+	 */
+	public int capacity() {
+		return values.length;
+	}
+
+	/**
+	 * The key in a slot - only meaningful if {@link #valueAt(int)}
+	 * is not null for the slot
+	 * @param slot
+	 * 		The slot
+	 * @return
+	 * 		The key
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * The value in a slot
+	 * @param slot
+	 * 		The slot
+	 * @return
+	 * 		The value, or null if the slot is unused
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int slot) {
+		return (V)values[slot];
+	}
+
+}